@@ -0,0 +1,76 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.api;
+
+/**
+ * A {@link Validator} whose decisions may be remembered by the
+ * {@link ServiceLocator}.  When a validator implements this interface the
+ * result of a {@link Operation#LOOKUP} validation is remembered per
+ * candidate descriptor and injectee, and the validator is not called again
+ * for the same candidate and injectee until the set of validators or
+ * of descriptors in the locator changes.  Only the injectees of descriptors
+ * (and the null injectee) are remembered, lookups on behalf of any other
+ * {@link Injectee} are always validated.
+ * <p>
+ * A decision may only be remembered if it depends on nothing but the
+ * candidate, the injectee and the operation.  The filter is not part of what
+ * is remembered, so the decision must not depend on
+ * {@link ValidationInformation#getFilter()}: a result computed for one filter
+ * is returned for lookups with any other filter.  Nor may it depend on the
+ * thread or on the call frame of the caller.  Lookups done directly with the
+ * {@link ServiceLocator} API have a null injectee, and a validator whose
+ * decision for those depends on the caller should return false from
+ * {@link #isCacheable(ValidationInformation)} for them
+ * 
+ * @author jwells
+ *
+ */
+public interface CacheableValidator extends Validator {
+    /**
+     * Called after {@link #validate(ValidationInformation)} returned for the
+     * given information to determine whether or not its result may be
+     * remembered
+     * 
+     * @param info The information that was just validated
+     * @return true if the result of validating this information may be
+     * remembered and returned for the same candidate and injectee
+     */
+    public boolean isCacheable(ValidationInformation info);
+}
@@ -0,0 +1,82 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A {@link DescriptorFileFinder} may also implement this interface in
+ * order to give the contents of the hk2 inhabitant files as buffers,
+ * which allows them to be memory mapped and allows them to be in
+ * the binary form written by
+ * {@link org.glassfish.hk2.utilities.BinaryDescriptorFile}.  When a
+ * DescriptorFileFinder implements this interface the {@link Populator}
+ * will call {@link #findDescriptorFileBuffers()} rather than
+ * {@link DescriptorFileFinder#findDescriptorFiles()}.
+ * <p>
+ * If the finder also implements {@link DescriptorFileFinderInformation}
+ * then after this method has been called
+ * {@link DescriptorFileFinderInformation#getDescriptorFileInformation()}
+ * must correspond to the list of buffers
+ * <p>
+ * {@link org.glassfish.hk2.utilities.BinaryClasspathDescriptorFileFinder}
+ * is an implementation of this interface that finds the binary files
+ * on the classpath
+ * 
+ * @author jwells
+ *
+ */
+public interface DescriptorFileBufferFinder {
+    /**
+     * Returns the contents of the hk2 inhabitant files.  Each buffer
+     * holds one file, in either the text or the binary form, starting
+     * at the position of the buffer.  When both forms of the same file
+     * are available only one of them should be returned
+     * 
+     * @return A non-null (but possibly empty) list of buffers
+     * holding hk2 inhabitant files
+     * @throws IOException If there was an error finding or reading the hk2 inhabitant files
+     */
+    List<ByteBuffer> findDescriptorFileBuffers() throws IOException;
+
+}
@@ -94,6 +94,31 @@ public interface ImmediateController {
      */
     public void setThreadInactivityTimeout(long timeInMillis) throws IllegalArgumentException;
     
+    /**
+     * Returns true if newly added Immediate services are created in parallel
+     * 
+     * @return true if newly added Immediate services are created in parallel
+     * on the executor, false if they are created one after the other
+     */
+    public boolean isParallelActivation();
+    
+    /**
+     * Sets whether or not newly added Immediate services are created in parallel.
+     * By default they are created one after the other.  In parallel mode the
+     * injection points of the new services are examined to find which of them
+     * depend on which others, and the services whose dependencies have already
+     * been created are created at the same time on the executor (see
+     * {@link #setExecutor(Executor)}).  Services that find each other
+     * dynamically (for example with a {@link javax.inject.Provider} or by
+     * looking each other up in their postConstruct methods) are not known to
+     * depend on each other and may be created at the same time.  Services that
+     * are part of a dependency cycle are created one after the other
+     * 
+     * @param parallel true if newly added Immediate services should be
+     * created in parallel
+     */
+    public void setParallelActivation(boolean parallel);
+    
     /**
      * Returns the state the system is currently running under
      * 
@@ -55,6 +55,9 @@ public interface Populator {
     /**
      * This method can be used to populate the service locator with files that
      * have been written out using the {@link DescriptorImpl} writeObject method.
+     * If the fileFinder also implements {@link DescriptorFileBufferFinder} then the
+     * files are read from the buffers it returns, and files written by
+     * {@link org.glassfish.hk2.utilities.BinaryDescriptorFile} are also understood
      * 
      * @param fileFinder An object that finds files in the environment.  If this is null
      * then the system will look in the service locator for an implementation of
@@ -0,0 +1,111 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.internal;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.ImmediateErrorHandler;
+
+/**
+ * Creates a set of newly added Immediate services, either one
+ * after the other or in dependency order on an executor
+ * 
+ * @author jwells
+ *
+ */
+public class ImmediateActivator extends ParallelActivator {
+    private final List<ImmediateErrorHandler> errorHandlers;
+    
+    /**
+     * Creates an activator for the given set of Immediate services
+     * 
+     * @param locator The locator the services are in
+     * @param toActivate The Immediate services to create, in the order
+     * they would be created one after the other
+     * @param errorHandlers The handlers to tell about failures
+     */
+    public ImmediateActivator(ServiceLocator locator,
+            Collection<ActiveDescriptor<?>> toActivate,
+            List<ImmediateErrorHandler> errorHandlers) {
+        super(locator, toActivate);
+        
+        this.errorHandlers = errorHandlers;
+    }
+    
+    /**
+     * Creates the given Immediate service, telling the error
+     * handlers about any failure
+     * 
+     * @param locator The locator the service is in
+     * @param descriptor The Immediate service to create
+     * @param errorHandlers The handlers to tell about a failure
+     */
+    public static void activate(ServiceLocator locator,
+            ActiveDescriptor<?> descriptor,
+            List<ImmediateErrorHandler> errorHandlers) {
+        // Create demand
+        try {
+            locator.getServiceHandle(descriptor).getService();
+        }
+        catch (Throwable th) {
+            for (ImmediateErrorHandler ieh : errorHandlers) {
+                try {
+                    ieh.postConstructFailed(descriptor, th);
+                }
+                catch (Throwable th2) {
+                    // ignore
+                }
+            }
+            
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.internal.ParallelActivator#create(org.glassfish.hk2.api.ActiveDescriptor)
+     */
+    @Override
+    protected void create(ActiveDescriptor<?> descriptor) {
+        activate(locator, descriptor, errorHandlers);
+    }
+
+}
@@ -116,6 +116,7 @@ public class ImmediateHelper implements DynamicConfigurationListener, Runnable,
     private ImmediateServiceState currentState = ImmediateServiceState.SUSPENDED;
     private Executor currentExecutor = DEFAULT_EXECUTOR;
     private long decayTime = 20 * 1000;
+    private boolean parallelActivation;
     
     @Inject
     private ImmediateHelper(ServiceLocator serviceLocator, ImmediateContext immediateContext) {
@@ -223,6 +224,7 @@ public class ImmediateHelper implements DynamicConfigurationListener, Runnable,
     @Override
     public void run() {
         for(;;) {
+            Executor activationExecutor;
             synchronized (queueLock) {
                 long decayTime = this.decayTime;
                 
@@ -251,9 +253,10 @@ public class ImmediateHelper implements DynamicConfigurationListener, Runnable,
                 }
                 
                 outstandingJob = false;
+                activationExecutor = parallelActivation ? currentExecutor : null;
             }
             
-            immediateContext.doWork();
+            immediateContext.doWork(activationExecutor);
         }
         
     }
@@ -309,6 +312,26 @@ public class ImmediateHelper implements DynamicConfigurationListener, Runnable,
         
     }
 
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ImmediateController#isParallelActivation()
+     */
+    @Override
+    public boolean isParallelActivation() {
+        synchronized (queueLock) {
+            return parallelActivation;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ImmediateController#setParallelActivation(boolean)
+     */
+    @Override
+    public void setParallelActivation(boolean parallel) {
+        synchronized (queueLock) {
+            parallelActivation = parallel;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.ImmediateController#getImmediateState()
      */
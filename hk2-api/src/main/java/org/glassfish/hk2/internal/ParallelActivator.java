@@ -0,0 +1,323 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Injectee;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceLocator;
+
+/**
+ * Creates a set of services in dependency order.  In parallel mode the
+ * injection dependencies between the services are found first (following
+ * injection points through services that are not in the set, but
+ * not through {@link javax.inject.Provider}s), and then every service whose
+ * dependencies in the set have all been created is created on the executor.
+ * The thread calling {@link #activateInParallel(Executor)} also creates
+ * services, so that all the services are created even if the executor
+ * never gets around to running the tasks given to it.  Services that
+ * are part of a dependency cycle are created at the end, one after
+ * the other on the calling thread, in the order they were given, so
+ * that the cycle is found and reported just as it would have been
+ * without parallel mode
+ * 
+ * @author jwells
+ *
+ */
+public abstract class ParallelActivator {
+    /** The locator the services are in */
+    protected final ServiceLocator locator;
+    private final Map<ActiveDescriptor<?>, Node> nodes = new LinkedHashMap<ActiveDescriptor<?>, Node>();
+    
+    /** All fields below are protected by this */
+    private final LinkedList<Node> ready = new LinkedList<Node>();
+    private int remaining;
+    private int inProgress;
+    
+    /**
+     * Creates an activator for the given set of services
+     * 
+     * @param locator The locator the services are in
+     * @param toActivate The services to create, in the order
+     * they would be created one after the other
+     */
+    protected ParallelActivator(ServiceLocator locator,
+            Collection<ActiveDescriptor<?>> toActivate) {
+        this.locator = locator;
+        
+        for (ActiveDescriptor<?> descriptor : toActivate) {
+            nodes.put(descriptor, new Node(descriptor));
+        }
+    }
+    
+    /**
+     * Creates one of the services.  May be called on any thread,
+     * and must not throw
+     * 
+     * @param descriptor The service to create
+     */
+    protected abstract void create(ActiveDescriptor<?> descriptor);
+    
+    /**
+     * Creates all of the services, using the given executor to create
+     * independent services at the same time.  Returns once all of the
+     * services have been created (or have failed)
+     * 
+     * @param executor The executor to create the services on, may not be null
+     * @throws MultiException if the calling thread is interrupted while waiting
+     * for the services to be created, in which case the interrupt status of
+     * the thread is set again
+     */
+    public void activateInParallel(Executor executor) {
+        for (Node node : nodes.values()) {
+            for (ActiveDescriptor<?> dependency : getDependencies(node.descriptor)) {
+                Node dependencyNode = nodes.get(dependency);
+                
+                if (dependencyNode.dependents.add(node)) {
+                    node.unmetDependencies++;
+                }
+            }
+        }
+        
+        int initiallyReady;
+        synchronized (this) {
+            remaining = nodes.size();
+            
+            for (Node node : nodes.values()) {
+                if (node.unmetDependencies == 0) {
+                    ready.add(node);
+                }
+            }
+            
+            initiallyReady = ready.size();
+        }
+        
+        // One less than the number ready since this thread also does work
+        for (int lcv = 1; lcv < initiallyReady; lcv++) {
+            schedule(executor);
+        }
+        
+        for (;;) {
+            Node next;
+            synchronized (this) {
+                while (ready.isEmpty() && remaining > 0 && inProgress > 0) {
+                    try {
+                        this.wait();
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        
+                        throw new MultiException(ie);
+                    }
+                }
+                
+                if (remaining == 0) return;
+                
+                if (ready.isEmpty()) {
+                    // Nothing ready and nothing in progress, so the rest are in a cycle
+                    break;
+                }
+                
+                next = ready.removeFirst();
+                inProgress++;
+            }
+            
+            runNode(next, executor);
+        }
+        
+        for (Node node : nodes.values()) {
+            if (node.done) continue;
+            
+            create(node.descriptor);
+        }
+    }
+    
+    private void schedule(final Executor executor) {
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Node next;
+                    synchronized (ParallelActivator.this) {
+                        if (ready.isEmpty()) return;
+                        
+                        next = ready.removeFirst();
+                        inProgress++;
+                    }
+                    
+                    runNode(next, executor);
+                }
+                
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            // The calling thread of activateInParallel will create it
+        }
+    }
+    
+    private void runNode(Node node, Executor executor) {
+        int newlyReady = 0;
+        try {
+            create(node.descriptor);
+        }
+        finally {
+            synchronized (this) {
+                node.done = true;
+                inProgress--;
+                remaining--;
+                
+                for (Node dependent : node.dependents) {
+                    dependent.unmetDependencies--;
+                    if (dependent.unmetDependencies == 0) {
+                        ready.add(dependent);
+                        newlyReady++;
+                    }
+                }
+                
+                this.notifyAll();
+            }
+        }
+        
+        for (int lcv = 0; lcv < newlyReady; lcv++) {
+            schedule(executor);
+        }
+    }
+    
+    /**
+     * Finds the services being activated that the given service
+     * will cause to be created when it is created
+     * 
+     * @param root The service to find the dependencies of
+     * @return The services being activated that root depends on,
+     * not including root itself
+     */
+    private Set<ActiveDescriptor<?>> getDependencies(ActiveDescriptor<?> root) {
+        Set<ActiveDescriptor<?>> retVal = new HashSet<ActiveDescriptor<?>>();
+        
+        HashSet<ActiveDescriptor<?>> visited = new HashSet<ActiveDescriptor<?>>();
+        LinkedList<ActiveDescriptor<?>> toVisit = new LinkedList<ActiveDescriptor<?>>();
+        toVisit.add(root);
+        
+        while (!toVisit.isEmpty()) {
+            ActiveDescriptor<?> current = toVisit.removeFirst();
+            if (!visited.add(current)) continue;
+            
+            for (ActiveDescriptor<?> dependency : getDirectDependencies(locator, current)) {
+                if (nodes.containsKey(dependency)) {
+                    // The dependencies of another one being activated are its own edges
+                    if (!dependency.equals(root)) {
+                        retVal.add(dependency);
+                    }
+                    
+                    continue;
+                }
+                
+                toVisit.add(dependency);
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns the services that will be injected into the given service.
+     * Injection points that cannot be resolved are skipped, as the failure
+     * will be reported when the service is created
+     * 
+     * @param locator The locator to resolve the injection points with
+     * @param descriptor The service whose injection points should be resolved
+     * @return The services injected into the given service, in injection
+     * point order (may be empty but will not be null)
+     */
+    public static List<ActiveDescriptor<?>> getDirectDependencies(ServiceLocator locator, ActiveDescriptor<?> descriptor) {
+        List<ActiveDescriptor<?>> retVal = new LinkedList<ActiveDescriptor<?>>();
+        
+        List<Injectee> injectees;
+        try {
+            if (!descriptor.isReified()) {
+                descriptor = locator.reifyDescriptor(descriptor);
+            }
+            
+            injectees = descriptor.getInjectees();
+        }
+        catch (Throwable th) {
+            return retVal;
+        }
+        
+        for (Injectee injectee : injectees) {
+            ActiveDescriptor<?> dependency;
+            try {
+                dependency = locator.getInjecteeDescriptor(injectee);
+            }
+            catch (Throwable th) {
+                continue;
+            }
+            
+            if (dependency == null) continue;
+            
+            retVal.add(dependency);
+        }
+        
+        return retVal;
+    }
+    
+    private static class Node {
+        private final ActiveDescriptor<?> descriptor;
+        private final Set<Node> dependents = new HashSet<Node>();
+        private int unmetDependencies;
+        private boolean done;
+        
+        private Node(ActiveDescriptor<?> descriptor) {
+            this.descriptor = descriptor;
+        }
+    }
+
+}
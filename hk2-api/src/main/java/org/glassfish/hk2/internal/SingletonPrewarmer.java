@@ -0,0 +1,162 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import javax.inject.Singleton;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceLocator;
+
+/**
+ * Creates all of the {@link Singleton} services that a set of services
+ * depend on (directly or through other services), including the services
+ * themselves if they are Singletons.  Services are created bottom-up,
+ * so the time recorded for each service does not include the time it
+ * took to create its Singleton dependencies
+ * 
+ * @author jwells
+ *
+ */
+public class SingletonPrewarmer extends ParallelActivator implements Callable<Map<ActiveDescriptor<?>, Long>> {
+    private final Executor executor;
+    
+    /** All fields below are protected by this */
+    private final Map<ActiveDescriptor<?>, Long> timings = new LinkedHashMap<ActiveDescriptor<?>, Long>();
+    private final List<Throwable> errors = new LinkedList<Throwable>();
+    
+    /**
+     * Creates a prewarmer for the Singleton services the given services depend on
+     * 
+     * @param locator The locator the services are in
+     * @param roots The services whose Singleton dependencies should be created
+     * @param executor The executor to create the services on, may not be null
+     */
+    public SingletonPrewarmer(ServiceLocator locator,
+            Collection<ActiveDescriptor<?>> roots,
+            Executor executor) {
+        super(locator, getSingletons(locator, roots));
+        
+        this.executor = executor;
+    }
+    
+    /**
+     * Finds all of the Singletons reachable by injection from the roots
+     * 
+     * @param locator The locator to resolve injection points with
+     * @param roots The services to start from
+     * @return The Singletons found, in the order they were found
+     */
+    private static Set<ActiveDescriptor<?>> getSingletons(ServiceLocator locator, Collection<ActiveDescriptor<?>> roots) {
+        Set<ActiveDescriptor<?>> retVal = new LinkedHashSet<ActiveDescriptor<?>>();
+        
+        HashSet<ActiveDescriptor<?>> visited = new HashSet<ActiveDescriptor<?>>();
+        LinkedList<ActiveDescriptor<?>> toVisit = new LinkedList<ActiveDescriptor<?>>(roots);
+        
+        while (!toVisit.isEmpty()) {
+            ActiveDescriptor<?> current = toVisit.removeFirst();
+            if (!visited.add(current)) continue;
+            
+            if (Singleton.class.getName().equals(current.getScope())) {
+                retVal.add(current);
+            }
+            
+            toVisit.addAll(getDirectDependencies(locator, current));
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Creates the Singletons, returning how long each one took
+     * 
+     * @return The time in nanoseconds it took to create each
+     * Singleton, in the order they were created
+     * @throws MultiException if any of the Singletons could not be created
+     */
+    @Override
+    public Map<ActiveDescriptor<?>, Long> call() throws MultiException {
+        activateInParallel(executor);
+        
+        synchronized (this) {
+            if (!errors.isEmpty()) {
+                throw new MultiException(errors);
+            }
+            
+            return Collections.unmodifiableMap(new LinkedHashMap<ActiveDescriptor<?>, Long>(timings));
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.internal.ParallelActivator#create(org.glassfish.hk2.api.ActiveDescriptor)
+     */
+    @Override
+    protected void create(ActiveDescriptor<?> descriptor) {
+        long start = System.nanoTime();
+        try {
+            locator.getServiceHandle(descriptor).getService();
+        }
+        catch (Throwable th) {
+            synchronized (this) {
+                errors.add(th);
+            }
+            
+            return;
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            timings.put(descriptor, elapsed);
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.glassfish.hk2.api.DescriptorFileBufferFinder;
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * This is a {@link ClasspathDescriptorFileFinder} that will also use
+ * the binary form of the descriptor files written by
+ * {@link BinaryDescriptorFile}.  The binary form of a file (the name
+ * of the file with {@link BinaryDescriptorFile#BINARY_SUFFIX} appended)
+ * is used in preference to the text form found at the same location,
+ * and binary files found in a directory are memory mapped.
+ * <p>
+ * The binary files are only written by the generators when asked
+ * to do so, and this finder should only be used when the binary files
+ * are known to have been generated along with the text files they sit
+ * next to.  A binary file that was not regenerated when its text file
+ * was (for example after jar files have been merged) is still preferred
+ * by this finder
+ * 
+ * @author jwells
+ *
+ */
+public class BinaryClasspathDescriptorFileFinder extends ClasspathDescriptorFileFinder
+        implements DescriptorFileBufferFinder {
+    private final ClassLoader classLoader;
+    private final String names[];
+    private final ArrayList<String> identifiers = new ArrayList<String>();
+    private boolean buffersFound = false;
+    
+    /**
+     * Finds the HK2 descriptor files named META-INF/hk2-locator/default
+     * using the classloader of this class
+     */
+    public BinaryClasspathDescriptorFileFinder() {
+        this(BinaryClasspathDescriptorFileFinder.class.getClassLoader(), DEFAULT_NAME);
+    }
+    
+    /**
+     * Finds the HK2 descriptor files named META-INF/hk2-locator/default
+     * using the given classloader
+     * 
+     * @param cl May not be null and must be the classloader to use when
+     * searching for HK2 descriptor files
+     */
+    public BinaryClasspathDescriptorFileFinder(ClassLoader cl) {
+        this(cl, DEFAULT_NAME);
+    }
+    
+    /**
+     * Finds the HK2 descriptor files named META-INF/hk2-locator/name
+     * using the given classloader
+     *  
+     * @param cl May not be null and must be the classloader to use when
+     * searching for HK2 descriptor files
+     * @param names May not be null and must be the name of the files to
+     * search for in the META-INF/hk2-locator directory
+     */
+    public BinaryClasspathDescriptorFileFinder(ClassLoader cl, String... names) {
+        super(cl, names);
+        
+        this.classLoader = cl;
+        this.names = names;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.utilities.ClasspathDescriptorFileFinder#findDescriptorFiles()
+     */
+    @Override
+    public List<InputStream> findDescriptorFiles() throws IOException {
+        buffersFound = false;
+        
+        return super.findDescriptorFiles();
+    }
+    
+    /**
+     * Finds the same files as {@link #findDescriptorFiles()}, but uses
+     * the binary form of a file whenever it is found next to the text form
+     */
+    @Override
+    public List<ByteBuffer> findDescriptorFileBuffers() throws IOException {
+        buffersFound = true;
+        identifiers.clear();
+        
+        ArrayList<ByteBuffer> returnList = new ArrayList<ByteBuffer>();
+        
+        for (String name : names) {
+            LinkedHashMap<String, URL> binaries = new LinkedHashMap<String, URL>();
+            
+            Enumeration<URL> e = classLoader.getResources(RESOURCE_BASE + name + BinaryDescriptorFile.BINARY_SUFFIX);
+            for (; e.hasMoreElements();) {
+                URL url = e.nextElement();
+                
+                binaries.put(url.toString(), url);
+            }
+            
+            e = classLoader.getResources(RESOURCE_BASE + name);
+            for (; e.hasMoreElements();) {
+                URL url = e.nextElement();
+                
+                URL binary = binaries.remove(url.toString() + BinaryDescriptorFile.BINARY_SUFFIX);
+                addBuffer((binary != null) ? binary : url, name, returnList);
+            }
+            
+            // Binary files with no text form next to them
+            for (URL binary : binaries.values()) {
+                addBuffer(binary, name, returnList);
+            }
+        }
+        
+        return returnList;
+    }
+    
+    private void addBuffer(URL url, String name, List<ByteBuffer> returnList) throws IOException {
+        if (DEBUG_DESCRIPTOR_FINDER) {
+            Logger.getLogger().debug("Adding in URL to set being parsed: " + url + " from " + RESOURCE_BASE+name);
+        }
+        try {
+            identifiers.add(url.toURI().toString());
+        }
+        catch (URISyntaxException e1) {
+            throw new IOException(e1);
+        }
+        
+        ByteBuffer buffer;
+        try {
+            buffer = readBuffer(url);
+        }
+        catch (IOException ioe) {
+            if (DEBUG_DESCRIPTOR_FINDER) {
+                Logger.getLogger().debug("IOException for url " + url, ioe);
+            }
+            throw ioe;
+        }
+        catch (Throwable th) {
+            if (DEBUG_DESCRIPTOR_FINDER) {
+                Logger.getLogger().debug("Unexpected exception for url " + url, th);
+            }
+            throw new IOException(th);
+        }
+        
+        returnList.add(buffer);
+    }
+    
+    private static ByteBuffer readBuffer(URL url) throws IOException, URISyntaxException {
+        if ("file".equals(url.getProtocol()) && url.getPath().endsWith(BinaryDescriptorFile.BINARY_SUFFIX)) {
+            File file = new File(url.toURI());
+            
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                
+                // The mapping stays valid after the file is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally {
+                raf.close();
+            }
+        }
+        
+        InputStream inputStream = url.openStream();
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            
+            byte buffer[] = new byte[4096];
+            int len;
+            while ((len = inputStream.read(buffer)) > 0) {
+                baos.write(buffer, 0, len);
+            }
+            
+            return ByteBuffer.wrap(baos.toByteArray());
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+    
+    /**
+     * Returns the identifiers of the files found by whichever of
+     * {@link #findDescriptorFiles()} or {@link #findDescriptorFileBuffers()}
+     * was called last
+     */
+    @Override
+    public List<String> getDescriptorFileInformation() {
+        if (buffersFound) return identifiers;
+        
+        return super.getDescriptorFileInformation();
+    }
+    
+    public String toString() {
+        return "BinaryClasspathDescriptorFileFinder(" + classLoader + "," + Arrays.toString(names) + "," + System.identityHashCode(this) + ")";
+    }
+
+}
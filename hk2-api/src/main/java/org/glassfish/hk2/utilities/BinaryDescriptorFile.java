@@ -0,0 +1,377 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.glassfish.hk2.api.ClassAnalyzer;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DescriptorType;
+import org.glassfish.hk2.api.DescriptorVisibility;
+import org.glassfish.hk2.api.PerLookup;
+
+/**
+ * Reads and writes the binary form of the hk2-locator descriptor files.
+ * The binary form holds the same information as the text form written by
+ * {@link DescriptorImpl#writeObject(java.io.PrintWriter)}, but every
+ * string is stored only once in a string table at the start of the file
+ * and descriptors refer to strings by index.  Reading it back therefore
+ * needs no parsing, and descriptors share the String instances of the
+ * table.
+ * <p>
+ * The file is laid out in big endian order as follows:
+ * <pre>
+ * int      magic (0x484B3242, "HK2B")
+ * int      version
+ * int      number of strings
+ *   int    length of the UTF-8 bytes of the string
+ *   byte[] the UTF-8 bytes of the string
+ * int      number of descriptors
+ *   int    implementation (string index, -1 for none)
+ *   int    name (string index, -1 for none)
+ *   int    scope (string index)
+ *   int    class analysis name (string index, -1 for the default)
+ *   int    rank
+ *   byte   flags (descriptor type, visibility, proxiable and proxyForSameScope)
+ *   int    number of contracts, followed by their string indexes
+ *   int    number of qualifiers, followed by their string indexes
+ *   int    number of metadata keys
+ *     int  key (string index)
+ *     int  number of values, followed by their string indexes
+ * </pre>
+ * 
+ * @author jwells
+ *
+ */
+public class BinaryDescriptorFile {
+    /** The suffix added to the name of a text descriptor file to get the name of its binary form */
+    public final static String BINARY_SUFFIX = ".bin";
+    
+    private final static int MAGIC = 0x484B3242;
+    private final static int VERSION = 1;
+    private final static int NONE = -1;
+    
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final static int PROVIDE_METHOD_FLAG = 0x01;
+    private final static int LOCAL_FLAG = 0x02;
+    private final static int PROXIABLE_SET_FLAG = 0x04;
+    private final static int PROXIABLE_FLAG = 0x08;
+    private final static int PROXY_FOR_SAME_SCOPE_SET_FLAG = 0x10;
+    private final static int PROXY_FOR_SAME_SCOPE_FLAG = 0x20;
+    
+    private BinaryDescriptorFile() {}
+    
+    /**
+     * Returns true if the given buffer starts with the binary
+     * descriptor file magic number.  The position of the buffer
+     * is not changed
+     * 
+     * @param buffer The non-null buffer to check
+     * @return true if the buffer holds a binary descriptor file
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) return false;
+        
+        return buffer.getInt(buffer.position()) == MAGIC;
+    }
+    
+    /**
+     * Writes the given descriptors in the binary form.  The descriptors
+     * read back from the output are the same as those that would be read
+     * back from the text form
+     * 
+     * @param descriptors The non-null descriptors to write
+     * @param out The non-null stream to write to.  It is flushed but not closed
+     * @throws IOException on failure
+     */
+    public static void write(List<? extends Descriptor> descriptors, OutputStream out) throws IOException {
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (Descriptor descriptor : descriptors) {
+            intern(strings, descriptor.getImplementation());
+            intern(strings, descriptor.getName());
+            intern(strings, getScope(descriptor));
+            intern(strings, getAnalysisName(descriptor));
+            
+            for (String contract : getContracts(descriptor)) {
+                intern(strings, contract);
+            }
+            for (String qualifier : descriptor.getQualifiers()) {
+                intern(strings, qualifier);
+            }
+            for (Map.Entry<String, List<String>> entry : descriptor.getMetadata().entrySet()) {
+                intern(strings, entry.getKey());
+                for (String value : entry.getValue()) {
+                    intern(strings, value);
+                }
+            }
+        }
+        
+        DataOutputStream dos = new DataOutputStream(out);
+        
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        
+        dos.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            byte bytes[] = string.getBytes(UTF8);
+            
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+        
+        dos.writeInt(descriptors.size());
+        for (Descriptor descriptor : descriptors) {
+            dos.writeInt(indexOf(strings, descriptor.getImplementation()));
+            dos.writeInt(indexOf(strings, descriptor.getName()));
+            dos.writeInt(indexOf(strings, getScope(descriptor)));
+            dos.writeInt(indexOf(strings, getAnalysisName(descriptor)));
+            dos.writeInt(descriptor.getRanking());
+            dos.writeByte(getFlags(descriptor));
+            
+            writeIndexes(dos, strings, getContracts(descriptor));
+            writeIndexes(dos, strings, descriptor.getQualifiers());
+            
+            Map<String, List<String>> metadata = descriptor.getMetadata();
+            dos.writeInt(metadata.size());
+            for (Map.Entry<String, List<String>> entry : metadata.entrySet()) {
+                dos.writeInt(indexOf(strings, entry.getKey()));
+                writeIndexes(dos, strings, entry.getValue());
+            }
+        }
+        
+        dos.flush();
+    }
+    
+    /**
+     * Reads the descriptors from the given buffer, which must hold
+     * a binary descriptor file starting at its position.  The position
+     * of the buffer is not changed
+     * 
+     * @param buffer The non-null buffer to read from, which may be
+     * a memory mapped buffer
+     * @return The descriptors found in the buffer, in the order they were written
+     * @throws IOException if the buffer does not hold a valid binary descriptor file
+     */
+    public static List<DescriptorImpl> read(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("The buffer does not hold a binary descriptor file");
+            }
+            
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown binary descriptor file version " + version +
+                        ", only version " + VERSION + " is supported");
+            }
+            
+            String strings[] = new String[checkCount(in, in.getInt())];
+            for (int lcv = 0; lcv < strings.length; lcv++) {
+                byte bytes[] = new byte[checkCount(in, in.getInt())];
+                in.get(bytes);
+                
+                strings[lcv] = new String(bytes, UTF8);
+            }
+            
+            int numDescriptors = checkCount(in, in.getInt());
+            ArrayList<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>(numDescriptors);
+            for (int lcv = 0; lcv < numDescriptors; lcv++) {
+                retVal.add(readDescriptor(in, strings));
+            }
+            
+            return retVal;
+        }
+        catch (BufferUnderflowException bue) {
+            throw new IOException("The binary descriptor file is truncated", bue);
+        }
+    }
+    
+    private static DescriptorImpl readDescriptor(ByteBuffer in, String strings[]) throws IOException {
+        DescriptorImpl retVal = new DescriptorImpl();
+        
+        retVal.setImplementation(getString(strings, in.getInt()));
+        retVal.setName(getString(strings, in.getInt()));
+        retVal.setScope(getString(strings, in.getInt()));
+        retVal.setClassAnalysisName(getString(strings, in.getInt()));
+        retVal.setRanking(in.getInt());
+        
+        int flags = in.get();
+        if ((flags & PROVIDE_METHOD_FLAG) != 0) retVal.setDescriptorType(DescriptorType.PROVIDE_METHOD);
+        if ((flags & LOCAL_FLAG) != 0) retVal.setDescriptorVisibility(DescriptorVisibility.LOCAL);
+        if ((flags & PROXIABLE_SET_FLAG) != 0) {
+            retVal.setProxiable((flags & PROXIABLE_FLAG) != 0);
+        }
+        if ((flags & PROXY_FOR_SAME_SCOPE_SET_FLAG) != 0) {
+            retVal.setProxyForSameScope((flags & PROXY_FOR_SAME_SCOPE_FLAG) != 0);
+        }
+        
+        int numContracts = checkCount(in, in.getInt());
+        for (int lcv = 0; lcv < numContracts; lcv++) {
+            retVal.addAdvertisedContract(getString(strings, in.getInt()));
+        }
+        
+        int numQualifiers = checkCount(in, in.getInt());
+        for (int lcv = 0; lcv < numQualifiers; lcv++) {
+            retVal.addQualifier(getString(strings, in.getInt()));
+        }
+        
+        int numKeys = checkCount(in, in.getInt());
+        for (int lcv = 0; lcv < numKeys; lcv++) {
+            String key = getString(strings, in.getInt());
+            
+            int numValues = checkCount(in, in.getInt());
+            for (int lcv2 = 0; lcv2 < numValues; lcv2++) {
+                retVal.addMetadata(key, getString(strings, in.getInt()));
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private static String getString(String strings[], int index) throws IOException {
+        if (index == NONE) return null;
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid string index " + index + " in binary descriptor file with " +
+                    strings.length + " strings");
+        }
+        
+        return strings[index];
+    }
+    
+    /**
+     * Guards against allocating huge arrays because of a corrupt count
+     */
+    private static int checkCount(ByteBuffer in, int count) throws IOException {
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Invalid count " + count + " in binary descriptor file");
+        }
+        
+        return count;
+    }
+    
+    /**
+     * The text form does not write a PerLookup scope and reads a missing scope as PerLookup
+     */
+    private static String getScope(Descriptor descriptor) {
+        String scope = descriptor.getScope();
+        if (scope == null) return PerLookup.class.getName();
+        
+        return scope;
+    }
+    
+    /**
+     * The text form does not write the default analysis name and reads it back as null
+     */
+    private static String getAnalysisName(Descriptor descriptor) {
+        String analysisName = descriptor.getClassAnalysisName();
+        if (ClassAnalyzer.DEFAULT_IMPLEMENTATION_NAME.equals(analysisName)) return null;
+        
+        return analysisName;
+    }
+    
+    /**
+     * The text form reads a descriptor without contracts as advertising its implementation
+     */
+    private static Set<String> getContracts(Descriptor descriptor) {
+        Set<String> contracts = descriptor.getAdvertisedContracts();
+        if (contracts.isEmpty() && descriptor.getImplementation() != null) {
+            return Collections.singleton(descriptor.getImplementation());
+        }
+        
+        return contracts;
+    }
+    
+    private static int getFlags(Descriptor descriptor) {
+        int flags = 0;
+        
+        if (DescriptorType.PROVIDE_METHOD.equals(descriptor.getDescriptorType())) flags |= PROVIDE_METHOD_FLAG;
+        if (DescriptorVisibility.LOCAL.equals(descriptor.getDescriptorVisibility())) flags |= LOCAL_FLAG;
+        
+        Boolean proxiable = descriptor.isProxiable();
+        if (proxiable != null) {
+            flags |= PROXIABLE_SET_FLAG;
+            if (proxiable.booleanValue()) flags |= PROXIABLE_FLAG;
+        }
+        
+        Boolean proxyForSameScope = descriptor.isProxyForSameScope();
+        if (proxyForSameScope != null) {
+            flags |= PROXY_FOR_SAME_SCOPE_SET_FLAG;
+            if (proxyForSameScope.booleanValue()) flags |= PROXY_FOR_SAME_SCOPE_FLAG;
+        }
+        
+        return flags;
+    }
+    
+    private static void intern(Map<String, Integer> strings, String string) {
+        if (string == null || strings.containsKey(string)) return;
+        
+        strings.put(string, strings.size());
+    }
+    
+    private static int indexOf(Map<String, Integer> strings, String string) {
+        if (string == null) return NONE;
+        
+        return strings.get(string);
+    }
+    
+    private static void writeIndexes(DataOutputStream dos, Map<String, Integer> strings,
+            Collection<String> values) throws IOException {
+        dos.writeInt(values.size());
+        for (String value : values) {
+            dos.writeInt(indexOf(strings, value));
+        }
+    }
+
+}
@@ -60,6 +60,7 @@ import org.glassfish.hk2.api.DescriptorType;
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.ImplementationFilter;
 import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.Metadata;
 import org.glassfish.hk2.api.MultiException;
@@ -72,6 +73,7 @@ import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.internal.ActiveDescriptorBuilderImpl;
 import org.glassfish.hk2.internal.ConstantActiveDescriptor;
 import org.glassfish.hk2.internal.DescriptorBuilderImpl;
+import org.glassfish.hk2.internal.ImplementationFilterImpl;
 import org.glassfish.hk2.internal.IndexedFilterImpl;
 import org.glassfish.hk2.internal.SpecificFilterImpl;
 import org.glassfish.hk2.internal.StarFilter;
@@ -107,6 +109,22 @@ public class BuilderHelper {
         return new IndexedFilterImpl(null, name);
     }
     
+    /**
+     * Returns a filter that will return all descriptors that have the
+     * given implementation and are of the given type.  The locator keeps
+     * an index of descriptors by implementation, so this filter does not
+     * look at every descriptor
+     * 
+     * @param implementation The non-null implementation to look for
+     * @param type The type of descriptor to look for, or null for any type
+     * @return The filter that can be used to calls to ServiceLocator methods
+     */
+    public static ImplementationFilter createImplementationFilter(String implementation, DescriptorType type) {
+        if (implementation == null) throw new IllegalArgumentException();
+        
+        return new ImplementationFilterImpl(implementation, type);
+    }
+    
     /**
      * Returns an indexed filter that will return all descriptors that
      * have the given name and given contract
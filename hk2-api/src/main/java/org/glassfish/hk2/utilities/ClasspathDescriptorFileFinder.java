@@ -63,7 +63,7 @@ import org.glassfish.hk2.utilities.reflection.Logger;
  */
 public class ClasspathDescriptorFileFinder implements DescriptorFileFinder, DescriptorFileFinderInformation {
     private final static String DEBUG_DESCRIPTOR_FINDER_PROPERTY = "org.jvnet.hk2.properties.debug.descriptor.file.finder";
-    private final static boolean DEBUG_DESCRIPTOR_FINDER = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+    final static boolean DEBUG_DESCRIPTOR_FINDER = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
         @Override
         public Boolean run() {
             return Boolean.parseBoolean(System.getProperty(DEBUG_DESCRIPTOR_FINDER_PROPERTY, "false"));
@@ -71,7 +71,7 @@ public class ClasspathDescriptorFileFinder implements DescriptorFileFinder, Desc
             
     });
     
-    private final static String DEFAULT_NAME = "default";
+    final static String DEFAULT_NAME = "default";
 
     private final ClassLoader classLoader;
     private final String names[];
@@ -45,7 +45,6 @@ import java.util.Set;
 
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DescriptorType;
-import org.glassfish.hk2.api.Filter;
 import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.PopulatorPostProcessor;
@@ -112,8 +111,8 @@ public class DuplicatePostProcessor implements PopulatorPostProcessor {
     	}
     }
     
-    private DescriptorImpl implementationOnly(ServiceLocator serviceLocator, final DescriptorImpl descriptorImpl) {
-    	final String impl = descriptorImpl.getImplementation();
+    private DescriptorImpl implementationOnly(ServiceLocator serviceLocator, DescriptorImpl descriptorImpl) {
+    	String impl = descriptorImpl.getImplementation();
     	if (impl == null) return descriptorImpl;
     	
     	ImplOnlyKey key = new ImplOnlyKey(descriptorImpl);
@@ -123,18 +122,8 @@ public class DuplicatePostProcessor implements PopulatorPostProcessor {
     	}
     	implOnlyDupSet.add(key);
     	
-    	if (serviceLocator.getBestDescriptor(new Filter() {
-
-			@Override
-			public boolean matches(Descriptor d) {
-				if (d.getImplementation().equals(impl) && d.getDescriptorType().equals(descriptorImpl.getDescriptorType())) {
-					return true;
-				}
-				
-				return false;
-			}
-    		
-    	}) != null) {
+    	if (serviceLocator.getBestDescriptor(BuilderHelper.createImplementationFilter(
+    	        impl, descriptorImpl.getDescriptorType())) != null) {
     		return null;
     	}
     	
@@ -0,0 +1,307 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The superclass of the injectors generated at build time by the
+ * hk2-metadata-generator for &#64;Service classes.  A generated injector
+ * is both the class analysis of its implementation class and the code
+ * that injects it.  It describes the producer constructor, the initializer
+ * fields and methods and the postConstruct and preDestroy methods of the
+ * class, so that the locator need not scan the members of the class
+ * in order to find them.  It also calls the members that are accessible
+ * from the package of the implementation class directly rather than
+ * through reflection
+ * <p>
+ * The name of the generated injector is put into the metadata of the
+ * descriptor of the service under the {@link #METADATA_KEY} key.  The
+ * locator only uses the generated injector when the service uses the
+ * default {@link org.glassfish.hk2.api.ClassAnalyzer} and when
+ * {@link javax.inject.Inject} is the only injection annotation in the locator,
+ * otherwise the class is analyzed at runtime as usual
+ * <p>
+ * Initializer methods are given the indexes 0 through n-1 in the order
+ * they were added.  The postConstruct method, if any, has index n and the
+ * preDestroy method, if any, follows it.  Fields are given the indexes 0
+ * through m-1 in the order they were added.  Only members that are direct
+ * are ever set or invoked through the generated injector
+ * 
+ * @author jwells
+ *
+ */
+public abstract class GeneratedServiceInjector {
+    /**
+     * The metadata key under which the binary name of the generated injector
+     * of a service is stored in the descriptor of that service
+     */
+    public final static String METADATA_KEY = "__GeneratedInjector";
+    
+    /** The suffix added to the name of the implementation class to get the name of its generated injector */
+    public final static String CLASS_SUFFIX = "__Hk2Injector";
+    
+    private final Class<?> implementationClass;
+    private final boolean constructorDirect;
+    private final Class<?> constructorParameters[];
+    private final List<InjectedMember> fields = new ArrayList<InjectedMember>();
+    private final List<InjectedMember> initializerMethods = new ArrayList<InjectedMember>();
+    private InjectedMember postConstructMethod;
+    private InjectedMember preDestroyMethod;
+    
+    /**
+     * Creates the analysis of the given implementation class
+     * 
+     * @param implementationClass The non-null class this injector injects
+     * @param constructorDirect true if {@link #construct(Object[])} may be called
+     * @param constructorParameters The parameter types of the producer constructor
+     */
+    protected GeneratedServiceInjector(Class<?> implementationClass,
+            boolean constructorDirect,
+            Class<?>... constructorParameters) {
+        this.implementationClass = implementationClass;
+        this.constructorDirect = constructorDirect;
+        this.constructorParameters = constructorParameters;
+    }
+    
+    /**
+     * Adds an initializer field
+     * 
+     * @param declaringClass The class the field is declared in
+     * @param name The name of the field
+     * @param direct true if {@link #setField(int, Object, Object)} may be called for this field
+     */
+    protected void addField(Class<?> declaringClass, String name, boolean direct) {
+        fields.add(new InjectedMember(declaringClass, name, direct, new Class<?>[0]));
+    }
+    
+    /**
+     * Adds an initializer method
+     * 
+     * @param declaringClass The class the method is declared in
+     * @param name The name of the method
+     * @param direct true if {@link #invoke(int, Object, Object[])} may be called for this method
+     * @param parameters The parameter types of the method
+     */
+    protected void addInitializerMethod(Class<?> declaringClass, String name, boolean direct, Class<?>... parameters) {
+        initializerMethods.add(new InjectedMember(declaringClass, name, direct, parameters));
+    }
+    
+    /**
+     * Sets the postConstruct method, which takes no parameters
+     * 
+     * @param declaringClass The class the method is declared in
+     * @param name The name of the method
+     * @param direct true if {@link #invoke(int, Object, Object[])} may be called for this method
+     */
+    protected void setPostConstructMethod(Class<?> declaringClass, String name, boolean direct) {
+        postConstructMethod = new InjectedMember(declaringClass, name, direct, new Class<?>[0]);
+    }
+    
+    /**
+     * Sets the preDestroy method, which takes no parameters
+     * 
+     * @param declaringClass The class the method is declared in
+     * @param name The name of the method
+     * @param direct true if {@link #invoke(int, Object, Object[])} may be called for this method
+     */
+    protected void setPreDestroyMethod(Class<?> declaringClass, String name, boolean direct) {
+        preDestroyMethod = new InjectedMember(declaringClass, name, direct, new Class<?>[0]);
+    }
+    
+    /**
+     * @return The class this injector injects
+     */
+    public Class<?> getImplementationClass() {
+        return implementationClass;
+    }
+    
+    /**
+     * @return true if the producer constructor may be called with {@link #construct(Object[])}
+     */
+    public boolean isConstructorDirect() {
+        return constructorDirect;
+    }
+    
+    /**
+     * @return A copy of the parameter types of the producer constructor
+     */
+    public Class<?>[] getConstructorParameters() {
+        return constructorParameters.clone();
+    }
+    
+    /**
+     * @return The initializer fields, in index order
+     */
+    public List<InjectedMember> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+    
+    /**
+     * @return The initializer methods, in index order
+     */
+    public List<InjectedMember> getInitializerMethods() {
+        return Collections.unmodifiableList(initializerMethods);
+    }
+    
+    /**
+     * @return The postConstruct method, or null if there is none
+     */
+    public InjectedMember getPostConstructMethod() {
+        return postConstructMethod;
+    }
+    
+    /**
+     * @return The index of the postConstruct method, or -1 if there is none
+     */
+    public int getPostConstructIndex() {
+        if (postConstructMethod == null) return -1;
+        return initializerMethods.size();
+    }
+    
+    /**
+     * @return The preDestroy method, or null if there is none
+     */
+    public InjectedMember getPreDestroyMethod() {
+        return preDestroyMethod;
+    }
+    
+    /**
+     * @return The index of the preDestroy method, or -1 if there is none
+     */
+    public int getPreDestroyIndex() {
+        if (preDestroyMethod == null) return -1;
+        return initializerMethods.size() + ((postConstructMethod == null) ? 0 : 1);
+    }
+    
+    /**
+     * Calls the producer constructor of the implementation class.  Only
+     * called if {@link #isConstructorDirect()} returns true, injectors
+     * whose constructor is not direct do not override this method
+     * 
+     * @param args The arguments to the constructor, in order
+     * @return The newly created instance
+     * @throws Throwable Anything thrown by the constructor, unwrapped
+     */
+    public Object construct(Object args[]) throws Throwable {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Sets the direct field with the given index
+     * 
+     * @param index The index of the field
+     * @param target The non-null instance to set the field on
+     * @param value The value to set into the field
+     * @throws Throwable If the value is not of the correct type
+     */
+    public abstract void setField(int index, Object target, Object value) throws Throwable;
+    
+    /**
+     * Invokes the direct method with the given index
+     * 
+     * @param index The index of the method
+     * @param target The non-null instance to invoke the method on
+     * @param args The arguments to the method, in order
+     * @throws Throwable Anything thrown by the method, unwrapped
+     */
+    public abstract void invoke(int index, Object target, Object args[]) throws Throwable;
+    
+    @Override
+    public String toString() {
+        return getClass().getName() + "(" + implementationClass.getName() + "," + System.identityHashCode(this) + ")";
+    }
+    
+    /**
+     * A field or method of the implementation class known to the
+     * generated injector
+     * 
+     * @author jwells
+     *
+     */
+    public static class InjectedMember {
+        private final Class<?> declaringClass;
+        private final String name;
+        private final boolean direct;
+        private final Class<?> parameters[];
+        
+        private InjectedMember(Class<?> declaringClass, String name, boolean direct, Class<?> parameters[]) {
+            this.declaringClass = declaringClass;
+            this.name = name;
+            this.direct = direct;
+            this.parameters = parameters;
+        }
+        
+        /**
+         * @return The class in which this member is declared
+         */
+        public Class<?> getDeclaringClass() {
+            return declaringClass;
+        }
+        
+        /**
+         * @return The name of this member
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return true if the generated injector sets or invokes this member
+         */
+        public boolean isDirect() {
+            return direct;
+        }
+        
+        /**
+         * @return A copy of the parameter types of this member, empty for fields
+         */
+        public Class<?>[] getParameters() {
+            return parameters.clone();
+        }
+        
+        @Override
+        public String toString() {
+            return "InjectedMember(" + declaringClass.getName() + "," + name + "," + direct + ")";
+        }
+    }
+}
@@ -47,6 +47,7 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -61,6 +62,7 @@ import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.internal.HandleAndService;
+import org.glassfish.hk2.internal.ImmediateActivator;
 import org.glassfish.hk2.internal.ImmediateLocalLocatorFilter;
 
 /**
@@ -258,7 +260,23 @@ public class ImmediateContext implements Context<Immediate>{
         return validationFilter;
     }
     
+    /**
+     * Destroys the Immediate services that have been removed and creates
+     * the ones that have been added, one after the other
+     */
     public void doWork() {
+        doWork(null);
+    }
+    
+    /**
+     * Destroys the Immediate services that have been removed and creates
+     * the ones that have been added
+     * 
+     * @param executor If not null the added services that do not depend on
+     * each other are created in parallel on this executor.  If null they are
+     * created one after the other on the calling thread
+     */
+    public void doWork(Executor executor) {
         List<ActiveDescriptor<?>> inScopeAndInThisLocator = getImmediateServices();
         
         List<ImmediateErrorHandler> errorHandlers;
@@ -308,23 +326,13 @@ public class ImmediateContext implements Context<Immediate>{
             }
         }
         
+        if (executor != null && addMe.size() > 1) {
+            new ImmediateActivator(locator, addMe, errorHandlers).activateInParallel(executor);
+            return;
+        }
+        
         for (ActiveDescriptor<?> ad : addMe) {
-            // Create demand
-            try {
-                locator.getServiceHandle(ad).getService();
-            }
-            catch (Throwable th) {
-                for (ImmediateErrorHandler ieh : errorHandlers) {
-                    try {
-                        ieh.postConstructFailed(ad, th);
-                    }
-                    catch (Throwable th2) {
-                        // ignore
-                    }
-                }
-                
-            }
-            
+            ImmediateActivator.activate(locator, ad, errorHandlers);
         }
     }
 
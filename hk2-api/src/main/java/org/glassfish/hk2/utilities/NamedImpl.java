@@ -73,6 +73,27 @@ public class NamedImpl extends AnnotationLiteral<Named> implements Named {
         return name;
     }
     
+    /**
+     * Named has a single member, so equality can be decided without
+     * the reflection done by {@link AnnotationLiteral#equals(Object)}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof Named)) return false;
+
+        return name.equals(((Named) o).value());
+    }
+
+    /**
+     * The hash code as defined by {@link java.lang.annotation.Annotation#hashCode()},
+     * computed without the reflection done by {@link AnnotationLiteral#hashCode()}
+     */
+    @Override
+    public int hashCode() {
+        return (127 * "value".hashCode()) ^ name.hashCode();
+    }
+    
     public String toString() {
         return "@Named(" + name + ")";
     }
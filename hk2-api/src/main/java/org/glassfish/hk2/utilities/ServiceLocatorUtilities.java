@@ -47,10 +47,15 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Singleton;
 
@@ -79,6 +84,8 @@ import org.glassfish.hk2.api.ImmediateController.ImmediateServiceState;
 import org.glassfish.hk2.internal.ImmediateHelper;
 import org.glassfish.hk2.internal.InheritableThreadContext;
 import org.glassfish.hk2.internal.PerThreadContext;
+import org.glassfish.hk2.internal.SingletonPrewarmer;
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 
 /**
  * This is a set of useful utilities for working with {@link ServiceLocator}.
@@ -765,6 +772,101 @@ public abstract class ServiceLocatorUtilities {
         return retVal.getService();
     }
 
+    /**
+     * Creates ahead of time all of the {@link Singleton} services that the services
+     * with the given contracts depend on, directly or through other services, including
+     * the services themselves if they are Singletons.  The dependencies are found by
+     * following the injection points of the services (but not through
+     * {@link javax.inject.Provider}s), and the Singletons are then created bottom-up,
+     * with Singletons that do not depend on each other created at the same time on
+     * the given executor.  Singletons that are part of a dependency cycle are created
+     * one after the other so that the cycle is reported as it normally would be
+     * <p>
+     * The executor may be any executor, such as a
+     * {@link java.util.concurrent.ForkJoinPool}.  The returned future completes when all
+     * of the Singletons have been created.  If any of them failed to be created
+     * {@link Future#get()} throws an {@link java.util.concurrent.ExecutionException}
+     * whose cause is a {@link MultiException} with all of the failures
+     *
+     * @param locator The non-null locator the services are in
+     * @param executor The non-null executor to create the services on.  If the
+     * executor rejects the work the services are created on the calling thread
+     * @param contracts The contracts of the services whose Singletons should be created
+     * @return A future whose value is the time in nanoseconds it took to create each
+     * Singleton, in the order they were created.  The time for each Singleton does not
+     * include the time taken to create the Singletons it depends on
+     */
+    public static Future<Map<ActiveDescriptor<?>, Long>> prewarmSingletons(ServiceLocator locator,
+            Executor executor, Type... contracts) {
+        if (locator == null || executor == null || contracts == null) throw new IllegalArgumentException();
+
+        LinkedHashSet<ActiveDescriptor<?>> roots = new LinkedHashSet<ActiveDescriptor<?>>();
+        for (Type contract : contracts) {
+            Class<?> rawClass = ReflectionHelper.getRawClass(contract);
+            if (rawClass == null) throw new IllegalArgumentException("Unknown contract type " + contract);
+
+            roots.addAll(locator.getDescriptors(BuilderHelper.createContractFilter(rawClass.getName())));
+        }
+
+        return prewarm(locator, executor, roots);
+    }
+
+    /**
+     * Creates ahead of time all of the {@link Singleton} services that the given
+     * services depend on, directly or through other services, including the
+     * services themselves if they are Singletons.  This works exactly like
+     * {@link #prewarmSingletons(ServiceLocator, Executor, Type...)} except that
+     * the services to start from are given as descriptors
+     *
+     * @param locator The non-null locator the services are in
+     * @param executor The non-null executor to create the services on.  If the
+     * executor rejects the work the services are created on the calling thread
+     * @param descriptors The services whose Singletons should be created.  Descriptors
+     * that are not {@link ActiveDescriptor}s are found with
+     * {@link #findOneDescriptor(ServiceLocator, Descriptor)}
+     * @return A future whose value is the time in nanoseconds it took to create each
+     * Singleton, in the order they were created.  The time for each Singleton does not
+     * include the time taken to create the Singletons it depends on
+     * @throws IllegalArgumentException if one of the descriptors is not in the locator
+     */
+    public static Future<Map<ActiveDescriptor<?>, Long>> prewarmSingletons(ServiceLocator locator,
+            Executor executor, Descriptor... descriptors) {
+        if (locator == null || executor == null || descriptors == null) throw new IllegalArgumentException();
+
+        LinkedHashSet<ActiveDescriptor<?>> roots = new LinkedHashSet<ActiveDescriptor<?>>();
+        for (Descriptor descriptor : descriptors) {
+            ActiveDescriptor<?> root;
+            if (descriptor instanceof ActiveDescriptor) {
+                root = (ActiveDescriptor<?>) descriptor;
+            }
+            else {
+                root = findOneDescriptor(locator, descriptor);
+                if (root == null) {
+                    throw new IllegalArgumentException("Could not find descriptor " + descriptor + " in locator " + locator);
+                }
+            }
+
+            roots.add(root);
+        }
+
+        return prewarm(locator, executor, roots);
+    }
+
+    private static Future<Map<ActiveDescriptor<?>, Long>> prewarm(ServiceLocator locator,
+            Executor executor, Set<ActiveDescriptor<?>> roots) {
+        FutureTask<Map<ActiveDescriptor<?>, Long>> retVal = new FutureTask<Map<ActiveDescriptor<?>, Long>>(
+                new SingletonPrewarmer(locator, roots, executor));
+
+        try {
+            executor.execute(retVal);
+        }
+        catch (RejectedExecutionException ree) {
+            retVal.run();
+        }
+
+        return retVal;
+    }
+
     /**
      * Gets one value from a metadata field from the given descriptor
      *
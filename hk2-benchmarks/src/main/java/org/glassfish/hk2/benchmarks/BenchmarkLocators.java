@@ -0,0 +1,100 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.benchmarks;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+
+/**
+ * Creates the locators shared by the benchmarks
+ * 
+ * @author jwells
+ *
+ */
+final class BenchmarkLocators {
+    private BenchmarkLocators() {
+    }
+    
+    /**
+     * Creates an empty locator with a generated name
+     * 
+     * @param parent The parent of the new locator, may be null
+     * @return A new locator with only the default services in it
+     */
+    static ServiceLocator createEmpty(ServiceLocator parent) {
+        return ServiceLocatorFactory.getInstance().create(null, parent);
+    }
+    
+    /**
+     * Creates a locator with a generated name holding all of the
+     * services of the benchmarks
+     * 
+     * @param parent The parent of the new locator, may be null
+     * @return A new locator with the benchmark services in it
+     */
+    static ServiceLocator createWithServices(ServiceLocator parent) {
+        ServiceLocator retVal = createEmpty(parent);
+        
+        ServiceLocatorUtilities.addClasses(retVal,
+                SingletonService.class,
+                PerLookupService.class,
+                BlueService.class,
+                RedService.class,
+                GreenService.class,
+                StringRepository.class,
+                IntegerRepository.class,
+                ColorCollector.class);
+        
+        return retVal;
+    }
+    
+    /**
+     * Shuts down and removes the given locator
+     * 
+     * @param locator The locator to destroy, may be null
+     */
+    static void destroy(ServiceLocator locator) {
+        if (locator == null) return;
+        
+        ServiceLocatorFactory.getInstance().destroy(locator);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups from the leaf of a chain of locators where
+ * all of the services are in the root.  A depth of zero looks
+ * up directly in the root.  The contended variants run the
+ * same lookups from several threads at once; use the JMH -t
+ * option for other thread counts
+ * 
+ * @author jwells
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchyBenchmark {
+    private final static int CONTENDED_THREADS = 4;
+    
+    @Param({ "0", "1", "4", "16" })
+    private int depth;
+    
+    private final List<ServiceLocator> chain = new ArrayList<ServiceLocator>();
+    private ServiceLocator leaf;
+    
+    @Setup
+    public void setup() {
+        leaf = BenchmarkLocators.createWithServices(null);
+        chain.add(leaf);
+        
+        for (int lcv = 0; lcv < depth; lcv++) {
+            leaf = BenchmarkLocators.createEmpty(leaf);
+            chain.add(leaf);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        for (int lcv = chain.size() - 1; lcv >= 0; lcv--) {
+            BenchmarkLocators.destroy(chain.get(lcv));
+        }
+        chain.clear();
+    }
+    
+    @Benchmark
+    public SingletonService getSingletonFromLeaf() {
+        return leaf.getService(SingletonService.class);
+    }
+    
+    @Benchmark
+    public List<Colored> getAllServicesFromLeaf() {
+        return leaf.getAllServices(Colored.class);
+    }
+    
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public SingletonService getSingletonFromLeafContended() {
+        return leaf.getService(SingletonService.class);
+    }
+    
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public List<Colored> getAllServicesFromLeafContended() {
+        return leaf.getAllServices(Colored.class);
+    }
+
+}
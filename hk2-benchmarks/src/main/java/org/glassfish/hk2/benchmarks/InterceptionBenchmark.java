@@ -0,0 +1,110 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a call to a method intercepted by a chain of interceptors, run
+ * by the compiled interceptor chains and by the reflective chain.  The
+ * chain used is chosen by a system property read once per JVM, so each
+ * is measured in its own fork
+ * 
+ * @author jwells
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptionBenchmark {
+    private final static String COMPILE_PROPERTY = "org.jvnet.hk2.properties.interceptors.compile";
+    
+    private ServiceLocator locator;
+    private InterceptedService intercepted;
+    private int value;
+    
+    @Setup
+    public void setup() {
+        locator = BenchmarkLocators.createEmpty(null);
+        
+        ServiceLocatorUtilities.addClasses(locator,
+                BenchmarkInterceptionService.class,
+                InterceptedService.class);
+        
+        intercepted = locator.getService(InterceptedService.class);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkLocators.destroy(locator);
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + COMPILE_PROPERTY + "=true")
+    public int compiledChain() {
+        value = intercepted.increment(value);
+        return value;
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + COMPILE_PROPERTY + "=false")
+    public int reflectiveChain() {
+        value = intercepted.increment(value);
+        return value;
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.DescriptorFileBufferFinder;
+import org.glassfish.hk2.api.DescriptorFileFinder;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link org.glassfish.hk2.api.Populator#populate(DescriptorFileFinder, org.glassfish.hk2.api.PopulatorPostProcessor...)}
+ * of a synthetic inhabitant file into an empty locator.  The file is
+ * given either as text in an InputStream, as text in a ByteBuffer or in the
+ * binary form in a ByteBuffer.  A new locator is created for every
+ * invocation (outside of the measurement)
+ * 
+ * @author jwells
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PopulateBenchmark {
+    private final static String SYNTHETIC_PACKAGE = "com.acme.synthetic.";
+    private final static String TEXT = "text";
+    private final static String TEXT_BUFFER = "textBuffer";
+    private final static String BINARY = "binary";
+    
+    @Param({ "10", "100", "1000" })
+    private int descriptors;
+    
+    @Param({ TEXT, TEXT_BUFFER, BINARY })
+    private String format;
+    
+    private byte[] fileBytes;
+    private ServiceLocator locator;
+    
+    /**
+     * Creates descriptors that look like those of a typical
+     * generated inhabitant file.  The classes do not exist,
+     * which is fine since populate never loads them
+     * 
+     * @param count The number of descriptors to create
+     * @return The synthetic descriptors
+     */
+    static List<DescriptorImpl> createSyntheticDescriptors(int count) {
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>(count);
+        
+        for (int lcv = 0; lcv < count; lcv++) {
+            DescriptorImpl di = new DescriptorImpl();
+            
+            di.setImplementation(SYNTHETIC_PACKAGE + "Service" + lcv);
+            di.addAdvertisedContract(SYNTHETIC_PACKAGE + "Service" + lcv);
+            di.addAdvertisedContract(SYNTHETIC_PACKAGE + "Contract" + (lcv % 10));
+            di.setScope(Singleton.class.getName());
+            if ((lcv % 2) == 0) {
+                di.setName("Service" + lcv);
+            }
+            di.addMetadata("index", Integer.toString(lcv));
+            
+            retVal.add(di);
+        }
+        
+        return retVal;
+    }
+    
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        List<DescriptorImpl> synthetic = createSyntheticDescriptors(descriptors);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (BINARY.equals(format)) {
+            BinaryDescriptorFile.write(synthetic, baos);
+        }
+        else {
+            PrintWriter pw = new PrintWriter(baos);
+            for (DescriptorImpl di : synthetic) {
+                di.writeObject(pw);
+            }
+            pw.close();
+        }
+        
+        fileBytes = baos.toByteArray();
+    }
+    
+    @Setup(Level.Invocation)
+    public void createLocator() {
+        locator = BenchmarkLocators.createEmpty(null);
+    }
+    
+    @TearDown(Level.Invocation)
+    public void destroyLocator() {
+        BenchmarkLocators.destroy(locator);
+        locator = null;
+    }
+    
+    @Benchmark
+    public List<ActiveDescriptor<?>> populate() throws IOException {
+        DescriptorFileFinder finder = TEXT.equals(format) ?
+                new StreamFinder(fileBytes) :
+                new BufferFinder(fileBytes);
+        
+        return locator.getService(DynamicConfigurationService.class).getPopulator().populate(finder);
+    }
+    
+    private static class StreamFinder implements DescriptorFileFinder {
+        private final byte[] bytes;
+        
+        private StreamFinder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public List<InputStream> findDescriptorFiles() throws IOException {
+            return Collections.<InputStream>singletonList(new ByteArrayInputStream(bytes));
+        }
+        
+    }
+    
+    private static class BufferFinder implements DescriptorFileFinder, DescriptorFileBufferFinder {
+        private final byte[] bytes;
+        
+        private BufferFinder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public List<InputStream> findDescriptorFiles() throws IOException {
+            return Collections.<InputStream>singletonList(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public List<ByteBuffer> findDescriptorFileBuffers() throws IOException {
+            return Collections.singletonList(ByteBuffer.wrap(bytes));
+        }
+        
+    }
+
+}
@@ -61,6 +61,7 @@ public class HK2InhabitantGeneratorTask extends Task {
     private boolean noswap = false;
     private Path classpath = null;
     private boolean includeDate = true;
+    private boolean binary = false;
     
     public void setTargetDirectory(File targetDirectory) {
         this.targetDirectory = targetDirectory;
@@ -86,6 +87,10 @@ public class HK2InhabitantGeneratorTask extends Task {
         this.includeDate = includeDate;
     }
     
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+    
     public void addClasspath(Path classpath) {
         this.classpath = classpath;
     }
@@ -111,6 +116,10 @@ public class HK2InhabitantGeneratorTask extends Task {
             args.add(HabitatGenerator.NO_DATE_ARG);
         }
         
+        if (binary) {
+            args.add(HabitatGenerator.BINARY_ARG);
+        }
+        
         if (locator != null) {
             args.add(HabitatGenerator.LOCATOR_ARG);
             args.add(locator);
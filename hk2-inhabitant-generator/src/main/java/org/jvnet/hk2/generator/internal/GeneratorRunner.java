@@ -70,6 +70,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
 import org.glassfish.hk2.utilities.DescriptorImpl;
 
 /**
@@ -90,6 +91,7 @@ public class GeneratorRunner {
     private final boolean noSwap;
     private final String outputDirectory;  // Not used in the JAR case
     private final boolean includeDate;
+    private final boolean binary;
     private final boolean outJarIsInJar;
 
     /**
@@ -104,6 +106,7 @@ public class GeneratorRunner {
      * @param noSwap true if this run should NOT swap files (faster but riskier)
      * @param outputDirectory The directory where the file should go
      * @param includeDate Whether or not the output file should include a date
+     * @param binary Whether or not the binary form of the output file should also be written
      */
     public GeneratorRunner(String fileOrDirectory,
             String outjarName,
@@ -112,7 +115,8 @@ public class GeneratorRunner {
             String searchPath,
             boolean noSwap,
             String outputDirectory,
-            boolean includeDate) {
+            boolean includeDate,
+            boolean binary) {
         this.fileOrDirectory = fileOrDirectory;
         this.outjarName = outjarName;
         this.locatorName = locatorName;
@@ -121,6 +125,7 @@ public class GeneratorRunner {
         this.outputDirectory = outputDirectory;
         utilities = new Utilities(verbose, searchPath);
         this.includeDate = includeDate;
+        this.binary = binary;
         outJarIsInJar = fileOrDirectory.equals(outjarName);
         
         if (verbose) {
@@ -241,6 +246,16 @@ public class GeneratorRunner {
                             " to " + outputFile.getAbsolutePath());
                 }
             }
+            
+            File binaryFile = new File(inhabitantsDir, targetHabitatName + BinaryDescriptorFile.BINARY_SUFFIX);
+            if (binary) {
+                writeBinaryFile(descriptors, binaryFile);
+            }
+            else if (binaryFile.exists() && !binaryFile.delete()) {
+                // A binary file that no longer matches the text file must not be left behind
+                throw new IOException("Could not delete existing binary inhabitant file " +
+                        binaryFile.getAbsolutePath());
+            }
 
         }
     }
@@ -268,8 +283,9 @@ public class GeneratorRunner {
             while (zentry != null) {
                 String entryName = zentry.getName();
             
-                if (entryName.equals(META_INF + "/" + INHABITANTS + "/" + locatorName)) {
-                    // Don't write out the old one
+                if (entryName.equals(META_INF + "/" + INHABITANTS + "/" + locatorName) ||
+                        entryName.equals(META_INF + "/" + INHABITANTS + "/" + locatorName + BinaryDescriptorFile.BINARY_SUFFIX)) {
+                    // Don't write out the old ones
                     zentry = zis.getNextEntry();
                     continue;
                 }
@@ -297,6 +313,12 @@ public class GeneratorRunner {
                 finally {
                     desc_os.close();
                 }
+                
+                if (binary) {
+                    zos.putNextEntry(new ZipEntry(META_INF + "/" + INHABITANTS + "/" + locatorName +
+                            BinaryDescriptorFile.BINARY_SUFFIX));
+                    zos.write(getBinaryBytes(descriptors));
+                }
             }
         }
         finally {
@@ -351,6 +373,17 @@ public class GeneratorRunner {
             bais = new ByteArrayInputStream(data);
             
             Files.copy(bais, locatorPath, StandardCopyOption.REPLACE_EXISTING);
+            
+            Path binaryPath = fileSystem.getPath("/" + META_INF, INHABITANTS,
+                    locatorName + BinaryDescriptorFile.BINARY_SUFFIX);
+            
+            if (binary) {
+                Files.copy(new ByteArrayInputStream(getBinaryBytes(descriptors)), binaryPath,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            else {
+                Files.deleteIfExists(binaryPath);
+            }
         }
         finally {
             if (bais != null) {
@@ -399,6 +432,27 @@ public class GeneratorRunner {
         return outFile;
     }
     
+    private void writeBinaryFile(List<DescriptorImpl> descriptors, File outFile) throws IOException {
+        if (verbose) {
+            System.out.println("Writing " + descriptors.size() + " entries to binary file " + outFile.getAbsolutePath());
+        }
+        
+        FileOutputStream fos = new FileOutputStream(outFile);
+        try {
+            BinaryDescriptorFile.write(descriptors, fos);
+        }
+        finally {
+            fos.close();
+        }
+    }
+    
+    private static byte[] getBinaryBytes(List<DescriptorImpl> descriptors) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryDescriptorFile.write(descriptors, baos);
+        
+        return baos.toByteArray();
+    }
+    
     private void writeHeader(PrintWriter writer) {
         writer.println("#");
         if (includeDate) {
@@ -51,6 +51,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -77,6 +78,7 @@ import org.glassfish.hk2.api.DescriptorType;
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.hk2.api.PerLookup;
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
 import org.glassfish.hk2.utilities.DescriptorImpl;
 import org.glassfish.hk2.utilities.general.GeneralUtilities;
 import org.junit.Before;
@@ -99,6 +101,7 @@ public class InhabitantsGeneratorTest {
     private final static String VERBOSE_ARGUMENT = "--verbose";
     private final static String NOSWAP_ARGUMENT = "--noswap";
     private final static String LOCATOR_ARGUMENT = "--locator";
+    private final static String BINARY_ARGUMENT = "--binary";
     private final static String CLASS_DIRECTORY = "gendir";
     private final static String NEGATIVE_CLASS_DIRECTORY = "negative";
     private final static String JAR_FILE = "gendir.jar";
@@ -740,6 +743,57 @@ public class InhabitantsGeneratorTest {
         }
     }
     
+    /**
+     * Tests that the binary form is only written into a directory when
+     * asked for, and that a binary form left by an earlier run is removed
+     * @throws IOException On failure
+     */
+    @Test // @org.junit.Ignore
+    public void testBinaryDirectoryGeneration() throws IOException {
+        String argv[] = new String[3];
+        
+        argv[0] = FILE_ARGUMENT;
+        argv[1] = gendirDirectory.getAbsolutePath();
+        argv[2] = BINARY_ARGUMENT;
+        
+        File defaultOutput = new File(inhabitantsDirectory, DEFAULT);
+        File binaryOutput = new File(inhabitantsDirectory, DEFAULT + BinaryDescriptorFile.BINARY_SUFFIX);
+        if (defaultOutput.exists()) {
+            // Start with a clean plate
+            Assert.assertTrue(defaultOutput.delete());
+        }
+        if (binaryOutput.exists()) {
+            Assert.assertTrue(binaryOutput.delete());
+        }
+        
+        try {
+            int result = HabitatGenerator.embeddedMain(argv);
+            Assert.assertEquals("Got error code: " + result, 0, result);
+            
+            Assert.assertTrue("did not generate " + binaryOutput.getAbsolutePath(),
+                    binaryOutput.exists());
+            
+            Set<DescriptorImpl> generatedImpls = new HashSet<DescriptorImpl>(BinaryDescriptorFile.read(
+                    ByteBuffer.wrap(Files.readAllBytes(binaryOutput.toPath()))));
+            
+            checkDescriptors(generatedImpls);
+            
+            // Without the argument the binary form no longer matches and must go
+            result = HabitatGenerator.embeddedMain(new String[] { FILE_ARGUMENT, gendirDirectory.getAbsolutePath() });
+            Assert.assertEquals("Got error code: " + result, 0, result);
+            
+            Assert.assertTrue("did not generate " + defaultOutput.getAbsolutePath(),
+                    defaultOutput.exists());
+            Assert.assertFalse("did not remove " + binaryOutput.getAbsolutePath(),
+                    binaryOutput.exists());
+        }
+        finally {
+            // The test should be clean
+            defaultOutput.delete();
+            binaryOutput.delete();
+        }
+    }
+    
     /**
      * Tests generating into a jar file
      * @throws IOException On failure
@@ -0,0 +1,166 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.external.runtime;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the lookup metrics gathered for one advertised
+ * contract of a ServiceLocator while lookup metrics were enabled
+ * (see {@link ServiceLocatorRuntimeBean#setLookupMetricsEnabled(boolean)}).
+ * The values are read from counters that are updated concurrently,
+ * so values read from the same snapshot may be off from each
+ * other by the lookups that were in flight when it was taken
+ * 
+ * @author jwells
+ *
+ */
+public interface ContractMetrics {
+    /**
+     * Returns the name of the contract these metrics are for
+     * 
+     * @return The fully qualified name of the contract
+     */
+    public String getContract();
+    
+    /**
+     * Returns the number of lookups of this contract, which
+     * includes lookups done in order to resolve injection points
+     * 
+     * @return The number of lookups of this contract
+     */
+    public long getLookupCount();
+    
+    /**
+     * Returns the number of lookups of this contract that were
+     * satisfied from the HK2 service cache
+     * 
+     * @return The number of lookups that hit the service cache
+     */
+    public long getCacheHitCount();
+    
+    /**
+     * Returns the number of lookups of this contract that had
+     * to compute their results because they were not in the
+     * HK2 service cache or because the cached results were stale
+     * 
+     * @return The number of lookups that missed the service cache
+     */
+    public long getCacheMissCount();
+    
+    /**
+     * Returns the fraction of lookups of this contract that were
+     * satisfied from the HK2 service cache
+     * 
+     * @return A value between 0 and 1, or 0 if there have been
+     * no lookups of this contract
+     */
+    public double getCacheHitRatio();
+    
+    /**
+     * Returns the number of times candidates for this contract
+     * were narrowed, which is the process of reifying, type checking,
+     * qualifier matching and validating the candidate descriptors
+     * 
+     * @return The number of times the candidates were narrowed
+     */
+    public long getNarrowCount();
+    
+    /**
+     * Returns the total time spent narrowing the candidates for
+     * this contract
+     * 
+     * @return The total narrowing time in nanoseconds
+     */
+    public long getNarrowTimeNanos();
+    
+    /**
+     * Returns a histogram of the time taken by each narrowing.
+     * Entry 0 counts narrowings that took no measurable time and
+     * entry i (for i greater than 0) counts narrowings that took
+     * at least 2<sup>i-1</sup> and less than 2<sup>i</sup>
+     * nanoseconds
+     * 
+     * @return A copy of the narrowing time histogram, which
+     * has 64 entries
+     */
+    public long[] getNarrowTimeHistogram();
+    
+    /**
+     * Returns the number of services advertising this contract
+     * that were created, keyed by the scope of the service
+     * 
+     * @return A map from the fully qualified name of the scope
+     * to the number of creations in that scope.  Will not
+     * return null, but may return an empty map
+     */
+    public Map<String, Long> getCreationCounts();
+    
+    /**
+     * Returns the total time spent creating services advertising this
+     * contract, keyed by the scope of the service
+     * 
+     * @return A map from the fully qualified name of the scope
+     * to the total creation time in nanoseconds.  Will not
+     * return null, but may return an empty map
+     */
+    public Map<String, Long> getCreationTimeNanos();
+    
+    /**
+     * Returns the number of times a
+     * {@link org.glassfish.hk2.api.JustInTimeInjectionResolver}
+     * was invoked for an injection point of this contract
+     * 
+     * @return The number of just in time resolver invocations
+     */
+    public long getJustInTimeResolutionCount();
+    
+    /**
+     * Returns the number of times a
+     * {@link org.glassfish.hk2.api.JustInTimeInjectionResolver}
+     * invoked for an injection point of this contract reported
+     * that it had added services
+     * 
+     * @return The number of just in time resolver invocations
+     * that added services
+     */
+    public long getJustInTimeModifiedCount();
+
+}
@@ -40,11 +40,17 @@
 package org.jvnet.hk2.external.runtime;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
+import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.Filter;
+import org.jvnet.hk2.internal.ClassPrefetcher;
 import org.jvnet.hk2.internal.DefaultClassAnalyzer;
 import org.jvnet.hk2.internal.DynamicConfigurationServiceImpl;
 import org.jvnet.hk2.internal.InstantiationServiceImpl;
@@ -94,5 +100,65 @@ public class Hk2LocatorUtilities {
         return NO_INITIAL_SERVICES_FILTER;
         
     }
+    
+    /**
+     * Returns a filter that only returns services that advertise one of
+     * the given contracts.  This can be used to choose the services whose
+     * classes should be loaded ahead of time with
+     * {@link #prefetchClasses(List, Filter, boolean, Executor)}
+     * from a profile recorded in an earlier run, such as the keys of
+     * {@link ServiceLocatorRuntimeBean#getContractMetrics()}
+     * 
+     * @param profile The fully qualified names of the contracts that were
+     * looked up.  May not be null
+     * @return A Filter that only returns services that advertise one of
+     * the contracts in the profile
+     */
+    public static Filter getLookupProfileFilter(Collection<String> profile) {
+        final Set<String> contracts = new HashSet<String>(profile);
+        
+        return new Filter() {
+
+            @Override
+            public boolean matches(Descriptor d) {
+                for (String contract : d.getAdvertisedContracts()) {
+                    if (contracts.contains(contract)) return true;
+                }
+                
+                return false;
+            }
+            
+        };
+    }
+    
+    /**
+     * Loads the implementation and contract classes of the given descriptors
+     * (usually the ones just returned from
+     * {@link org.glassfish.hk2.api.Populator#populate(org.glassfish.hk2.api.DescriptorFileFinder, org.glassfish.hk2.api.PopulatorPostProcessor...)})
+     * in the background, so that the first lookup of those services does not have to
+     * load them.  The classes are loaded with the {@link org.glassfish.hk2.api.HK2Loader}
+     * of each descriptor, exactly as they would be on lookup.  Descriptors with a
+     * higher rank are done first, and descriptors that are already reified are
+     * skipped.  Classes that cannot be loaded are ignored, since the failure
+     * will be reported when the service is looked up
+     * 
+     * @param descriptors The descriptors whose classes should be loaded.  May not be null
+     * @param selector Chooses which of the descriptors should have their classes loaded,
+     * for example by rank, by metadata or with {@link #getLookupProfileFilter(Collection)}.
+     * If null the classes of all of the descriptors are loaded
+     * @param initialize If true the classes are also initialized, which runs their
+     * static initializers on the background threads
+     * @param executor The executor on which the classes should be loaded.  If null the
+     * classes are loaded on low priority daemon threads, one less than the number of
+     * processors (but at least one).  If the executor rejects the work it is done on the calling thread
+     * @return A future that completes when all of the classes have been loaded, whose
+     * value is the number of classes that were loaded.  Will not return null
+     */
+    public static Future<Integer> prefetchClasses(List<ActiveDescriptor<?>> descriptors,
+            Filter selector,
+            boolean initialize,
+            Executor executor) {
+        return ClassPrefetcher.prefetch(descriptors, selector, initialize, executor);
+    }
 
 }
@@ -0,0 +1,99 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.external.runtime;
+
+/**
+ * A listener that is told about every event measured by the lookup
+ * metrics of a ServiceLocator while lookup metrics are enabled.  It
+ * is added with
+ * {@link ServiceLocatorRuntimeBean#addLookupMetricsListener(LookupMetricsListener)}.
+ * <p>
+ * The methods of this listener are called on the thread doing
+ * the lookup or creation, and in some cases while the ServiceLocator
+ * holds internal locks, so they must be quick and must not call
+ * back into the ServiceLocator.  Exceptions thrown by these methods
+ * are ignored
+ * 
+ * @author jwells
+ *
+ */
+public interface LookupMetricsListener {
+    /**
+     * Called after a lookup of the given contract
+     * 
+     * @param contract The fully qualified name of the contract looked up
+     * @param cacheHit true if the lookup was satisfied from the
+     * HK2 service cache
+     */
+    public void onLookup(String contract, boolean cacheHit);
+    
+    /**
+     * Called after the candidates for the given contract have
+     * been narrowed
+     * 
+     * @param contract The fully qualified name of the contract
+     * @param nanos The time taken to narrow the candidates
+     */
+    public void onNarrow(String contract, long nanos);
+    
+    /**
+     * Called after a service has been created, once for every
+     * contract the service advertises
+     * 
+     * @param contract The fully qualified name of an advertised contract
+     * of the created service
+     * @param scope The fully qualified name of the scope of the service
+     * @param nanos The time taken to create the service
+     */
+    public void onCreation(String contract, String scope, long nanos);
+    
+    /**
+     * Called after a
+     * {@link org.glassfish.hk2.api.JustInTimeInjectionResolver}
+     * was invoked for an injection point of the given contract
+     * 
+     * @param contract The fully qualified name of the contract of the
+     * injection point
+     * @param modified true if the resolver reported that it had
+     * added services
+     */
+    public void onJustInTimeResolution(String contract, boolean modified);
+
+}
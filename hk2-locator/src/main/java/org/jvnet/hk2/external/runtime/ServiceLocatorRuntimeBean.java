@@ -39,6 +39,8 @@
  */
 package org.jvnet.hk2.external.runtime;
 
+import java.util.Map;
+
 import org.jvnet.hk2.annotations.Contract;
 
 /**
@@ -125,5 +127,87 @@ public interface ServiceLocatorRuntimeBean {
      * until the cache can be built back up
      */
     public void clearReflectionCache();
+    
+    /**
+     * Returns true if this ServiceLocator is gathering
+     * per-contract lookup metrics.  Lookup metrics are off
+     * by default, unless the system property
+     * org.jvnet.hk2.properties.lookupMetrics is set to true
+     * 
+     * @return true if lookup metrics are being gathered
+     */
+    public boolean isLookupMetricsEnabled();
+    
+    /**
+     * Turns the gathering of per-contract lookup metrics on or off.
+     * Turning the metrics on starts them from zero.  While on, every
+     * lookup, narrowing, service creation and just in time resolution
+     * is counted and timed, which adds a small cost to each of them
+     * 
+     * @param enabled true if lookup metrics should be gathered
+     */
+    public void setLookupMetricsEnabled(boolean enabled);
+    
+    /**
+     * Returns a snapshot of the lookup metrics gathered since
+     * lookup metrics were last enabled or cleared
+     * 
+     * @return A map from the fully qualified name of the contract to
+     * the metrics of that contract.  Will not return null, but will return
+     * an empty map if lookup metrics are not enabled
+     */
+    public Map<String, ContractMetrics> getContractMetrics();
+    
+    /**
+     * Sets all of the lookup metrics back to zero
+     */
+    public void clearContractMetrics();
+    
+    /**
+     * Adds a listener that is told about every event measured
+     * by the lookup metrics.  The listener is only called while
+     * lookup metrics are enabled
+     * 
+     * @param listener The non-null listener to add
+     */
+    public void addLookupMetricsListener(LookupMetricsListener listener);
+    
+    /**
+     * Removes a listener previously added with
+     * {@link #addLookupMetricsListener(LookupMetricsListener)}
+     * 
+     * @param listener The listener to remove
+     * @return true if the listener had been added and was removed
+     */
+    public boolean removeLookupMetricsListener(LookupMetricsListener listener);
+    
+    /**
+     * Freezes this ServiceLocator.  Once frozen the set of descriptors
+     * of this ServiceLocator can no longer be changed, and any attempt to
+     * commit a DynamicConfiguration or change the ranking of a descriptor
+     * will throw an IllegalStateException.  In exchange the ServiceLocator
+     * resolves, once and while being frozen, the unqualified lookups of every
+     * contract class of its reified descriptors, and afterwards answers those
+     * lookups from that table without going through its caches.  The state
+     * of a frozen ServiceLocator stays RUNNING.
+     * <p>
+     * Since lookups see the descriptors of the parent locators, a
+     * ServiceLocator can only be frozen if its parent (if any) is frozen.
+     * Since JustInTimeInjectionResolvers add descriptors they will not
+     * be able to resolve anything once the ServiceLocator is frozen.
+     * Freezing a ServiceLocator that is already frozen does nothing
+     * 
+     * @throws IllegalStateException if this ServiceLocator has been shut down
+     * or if its parent is not frozen
+     */
+    public void freeze();
+    
+    /**
+     * Returns true if this ServiceLocator has been frozen
+     * with {@link #freeze()}
+     * 
+     * @return true if this ServiceLocator is frozen
+     */
+    public boolean isFrozen();
 
 }
@@ -0,0 +1,256 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.glassfish.hk2.api.ClassAnalyzer;
+import org.glassfish.hk2.api.MultiException;
+import org.jvnet.hk2.internal.PersistentAnalysisCache.CachedMember;
+import org.jvnet.hk2.internal.PersistentAnalysisCache.Entry;
+
+/**
+ * A ClassAnalyzer in front of the default analyzer that answers from the
+ * {@link PersistentAnalysisCache} when it has a valid entry for the class.
+ * Otherwise it asks the default analyzer and records the answers, which are
+ * put into the cache by {@link #commit()} once the analysis has succeeded
+ * 
+ * @author jwells
+ *
+ */
+class CachingClassAnalyzer implements ClassAnalyzer {
+    private final PersistentAnalysisCache cache;
+    private final Class<?> implClass;
+    private final long checksums[];
+    private final ClassAnalyzer delegate;
+    
+    private final boolean cached;
+    private Constructor<?> constructor;
+    private Set<Method> methods;
+    private Set<Field> fields;
+    private Method postConstruct;
+    private Method preDestroy;
+    
+    private CachingClassAnalyzer(PersistentAnalysisCache cache,
+            Class<?> implClass,
+            long checksums[],
+            ClassAnalyzer delegate,
+            Entry entry) {
+        this.cache = cache;
+        this.implClass = implClass;
+        this.checksums = checksums;
+        this.delegate = delegate;
+        this.cached = (entry != null) && resolve(entry);
+    }
+    
+    /**
+     * Returns the caching analyzer for the given class if the persistent
+     * analysis cache is enabled and may be used in place of the given analyzer
+     * 
+     * @param locator The locator the service is being created in
+     * @param implClass The implementation class of the service
+     * @param analyzer The analyzer that would otherwise be used
+     * @return The caching analyzer, or null if the class must be analyzed
+     * by the given analyzer
+     */
+    /* package */ static CachingClassAnalyzer create(ServiceLocatorImpl locator,
+            Class<?> implClass,
+            ClassAnalyzer analyzer) {
+        PersistentAnalysisCache cache = locator.getAnalysisCache();
+        if (cache == null) return null;
+        
+        // The cached answers are those of the default analyzer with only @Inject
+        if (!(analyzer instanceof DefaultClassAnalyzer)) return null;
+        if (!locator.hasOnlyInjectResolver()) return null;
+        
+        long checksums[] = PersistentAnalysisCache.getChecksums(implClass);
+        if (checksums == null) return null;
+        
+        return new CachingClassAnalyzer(cache, implClass, checksums, analyzer, cache.get(implClass, checksums));
+    }
+    
+    /**
+     * Looks up the members named by the entry.  Returns false if any of them
+     * could not be found, in which case the class is analyzed again
+     */
+    private boolean resolve(final Entry entry) {
+        return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+            @Override
+            public Boolean run() {
+                List<Class<?>> hierarchy = PersistentAnalysisCache.getHierarchy(implClass);
+                
+                for (Constructor<?> candidate : implClass.getDeclaredConstructors()) {
+                    if (entry.getConstructor().hasParameters(candidate.getParameterTypes())) {
+                        constructor = candidate;
+                        break;
+                    }
+                }
+                if (constructor == null) return false;
+                
+                fields = new LinkedHashSet<Field>();
+                for (CachedMember member : entry.getFields()) {
+                    Class<?> declaringClass = getDeclaringClass(hierarchy, member);
+                    if (declaringClass == null) return false;
+                    
+                    try {
+                        fields.add(declaringClass.getDeclaredField(member.getName()));
+                    }
+                    catch (NoSuchFieldException e) {
+                        return false;
+                    }
+                }
+                
+                methods = new LinkedHashSet<Method>();
+                for (CachedMember member : entry.getMethods()) {
+                    Method method = getMethod(hierarchy, member);
+                    if (method == null) return false;
+                    
+                    methods.add(method);
+                }
+                
+                if (entry.getPostConstruct() != null) {
+                    postConstruct = getMethod(hierarchy, entry.getPostConstruct());
+                    if (postConstruct == null) return false;
+                }
+                
+                if (entry.getPreDestroy() != null) {
+                    preDestroy = getMethod(hierarchy, entry.getPreDestroy());
+                    if (preDestroy == null) return false;
+                }
+                
+                return true;
+            }
+            
+        });
+    }
+    
+    private static Class<?> getDeclaringClass(List<Class<?>> hierarchy, CachedMember member) {
+        for (Class<?> candidate : hierarchy) {
+            if (candidate.getName().equals(member.getDeclaringClass())) return candidate;
+        }
+        
+        return null;
+    }
+    
+    private static Method getMethod(List<Class<?>> hierarchy, CachedMember member) {
+        Class<?> declaringClass = getDeclaringClass(hierarchy, member);
+        if (declaringClass == null) return null;
+        
+        for (Method candidate : declaringClass.getDeclaredMethods()) {
+            if (!candidate.getName().equals(member.getName())) continue;
+            
+            if (member.hasParameters(candidate.getParameterTypes())) return candidate;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Puts the answers of the default analyzer into the cache.  Must only be
+     * called once all of the analysis has been done without errors
+     */
+    /* package */ void commit() {
+        if (cached) return;
+        if (constructor == null || methods == null || fields == null) return;
+        
+        cache.put(implClass, checksums, constructor, fields, methods, postConstruct, preDestroy);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Constructor<T> getConstructor(Class<T> clazz)
+            throws MultiException, NoSuchMethodException {
+        if (!cached) {
+            constructor = delegate.getConstructor(clazz);
+        }
+        
+        return (Constructor<T>) constructor;
+    }
+
+    @Override
+    public <T> Set<Method> getInitializerMethods(Class<T> clazz)
+            throws MultiException {
+        if (!cached) {
+            methods = delegate.getInitializerMethods(clazz);
+        }
+        
+        return methods;
+    }
+
+    @Override
+    public <T> Set<Field> getFields(Class<T> clazz) throws MultiException {
+        if (!cached) {
+            fields = delegate.getFields(clazz);
+        }
+        
+        return fields;
+    }
+
+    @Override
+    public <T> Method getPostConstructMethod(Class<T> clazz)
+            throws MultiException {
+        if (!cached) {
+            postConstruct = delegate.getPostConstructMethod(clazz);
+        }
+        
+        return postConstruct;
+    }
+
+    @Override
+    public <T> Method getPreDestroyMethod(Class<T> clazz) throws MultiException {
+        if (!cached) {
+            preDestroy = delegate.getPreDestroyMethod(clazz);
+        }
+        
+        return preDestroy;
+    }
+    
+    @Override
+    public String toString() {
+        return "CachingClassAnalyzer(" + implClass.getName() + "," + cached + "," + System.identityHashCode(this) + ")";
+    }
+}
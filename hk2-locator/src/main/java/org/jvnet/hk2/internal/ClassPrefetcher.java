@@ -0,0 +1,319 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * Loads the implementation and contract classes of a set of descriptors
+ * in the background.  The descriptors are put in a queue in rank order,
+ * and each worker takes descriptors from the queue until it is empty,
+ * so that the workers stay busy even when some classes take much longer
+ * to load than others
+ * 
+ * @author jwells
+ *
+ */
+public class ClassPrefetcher {
+    private final static ThreadFactory THREAD_FACTORY = new PrefetchThreadFactory();
+    
+    private final static Comparator<ActiveDescriptor<?>> RANK_COMPARATOR = new Comparator<ActiveDescriptor<?>>() {
+
+        @Override
+        public int compare(ActiveDescriptor<?> o1, ActiveDescriptor<?> o2) {
+            int r1 = o1.getRanking();
+            int r2 = o2.getRanking();
+            
+            if (r1 > r2) return -1;
+            if (r1 == r2) return 0;
+            return 1;
+        }
+        
+    };
+    
+    private final ConcurrentLinkedQueue<ActiveDescriptor<?>> toLoad;
+    private final boolean initialize;
+    
+    private ClassPrefetcher(List<ActiveDescriptor<?>> selected, boolean initialize) {
+        this.toLoad = new ConcurrentLinkedQueue<ActiveDescriptor<?>>(selected);
+        this.initialize = initialize;
+    }
+    
+    /**
+     * Starts loading the classes of the selected descriptors
+     * 
+     * @param descriptors The descriptors to choose from, may not be null
+     * @param selector The filter choosing the descriptors, or null for all of them
+     * @param initialize true if the classes should also be initialized
+     * @param executor The executor to load the classes on, or null to
+     * use low priority daemon threads
+     * @return A future whose value is the number of classes loaded
+     */
+    public static Future<Integer> prefetch(List<ActiveDescriptor<?>> descriptors,
+            Filter selector,
+            boolean initialize,
+            Executor executor) {
+        if (descriptors == null) throw new IllegalArgumentException();
+        
+        List<ActiveDescriptor<?>> selected = new ArrayList<ActiveDescriptor<?>>(descriptors.size());
+        for (ActiveDescriptor<?> descriptor : descriptors) {
+            // Reified ones have already had their classes loaded
+            if (descriptor == null || descriptor.isReified()) continue;
+            
+            if (selector != null && !selector.matches(descriptor)) continue;
+            
+            selected.add(descriptor);
+        }
+        
+        // Stable, so descriptors of equal rank stay in the order given
+        Collections.sort(selected, RANK_COMPARATOR);
+        
+        ClassPrefetcher prefetcher = new ClassPrefetcher(selected, initialize);
+        
+        int numWorkers = Math.min(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), selected.size());
+        
+        ThreadPoolExecutor ownExecutor = null;
+        if (executor == null && numWorkers > 0) {
+            ownExecutor = new ThreadPoolExecutor(numWorkers, numWorkers,
+                    60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    THREAD_FACTORY);
+            ownExecutor.allowCoreThreadTimeOut(true);
+            executor = ownExecutor;
+        }
+        
+        List<FutureTask<Integer>> workers = new ArrayList<FutureTask<Integer>>(numWorkers);
+        try {
+            for (int lcv = 0; lcv < numWorkers; lcv++) {
+                FutureTask<Integer> worker = new FutureTask<Integer>(prefetcher.new Worker());
+                workers.add(worker);
+                
+                try {
+                    executor.execute(worker);
+                }
+                catch (RejectedExecutionException ree) {
+                    // Load them on this thread then
+                    worker.run();
+                }
+            }
+        }
+        finally {
+            if (ownExecutor != null) {
+                // Lets the threads go away once the work already given to them is done
+                Utilities.shutdownExecutor(ownExecutor);
+            }
+        }
+        
+        return prefetcher.new PrefetchFuture(workers);
+    }
+    
+    private int load(ActiveDescriptor<?> descriptor) {
+        Set<String> classNames = new LinkedHashSet<String>();
+        if (descriptor.getImplementation() != null) {
+            classNames.add(descriptor.getImplementation());
+        }
+        classNames.addAll(descriptor.getAdvertisedContracts());
+        
+        int retVal = 0;
+        for (String className : classNames) {
+            Collector collector = new Collector();
+            
+            Class<?> loaded = Utilities.loadClass(className, descriptor, collector);
+            if (loaded == null) {
+                // Will be reported if and when the service is looked up
+                Logger.getLogger().debug("Could not prefetch class " + className + " of " + descriptor);
+                continue;
+            }
+            
+            if (initialize) {
+                try {
+                    initialize(loaded);
+                }
+                catch (Throwable th) {
+                    Logger.getLogger().debug("Could not initialize class " + className + " of " + descriptor, th);
+                }
+            }
+            
+            retVal++;
+        }
+        
+        return retVal;
+    }
+    
+    private static void initialize(final Class<?> loaded) throws ClassNotFoundException {
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+
+                @Override
+                public Object run() throws ClassNotFoundException {
+                    Class.forName(loaded.getName(), true, loaded.getClassLoader());
+                    return null;
+                }
+
+            });
+        }
+        catch (PrivilegedActionException pae) {
+            throw (ClassNotFoundException) pae.getException();
+        }
+    }
+    
+    private class Worker implements Callable<Integer> {
+
+        @Override
+        public Integer call() {
+            int retVal = 0;
+            
+            ActiveDescriptor<?> next;
+            while ((next = toLoad.poll()) != null) {
+                retVal += load(next);
+            }
+            
+            return retVal;
+        }
+        
+    }
+    
+    /**
+     * The sum of the workers.  Cancelling it cancels the
+     * workers and drops the descriptors not yet started
+     */
+    private class PrefetchFuture implements Future<Integer> {
+        private final List<FutureTask<Integer>> workers;
+        
+        private PrefetchFuture(List<FutureTask<Integer>> workers) {
+            this.workers = workers;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            toLoad.clear();
+            
+            boolean retVal = false;
+            for (FutureTask<Integer> worker : workers) {
+                retVal |= worker.cancel(mayInterruptIfRunning);
+            }
+            
+            return retVal;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            for (FutureTask<Integer> worker : workers) {
+                if (worker.isCancelled()) return true;
+            }
+            
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (FutureTask<Integer> worker : workers) {
+                if (!worker.isDone()) return false;
+            }
+            
+            return true;
+        }
+
+        @Override
+        public Integer get() throws InterruptedException, ExecutionException {
+            int retVal = 0;
+            for (FutureTask<Integer> worker : workers) {
+                retVal += worker.get();
+            }
+            
+            return retVal;
+        }
+
+        @Override
+        public Integer get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            
+            int retVal = 0;
+            for (FutureTask<Integer> worker : workers) {
+                retVal += worker.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            
+            return retVal;
+        }
+        
+    }
+    
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread activeThread = new Thread(runnable, "hk2-class-prefetch-" + threadNumber.getAndIncrement());
+            activeThread.setDaemon(true);
+            
+            // Only meant to use cores that would otherwise be idle
+            activeThread.setPriority(Thread.MIN_PRIORITY);
+                
+            return activeThread;
+        }
+    }
+
+}
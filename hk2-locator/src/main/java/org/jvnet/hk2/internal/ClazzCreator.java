@@ -45,6 +45,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -52,6 +55,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.aopalliance.intercept.ConstructorInterceptor;
 import org.aopalliance.intercept.MethodInterceptor;
@@ -64,6 +69,9 @@ import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.PostConstruct;
 import org.glassfish.hk2.api.PreDestroy;
 import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector.InjectedMember;
+import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 
 /**
@@ -72,6 +80,22 @@ import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
  *
  */
 public class ClazzCreator<T> implements Creator<T> {
+    private final static String INJECTOR_THRESHOLD_PROPERTY = "org.jvnet.hk2.properties.injector.threshold";
+    /**
+     * The number of reflective creations after which an injector is generated
+     * for the implementation class.  A negative value disables generated injectors
+     */
+    private final static int INJECTOR_THRESHOLD = AccessController.doPrivileged(new PrivilegedAction<Integer>() {
+        @Override
+        public Integer run() {
+            return Integer.getInteger(INJECTOR_THRESHOLD_PROPERTY, 15);
+        }
+            
+    });
+    
+    private final static GeneratedInjection NO_INJECTION = new GeneratedInjection(null, null, false,
+            new int[0], new int[0], -1, -1);
+    
     private final ServiceLocatorImpl locator;
     private final Class<?> implClass;
     private final Set<ResolutionInfo> myInitializers = new LinkedHashSet<ResolutionInfo>();
@@ -83,6 +107,10 @@ public class ClazzCreator<T> implements Creator<T> {
 
     private Method postConstructMethod;
     private Method preDestroyMethod;
+    
+    private final AtomicInteger reflectiveCreations = new AtomicInteger();
+    private final AtomicBoolean generating = new AtomicBoolean();
+    private volatile GeneratedInjection generatedInjection;
 
     /* package */ ClazzCreator(ServiceLocatorImpl locator,
             Class<?> implClass) {
@@ -120,6 +148,18 @@ public class ClazzCreator<T> implements Creator<T> {
             myConstructor = null;
             return;
         }
+        
+        CachingClassAnalyzer cachingAnalyzer = null;
+        GeneratedClassAnalyzer generatedAnalyzer = GeneratedClassAnalyzer.create(locator, selfDescriptor, implClass, analyzer);
+        if (generatedAnalyzer != null) {
+            analyzer = generatedAnalyzer;
+        }
+        else {
+            cachingAnalyzer = CachingClassAnalyzer.create(locator, implClass, analyzer);
+            if (cachingAnalyzer != null) {
+                analyzer = cachingAnalyzer;
+            }
+        }
 
         List<SystemInjecteeImpl> baseAllInjectees = new LinkedList<SystemInjecteeImpl>();
 
@@ -172,6 +212,16 @@ public class ClazzCreator<T> implements Creator<T> {
         allInjectees = Collections.unmodifiableList(baseAllInjectees);
 
         Utilities.validateSelfInjectees(selfDescriptor, allInjectees, collector);
+        
+        if (collector.hasErrors()) return;
+        
+        if (generatedAnalyzer != null) {
+            generatedInjection = getBuildTimeInjection(generatedAnalyzer.getGeneratedInjector());
+        }
+        
+        if (cachingAnalyzer != null) {
+            cachingAnalyzer.commit();
+        }
     }
 
     /* package */ void initialize(
@@ -253,7 +303,7 @@ public class ClazzCreator<T> implements Creator<T> {
         return retVal;
     }
 
-    private Object createMe(Map<SystemInjecteeImpl, Object> resolved) throws Throwable {
+    private Object createMe(Map<SystemInjecteeImpl, Object> resolved, GeneratedInjection injection) throws Throwable {
         final Constructor<?> c = (Constructor<?>) myConstructor.baseElement;
         List<SystemInjecteeImpl> injectees = myConstructor.injectees;
 
@@ -269,6 +319,15 @@ public class ClazzCreator<T> implements Creator<T> {
         if ((methodInterceptors == null || methodInterceptors.isEmpty()) &&
             ((constructorInterceptors == null) || constructorInterceptors.isEmpty())) {
             // No need for any kind of interception
+            if (injection.constructorGenerated) {
+                try {
+                    return injection.injector.construct(args);
+                }
+                catch (LinkageError le) {
+                    if (!dropInjection(injection, le)) throw le;
+                }
+            }
+            
             return ReflectionHelper.makeMe(c, args, locator.getNeutralContextClassLoader()); 
         }
         
@@ -290,8 +349,11 @@ public class ClazzCreator<T> implements Creator<T> {
                 new ConstructorActionImpl<T>(this, methodInterceptors));
     }
 
-    private void fieldMe(Map<SystemInjecteeImpl, Object> resolved, T t) throws Throwable {
+    private void fieldMe(Map<SystemInjecteeImpl, Object> resolved, T t, GeneratedInjection injection) throws Throwable {
+        int fieldNumber = 0;
         for (ResolutionInfo ri : myFields) {
+            int index = injection.getFieldIndex(fieldNumber++);
+
             Field field = (Field) ri.baseElement;
             List<SystemInjecteeImpl> injectees = ri.injectees;  // Should be only one injectee, itself!
 
@@ -302,12 +364,25 @@ public class ClazzCreator<T> implements Creator<T> {
 
             Object putMeIn = resolved.get(fieldInjectee);
 
+            if (index >= 0) {
+                try {
+                    injection.injector.setField(index, t, putMeIn);
+                    continue;
+                }
+                catch (LinkageError le) {
+                    if (!dropInjection(injection, le)) throw le;
+                }
+            }
+
             ReflectionHelper.setField(field, t, putMeIn);
         }
     }
 
-    private void methodMe(Map<SystemInjecteeImpl, Object> resolved, T t) throws Throwable {
+    private void methodMe(Map<SystemInjecteeImpl, Object> resolved, T t, GeneratedInjection injection) throws Throwable {
+        int methodNumber = 0;
         for (ResolutionInfo ri : myInitializers) {
+            int index = injection.getMethodIndex(methodNumber++);
+
             Method m = (Method) ri.baseElement;
             List<SystemInjecteeImpl> injectees = ri.injectees;
 
@@ -316,11 +391,21 @@ public class ClazzCreator<T> implements Creator<T> {
                 args[injectee.getPosition()] = resolved.get(injectee);
             }
 
+            if (index >= 0) {
+                try {
+                    injection.injector.invoke(index, t, args);
+                    continue;
+                }
+                catch (LinkageError le) {
+                    if (!dropInjection(injection, le)) throw le;
+                }
+            }
+
             ReflectionHelper.invoke(t, m, args, locator.getNeutralContextClassLoader());
         }
     }
 
-    private void postConstructMe(T t) throws Throwable {
+    private void postConstructMe(T t, GeneratedInjection injection) throws Throwable {
         if (t == null) return;
 
         if (t instanceof PostConstruct) {
@@ -329,6 +414,16 @@ public class ClazzCreator<T> implements Creator<T> {
         }
 
         if (postConstructMethod == null) return;
+        
+        if (injection.postConstructIndex >= 0) {
+            try {
+                injection.injector.invoke(injection.postConstructIndex, t, new Object[0]);
+                return;
+            }
+            catch (LinkageError le) {
+                if (!dropInjection(injection, le)) throw le;
+            }
+        }
 
         ReflectionHelper.invoke(t, postConstructMethod, new Object[0], locator.getNeutralContextClassLoader());
     }
@@ -342,10 +437,211 @@ public class ClazzCreator<T> implements Creator<T> {
         }
 
         if (preDestroyMethod == null) return;
+        
+        GeneratedInjection injection = generatedInjection;
+        if (injection != null && injection.preDestroyIndex >= 0) {
+            boolean neutral = locator.getNeutralContextClassLoader();
+            ClassLoader originalCCL = neutral ? getContextClassLoader() : null;
+            try {
+                injection.injector.invoke(injection.preDestroyIndex, t, new Object[0]);
+                return;
+            }
+            catch (LinkageError le) {
+                if (!dropInjection(injection, le)) throw le;
+            }
+            finally {
+                if (neutral) {
+                    setContextClassLoader(originalCCL);
+                }
+            }
+        }
 
         ReflectionHelper.invoke(t, preDestroyMethod, new Object[0], locator.getNeutralContextClassLoader());
     }
 
+    /**
+     * Returns the generated injector for this class, generating it
+     * once the class has been created reflectively enough times.  Never
+     * returns null, if there is no generated injector (yet) then
+     * {@link #NO_INJECTION} is returned and everything is done reflectively
+     */
+    private GeneratedInjection getGeneratedInjection() {
+        GeneratedInjection retVal = generatedInjection;
+        if (retVal != null) return retVal;
+        
+        if ((INJECTOR_THRESHOLD < 0) || (myConstructor == null)) return NO_INJECTION;
+        if (reflectiveCreations.incrementAndGet() <= INJECTOR_THRESHOLD) return NO_INJECTION;
+        
+        // Only one thread generates, the others keep using reflection meanwhile
+        if (!generating.compareAndSet(false, true)) return NO_INJECTION;
+        
+        retVal = generateInjection();
+        generatedInjection = retVal;
+        
+        return retVal;
+    }
+    
+    /**
+     * Drops the given injection if the error was thrown by the injector
+     * itself failing to link against the members it calls, rather than by
+     * the member it called.  Once dropped, everything is done reflectively
+     * 
+     * @param injection The injection whose injector threw the error
+     * @param error The error thrown by the injector
+     * @return true if the injection was dropped and the caller should
+     * go reflective, false if the error should be thrown
+     */
+    private boolean dropInjection(GeneratedInjection injection, LinkageError error) {
+        StackTraceElement trace[] = error.getStackTrace();
+        if (trace.length > 0 && !trace[0].getClassName().equals(injection.injectorClassName)) {
+            return false;
+        }
+        
+        Logger.getLogger().debug("ClazzCreator", "dropInjection " + implClass.getName(), error);
+        
+        if (generatedInjection == injection) {
+            generatedInjection = NO_INJECTION;
+        }
+        
+        return true;
+    }
+    
+    private GeneratedInjection generateInjection() {
+        if (!Utilities.proxiesAvailable()) return NO_INJECTION;
+        if (!InjectorGenerator.isGeneratable(implClass)) return NO_INJECTION;
+        
+        Constructor<?> constructor = (Constructor<?>) myConstructor.baseElement;
+        boolean constructorGenerated = InjectorGenerator.isGeneratable(constructor);
+        
+        List<Field> generatedFields = new ArrayList<Field>();
+        int fieldIndexes[] = new int[myFields.size()];
+        int lcv = 0;
+        for (ResolutionInfo ri : myFields) {
+            Field field = (Field) ri.baseElement;
+            
+            if (InjectorGenerator.isGeneratable(field)) {
+                fieldIndexes[lcv++] = generatedFields.size();
+                generatedFields.add(field);
+            }
+            else {
+                fieldIndexes[lcv++] = -1;
+            }
+        }
+        
+        List<Method> generatedMethods = new ArrayList<Method>();
+        int methodIndexes[] = new int[myInitializers.size()];
+        lcv = 0;
+        for (ResolutionInfo ri : myInitializers) {
+            Method method = (Method) ri.baseElement;
+            
+            if (InjectorGenerator.isGeneratable(method)) {
+                methodIndexes[lcv++] = generatedMethods.size();
+                generatedMethods.add(method);
+            }
+            else {
+                methodIndexes[lcv++] = -1;
+            }
+        }
+        
+        int postConstructIndex = -1;
+        if (postConstructMethod != null && InjectorGenerator.isGeneratable(postConstructMethod)) {
+            postConstructIndex = generatedMethods.size();
+            generatedMethods.add(postConstructMethod);
+        }
+        
+        int preDestroyIndex = -1;
+        if (preDestroyMethod != null && InjectorGenerator.isGeneratable(preDestroyMethod)) {
+            preDestroyIndex = generatedMethods.size();
+            generatedMethods.add(preDestroyMethod);
+        }
+        
+        if (!constructorGenerated && generatedFields.isEmpty() && generatedMethods.isEmpty()) {
+            return NO_INJECTION;
+        }
+        
+        GeneratedInjector injector = InjectorGenerator.generate(implClass,
+                constructorGenerated ? constructor : null,
+                generatedFields,
+                generatedMethods);
+        if (injector == null) return NO_INJECTION;
+        
+        return new GeneratedInjection(injector, injector.getClass().getName(), constructorGenerated,
+                fieldIndexes, methodIndexes, postConstructIndex, preDestroyIndex);
+    }
+    
+    /**
+     * Adapts the injector generated at build time for this class, the
+     * members it does not access directly are still handled reflectively
+     */
+    private GeneratedInjection getBuildTimeInjection(final GeneratedServiceInjector generated) {
+        GeneratedInjector injector = new GeneratedInjector() {
+
+            @Override
+            public Object construct(Object[] args) throws Throwable {
+                return generated.construct(args);
+            }
+
+            @Override
+            public void setField(int index, Object target, Object value) throws Throwable {
+                generated.setField(index, target, value);
+            }
+
+            @Override
+            public void invoke(int index, Object target, Object[] args) throws Throwable {
+                generated.invoke(index, target, args);
+            }
+            
+        };
+        
+        List<InjectedMember> fields = generated.getFields();
+        int fieldIndexes[] = new int[fields.size()];
+        for (int lcv = 0; lcv < fieldIndexes.length; lcv++) {
+            fieldIndexes[lcv] = fields.get(lcv).isDirect() ? lcv : -1;
+        }
+        
+        List<InjectedMember> methods = generated.getInitializerMethods();
+        int methodIndexes[] = new int[methods.size()];
+        for (int lcv = 0; lcv < methodIndexes.length; lcv++) {
+            methodIndexes[lcv] = methods.get(lcv).isDirect() ? lcv : -1;
+        }
+        
+        int postConstructIndex = -1;
+        if (generated.getPostConstructMethod() != null && generated.getPostConstructMethod().isDirect()) {
+            postConstructIndex = generated.getPostConstructIndex();
+        }
+        
+        int preDestroyIndex = -1;
+        if (generated.getPreDestroyMethod() != null && generated.getPreDestroyMethod().isDirect()) {
+            preDestroyIndex = generated.getPreDestroyIndex();
+        }
+        
+        return new GeneratedInjection(injector, generated.getClass().getName(), generated.isConstructorDirect(),
+                fieldIndexes, methodIndexes, postConstructIndex, preDestroyIndex);
+    }
+    
+    private static ClassLoader getContextClassLoader() {
+        return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+
+            @Override
+            public ClassLoader run() {
+                return Thread.currentThread().getContextClassLoader();
+            }
+            
+        });
+    }
+    
+    private static void setContextClassLoader(final ClassLoader loader) {
+        AccessController.doPrivileged(new PrivilegedAction<Object>() {
+
+            @Override
+            public Object run() {
+                Thread.currentThread().setContextClassLoader(loader);
+                return null;
+            }
+            
+        });
+    }
+
     /* (non-Javadoc)
      * @see org.jvnet.hk2.internal.Creator#create()
      */
@@ -362,17 +658,29 @@ public class ClazzCreator<T> implements Creator<T> {
                     null, ReflectionHelper.<Map<Injectee,Object>>cast(allResolved), eventThrower));
             }
 
-            failureLocation = "create";
-            T retVal = (T) createMe(allResolved);
+            GeneratedInjection injection = getGeneratedInjection();
+            boolean restoreCCL = (injection.injector != null) && locator.getNeutralContextClassLoader();
+            ClassLoader originalCCL = restoreCCL ? getContextClassLoader() : null;
+            
+            T retVal;
+            try {
+                failureLocation = "create";
+                retVal = (T) createMe(allResolved, injection);
 
-            failureLocation = "field inject";
-            fieldMe(allResolved, retVal);
+                failureLocation = "field inject";
+                fieldMe(allResolved, retVal, injection);
 
-            failureLocation = "method inject";
-            methodMe(allResolved, retVal);
+                failureLocation = "method inject";
+                methodMe(allResolved, retVal, injection);
 
-            failureLocation = "post construct";
-            postConstructMe(retVal);
+                failureLocation = "post construct";
+                postConstructMe(retVal, injection);
+            }
+            finally {
+                if (restoreCCL) {
+                    setContextClassLoader(originalCCL);
+                }
+            }
 
             if (eventThrower != null) {
                 eventThrower.invokeInstanceListeners(new InstanceLifecycleEventImpl(InstanceLifecycleEventType.POST_PRODUCTION,
@@ -437,6 +745,50 @@ public class ClazzCreator<T> implements Creator<T> {
         return "ClazzCreator(" + locator + "," + implClass.getName() + "," + System.identityHashCode(this) + ")";
     }
 
+    /**
+     * The generated injector along with the index of each member in it.
+     * The field and method indexes are in the iteration order of
+     * myFields and myInitializers, an index of -1 means the member
+     * is still handled reflectively.  The injector class name is the
+     * class whose code calls the members, which is where errors linking
+     * against them are thrown from
+     */
+    private static class GeneratedInjection {
+        private final GeneratedInjector injector;
+        private final String injectorClassName;
+        private final boolean constructorGenerated;
+        private final int fieldIndexes[];
+        private final int methodIndexes[];
+        private final int postConstructIndex;
+        private final int preDestroyIndex;
+        
+        private GeneratedInjection(GeneratedInjector injector,
+                String injectorClassName,
+                boolean constructorGenerated,
+                int fieldIndexes[],
+                int methodIndexes[],
+                int postConstructIndex,
+                int preDestroyIndex) {
+            this.injector = injector;
+            this.injectorClassName = injectorClassName;
+            this.constructorGenerated = constructorGenerated;
+            this.fieldIndexes = fieldIndexes;
+            this.methodIndexes = methodIndexes;
+            this.postConstructIndex = postConstructIndex;
+            this.preDestroyIndex = preDestroyIndex;
+        }
+        
+        private int getFieldIndex(int fieldNumber) {
+            if (injector == null) return -1;
+            return fieldIndexes[fieldNumber];
+        }
+        
+        private int getMethodIndex(int methodNumber) {
+            if (injector == null) return -1;
+            return methodIndexes[methodNumber];
+        }
+    }
+
     private static class ResolutionInfo {
         private final AnnotatedElement baseElement;
         private final List<SystemInjecteeImpl> injectees = new LinkedList<SystemInjecteeImpl>();
@@ -0,0 +1,160 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.jvnet.hk2.external.runtime.ContractMetrics;
+
+/**
+ * An immutable snapshot of the metrics of one contract
+ * 
+ * @author jwells
+ *
+ */
+final class ContractMetricsImpl implements ContractMetrics {
+    private final String contract;
+    private final long lookups;
+    private final long cacheHits;
+    private final long cacheMisses;
+    private final long narrows;
+    private final long narrowNanos;
+    private final long narrowHistogram[];
+    private final Map<String, Long> creationCounts;
+    private final Map<String, Long> creationNanos;
+    private final long jitResolutions;
+    private final long jitModifications;
+    
+    /* package */ ContractMetricsImpl(String contract,
+            long lookups,
+            long cacheHits,
+            long cacheMisses,
+            long narrows,
+            long narrowNanos,
+            long narrowHistogram[],
+            Map<String, Long> creationCounts,
+            Map<String, Long> creationNanos,
+            long jitResolutions,
+            long jitModifications) {
+        this.contract = contract;
+        this.lookups = lookups;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.narrows = narrows;
+        this.narrowNanos = narrowNanos;
+        this.narrowHistogram = narrowHistogram;
+        this.creationCounts = Collections.unmodifiableMap(creationCounts);
+        this.creationNanos = Collections.unmodifiableMap(creationNanos);
+        this.jitResolutions = jitResolutions;
+        this.jitModifications = jitModifications;
+    }
+
+    @Override
+    public String getContract() {
+        return contract;
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHits;
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheMisses;
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long total = cacheHits + cacheMisses;
+        if (total == 0L) return 0.0;
+        
+        return ((double) cacheHits) / ((double) total);
+    }
+
+    @Override
+    public long getNarrowCount() {
+        return narrows;
+    }
+
+    @Override
+    public long getNarrowTimeNanos() {
+        return narrowNanos;
+    }
+
+    @Override
+    public long[] getNarrowTimeHistogram() {
+        return narrowHistogram.clone();
+    }
+
+    @Override
+    public Map<String, Long> getCreationCounts() {
+        return creationCounts;
+    }
+
+    @Override
+    public Map<String, Long> getCreationTimeNanos() {
+        return creationNanos;
+    }
+
+    @Override
+    public long getJustInTimeResolutionCount() {
+        return jitResolutions;
+    }
+
+    @Override
+    public long getJustInTimeModifiedCount() {
+        return jitModifications;
+    }
+    
+    @Override
+    public String toString() {
+        return "ContractMetricsImpl(" + contract + ",lookups=" + lookups + ",hitRatio=" + getCacheHitRatio() +
+                ",narrows=" + narrows + ",narrowNanos=" + narrowNanos + ",creations=" + creationCounts +
+                ",jitResolutions=" + jitResolutions + "," + System.identityHashCode(this) + ")";
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of the descriptor indexes of a {@link ServiceLocatorImpl}.
+ * <p>
+ * A new snapshot is built by the committing thread (with the write lock held)
+ * every time the set of descriptors or their ranking changes, and is then
+ * published through a volatile field.  This allows lookups to walk the indexes
+ * without taking any lock.  Lists of contracts or names that were not touched
+ * by a change are shared with the previous snapshot.
+ * <p>
+ * The list of all descriptors is not copied on every change.  Instead a
+ * snapshot keeps the last complete list along with the descriptors added to
+ * and removed from it since, and builds its own complete list the first
+ * time it is asked for it
+ */
+public class DescriptorIndexSnapshot {
+    /**
+     * The committing thread builds the complete list of all descriptors once there
+     * are more than MIN_PENDING changes plus one for every MAX_PENDING_RATIO descriptors
+     */
+    private final static int MIN_PENDING = 16;
+    private final static int MAX_PENDING_RATIO = 8;
+
+    /* package */ final static DescriptorIndexSnapshot EMPTY = new DescriptorIndexSnapshot(
+            Collections.<SystemDescriptor<?>>emptyList(),
+            Collections.<SystemDescriptor<?>>emptySet(),
+            Collections.<SystemDescriptor<?>>emptyList(),
+            Collections.<String, List<SystemDescriptor<?>>>emptyMap(),
+            Collections.<String, List<SystemDescriptor<?>>>emptyMap(),
+            Collections.<ContractAndName, List<SystemDescriptor<?>>>emptyMap(),
+            Collections.<String, List<SystemDescriptor<?>>>emptyMap());
+
+    /** The last complete list of all descriptors, which this snapshot's list is built from */
+    private final List<SystemDescriptor<?>> allBase;
+    /** Descriptors in allBase that are no longer there or whose rank changed, by identity */
+    private final Set<SystemDescriptor<?>> allRemoved;
+    /** Descriptors added since allBase, including those whose rank changed */
+    private final List<SystemDescriptor<?>> allAdded;
+    /** The complete list of all descriptors, built on first use */
+    private volatile List<SystemDescriptor<?>> allDescriptors;
+
+    private final Map<String, List<SystemDescriptor<?>>> descriptorsByAdvertisedContract;
+    private final Map<String, List<SystemDescriptor<?>>> descriptorsByName;
+    private final Map<ContractAndName, List<SystemDescriptor<?>>> descriptorsByContractAndName;
+    private final Map<String, List<SystemDescriptor<?>>> descriptorsByImplementation;
+
+    private DescriptorIndexSnapshot(List<SystemDescriptor<?>> allBase,
+            Set<SystemDescriptor<?>> allRemoved,
+            List<SystemDescriptor<?>> allAdded,
+            Map<String, List<SystemDescriptor<?>>> descriptorsByAdvertisedContract,
+            Map<String, List<SystemDescriptor<?>>> descriptorsByName,
+            Map<ContractAndName, List<SystemDescriptor<?>>> descriptorsByContractAndName,
+            Map<String, List<SystemDescriptor<?>>> descriptorsByImplementation) {
+        this.allBase = allBase;
+        this.allRemoved = allRemoved;
+        this.allAdded = allAdded;
+        if (allRemoved.isEmpty() && allAdded.isEmpty()) {
+            allDescriptors = allBase;
+        }
+
+        this.descriptorsByAdvertisedContract = descriptorsByAdvertisedContract;
+        this.descriptorsByName = descriptorsByName;
+        this.descriptorsByContractAndName = descriptorsByContractAndName;
+        this.descriptorsByImplementation = descriptorsByImplementation;
+    }
+
+    /**
+     * Returns all descriptors in this snapshot, in ranked order
+     *
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    public List<SystemDescriptor<?>> getAllDescriptors() {
+        List<SystemDescriptor<?>> retVal = allDescriptors;
+        if (retVal != null) return retVal;
+
+        // Everything read here is immutable, so racing threads build equal lists
+        List<SystemDescriptor<?>> added = new ArrayList<SystemDescriptor<?>>(allAdded);
+        Collections.sort(added, ServiceLocatorImpl.DESCRIPTOR_COMPARATOR);
+
+        ArrayList<SystemDescriptor<?>> merged = new ArrayList<SystemDescriptor<?>>(allBase.size() + added.size());
+        Iterator<SystemDescriptor<?>> addedIterator = added.iterator();
+        SystemDescriptor<?> nextAdded = addedIterator.hasNext() ? addedIterator.next() : null;
+        for (SystemDescriptor<?> descriptor : allBase) {
+            if (allRemoved.contains(descriptor)) continue;
+
+            while (nextAdded != null &&
+                    ServiceLocatorImpl.DESCRIPTOR_COMPARATOR.compare(nextAdded, descriptor) < 0) {
+                merged.add(nextAdded);
+                nextAdded = addedIterator.hasNext() ? addedIterator.next() : null;
+            }
+
+            merged.add(descriptor);
+        }
+
+        while (nextAdded != null) {
+            merged.add(nextAdded);
+            nextAdded = addedIterator.hasNext() ? addedIterator.next() : null;
+        }
+
+        retVal = Collections.unmodifiableList(merged);
+        allDescriptors = retVal;
+
+        return retVal;
+    }
+
+    /**
+     * Returns the descriptors advertising the given contract (which
+     * includes qualifiers and scopes), in ranked order
+     *
+     * @param contract The non-null contract to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    public List<SystemDescriptor<?>> getByAdvertisedContract(String contract) {
+        List<SystemDescriptor<?>> retVal = descriptorsByAdvertisedContract.get(contract);
+        if (retVal == null) return Collections.emptyList();
+
+        return retVal;
+    }
+
+    /**
+     * Returns the descriptors with the given name, in ranked order
+     *
+     * @param name The non-null name to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    public List<SystemDescriptor<?>> getByName(String name) {
+        List<SystemDescriptor<?>> retVal = descriptorsByName.get(name);
+        if (retVal == null) return Collections.emptyList();
+
+        return retVal;
+    }
+
+    /**
+     * Returns the descriptors with the given name that have the
+     * given advertised contract, in ranked order
+     *
+     * @param contract The non-null advertised contract to look for
+     * @param name The non-null name to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    public List<SystemDescriptor<?>> getByContractAndName(String contract, String name) {
+        List<SystemDescriptor<?>> retVal = descriptorsByContractAndName.get(new ContractAndName(contract, name));
+        if (retVal == null) return Collections.emptyList();
+
+        return retVal;
+    }
+
+    /**
+     * Returns the descriptors with the given implementation, in ranked order
+     *
+     * @param implementation The non-null implementation to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    public List<SystemDescriptor<?>> getByImplementation(String implementation) {
+        List<SystemDescriptor<?>> retVal = descriptorsByImplementation.get(implementation);
+        if (retVal == null) return Collections.emptyList();
+
+        return retVal;
+    }
+
+    /**
+     * Creates the next snapshot from the current state of the live indexes.
+     * Must be called with the write lock of the owning locator held
+     *
+     * @param addedToAll The descriptors added to the index of all descriptors
+     * @param removedFromAll The descriptors removed from the index of all descriptors.
+     * A descriptor whose rank changed is both removed and added
+     * @param byContract The live index of descriptors by advertised contract
+     * @param changedContracts The contracts whose index may have changed
+     * @param byName The live index of descriptors by name
+     * @param changedNames The names whose index may have changed
+     * @param byContractAndName The live index of named descriptors by advertised contract and name
+     * @param changedContractsAndNames The keys whose index may have changed
+     * @param byImplementation The live index of descriptors by implementation
+     * @param changedImplementations The implementations whose index may have changed
+     * @return A new snapshot reflecting the live indexes
+     */
+    /* package */ DescriptorIndexSnapshot next(Collection<SystemDescriptor<?>> addedToAll,
+            Collection<SystemDescriptor<?>> removedFromAll,
+            Map<String, IndexedListData> byContract,
+            Set<String> changedContracts,
+            Map<String, IndexedListData> byName,
+            Set<String> changedNames,
+            Map<ContractAndName, IndexedListData> byContractAndName,
+            Set<ContractAndName> changedContractsAndNames,
+            Map<String, IndexedListData> byImplementation,
+            Set<String> changedImplementations) {
+        List<SystemDescriptor<?>> base;
+        Set<SystemDescriptor<?>> removed;
+        List<SystemDescriptor<?>> added;
+        if (addedToAll.isEmpty() && removedFromAll.isEmpty()) {
+            base = allBase;
+            removed = allRemoved;
+            added = allAdded;
+        }
+        else {
+            List<SystemDescriptor<?>> complete = allDescriptors;
+
+            removed = Collections.newSetFromMap(new IdentityHashMap<SystemDescriptor<?>, Boolean>());
+            added = new ArrayList<SystemDescriptor<?>>();
+            if (complete != null) {
+                base = complete;
+            }
+            else {
+                base = allBase;
+                removed.addAll(allRemoved);
+                added.addAll(allAdded);
+            }
+
+            if (!removedFromAll.isEmpty()) {
+                Set<SystemDescriptor<?>> removedNow =
+                        Collections.newSetFromMap(new IdentityHashMap<SystemDescriptor<?>, Boolean>());
+                removedNow.addAll(removedFromAll);
+
+                for (Iterator<SystemDescriptor<?>> iterator = added.iterator(); iterator.hasNext(); ) {
+                    if (removedNow.contains(iterator.next())) iterator.remove();
+                }
+
+                removed.addAll(removedNow);
+            }
+
+            added.addAll(addedToAll);
+
+            removed = Collections.unmodifiableSet(removed);
+            added = Collections.unmodifiableList(added);
+        }
+
+        DescriptorIndexSnapshot retVal = new DescriptorIndexSnapshot(base, removed, added,
+                nextIndex(descriptorsByAdvertisedContract, byContract, changedContracts),
+                nextIndex(descriptorsByName, byName, changedNames),
+                nextIndex(descriptorsByContractAndName, byContractAndName, changedContractsAndNames),
+                nextIndex(descriptorsByImplementation, byImplementation, changedImplementations));
+
+        // Keeps the pending changes, which are copied on every change, small
+        // compared to the work done to build the complete list
+        if (removed.size() + added.size() > MIN_PENDING + (base.size() / MAX_PENDING_RATIO)) {
+            retVal.getAllDescriptors();
+        }
+
+        return retVal;
+    }
+
+    private static <K> Map<K, List<SystemDescriptor<?>>> nextIndex(
+            Map<K, List<SystemDescriptor<?>>> previous,
+            Map<K, IndexedListData> live,
+            Set<K> changedKeys) {
+        if (changedKeys.isEmpty()) return previous;
+
+        HashMap<K, List<SystemDescriptor<?>>> retVal =
+                new HashMap<K, List<SystemDescriptor<?>>>(previous);
+        for (K changedKey : changedKeys) {
+            IndexedListData ild = live.get(changedKey);
+            if (ild == null) {
+                retVal.remove(changedKey);
+            }
+            else {
+                retVal.put(changedKey, copyOf(ild));
+            }
+        }
+
+        return Collections.unmodifiableMap(retVal);
+    }
+
+    private static List<SystemDescriptor<?>> copyOf(IndexedListData ild) {
+        return Collections.unmodifiableList(
+                new ArrayList<SystemDescriptor<?>>(ild.getSortedList()));
+    }
+
+    /**
+     * The key of the index of named descriptors by advertised contract and name
+     */
+    /* package */ final static class ContractAndName {
+        private final String contract;
+        private final String name;
+        private final int hash;
+
+        /* package */ ContractAndName(String contract, String name) {
+            this.contract = contract;
+            this.name = name;
+            hash = contract.hashCode() ^ name.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContractAndName)) return false;
+            ContractAndName other = (ContractAndName) o;
+
+            return contract.equals(other.contract) && name.equals(other.name);
+        }
+
+        @Override
+        public String toString() {
+            return "ContractAndName(" + contract + "," + name + ")";
+        }
+    }
+}
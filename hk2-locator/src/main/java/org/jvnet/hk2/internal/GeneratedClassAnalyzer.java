@@ -0,0 +1,226 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ClassAnalyzer;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector.InjectedMember;
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * A ClassAnalyzer that takes its answers from the injector generated at build
+ * time for a service rather than from scanning the members of the class.
+ * The members named by the generated injector are looked up one by one
+ * 
+ * @author jwells
+ *
+ */
+class GeneratedClassAnalyzer implements ClassAnalyzer {
+    private final GeneratedServiceInjector generated;
+    
+    private GeneratedClassAnalyzer(GeneratedServiceInjector generated) {
+        this.generated = generated;
+    }
+    
+    /**
+     * Returns the analyzer for the generated injector of the given descriptor
+     * if it has one and it may be used in place of the given analyzer
+     * 
+     * @param locator The locator the service is being created in
+     * @param descriptor The descriptor of the service, may be null
+     * @param implClass The implementation class of the service
+     * @param analyzer The analyzer that would otherwise be used
+     * @return The generated analyzer or null if the service must be analyzed
+     * by the given analyzer
+     */
+    /* package */ static GeneratedClassAnalyzer create(ServiceLocatorImpl locator,
+            ActiveDescriptor<?> descriptor,
+            final Class<?> implClass,
+            ClassAnalyzer analyzer) {
+        if (descriptor == null) return null;
+        
+        Map<String, List<String>> metadata = descriptor.getMetadata();
+        if (metadata == null) return null;
+        
+        List<String> injectorNames = metadata.get(GeneratedServiceInjector.METADATA_KEY);
+        if (injectorNames == null || injectorNames.isEmpty()) return null;
+        
+        // The generated analysis is only a match for what the default analyzer finds with @Inject
+        if (!(analyzer instanceof DefaultClassAnalyzer)) return null;
+        if (!locator.hasOnlyInjectResolver()) return null;
+        
+        final String injectorName = injectorNames.get(0);
+        try {
+            GeneratedServiceInjector injector = AccessController.doPrivileged(new PrivilegedExceptionAction<GeneratedServiceInjector>() {
+
+                @Override
+                public GeneratedServiceInjector run() throws Exception {
+                    ClassLoader loader = implClass.getClassLoader();
+                    Class<?> injectorClass = (loader == null) ? Class.forName(injectorName) :
+                        loader.loadClass(injectorName);
+                    
+                    return (GeneratedServiceInjector) injectorClass.newInstance();
+                }
+                
+            });
+            
+            if (!implClass.equals(injector.getImplementationClass())) {
+                Logger.getLogger().debug("The generated injector " + injectorName + " is not for " + implClass.getName());
+                return null;
+            }
+            
+            return new GeneratedClassAnalyzer(injector);
+        }
+        catch (Throwable th) {
+            Logger.getLogger().debug("GeneratedClassAnalyzer", "create", th);
+            return null;
+        }
+    }
+    
+    /**
+     * @return The generated injector this analyzer takes its answers from
+     */
+    /* package */ GeneratedServiceInjector getGeneratedInjector() {
+        return generated;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Constructor<T> getConstructor(final Class<T> clazz)
+            throws MultiException, NoSuchMethodException {
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<Constructor<T>>() {
+
+                @Override
+                public Constructor<T> run() throws NoSuchMethodException {
+                    return clazz.getDeclaredConstructor(generated.getConstructorParameters());
+                }
+                
+            });
+        }
+        catch (PrivilegedActionException pae) {
+            throw (NoSuchMethodException) pae.getException();
+        }
+    }
+
+    @Override
+    public <T> Set<Method> getInitializerMethods(Class<T> clazz)
+            throws MultiException {
+        Set<Method> retVal = new LinkedHashSet<Method>();
+        for (InjectedMember member : generated.getInitializerMethods()) {
+            retVal.add(getMethod(member));
+        }
+        
+        return retVal;
+    }
+
+    @Override
+    public <T> Set<Field> getFields(Class<T> clazz) throws MultiException {
+        Set<Field> retVal = new LinkedHashSet<Field>();
+        for (final InjectedMember member : generated.getFields()) {
+            try {
+                retVal.add(AccessController.doPrivileged(new PrivilegedExceptionAction<Field>() {
+
+                    @Override
+                    public Field run() throws NoSuchFieldException {
+                        return member.getDeclaringClass().getDeclaredField(member.getName());
+                    }
+                    
+                }));
+            }
+            catch (PrivilegedActionException pae) {
+                throw new MultiException(pae.getException());
+            }
+        }
+        
+        return retVal;
+    }
+
+    @Override
+    public <T> Method getPostConstructMethod(Class<T> clazz)
+            throws MultiException {
+        InjectedMember member = generated.getPostConstructMethod();
+        if (member == null) return null;
+        
+        return getMethod(member);
+    }
+
+    @Override
+    public <T> Method getPreDestroyMethod(Class<T> clazz) throws MultiException {
+        InjectedMember member = generated.getPreDestroyMethod();
+        if (member == null) return null;
+        
+        return getMethod(member);
+    }
+    
+    private static Method getMethod(final InjectedMember member) throws MultiException {
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<Method>() {
+
+                @Override
+                public Method run() throws NoSuchMethodException {
+                    return member.getDeclaringClass().getDeclaredMethod(member.getName(), member.getParameters());
+                }
+                
+            });
+        }
+        catch (PrivilegedActionException pae) {
+            throw new MultiException(pae.getException());
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "GeneratedClassAnalyzer(" + generated + "," + System.identityHashCode(this) + ")";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.internal;
+
+/**
+ * The superclass of the injectors that are generated at runtime for
+ * frequently created service implementation classes.  A generated
+ * injector calls the constructor, fields and methods of the implementation
+ * class directly rather than through reflection.  Only public members of
+ * public classes whose signatures only use public types, and only for public
+ * implementation classes, are ever given an index in a generated injector,
+ * all other members are still handled reflectively by {@link ClazzCreator}.
+ * If an injector fails to link, it is dropped and everything is done
+ * reflectively
+ * <p>
+ * This class must be public since the generated subclasses are defined
+ * in a different classloader
+ * 
+ * @author jwells
+ *
+ */
+public abstract class GeneratedInjector {
+    /**
+     * Calls the constructor of the implementation class.  Only called
+     * if the constructor was generated, injectors for which it was not
+     * generated do not override this method
+     * 
+     * @param args The arguments to the constructor, in order
+     * @return The newly created instance
+     * @throws Throwable Anything thrown by the constructor, unwrapped
+     */
+    public Object construct(Object args[]) throws Throwable {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Sets the field with the given index
+     * 
+     * @param index The index of the field as given by the generator
+     * @param target The non-null instance to set the field on
+     * @param value The value to set into the field
+     * @throws Throwable If the value is not of the correct type
+     */
+    public abstract void setField(int index, Object target, Object value) throws Throwable;
+    
+    /**
+     * Invokes the method with the given index
+     * 
+     * @param index The index of the method as given by the generator
+     * @param target The non-null instance to invoke the method on
+     * @param args The arguments to the method, in order
+     * @throws Throwable Anything thrown by the method, unwrapped
+     */
+    public abstract void invoke(int index, Object target, Object args[]) throws Throwable;
+
+}
@@ -40,97 +40,83 @@
 
 package org.jvnet.hk2.internal;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.ListIterator;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
- * This object contains a list of values.  The list is not always sorted, but will
- * always be returned sorted.
+ * This object contains a list of values, always kept in ranked order.
+ * Adding or removing a descriptor is O(log n) and the list returned from
+ * {@link #getSortedList()} may be iterated without holding any lock.
  * 
- * All of the methods on here must be called with lock held.
+ * All of the methods that change the list must be called with lock held.
+ * Since the order depends on the ranking of the descriptors a descriptor
+ * must be removed from the list before its ranking is changed and then
+ * added back
  * 
  * @author jwells
  *
  */
 public class IndexedListData {
-    private final ArrayList<SystemDescriptor<?>> unsortedList = new ArrayList<SystemDescriptor<?>>();
-    private volatile boolean sorted = true;
+    private volatile ConcurrentSkipListSet<SystemDescriptor<?>> sortedList =
+            new ConcurrentSkipListSet<SystemDescriptor<?>>(ServiceLocatorImpl.DESCRIPTOR_COMPARATOR);
+    private volatile int size;
     
     public Collection<SystemDescriptor<?>> getSortedList() {
-        if (sorted) return unsortedList;
-        
-        synchronized (this) {
-            if (sorted) return unsortedList;
-        
-            if (unsortedList.size() <= 1) {
-                sorted = true;
-                return unsortedList;
-            }
-            
-            Collections.sort(unsortedList, ServiceLocatorImpl.DESCRIPTOR_COMPARATOR);
-        
-            sorted = true;
-            return unsortedList;
-        }
+        return sortedList;
     }
     
     public synchronized void addDescriptor(SystemDescriptor<?> descriptor) {
-        unsortedList.add(descriptor);
-        
-        if (unsortedList.size() > 1) {
-            sorted = false;
-        }
-        else {
-            sorted = true;
+        if (sortedList.add(descriptor)) {
+            size++;
         }
         
         descriptor.addList(this);
     }
     
     public synchronized void removeDescriptor(SystemDescriptor<?> descriptor) {
-        ListIterator<SystemDescriptor<?>> iterator = unsortedList.listIterator();
-        while (iterator.hasNext()) {
-            SystemDescriptor<?> candidate = iterator.next();
-            if (ServiceLocatorImpl.DESCRIPTOR_COMPARATOR.compare(descriptor, candidate) == 0) {
-                iterator.remove();
-                break;
-            }
-        }
-        
-        if (unsortedList.size() > 1) {
-            sorted = false;
+        if (sortedList.remove(descriptor)) {
+            size--;
         }
-        else {
-            sorted = true;
+        else if (containsByScan(descriptor)) {
+            // The ranking of some descriptor was changed without going through
+            // the locator, so the order of the list can no longer be searched
+            ConcurrentSkipListSet<SystemDescriptor<?>> rebuilt =
+                    new ConcurrentSkipListSet<SystemDescriptor<?>>(ServiceLocatorImpl.DESCRIPTOR_COMPARATOR);
+            for (SystemDescriptor<?> candidate : sortedList) {
+                if (ServiceLocatorImpl.DESCRIPTOR_COMPARATOR.compare(descriptor, candidate) == 0) continue;
+                
+                rebuilt.add(candidate);
+            }
+            
+            sortedList = rebuilt;
+            size = rebuilt.size();
         }
         
         descriptor.removeList(this);
     }
     
-    public synchronized boolean isEmpty() {
-        return unsortedList.isEmpty();
+    private boolean containsByScan(SystemDescriptor<?> descriptor) {
+        for (SystemDescriptor<?> candidate : sortedList) {
+            if (ServiceLocatorImpl.DESCRIPTOR_COMPARATOR.compare(descriptor, candidate) == 0) return true;
+        }
+        
+        return false;
     }
     
-    /**
-     * Called by a SystemDescriptor when its ranking has changed
-     */
-    public synchronized void unSort() {
-        if (unsortedList.size() > 1) {
-            sorted = false;
-        }
+    public boolean isEmpty() {
+        return size == 0;
     }
     
     public synchronized void clear() {
-        for (SystemDescriptor<?> descriptor : unsortedList) {
+        for (SystemDescriptor<?> descriptor : sortedList) {
             descriptor.removeList(this);
         }
         
-        unsortedList.clear();
+        sortedList.clear();
+        size = 0;
     }
     
-    public synchronized int size() {
-        return unsortedList.size();
+    public int size() {
+        return size;
     }
 }
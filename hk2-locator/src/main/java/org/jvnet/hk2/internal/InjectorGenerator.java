@@ -0,0 +1,311 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * Generates {@link GeneratedInjector} subclasses with javassist.  This
+ * class must only be touched when {@link Utilities#proxiesAvailable()}
+ * returns true
+ * 
+ * @author jwells
+ *
+ */
+final class InjectorGenerator {
+    private final static String INJECTOR_SUFFIX = "_$$_hk2Injector";
+    private final static AtomicLong injectorNumber = new AtomicLong();
+    
+    private InjectorGenerator() {}
+    
+    /**
+     * Returns true if a generated injector for the given class can
+     * refer to the class from another classloader.  No member of a
+     * class for which this returns false can be generated, since
+     * the injector casts the instance to the class
+     * 
+     * @param implClass The non-null implementation class
+     * @return true if an injector can be generated for the class
+     */
+    /* package */ static boolean isGeneratable(Class<?> implClass) {
+        return isAccessible(implClass);
+    }
+    
+    /**
+     * Returns true if the given member can be called directly from
+     * a class defined in another classloader.  The member, its declaring
+     * class and all the types in its signature must be public
+     * 
+     * @param member The non-null member to check
+     * @return true if the member can be used by a generated injector
+     */
+    /* package */ static boolean isGeneratable(Member member) {
+        int modifiers = member.getModifiers();
+        if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers)) return false;
+        if ((member instanceof Field) && Modifier.isFinal(modifiers)) return false;
+        
+        Class<?> declaringClass = member.getDeclaringClass();
+        if (member instanceof Constructor && Modifier.isAbstract(declaringClass.getModifiers())) return false;
+        if (!isAccessible(declaringClass)) return false;
+        
+        if (member instanceof Field) {
+            return isAccessible(((Field) member).getType());
+        }
+        
+        Class<?> parameterTypes[] = (member instanceof Method) ?
+                ((Method) member).getParameterTypes() :
+                ((Constructor<?>) member).getParameterTypes();
+        for (Class<?> parameterType : parameterTypes) {
+            if (!isAccessible(parameterType)) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true if the type can be named from a class in any package
+     */
+    private static boolean isAccessible(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) return true;
+        
+        for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+            if (!Modifier.isPublic(current.getModifiers())) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Generates an injector for the given implementation class
+     * 
+     * @param implClass The class of the objects that will be created
+     * @param constructor The constructor to call, or null if the constructor is not generated
+     * @param fields The fields to set, the index of a field is its position in this list
+     * @param methods The methods to invoke, the index of a method is its position in this list
+     * @return The generated injector, or null if one could not be generated
+     */
+    /* package */ static GeneratedInjector generate(final Class<?> implClass,
+            final Constructor<?> constructor,
+            final List<Field> fields,
+            final List<Method> methods) {
+        String packageName = getPackageName(implClass);
+        if (packageName.length() == 0 || packageName.startsWith("java.")) return null;
+        
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<GeneratedInjector>() {
+
+                @Override
+                public GeneratedInjector run() throws Exception {
+                    return generateInternal(implClass, constructor, fields, methods);
+                }
+                
+            });
+        }
+        catch (Throwable th) {
+            Logger.getLogger().debug("InjectorGenerator", "generate " + implClass.getName(), th);
+            return null;
+        }
+    }
+    
+    private static GeneratedInjector generateInternal(Class<?> implClass,
+            Constructor<?> constructor,
+            List<Field> fields,
+            List<Method> methods) throws Exception {
+        ClassLoader implLoader = implClass.getClassLoader();
+        if (implLoader == null) implLoader = ClassLoader.getSystemClassLoader();
+        
+        InjectorClassLoader loader = new InjectorClassLoader(implLoader,
+                GeneratedInjector.class.getClassLoader());
+        
+        ClassPool pool = new ClassPool(false);
+        pool.appendClassPath(new LoaderClassPath(loader));
+        
+        String injectorName = implClass.getName() + INJECTOR_SUFFIX + injectorNumber.getAndIncrement();
+        CtClass injectorClass = pool.makeClass(injectorName,
+                pool.get(GeneratedInjector.class.getName()));
+        
+        try {
+            injectorClass.addConstructor(CtNewConstructor.defaultConstructor(injectorClass));
+            if (constructor != null) {
+                injectorClass.addMethod(CtNewMethod.make(constructSource(implClass, constructor), injectorClass));
+            }
+            injectorClass.addMethod(CtNewMethod.make(setFieldSource(fields), injectorClass));
+            injectorClass.addMethod(CtNewMethod.make(invokeSource(methods), injectorClass));
+            
+            byte bytecode[] = injectorClass.toBytecode();
+            
+            Class<?> generated = loader.defineInjector(injectorName, bytecode,
+                    implClass.getProtectionDomain());
+            
+            return (GeneratedInjector) generated.newInstance();
+        }
+        finally {
+            injectorClass.detach();
+        }
+    }
+    
+    private static String constructSource(Class<?> implClass, Constructor<?> constructor) {
+        StringBuilder sb = new StringBuilder("public java.lang.Object construct(java.lang.Object[] a) {");
+        
+        sb.append(" return new ").append(sourceName(implClass)).append('(');
+        appendArguments(sb, constructor.getParameterTypes());
+        sb.append("); }");
+        
+        return sb.toString();
+    }
+    
+    private static String setFieldSource(List<Field> fields) {
+        StringBuilder sb = new StringBuilder("public void setField(int i, java.lang.Object t, java.lang.Object v) {");
+        
+        // Cast to the declaring class, the implementation class may hide the field
+        int index = 0;
+        for (Field field : fields) {
+            sb.append(" if (i == ").append(index++).append(") { ((")
+              .append(sourceName(field.getDeclaringClass())).append(") t).")
+              .append(field.getName()).append(" = ");
+            appendValue(sb, field.getType(), "v");
+            sb.append("; return; }");
+        }
+        
+        sb.append(" throw new java.lang.IndexOutOfBoundsException(); }");
+        
+        return sb.toString();
+    }
+    
+    private static String invokeSource(List<Method> methods) {
+        StringBuilder sb = new StringBuilder("public void invoke(int i, java.lang.Object t, java.lang.Object[] a) {");
+        
+        int index = 0;
+        for (Method method : methods) {
+            sb.append(" if (i == ").append(index++).append(") { ((")
+              .append(sourceName(method.getDeclaringClass())).append(") t).")
+              .append(method.getName()).append('(');
+            appendArguments(sb, method.getParameterTypes());
+            sb.append("); return; }");
+        }
+        
+        sb.append(" throw new java.lang.IndexOutOfBoundsException(); }");
+        
+        return sb.toString();
+    }
+    
+    private static void appendArguments(StringBuilder sb, Class<?> parameterTypes[]) {
+        for (int lcv = 0; lcv < parameterTypes.length; lcv++) {
+            if (lcv > 0) sb.append(", ");
+            appendValue(sb, parameterTypes[lcv], "a[" + lcv + "]");
+        }
+    }
+    
+    private static void appendValue(StringBuilder sb, Class<?> type, String value) {
+        if (!type.isPrimitive()) {
+            sb.append("((").append(sourceName(type)).append(") ").append(value).append(')');
+            return;
+        }
+        
+        String wrapper;
+        if (boolean.class.equals(type)) wrapper = "java.lang.Boolean";
+        else if (char.class.equals(type)) wrapper = "java.lang.Character";
+        else if (byte.class.equals(type)) wrapper = "java.lang.Byte";
+        else if (short.class.equals(type)) wrapper = "java.lang.Short";
+        else if (int.class.equals(type)) wrapper = "java.lang.Integer";
+        else if (long.class.equals(type)) wrapper = "java.lang.Long";
+        else if (float.class.equals(type)) wrapper = "java.lang.Float";
+        else wrapper = "java.lang.Double";
+        
+        sb.append("((").append(wrapper).append(") ").append(value).append(").")
+          .append(type.getName()).append("Value()");
+    }
+    
+    /**
+     * Gets the name of the type as it would be written in source
+     * given to the javassist compiler
+     */
+    private static String sourceName(Class<?> type) {
+        if (type.isArray()) {
+            return sourceName(type.getComponentType()) + "[]";
+        }
+        
+        return type.getName();
+    }
+    
+    private static String getPackageName(Class<?> clazz) {
+        String name = clazz.getName();
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot < 0) return "";
+        
+        return name.substring(0, lastDot);
+    }
+    
+    /**
+     * The loader that defines a single generated injector.  Each injector
+     * gets its own loader so that it can be collected along with the
+     * ClazzCreator that uses it
+     */
+    private static class InjectorClassLoader extends DelegatingClassLoader {
+        private InjectorClassLoader(ClassLoader parent, ClassLoader delegate) {
+            super(parent, delegate);
+        }
+        
+        private Class<?> defineInjector(String name, byte bytecode[], ProtectionDomain domain) {
+            return defineClass(name, bytecode, 0, bytecode.length, domain);
+        }
+    }
+}
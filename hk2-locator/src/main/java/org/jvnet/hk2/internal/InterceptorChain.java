@@ -0,0 +1,168 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.glassfish.hk2.api.HK2Invocation;
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+
+/**
+ * The interceptors of one intercepted method, compiled once so that a call
+ * walks the interceptor array and then calls the original method of the proxy
+ * without copying the interceptor list
+ * 
+ * @author jwells
+ *
+ */
+class InterceptorChain {
+    private final Method method;
+    private final MethodInterceptor[] interceptors;
+    
+    /* package */ InterceptorChain(Method method, List<MethodInterceptor> interceptors) {
+        this.method = method;
+        this.interceptors = interceptors.toArray(new MethodInterceptor[interceptors.size()]);
+    }
+    
+    /**
+     * Runs the chain
+     * 
+     * @param self The proxy being called
+     * @param proceed The method of the proxy that calls the original method
+     * @param args The arguments of the call (live)
+     * @param neutralCCL true if the context class loader must be the same after the original method
+     * @return The result of the chain
+     * @throws Throwable Whatever the interceptors or the original method throw
+     */
+    /* package */ Object invoke(Object self, Method proceed, Object[] args, boolean neutralCCL) throws Throwable {
+        return interceptors[0].invoke(new ChainInvocation(self, proceed, args, neutralCCL, 0, null));
+    }
+    
+    /**
+     * The invocation given to the interceptor at one index of the chain.  It
+     * never changes, so an interceptor may keep it and proceed at any time,
+     * and as often as it likes.  As with the invocations of the reflective
+     * chain, user data is passed down the chain but not back up it
+     */
+    private class ChainInvocation implements MethodInvocation, HK2Invocation {
+        private final Object myself;
+        private final Method proceed;
+        private final Object[] arguments;  // Live!
+        private final boolean neutralCCL;
+        private final int index;
+        private HashMap<String, Object> userData;
+        
+        private ChainInvocation(Object myself, Method proceed, Object[] arguments, boolean neutralCCL,
+                int index, HashMap<String, Object> userData) {
+            this.myself = myself;
+            this.proceed = proceed;
+            this.arguments = arguments;
+            this.neutralCCL = neutralCCL;
+            this.index = index;
+            this.userData = userData;
+        }
+
+        @Override
+        public Object[] getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public AccessibleObject getStaticPart() {
+            return method;
+        }
+
+        @Override
+        public Object getThis() {
+            return myself;
+        }
+
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+
+        @Override
+        public Object proceed() throws Throwable {
+            int newIndex = index + 1;
+            if (newIndex >= interceptors.length) {
+                return ReflectionHelper.invoke(myself, proceed, arguments, neutralCCL);
+            }
+            
+            return interceptors[newIndex].invoke(new ChainInvocation(myself, proceed, arguments, neutralCCL,
+                    newIndex, userData));
+        }
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.api.HK2Invocation#setUserData(java.lang.String, java.lang.Object)
+         */
+        @Override
+        public void setUserData(String key, Object data) {
+            if (key == null) throw new IllegalArgumentException();
+            
+            if (userData == null) userData = new HashMap<String, Object>();
+            
+            if (data == null) {
+                userData.remove(key);
+            }
+            else {
+                userData.put(key, data);
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.api.HK2Invocation#getUserData(java.lang.String)
+         */
+        @Override
+        public Object getUserData(String key) {
+            if (key == null) throw new IllegalArgumentException();
+            
+            if (userData == null) return null;
+            return userData.get(key);
+        }
+        
+    }
+
+}
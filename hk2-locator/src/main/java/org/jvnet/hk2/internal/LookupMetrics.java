@@ -0,0 +1,260 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.PerLookup;
+import org.glassfish.hk2.utilities.reflection.Logger;
+import org.jvnet.hk2.external.runtime.ContractMetrics;
+import org.jvnet.hk2.external.runtime.LookupMetricsListener;
+
+/**
+ * The per-contract lookup metrics of one ServiceLocator.  An instance
+ * only exists while lookup metrics are enabled, so when they are
+ * disabled the only cost to a lookup is reading a null field.
+ * <p>
+ * Lookups and narrowing happen on every service lookup and so are
+ * counted with {@link StripedCounter}s.  Creations and just in time
+ * resolutions are much more expensive than the counting, so they
+ * use plain atomics
+ * 
+ * @author jwells
+ *
+ */
+final class LookupMetrics {
+    private final static int HISTOGRAM_SIZE = 64;
+    
+    private final ConcurrentHashMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+    private final List<LookupMetricsListener> listeners;
+    
+    /* package */ LookupMetrics(List<LookupMetricsListener> listeners) {
+        this.listeners = listeners;
+    }
+    
+    private Counters getCounters(String contract) {
+        Counters retVal = counters.get(contract);
+        if (retVal != null) return retVal;
+        
+        retVal = new Counters();
+        Counters previous = counters.putIfAbsent(contract, retVal);
+        
+        return (previous != null) ? previous : retVal;
+    }
+    
+    private static int getHistogramBucket(long nanos) {
+        if (nanos <= 0L) return 0;
+        
+        return Math.min(HISTOGRAM_SIZE - 1, HISTOGRAM_SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+    
+    /**
+     * Records a lookup of the given contract
+     * 
+     * @param contract The contract looked up
+     * @param cacheHit true if the lookup was satisfied from the cache
+     */
+    /* package */ void lookup(String contract, boolean cacheHit) {
+        Counters c = getCounters(contract);
+        if (cacheHit) {
+            c.cacheHits.increment();
+        }
+        else {
+            c.cacheMisses.increment();
+        }
+        
+        for (LookupMetricsListener listener : listeners) {
+            try {
+                listener.onLookup(contract, cacheHit);
+            }
+            catch (Throwable th) {
+                Logger.getLogger().debug("LookupMetrics", "onLookup", th);
+            }
+        }
+    }
+    
+    /**
+     * Records a narrowing of the candidates of the given contract
+     * 
+     * @param contract The contract whose candidates were narrowed
+     * @param nanos The time the narrowing took
+     */
+    /* package */ void narrowed(String contract, long nanos) {
+        Counters c = getCounters(contract);
+        c.narrows.increment();
+        c.narrowNanos.add(nanos);
+        c.narrowHistogram.incrementAndGet(getHistogramBucket(nanos));
+        
+        for (LookupMetricsListener listener : listeners) {
+            try {
+                listener.onNarrow(contract, nanos);
+            }
+            catch (Throwable th) {
+                Logger.getLogger().debug("LookupMetrics", "onNarrow", th);
+            }
+        }
+    }
+    
+    /**
+     * Records the creation of a service, under every contract the
+     * service advertises
+     * 
+     * @param descriptor The descriptor of the service created
+     * @param nanos The time the creation took
+     */
+    /* package */ void created(ActiveDescriptor<?> descriptor, long nanos) {
+        String scope = descriptor.getScope();
+        if (scope == null) scope = PerLookup.class.getName();
+        
+        for (String contract : descriptor.getAdvertisedContracts()) {
+            Creations creations = getCounters(contract).getCreations(scope);
+            creations.count.incrementAndGet();
+            creations.nanos.addAndGet(nanos);
+            
+            for (LookupMetricsListener listener : listeners) {
+                try {
+                    listener.onCreation(contract, scope, nanos);
+                }
+                catch (Throwable th) {
+                    Logger.getLogger().debug("LookupMetrics", "onCreation", th);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Records an invocation of a just in time resolver
+     * 
+     * @param contract The contract of the injection point
+     * @param modified true if the resolver added services
+     */
+    /* package */ void justInTime(String contract, boolean modified) {
+        Counters c = getCounters(contract);
+        c.jitResolutions.incrementAndGet();
+        if (modified) {
+            c.jitModifications.incrementAndGet();
+        }
+        
+        for (LookupMetricsListener listener : listeners) {
+            try {
+                listener.onJustInTimeResolution(contract, modified);
+            }
+            catch (Throwable th) {
+                Logger.getLogger().debug("LookupMetrics", "onJustInTimeResolution", th);
+            }
+        }
+    }
+    
+    /**
+     * Returns a snapshot of the metrics of every contract
+     * 
+     * @return A new map from contract name to its metrics
+     */
+    /* package */ Map<String, ContractMetrics> getContractMetrics() {
+        Map<String, ContractMetrics> retVal = new HashMap<String, ContractMetrics>();
+        
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            String contract = entry.getKey();
+            Counters c = entry.getValue();
+            
+            long histogram[] = new long[HISTOGRAM_SIZE];
+            for (int lcv = 0; lcv < HISTOGRAM_SIZE; lcv++) {
+                histogram[lcv] = c.narrowHistogram.get(lcv);
+            }
+            
+            Map<String, Long> creationCounts = new HashMap<String, Long>();
+            Map<String, Long> creationNanos = new HashMap<String, Long>();
+            for (Map.Entry<String, Creations> creation : c.creations.entrySet()) {
+                creationCounts.put(creation.getKey(), creation.getValue().count.get());
+                creationNanos.put(creation.getKey(), creation.getValue().nanos.get());
+            }
+            
+            long hits = c.cacheHits.get();
+            long misses = c.cacheMisses.get();
+            
+            retVal.put(contract, new ContractMetricsImpl(contract,
+                    hits + misses,
+                    hits,
+                    misses,
+                    c.narrows.get(),
+                    c.narrowNanos.get(),
+                    histogram,
+                    creationCounts,
+                    creationNanos,
+                    c.jitResolutions.get(),
+                    c.jitModifications.get()));
+        }
+        
+        return retVal;
+    }
+    
+    private static class Counters {
+        private final StripedCounter cacheHits = new StripedCounter();
+        private final StripedCounter cacheMisses = new StripedCounter();
+        private final StripedCounter narrows = new StripedCounter();
+        private final StripedCounter narrowNanos = new StripedCounter();
+        private final AtomicLongArray narrowHistogram = new AtomicLongArray(HISTOGRAM_SIZE);
+        private final ConcurrentHashMap<String, Creations> creations = new ConcurrentHashMap<String, Creations>();
+        private final AtomicLong jitResolutions = new AtomicLong();
+        private final AtomicLong jitModifications = new AtomicLong();
+        
+        private Creations getCreations(String scope) {
+            Creations retVal = creations.get(scope);
+            if (retVal != null) return retVal;
+            
+            retVal = new Creations();
+            Creations previous = creations.putIfAbsent(scope, retVal);
+            
+            return (previous != null) ? previous : retVal;
+        }
+    }
+    
+    private static class Creations {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+    }
+
+}
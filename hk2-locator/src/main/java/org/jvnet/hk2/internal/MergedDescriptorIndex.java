@@ -0,0 +1,254 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.glassfish.hk2.api.DescriptorVisibility;
+import org.jvnet.hk2.internal.DescriptorIndexSnapshot.ContractAndName;
+
+/**
+ * The descriptors of a {@link ServiceLocatorImpl} merged with the
+ * (non-local) descriptors of all of its ancestors, kept in ranked order.
+ * <p>
+ * Each merged list remembers the two lists it was made from: the list of
+ * the owning locator's {@link DescriptorIndexSnapshot} and the merged list
+ * of the parent.  Since snapshots share the lists of keys that did not change,
+ * a merged list is only rebuilt (once) after a commit or a rank change
+ * in this locator or one of its ancestors has touched its key.  Lookups
+ * of unchanged keys therefore neither allocate nor sort
+ * 
+ * @author jwells
+ *
+ */
+class MergedDescriptorIndex {
+    private final ServiceLocatorImpl locator;
+    private final ServiceLocatorImpl parent;
+    
+    private volatile MergedList allDescriptors;
+    private final ConcurrentHashMap<String, MergedList> byAdvertisedContract =
+            new ConcurrentHashMap<String, MergedList>();
+    private final ConcurrentHashMap<String, MergedList> byName =
+            new ConcurrentHashMap<String, MergedList>();
+    private final ConcurrentHashMap<ContractAndName, MergedList> byContractAndName =
+            new ConcurrentHashMap<ContractAndName, MergedList>();
+    private final ConcurrentHashMap<String, MergedList> byImplementation =
+            new ConcurrentHashMap<String, MergedList>();
+    
+    /**
+     * @param locator The locator whose descriptors are merged
+     * @param parent The parent of the locator, may be null
+     */
+    /* package */ MergedDescriptorIndex(ServiceLocatorImpl locator, ServiceLocatorImpl parent) {
+        this.locator = locator;
+        this.parent = parent;
+    }
+    
+    /**
+     * Returns all descriptors of this locator and its ancestors
+     * 
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    /* package */ List<SystemDescriptor<?>> getAllDescriptors() {
+        List<SystemDescriptor<?>> own = locator.getIndexSnapshot().getAllDescriptors();
+        if (parent == null) return own;
+        
+        List<SystemDescriptor<?>> parents = parent.getMergedIndex().getAllDescriptors();
+        
+        MergedList current = allDescriptors;
+        if (current != null && current.isMergeOf(own, parents)) return current.merged;
+        
+        current = new MergedList(own, parents);
+        allDescriptors = current;
+        
+        return current.merged;
+    }
+    
+    /**
+     * Returns the descriptors of this locator and its ancestors
+     * that advertise the given contract
+     * 
+     * @param contract The non-null contract to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    /* package */ List<SystemDescriptor<?>> getByAdvertisedContract(String contract) {
+        List<SystemDescriptor<?>> own = locator.getIndexSnapshot().getByAdvertisedContract(contract);
+        if (parent == null) return own;
+        
+        return get(byAdvertisedContract, contract, own,
+                parent.getMergedIndex().getByAdvertisedContract(contract));
+    }
+    
+    /**
+     * Returns the descriptors of this locator and its ancestors
+     * that have the given name
+     * 
+     * @param name The non-null name to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    /* package */ List<SystemDescriptor<?>> getByName(String name) {
+        List<SystemDescriptor<?>> own = locator.getIndexSnapshot().getByName(name);
+        if (parent == null) return own;
+        
+        return get(byName, name, own, parent.getMergedIndex().getByName(name));
+    }
+    
+    /**
+     * Returns the descriptors of this locator and its ancestors
+     * that have the given name and advertised contract
+     * 
+     * @param contract The non-null advertised contract to look for
+     * @param name The non-null name to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    /* package */ List<SystemDescriptor<?>> getByContractAndName(String contract, String name) {
+        List<SystemDescriptor<?>> own = locator.getIndexSnapshot().getByContractAndName(contract, name);
+        if (parent == null) return own;
+        
+        return get(byContractAndName, new ContractAndName(contract, name), own,
+                parent.getMergedIndex().getByContractAndName(contract, name));
+    }
+    
+    /**
+     * Returns the descriptors of this locator and its ancestors
+     * that have the given implementation
+     * 
+     * @param implementation The non-null implementation to look for
+     * @return A non-null, unmodifiable and sorted list of descriptors
+     */
+    /* package */ List<SystemDescriptor<?>> getByImplementation(String implementation) {
+        List<SystemDescriptor<?>> own = locator.getIndexSnapshot().getByImplementation(implementation);
+        if (parent == null) return own;
+        
+        return get(byImplementation, implementation, own,
+                parent.getMergedIndex().getByImplementation(implementation));
+    }
+    
+    /**
+     * Forgets all merged lists, called when the locator is shut down
+     */
+    /* package */ void clear() {
+        allDescriptors = null;
+        byAdvertisedContract.clear();
+        byName.clear();
+        byContractAndName.clear();
+        byImplementation.clear();
+    }
+    
+    private static <K> List<SystemDescriptor<?>> get(ConcurrentHashMap<K, MergedList> index,
+            K key,
+            List<SystemDescriptor<?>> own,
+            List<SystemDescriptor<?>> parents) {
+        MergedList current = index.get(key);
+        if (current != null && current.isMergeOf(own, parents)) return current.merged;
+        
+        if (own.isEmpty() && parents.isEmpty()) {
+            // Do not keep entries around for keys that are not there
+            if (current != null) index.remove(key, current);
+            return Collections.emptyList();
+        }
+        
+        current = new MergedList(own, parents);
+        index.put(key, current);
+        
+        return current.merged;
+    }
+    
+    /**
+     * A merged list along with the lists it was made from
+     */
+    private static class MergedList {
+        private final List<SystemDescriptor<?>> own;
+        private final List<SystemDescriptor<?>> parents;
+        private final List<SystemDescriptor<?>> merged;
+        
+        private MergedList(List<SystemDescriptor<?>> own, List<SystemDescriptor<?>> parents) {
+            this.own = own;
+            this.parents = parents;
+            this.merged = merge(own, parents);
+        }
+        
+        private boolean isMergeOf(List<SystemDescriptor<?>> own, List<SystemDescriptor<?>> parents) {
+            return (this.own == own) && (this.parents == parents);
+        }
+        
+        /**
+         * Merges the two sorted lists, leaving out the local descriptors
+         * of the ancestors since those are never visible to children
+         */
+        private static List<SystemDescriptor<?>> merge(List<SystemDescriptor<?>> own,
+                List<SystemDescriptor<?>> parents) {
+            ArrayList<SystemDescriptor<?>> retVal =
+                    new ArrayList<SystemDescriptor<?>>(own.size() + parents.size());
+            
+            int ownIndex = 0;
+            int parentIndex = 0;
+            while (ownIndex < own.size() || parentIndex < parents.size()) {
+                SystemDescriptor<?> parentCandidate = null;
+                while (parentIndex < parents.size()) {
+                    parentCandidate = parents.get(parentIndex);
+                    if (!DescriptorVisibility.LOCAL.equals(parentCandidate.getDescriptorVisibility())) break;
+                    
+                    parentCandidate = null;
+                    parentIndex++;
+                }
+                
+                if (parentCandidate == null) {
+                    if (ownIndex >= own.size()) break;
+                    retVal.add(own.get(ownIndex++));
+                }
+                else if (ownIndex >= own.size() ||
+                        ServiceLocatorImpl.DESCRIPTOR_COMPARATOR.compare(parentCandidate, own.get(ownIndex)) < 0) {
+                    retVal.add(parentCandidate);
+                    parentIndex++;
+                }
+                else {
+                    retVal.add(own.get(ownIndex++));
+                }
+            }
+            
+            return Collections.unmodifiableList(retVal);
+        }
+    }
+}
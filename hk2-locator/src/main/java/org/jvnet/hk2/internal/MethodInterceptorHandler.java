@@ -76,16 +76,45 @@ public class MethodInterceptorHandler implements MethodHandler {
             
     });
     
+    /**
+     * When false the interceptors are always run with the reflective chain
+     */
+    private final static boolean COMPILE_CHAINS = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+        @Override
+        public Boolean run() {
+            return Boolean.parseBoolean(
+                System.getProperty("org.jvnet.hk2.properties.interceptors.compile", "true"));
+        }
+            
+    });
+    
     private final ServiceLocatorImpl locator;
     private final Map<Method, List<MethodInterceptor>> interceptorLists;
     private final ActiveDescriptor<?> underlyingDescriptor;
     
+    /** Null if the reflective chain is used, which it always is when tracing */
+    private final Map<Method, InterceptorChain> chains;
+    
     /* package */ MethodInterceptorHandler(ServiceLocatorImpl locator,
             ActiveDescriptor<?> underlyingDescriptor,
             Map<Method, List<MethodInterceptor>> interceptorLists) {
         this.locator = locator;
         this.interceptorLists = interceptorLists;
         this.underlyingDescriptor = underlyingDescriptor;
+        
+        if (COMPILE_CHAINS && !DEBUG_INTERCEPTION) {
+            chains = new HashMap<Method, InterceptorChain>();
+            
+            for (Map.Entry<Method, List<MethodInterceptor>> entry : interceptorLists.entrySet()) {
+                List<MethodInterceptor> interceptors = entry.getValue();
+                if (interceptors == null || interceptors.isEmpty()) continue;
+                
+                chains.put(entry.getKey(), new InterceptorChain(entry.getKey(), interceptors));
+            }
+        }
+        else {
+            chains = null;
+        }
     }
 
     /* (non-Javadoc)
@@ -98,6 +127,15 @@ public class MethodInterceptorHandler implements MethodHandler {
             return underlyingDescriptor;
         }
         
+        if (chains != null) {
+            InterceptorChain chain = chains.get(thisMethod);
+            if (chain == null) {
+                return ReflectionHelper.invoke(self, proceed, args, locator.getNeutralContextClassLoader());
+            }
+            
+            return chain.invoke(self, proceed, args, locator.getNeutralContextClassLoader());
+        }
+        
         List<MethodInterceptor> interceptors = interceptorLists.get(thisMethod);
         if (interceptors == null || interceptors.isEmpty()) {
             return ReflectionHelper.invoke(self, proceed, args, locator.getNeutralContextClassLoader());
@@ -0,0 +1,389 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.glassfish.hk2.api.DescriptorType;
+import org.glassfish.hk2.api.Injectee;
+import org.glassfish.hk2.api.IterableProvider;
+import org.glassfish.hk2.utilities.reflection.Logger;
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+
+/**
+ * Destroys a set of created Singleton services on more than one thread.
+ * A service is only destroyed once every other service in the set that
+ * has it injected (or, for a service produced by a factory, the service
+ * itself before the factory) has been destroyed.  The dependencies are
+ * found from the injection points of the services without doing any
+ * lookups, and may include services that would not really have been
+ * injected, which only means less is done at the same time.
+ * <p>
+ * Services that are ready are started in the order they would have been
+ * destroyed one after the other, with no more than the given number being
+ * destroyed at once.  A service whose destruction takes longer than the
+ * timeout is logged and left running, and the ones that depend on it are
+ * then treated as if it had finished.  If services are left that cannot be
+ * started because of a dependency cycle, the first of them in serial order
+ * is started anyway
+ * 
+ * @author jwells
+ *
+ */
+/* package */ class ParallelSingletonDestroyer {
+    private final static ThreadFactory THREAD_FACTORY = new DestroyerThreadFactory();
+    
+    private final SingletonContext context;
+    private final List<SystemDescriptor<Object>> singletons;
+    private final int maxThreads;
+    private final long timeout;
+    
+    /** For each service, the services that must be destroyed before it */
+    private final List<Set<Integer>> dependents;
+    /** For each service, the services that must wait for it to be destroyed */
+    private final List<Set<Integer>> dependencies;
+    
+    /**
+     * Creates a destroyer for the given services
+     * 
+     * @param context The context that will destroy each service
+     * @param singletons The services to destroy, in the order they
+     * would be destroyed one after the other
+     * @param maxThreads The maximum number of services to destroy at once,
+     * must be greater than zero
+     * @param timeout The number of milliseconds to wait for any one service
+     * to be destroyed, or zero to wait forever
+     */
+    /* package */ ParallelSingletonDestroyer(SingletonContext context,
+            List<SystemDescriptor<Object>> singletons,
+            int maxThreads,
+            long timeout) {
+        this.context = context;
+        this.singletons = singletons;
+        this.maxThreads = maxThreads;
+        this.timeout = timeout;
+        
+        int size = singletons.size();
+        dependents = new ArrayList<Set<Integer>>(size);
+        dependencies = new ArrayList<Set<Integer>>(size);
+        for (int lcv = 0; lcv < size; lcv++) {
+            dependents.add(new HashSet<Integer>());
+            dependencies.add(new HashSet<Integer>());
+        }
+        
+        findDependencies();
+    }
+    
+    private void findDependencies() {
+        Map<String, List<Integer>> byContract = new HashMap<String, List<Integer>>();
+        
+        int index = 0;
+        for (SystemDescriptor<Object> singleton : singletons) {
+            for (String contract : singleton.getAdvertisedContracts()) {
+                List<Integer> indexes = byContract.get(contract);
+                if (indexes == null) {
+                    indexes = new LinkedList<Integer>();
+                    byContract.put(contract, indexes);
+                }
+                
+                indexes.add(index);
+            }
+            
+            index++;
+        }
+        
+        index = 0;
+        for (SystemDescriptor<Object> singleton : singletons) {
+            for (Injectee injectee : getInjectees(singleton)) {
+                Class<?> rawType = getRawContract(injectee.getRequiredType());
+                if (rawType == null) continue;
+                
+                List<Integer> candidates = byContract.get(rawType.getName());
+                if (candidates == null) continue;
+                
+                for (Integer candidate : candidates) {
+                    if (candidate.intValue() == index) continue;
+                    
+                    if (!hasQualifiers(singletons.get(candidate), injectee.getRequiredQualifiers())) continue;
+                    
+                    addDependency(index, candidate);
+                }
+            }
+            
+            if (DescriptorType.PROVIDE_METHOD.equals(singleton.getDescriptorType())) {
+                Long factoryServiceId = singleton.getFactoryServiceId();
+                Long factoryLocatorId = singleton.getFactoryLocatorId();
+                
+                int factoryIndex = 0;
+                for (SystemDescriptor<Object> factory : singletons) {
+                    if (factoryIndex != index &&
+                            factory.getServiceId() != null &&
+                            factory.getServiceId().equals(factoryServiceId) &&
+                            factory.getLocatorId() != null &&
+                            factory.getLocatorId().equals(factoryLocatorId)) {
+                        addDependency(index, factoryIndex);
+                    }
+                    
+                    factoryIndex++;
+                }
+            }
+            
+            index++;
+        }
+    }
+    
+    private void addDependency(int dependent, int dependency) {
+        dependencies.get(dependent).add(dependency);
+        dependents.get(dependency).add(dependent);
+    }
+    
+    private static List<Injectee> getInjectees(SystemDescriptor<Object> singleton) {
+        try {
+            return singleton.getInjectees();
+        }
+        catch (Throwable th) {
+            return new LinkedList<Injectee>();
+        }
+    }
+    
+    private static Class<?> getRawContract(Type requiredType) {
+        Class<?> rawType = ReflectionHelper.getRawClass(requiredType);
+        
+        if (Provider.class.equals(rawType) ||
+                Iterable.class.equals(rawType) ||
+                IterableProvider.class.equals(rawType)) {
+            rawType = ReflectionHelper.getRawClass(ReflectionHelper.getFirstTypeArgument(requiredType));
+        }
+        
+        return rawType;
+    }
+    
+    /**
+     * Only the types of the qualifiers are compared, not their values,
+     * so that more services are thought to be dependencies rather than fewer
+     */
+    private static boolean hasQualifiers(SystemDescriptor<Object> candidate, Set<Annotation> required) {
+        Set<String> candidateQualifiers = candidate.getQualifiers();
+        
+        for (Annotation qualifier : required) {
+            if (!candidateQualifiers.contains(qualifier.annotationType().getName())) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Destroys all of the services.  Returns once all of the services
+     * have been destroyed or have timed out.  If the calling thread is
+     * interrupted the services not yet started are destroyed one after
+     * the other on the calling thread
+     */
+    /* package */ void destroy() {
+        int size = singletons.size();
+        
+        int unmetDependents[] = new int[size];
+        for (int lcv = 0; lcv < size; lcv++) {
+            unmetDependents[lcv] = dependents.get(lcv).size();
+        }
+        
+        boolean started[] = new boolean[size];
+        boolean finished[] = new boolean[size];
+        long deadlines[] = new long[size];
+        Map<Integer, Future<Integer>> inFlight = new HashMap<Integer, Future<Integer>>();
+        int numFinished = 0;
+        
+        // Not bounded by maxThreads, as services that timed out may still be holding threads
+        ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(true),
+                THREAD_FACTORY);
+        CompletionService<Integer> completions = new ExecutorCompletionService<Integer>(executor);
+        
+        try {
+            while (numFinished < size) {
+                for (int lcv = 0; lcv < size && inFlight.size() < maxThreads; lcv++) {
+                    if (started[lcv] || unmetDependents[lcv] > 0) continue;
+                    
+                    start(lcv, completions, started, deadlines, inFlight);
+                }
+                
+                if (inFlight.isEmpty()) {
+                    // Everything left is waiting on a cycle, so break it in serial order
+                    for (int lcv = 0; lcv < size; lcv++) {
+                        if (started[lcv]) continue;
+                        
+                        start(lcv, completions, started, deadlines, inFlight);
+                        break;
+                    }
+                }
+                
+                List<Integer> done = new LinkedList<Integer>();
+                try {
+                    Future<Integer> completed;
+                    if (timeout <= 0L) {
+                        completed = completions.take();
+                    }
+                    else {
+                        long wait = Long.MAX_VALUE;
+                        for (Integer index : inFlight.keySet()) {
+                            wait = Math.min(wait, deadlines[index] - System.currentTimeMillis());
+                        }
+                        
+                        completed = (wait > 0L) ? completions.poll(wait, TimeUnit.MILLISECONDS) : completions.poll();
+                    }
+                    
+                    if (completed != null) {
+                        Integer index = completed.get();
+                        
+                        // Ones that timed out have already been counted
+                        if (!finished[index]) done.add(index);
+                    }
+                }
+                catch (CancellationException ce) {
+                    // One that timed out, which has already been counted
+                }
+                catch (ExecutionException ee) {
+                    // Not possible, each task catches everything
+                    Logger.getLogger().debug("ParallelSingletonDestroyer", "destroy", ee);
+                }
+                
+                if (timeout > 0L) {
+                    long now = System.currentTimeMillis();
+                    
+                    for (Map.Entry<Integer, Future<Integer>> entry : inFlight.entrySet()) {
+                        int index = entry.getKey();
+                        if (done.contains(index) || deadlines[index] > now) continue;
+                        
+                        Logger.getLogger().warning("Singleton service " + singletons.get(index).getImplementation() +
+                                " was not destroyed within " + timeout + " milliseconds, shutdown will continue without it");
+                        
+                        entry.getValue().cancel(false);
+                        done.add(index);
+                    }
+                }
+                
+                for (Integer index : done) {
+                    finished[index] = true;
+                    inFlight.remove(index);
+                    numFinished++;
+                    
+                    for (Integer dependency : dependencies.get(index)) {
+                        unmetDependents[dependency]--;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            
+            for (int lcv = 0; lcv < size; lcv++) {
+                if (started[lcv]) continue;
+                
+                context.destroyOne(singletons.get(lcv));
+            }
+        }
+        finally {
+            Utilities.shutdownExecutor(executor);
+        }
+    }
+    
+    private void start(final int index,
+            CompletionService<Integer> completions,
+            boolean started[],
+            long deadlines[],
+            Map<Integer, Future<Integer>> inFlight) {
+        final SystemDescriptor<Object> singleton = singletons.get(index);
+        
+        Future<Integer> future = completions.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                try {
+                    context.destroyOne(singleton);
+                }
+                catch (Throwable th) {
+                    Logger.getLogger().debug("ParallelSingletonDestroyer", "destroyOne", th);
+                }
+                
+                return index;
+            }
+            
+        });
+        
+        started[index] = true;
+        deadlines[index] = System.currentTimeMillis() + timeout;
+        inFlight.put(index, future);
+    }
+    
+    private static class DestroyerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread activeThread = new Thread(runnable, "hk2-singleton-shutdown-" + threadNumber.getAndIncrement());
+            activeThread.setDaemon(true);
+                
+            return activeThread;
+        }
+    }
+
+}
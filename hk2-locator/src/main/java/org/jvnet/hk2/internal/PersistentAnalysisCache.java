@@ -0,0 +1,551 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * An on-disk cache of the results of the default ClassAnalyzer, so that a
+ * restarted process need not analyze the same unchanged classes again.
+ * Entries are keyed by the name of the implementation class and are only
+ * used if the checksums of the class files of the implementation class
+ * and all of its superclasses are still the same.  For classes in jar files
+ * the checksum is the CRC already stored in the jar, so validating an
+ * entry does not read the class file.  The checksum of a class is only
+ * computed the first time it is needed, since a loaded class cannot change
+ * <p>
+ * The cache is enabled by setting the {@link #CACHE_FILE_PROPERTY} system
+ * property to the file to use.  The file is read when the first locator
+ * using it is created and is written when a locator using it is shut down
+ * if anything new was analyzed.  A file that cannot be read is ignored
+ * 
+ * @author jwells
+ *
+ */
+class PersistentAnalysisCache {
+    /** The system property holding the file of the analysis cache */
+    private final static String CACHE_FILE_PROPERTY = "org.jvnet.hk2.properties.analysis.cache.file";
+    
+    private final static int MAGIC = 0x484B3243;
+    private final static int VERSION = 1;
+    private final static long NO_CHECKSUM = -1L;
+    
+    private final static Map<String, PersistentAnalysisCache> CACHES = new ConcurrentHashMap<String, PersistentAnalysisCache>();
+    
+    /** Must be weak so that classes from discarded loaders can be collected */
+    private final static Map<Class<?>, Long> CHECKSUMS = new WeakHashMap<Class<?>, Long>();
+    
+    private final File file;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean dirty;
+    
+    private PersistentAnalysisCache(File file) {
+        this.file = file;
+        
+        try {
+            load();
+        }
+        catch (Throwable th) {
+            Logger.getLogger().debug("Ignoring the analysis cache " + file, th);
+            entries.clear();
+        }
+    }
+    
+    /**
+     * Returns the analysis cache named by the {@link #CACHE_FILE_PROPERTY}
+     * system property, loading it if this is the first use of that file
+     * 
+     * @return The analysis cache, or null if the cache is not enabled
+     */
+    /* package */ static PersistentAnalysisCache getCache() {
+        String fileName = AccessController.doPrivileged(new PrivilegedAction<String>() {
+            @Override
+            public String run() {
+                return System.getProperty(CACHE_FILE_PROPERTY);
+            }
+            
+        });
+        if (fileName == null || fileName.trim().length() == 0) return null;
+        
+        final File file = new File(fileName.trim()).getAbsoluteFile();
+        synchronized (CACHES) {
+            PersistentAnalysisCache retVal = CACHES.get(file.getPath());
+            if (retVal == null) {
+                retVal = AccessController.doPrivileged(new PrivilegedAction<PersistentAnalysisCache>() {
+                    @Override
+                    public PersistentAnalysisCache run() {
+                        return new PersistentAnalysisCache(file);
+                    }
+                    
+                });
+                
+                CACHES.put(file.getPath(), retVal);
+            }
+            
+            return retVal;
+        }
+    }
+    
+    /**
+     * Returns the checksums of the class files of the given class and all of
+     * its superclasses, in that order
+     * 
+     * @param clazz The class to get the checksums for
+     * @return The checksums, or null if a class file could not be found
+     */
+    /* package */ static long[] getChecksums(final Class<?> clazz) {
+        return AccessController.doPrivileged(new PrivilegedAction<long[]>() {
+            @Override
+            public long[] run() {
+                List<Class<?>> hierarchy = getHierarchy(clazz);
+                
+                long retVal[] = new long[hierarchy.size()];
+                for (int lcv = 0; lcv < retVal.length; lcv++) {
+                    retVal[lcv] = getChecksum(hierarchy.get(lcv));
+                    if (retVal[lcv] == NO_CHECKSUM) return null;
+                }
+                
+                return retVal;
+            }
+            
+        });
+    }
+    
+    /**
+     * @return The given class and its superclasses other than Object
+     */
+    /* package */ static List<Class<?>> getHierarchy(Class<?> clazz) {
+        List<Class<?>> retVal = new ArrayList<Class<?>>();
+        while (clazz != null && !Object.class.equals(clazz)) {
+            retVal.add(clazz);
+            
+            clazz = clazz.getSuperclass();
+        }
+        
+        return retVal;
+    }
+    
+    private static long getChecksum(Class<?> clazz) {
+        synchronized (CHECKSUMS) {
+            Long retVal = CHECKSUMS.get(clazz);
+            if (retVal != null) return retVal;
+        }
+        
+        // Computed outside the lock, two threads may both compute the same value
+        long retVal = computeChecksum(clazz);
+        
+        synchronized (CHECKSUMS) {
+            CHECKSUMS.put(clazz, retVal);
+        }
+        
+        return retVal;
+    }
+    
+    private static long computeChecksum(Class<?> clazz) {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        ClassLoader loader = clazz.getClassLoader();
+        URL url = (loader == null) ? ClassLoader.getSystemResource(resource) : loader.getResource(resource);
+        if (url == null) return NO_CHECKSUM;
+        
+        try {
+            URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                JarEntry jarEntry = ((JarURLConnection) connection).getJarEntry();
+                if (jarEntry != null && jarEntry.getCrc() != -1L) {
+                    return jarEntry.getCrc();
+                }
+            }
+            
+            CRC32 crc = new CRC32();
+            InputStream is = connection.getInputStream();
+            try {
+                byte buffer[] = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            finally {
+                is.close();
+            }
+            
+            return crc.getValue();
+        }
+        catch (IOException ioe) {
+            Logger.getLogger().debug("PersistentAnalysisCache", "getChecksum", ioe);
+            return NO_CHECKSUM;
+        }
+        catch (SecurityException se) {
+            // Not allowed to read the class file, so the class is not cached
+            Logger.getLogger().debug("PersistentAnalysisCache", "getChecksum", se);
+            return NO_CHECKSUM;
+        }
+    }
+    
+    /**
+     * Returns the entry for the given class if its class files are unchanged
+     * 
+     * @param clazz The implementation class
+     * @param checksums The current checksums of the class, from {@link #getChecksums(Class)}
+     * @return The entry or null if there is no valid entry for the class
+     */
+    /* package */ Entry get(Class<?> clazz, long checksums[]) {
+        Entry entry = entries.get(clazz.getName());
+        if (entry == null) return null;
+        if (!Arrays.equals(entry.checksums, checksums)) return null;
+        
+        return entry;
+    }
+    
+    /**
+     * Records the analysis of the given class
+     * 
+     * @param clazz The implementation class
+     * @param checksums The checksums of the class, from {@link #getChecksums(Class)}
+     * @param constructor The producer constructor
+     * @param fields The initializer fields
+     * @param methods The initializer methods
+     * @param postConstruct The postConstruct method, may be null
+     * @param preDestroy The preDestroy method, may be null
+     */
+    /* package */ void put(Class<?> clazz, long checksums[],
+            Constructor<?> constructor,
+            Collection<Field> fields,
+            Collection<Method> methods,
+            Method postConstruct,
+            Method preDestroy) {
+        List<CachedMember> cachedFields = new ArrayList<CachedMember>(fields.size());
+        for (Field field : fields) {
+            cachedFields.add(new CachedMember(field.getDeclaringClass().getName(), field.getName(), new String[0]));
+        }
+        
+        List<CachedMember> cachedMethods = new ArrayList<CachedMember>(methods.size());
+        for (Method method : methods) {
+            cachedMethods.add(new CachedMember(method));
+        }
+        
+        entries.put(clazz.getName(), new Entry(checksums,
+                new CachedMember(constructor.getDeclaringClass().getName(), "<init>", getNames(constructor.getParameterTypes())),
+                cachedFields,
+                cachedMethods,
+                (postConstruct == null) ? null : new CachedMember(postConstruct),
+                (preDestroy == null) ? null : new CachedMember(preDestroy)));
+        dirty = true;
+    }
+    
+    /**
+     * Writes the cache to its file if anything was added since it was
+     * last read or written.  Failures are ignored
+     */
+    /* package */ void save() {
+        if (!dirty) return;
+        dirty = false;
+        
+        AccessController.doPrivileged(new PrivilegedAction<Object>() {
+            @Override
+            public Object run() {
+                try {
+                    write();
+                }
+                catch (Throwable th) {
+                    Logger.getLogger().debug("Could not write the analysis cache " + file, th);
+                }
+                
+                return null;
+            }
+            
+        });
+    }
+    
+    private void load() throws IOException {
+        if (!file.isFile()) return;
+        
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (dis.readInt() != MAGIC) throw new IOException("Not an analysis cache file");
+            if (dis.readInt() != VERSION) throw new IOException("Unknown analysis cache version");
+            
+            int numEntries = dis.readInt();
+            for (int lcv = 0; lcv < numEntries; lcv++) {
+                String clazzName = dis.readUTF();
+                
+                long checksums[] = new long[dis.readInt()];
+                for (int index = 0; index < checksums.length; index++) {
+                    checksums[index] = dis.readLong();
+                }
+                
+                CachedMember constructor = readMember(dis);
+                List<CachedMember> fields = readMembers(dis);
+                List<CachedMember> methods = readMembers(dis);
+                CachedMember postConstruct = dis.readBoolean() ? readMember(dis) : null;
+                CachedMember preDestroy = dis.readBoolean() ? readMember(dis) : null;
+                
+                entries.put(clazzName, new Entry(checksums, constructor, fields, methods, postConstruct, preDestroy));
+            }
+        }
+        finally {
+            dis.close();
+        }
+    }
+    
+    private void write() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) parent.mkdirs();
+        
+        // Written aside and renamed, so a reader never sees half a file.  The
+        // temporary file is unique so that processes saving the same cache do
+        // not write into each other's file.  Where the rename cannot replace an
+        // existing file the old file is deleted first, so a reader may briefly
+        // find no file, which it treats as an empty cache
+        File temp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getParentFile());
+        boolean renamed = false;
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                writeEntries(dos);
+            }
+            finally {
+                dos.close();
+            }
+            
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not rename " + temp + " to " + file);
+                }
+            }
+            renamed = true;
+        }
+        finally {
+            if (!renamed) temp.delete();
+        }
+    }
+    
+    private void writeEntries(DataOutputStream dos) throws IOException {
+        Map<String, Entry> snapshot = new TreeMap<String, Entry>(entries);
+        
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> mapEntry : snapshot.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            
+            dos.writeUTF(mapEntry.getKey());
+            dos.writeInt(entry.checksums.length);
+            for (long checksum : entry.checksums) {
+                dos.writeLong(checksum);
+            }
+            
+            writeMember(dos, entry.constructor);
+            writeMembers(dos, entry.fields);
+            writeMembers(dos, entry.methods);
+            
+            dos.writeBoolean(entry.postConstruct != null);
+            if (entry.postConstruct != null) writeMember(dos, entry.postConstruct);
+            
+            dos.writeBoolean(entry.preDestroy != null);
+            if (entry.preDestroy != null) writeMember(dos, entry.preDestroy);
+        }
+    }
+    
+    private static CachedMember readMember(DataInputStream dis) throws IOException {
+        String declaringClass = dis.readUTF();
+        String name = dis.readUTF();
+        
+        String parameters[] = new String[dis.readInt()];
+        for (int lcv = 0; lcv < parameters.length; lcv++) {
+            parameters[lcv] = dis.readUTF();
+        }
+        
+        return new CachedMember(declaringClass, name, parameters);
+    }
+    
+    private static List<CachedMember> readMembers(DataInputStream dis) throws IOException {
+        int numMembers = dis.readInt();
+        
+        List<CachedMember> retVal = new ArrayList<CachedMember>(numMembers);
+        for (int lcv = 0; lcv < numMembers; lcv++) {
+            retVal.add(readMember(dis));
+        }
+        
+        return retVal;
+    }
+    
+    private static void writeMember(DataOutputStream dos, CachedMember member) throws IOException {
+        dos.writeUTF(member.declaringClass);
+        dos.writeUTF(member.name);
+        dos.writeInt(member.parameters.length);
+        for (String parameter : member.parameters) {
+            dos.writeUTF(parameter);
+        }
+    }
+    
+    private static void writeMembers(DataOutputStream dos, List<CachedMember> members) throws IOException {
+        dos.writeInt(members.size());
+        for (CachedMember member : members) {
+            writeMember(dos, member);
+        }
+    }
+    
+    private static String[] getNames(Class<?> classes[]) {
+        String retVal[] = new String[classes.length];
+        for (int lcv = 0; lcv < classes.length; lcv++) {
+            retVal[lcv] = classes[lcv].getName();
+        }
+        
+        return retVal;
+    }
+    
+    @Override
+    public String toString() {
+        return "PersistentAnalysisCache(" + file + "," + entries.size() + "," + System.identityHashCode(this) + ")";
+    }
+    
+    /**
+     * The analysis of one implementation class
+     */
+    /* package */ static class Entry {
+        private final long checksums[];
+        private final CachedMember constructor;
+        private final List<CachedMember> fields;
+        private final List<CachedMember> methods;
+        private final CachedMember postConstruct;
+        private final CachedMember preDestroy;
+        
+        private Entry(long checksums[],
+                CachedMember constructor,
+                List<CachedMember> fields,
+                List<CachedMember> methods,
+                CachedMember postConstruct,
+                CachedMember preDestroy) {
+            this.checksums = checksums;
+            this.constructor = constructor;
+            this.fields = Collections.unmodifiableList(fields);
+            this.methods = Collections.unmodifiableList(methods);
+            this.postConstruct = postConstruct;
+            this.preDestroy = preDestroy;
+        }
+        
+        /* package */ CachedMember getConstructor() {
+            return constructor;
+        }
+        
+        /* package */ List<CachedMember> getFields() {
+            return fields;
+        }
+        
+        /* package */ List<CachedMember> getMethods() {
+            return methods;
+        }
+        
+        /* package */ CachedMember getPostConstruct() {
+            return postConstruct;
+        }
+        
+        /* package */ CachedMember getPreDestroy() {
+            return preDestroy;
+        }
+    }
+    
+    /**
+     * A member named by its declaring class, name and parameter type names
+     */
+    /* package */ static class CachedMember {
+        private final String declaringClass;
+        private final String name;
+        private final String parameters[];
+        
+        private CachedMember(String declaringClass, String name, String parameters[]) {
+            this.declaringClass = declaringClass;
+            this.name = name;
+            this.parameters = parameters;
+        }
+        
+        private CachedMember(Method method) {
+            this(method.getDeclaringClass().getName(), method.getName(), getNames(method.getParameterTypes()));
+        }
+        
+        /* package */ String getDeclaringClass() {
+            return declaringClass;
+        }
+        
+        /* package */ String getName() {
+            return name;
+        }
+        
+        /* package */ boolean hasParameters(Class<?> types[]) {
+            return Arrays.equals(parameters, getNames(types));
+        }
+        
+        @Override
+        public String toString() {
+            return "CachedMember(" + declaringClass + "," + name + "," + Arrays.toString(parameters) + ")";
+        }
+    }
+}
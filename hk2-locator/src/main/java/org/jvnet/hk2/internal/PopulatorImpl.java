@@ -44,27 +44,40 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.DescriptorFileBufferFinder;
 import org.glassfish.hk2.api.DescriptorFileFinder;
 import org.glassfish.hk2.api.DescriptorFileFinderInformation;
 import org.glassfish.hk2.api.DynamicConfiguration;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.MultiException;
-import org.glassfish.hk2.api.Populator;
+import org.glassfish.hk2.api.ParallelPopulator;
 import org.glassfish.hk2.api.PopulatorPostProcessor;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
 import org.glassfish.hk2.utilities.ClasspathDescriptorFileFinder;
 import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.reflection.Logger;
 
 /**
  * Implementation of the Populator for DynamicConfigurationService
  * 
  * @author jwells
  */
-public class PopulatorImpl implements Populator {
+public class PopulatorImpl implements ParallelPopulator {
     private final ServiceLocator serviceLocator;
     private final DynamicConfigurationService dcs;
     
@@ -77,6 +90,16 @@ public class PopulatorImpl implements Populator {
     @Override
     public List<ActiveDescriptor<?>> populate(DescriptorFileFinder fileFinder,
             PopulatorPostProcessor... postProcessors) throws IOException {
+        return populate(fileFinder, null, postProcessors);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ParallelPopulator#populate(org.glassfish.hk2.api.DescriptorFileFinder, java.util.concurrent.Executor, org.glassfish.hk2.api.PopulatorPostProcessor[])
+     */
+    @Override
+    public List<ActiveDescriptor<?>> populate(DescriptorFileFinder fileFinder,
+            Executor executor,
+            PopulatorPostProcessor... postProcessors) throws IOException {
         List<ActiveDescriptor<?>> descriptors = new LinkedList<ActiveDescriptor<?>> ();
 
         if (fileFinder == null) {
@@ -86,21 +109,34 @@ public class PopulatorImpl implements Populator {
         
         if (postProcessors == null) postProcessors = new PopulatorPostProcessor[0];
         
-        List<InputStream> descriptorFileInputStreams;
+        List<InputStream> descriptorFileInputStreams = null;
+        List<ByteBuffer> descriptorFileBuffers = null;
         List<String> descriptorInformation = null;
         try {
-            descriptorFileInputStreams = fileFinder.findDescriptorFiles();
+            int numFiles;
+            String findMethod;
+            if (fileFinder instanceof DescriptorFileBufferFinder) {
+                descriptorFileBuffers = ((DescriptorFileBufferFinder) fileFinder).findDescriptorFileBuffers();
+                numFiles = descriptorFileBuffers.size();
+                findMethod = "findDescriptorFileBuffers";
+            }
+            else {
+                descriptorFileInputStreams = fileFinder.findDescriptorFiles();
+                numFiles = descriptorFileInputStreams.size();
+                findMethod = "findDescriptorFiles";
+            }
+            
             if (fileFinder instanceof DescriptorFileFinderInformation) {
                 DescriptorFileFinderInformation dffi = (DescriptorFileFinderInformation) fileFinder;
                 
                 descriptorInformation = dffi.getDescriptorFileInformation();
                 if (descriptorInformation != null && 
-                        (descriptorInformation.size() != descriptorFileInputStreams.size())) {
+                        (descriptorInformation.size() != numFiles)) {
                     throw new IOException("The DescriptorFileFinder implementation " +
                             fileFinder.getClass().getName() + " also implements DescriptorFileFinderInformation, " +
                             "however the cardinality of the list returned from getDescriptorFileInformation (" +
                             descriptorInformation.size() + ") does not equal the cardinality of the list " +
-                            "returned from findDescriptorFiles (" + descriptorFileInputStreams.size() + ")");
+                            "returned from " + findMethod + " (" + numFiles + ")");
                 }
             }
         }
@@ -111,17 +147,228 @@ public class PopulatorImpl implements Populator {
             throw new MultiException(th);
         }
         
+        List<FileParser> parsers = new ArrayList<FileParser>(
+                (descriptorFileBuffers != null) ? descriptorFileBuffers.size() : descriptorFileInputStreams.size());
+        if (descriptorFileBuffers != null) {
+            for (ByteBuffer buffer : descriptorFileBuffers) {
+                parsers.add(new FileParser(null, buffer));
+            }
+        }
+        else {
+            for (InputStream is : descriptorFileInputStreams) {
+                parsers.add(new FileParser(is, null));
+            }
+        }
+        
         Collector collector = new Collector();
 
         DynamicConfiguration config = dcs.createDynamicConfiguration();
+        
+        if (executor == null || parsers.size() < 2) {
+            int lcv = 0;
+            try {
+                for (FileParser parser : parsers) {
+                    String identifier = (descriptorInformation == null) ? null : descriptorInformation.get(lcv) ;
+                    lcv++;
 
-        int lcv = 0;
-        for (InputStream is : descriptorFileInputStreams) {
-            String identifier = (descriptorInformation == null) ? null : descriptorInformation.get(lcv) ;
-            lcv++;
+                    merge(parser.call(), identifier, config, collector, descriptors, postProcessors);
+                }
+            }
+            finally {
+                // Files after a failure are never read, and so never closed
+                for (int unread = lcv; unread < parsers.size(); unread++) {
+                    parsers.get(unread).closeUnread();
+                }
+            }
+        }
+        else {
+            List<FutureTask<List<Object>>> tasks = new ArrayList<FutureTask<List<Object>>>(parsers.size());
+            for (FileParser parser : parsers) {
+                FutureTask<List<Object>> task = new FutureTask<List<Object>>(parser);
+                tasks.add(task);
+                
+                try {
+                    executor.execute(task);
+                }
+                catch (RejectedExecutionException ree) {
+                    // Parse it on this thread then
+                    task.run();
+                }
+            }
+            
+            boolean success = false;
+            try {
+                int lcv = 0;
+                for (FutureTask<List<Object>> task : tasks) {
+                    String identifier = (descriptorInformation == null) ? null : descriptorInformation.get(lcv) ;
+                    lcv++;
+                    
+                    merge(getParsedFile(task), identifier, config, collector, descriptors, postProcessors);
+                }
+                
+                success = true;
+            }
+            finally {
+                if (!success) {
+                    for (int lcv = 0; lcv < tasks.size(); lcv++) {
+                        // A task cancelled before it started never reads, and so never closes, its file
+                        if (tasks.get(lcv).cancel(false)) {
+                            parsers.get(lcv).closeUnread();
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Prior to commit!
+        collector.throwIfErrors();
 
-            BufferedReader br = new BufferedReader(new InputStreamReader(is));
+        config.commit();
 
+        return descriptors;
+    }
+    
+    private static List<Object> getParsedFile(FutureTask<List<Object>> task) throws IOException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            
+            InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for descriptor files to be read");
+            iioe.initCause(ie);
+            throw iioe;
+        }
+        catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof MultiException) throw (MultiException) cause;
+            
+            throw new MultiException(cause);
+        }
+    }
+    
+    /**
+     * Runs the post processors on the descriptors of one parsed file and
+     * binds the survivors into the configuration.  Always called on the thread
+     * that called populate, and in the order of the files, so that the
+     * post processors (some of which keep state, such as the
+     * DuplicatePostProcessor) see the same descriptors in the same order
+     * whether or not the files were read in parallel
+     */
+    private void merge(List<Object> parsedFile,
+            String identifier,
+            DynamicConfiguration config,
+            Collector collector,
+            List<ActiveDescriptor<?>> descriptors,
+            PopulatorPostProcessor postProcessors[]) {
+        for (Object entry : parsedFile) {
+            if (entry instanceof DescriptorImpl) {
+                bind((DescriptorImpl) entry, identifier, config, collector, descriptors, postProcessors);
+            }
+            else {
+                addError(collector, identifier, (Throwable) entry);
+            }
+        }
+    }
+    
+    private void bind(DescriptorImpl descriptorImpl,
+            String identifier,
+            DynamicConfiguration config,
+            Collector collector,
+            List<ActiveDescriptor<?>> descriptors,
+            PopulatorPostProcessor postProcessors[]) {
+        for (PopulatorPostProcessor pp : postProcessors) {
+            try {
+                descriptorImpl = pp.process(serviceLocator, descriptorImpl);
+            }
+            catch (Throwable th) {
+                addError(collector, identifier, th);
+                descriptorImpl = null;
+            }
+
+            if (descriptorImpl == null) {
+                return;
+            }
+        }
+        
+        descriptors.add(config.bind(descriptorImpl, false));
+    }
+    
+    private static void addError(Collector collector, String identifier, Throwable th) {
+        if (identifier != null) {
+            collector.addThrowable(new IOException("InputStream with identifier \"" + identifier + "\" failed", th));
+        }
+        else {
+            collector.addThrowable(th);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.Populator#populate()
+     */
+    @Override
+    public List<ActiveDescriptor<?>> populate() throws IOException {
+        return populate(new ClasspathDescriptorFileFinder());
+    }
+    
+    /**
+     * Reads one descriptor file, from either an InputStream or a ByteBuffer.
+     * The result holds the descriptors read from the file and the errors found
+     * while reading it (as DescriptorImpl and Throwable entries), in the order
+     * they were found in the file.  Does not touch the locator, and so can be
+     * run on any thread
+     */
+    private static class FileParser implements Callable<List<Object>> {
+        private final InputStream is;
+        private final ByteBuffer buffer;
+        
+        private FileParser(InputStream is, ByteBuffer buffer) {
+            this.is = is;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public List<Object> call() throws IOException {
+            List<Object> retVal = new ArrayList<Object>();
+            
+            if (buffer == null) {
+                readTextFile(new BufferedReader(new InputStreamReader(is)), retVal);
+                return retVal;
+            }
+            
+            if (!BinaryDescriptorFile.isBinary(buffer)) {
+                String text = Charset.defaultCharset().decode(buffer.duplicate()).toString();
+                
+                readTextFile(new BufferedReader(new StringReader(text)), retVal);
+                return retVal;
+            }
+            
+            try {
+                retVal.addAll(BinaryDescriptorFile.read(buffer));
+            }
+            catch (IOException ioe) {
+                retVal.add(ioe);
+            }
+            
+            return retVal;
+        }
+        
+        /**
+         * Closes the InputStream of a file that will never be read
+         */
+        private void closeUnread() {
+            if (is == null) return;
+            
+            try {
+                is.close();
+            }
+            catch (IOException ioe) {
+                Logger.getLogger().debug("PopulatorImpl", "closeUnread", ioe);
+            }
+        }
+        
+        private static void readTextFile(BufferedReader br, List<Object> parsedFile) throws IOException {
             try {
                 boolean readOne = false;
 
@@ -132,39 +379,11 @@ public class PopulatorImpl implements Populator {
                         readOne = descriptorImpl.readObject(br);
                     }
                     catch (IOException ioe) {
-                        if (identifier != null) {
-                            collector.addThrowable(new IOException("InputStream with identifier \"" + identifier + "\" failed", ioe));
-                        }
-                        else {
-                            collector.addThrowable(ioe);
-                        }
+                        parsedFile.add(ioe);
                     }
 
                     if (readOne) {
-                            
-                        for (PopulatorPostProcessor pp : postProcessors) {
-                            try {
-                                descriptorImpl = pp.process(serviceLocator, descriptorImpl);
-                            }
-                            catch (Throwable th) {
-                                if (identifier != null) {
-                                    collector.addThrowable(new IOException("InputStream with identifier \"" + identifier + "\" failed", th));
-                                }
-                                else {
-                                    collector.addThrowable(th);
-                                }
-                                descriptorImpl = null;
-                            }
-
-                            if (descriptorImpl == null) {
-                                break;
-                            }
-                        }
-                            
-                        if (descriptorImpl != null) {
-                            descriptors.add(config.bind(descriptorImpl, false));
-                        }
-
+                        parsedFile.add(descriptorImpl);
                     }
                 } while (readOne);
 
@@ -172,21 +391,6 @@ public class PopulatorImpl implements Populator {
                 br.close();
             }
         }
-        
-        // Prior to commit!
-        collector.throwIfErrors();
-
-        config.commit();
-
-        return descriptors;
-    }
-
-    /* (non-Javadoc)
-     * @see org.glassfish.hk2.api.Populator#populate()
-     */
-    @Override
-    public List<ActiveDescriptor<?>> populate() throws IOException {
-        return populate(new ClasspathDescriptorFileFinder());
     }
 
 }
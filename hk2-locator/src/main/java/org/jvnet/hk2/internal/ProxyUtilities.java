@@ -40,17 +40,20 @@
 
 package org.jvnet.hk2.internal;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
-import java.security.AccessControlException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Injectee;
 import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.ProxyCtl;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.cache.Cache;
+import org.glassfish.hk2.utilities.cache.Computable;
 
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyFactory;
@@ -63,33 +66,31 @@ import javassist.util.proxy.ProxyObject;
  *
  */
 public class ProxyUtilities {
-    private final static Object proxyCreationLock = new Object();
-    private final HashMap<ClassLoader, DelegatingClassLoader> superClassToDelegator = new HashMap<ClassLoader, DelegatingClassLoader>();
+    private final ConcurrentHashMap<ClassLoader, DelegatingClassLoader> superClassToDelegator =
+            new ConcurrentHashMap<ClassLoader, DelegatingClassLoader>();
+    private final ConcurrentHashMap<ClassLoader, ClassLoader> superClassToJDKProxyLoader =
+            new ConcurrentHashMap<ClassLoader, ClassLoader>();
     
     /**
-     * We put the anchor as the value even though we don't use it in order to
-     * make it easier to catch memory leaks here.  See MemoryTest
-     * 
-     * @param superclass
-     * @param interfaces
-     * @param callback
-     * @param useJDKProxy
-     * @param anchor This is put into the WeakMap to make sure that IF this
-     * map should leak that it will leak big, making it easier to detect
-     * @return
+     * The generated proxy classes.  Different keys are generated at the
+     * same time, while threads asking for a key being generated wait for it
      */
-    private <T> T secureCreate(final Class<?> superclass,
-            final Class<?>[] interfaces,
-            final MethodHandler callback,
-            boolean useJDKProxy,
-            ServiceLocator anchor) {
+    private final Cache<ProxyKey, ProxyClass> proxyClasses = new Cache<ProxyKey, ProxyClass>(new Computable<ProxyKey, ProxyClass>() {
 
+        @Override
+        public ProxyClass compute(ProxyKey key) {
+            return createProxyClass(key);
+        }
+        
+    });
+    
+    private ClassLoader getSuperclassLoader(final Class<?> superclass) {
         /* construct the classloader where the generated proxy will be created --
          * this classloader must have visibility into the javaassist classloader as well as
          * the superclass' classloader
          */
         
-        final ClassLoader loader = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+        return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
 
             @Override
             public ClassLoader run() {
@@ -112,78 +113,140 @@ public class ProxyUtilities {
             }
             
         });
+    }
+    
+    private DelegatingClassLoader getDelegatingLoader(final ClassLoader loader) {
+        DelegatingClassLoader retVal = superClassToDelegator.get(loader);
+        if (retVal != null) return retVal;
         
-        DelegatingClassLoader initDelegatingLoader;
-        synchronized (superClassToDelegator) {
-            initDelegatingLoader = superClassToDelegator.get(loader);
-            if (initDelegatingLoader == null) {
-                initDelegatingLoader = AccessController.doPrivileged(new PrivilegedAction<DelegatingClassLoader>() {
+        retVal = AccessController.doPrivileged(new PrivilegedAction<DelegatingClassLoader>() {
 
-                    @Override
-                    public DelegatingClassLoader run() {
-                        return new DelegatingClassLoader(
-                                loader,
-                                ProxyFactory.class.getClassLoader(),
-                                ProxyCtl.class.getClassLoader());
-                    }
-                    
-                });
-                
-                superClassToDelegator.put(loader, initDelegatingLoader);
+            @Override
+            public DelegatingClassLoader run() {
+                return new DelegatingClassLoader(
+                        loader,
+                        ProxyFactory.class.getClassLoader(),
+                        ProxyCtl.class.getClassLoader());
             }
-        }
+            
+        });
         
-        final DelegatingClassLoader delegatingLoader = initDelegatingLoader;
-
-        if (useJDKProxy) {
-            return AccessController.doPrivileged(new PrivilegedAction<T>() {
+        DelegatingClassLoader existing = superClassToDelegator.putIfAbsent(loader, retVal);
+        return (existing == null) ? retVal : existing;
+    }
+    
+    /**
+     * JDK proxies are defined in the loader of the interface itself when that loader
+     * can see {@link ProxyCtl}.  The JDK loads the classes it generates for calling the
+     * constructor of the proxy through that loader, which only works under a
+     * SecurityManager when the loader is not one of ours
+     */
+    private ClassLoader getJDKProxyLoader(final ClassLoader loader) {
+        ClassLoader retVal = superClassToJDKProxyLoader.get(loader);
+        if (retVal != null) return retVal;
+        
+        boolean seesProxyCtl = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
 
-                @SuppressWarnings("unchecked")
-                @Override
-                public T run() {
-                    return (T) Proxy.newProxyInstance(delegatingLoader, interfaces,
-                            new MethodInterceptorInvocationHandler(callback));
+            @Override
+            public Boolean run() {
+                try {
+                    return Class.forName(ProxyCtl.class.getName(), false, loader) == ProxyCtl.class;
+                }
+                catch (ClassNotFoundException e) {
+                    return false;
                 }
+            }
+            
+        });
+        
+        retVal = seesProxyCtl ? loader : getDelegatingLoader(loader);
+        
+        ClassLoader existing = superClassToJDKProxyLoader.putIfAbsent(loader, retVal);
+        return (existing == null) ? retVal : existing;
+    }
+    
+    /**
+     * Generates the proxy class for the given key.  The javassist ProxyFactory is
+     * given the loader of the key directly, so that classes for different
+     * keys can be generated at the same time without swapping the global
+     * {@link ProxyFactory#classLoaderProvider}
+     */
+    private static ProxyClass createProxyClass(final ProxyKey key) {
+        return AccessController.doPrivileged(new PrivilegedAction<ProxyClass>() {
 
-            });
+            @Override
+            public ProxyClass run() {
+                if (key.useJDKProxy) {
+                    Class<?> proxyClass = Proxy.getProxyClass(key.loader, key.interfaces);
+                    
+                    try {
+                        return new ProxyClass(proxyClass, proxyClass.getConstructor(InvocationHandler.class));
+                    }
+                    catch (NoSuchMethodException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                
+                ProxyFactory proxyFactory = new ProxyFactory() {
+                    
+                    @Override
+                    protected ClassLoader getClassLoader() {
+                        return key.loader;
+                    }
+                    
+                };
+                proxyFactory.setInterfaces(key.interfaces);
+                proxyFactory.setSuperclass(key.superclass);
 
-        }
+                return new ProxyClass(proxyFactory.createClass(), null);
+            }
+            
+        });
+    }
+    
+    /**
+     * We put the anchor as the value even though we don't use it in order to
+     * make it easier to catch memory leaks here.  See MemoryTest
+     * 
+     * @param superclass
+     * @param interfaces
+     * @param callback
+     * @param useJDKProxy
+     * @param anchor This is put into the WeakMap to make sure that IF this
+     * map should leak that it will leak big, making it easier to detect
+     * @return
+     */
+    private <T> T secureCreate(final Class<?> superclass,
+            final Class<?>[] interfaces,
+            final MethodHandler callback,
+            boolean useJDKProxy,
+            ServiceLocator anchor) {
+        ClassLoader superclassLoader = getSuperclassLoader(superclass);
+        ClassLoader loader = useJDKProxy ?
+                getJDKProxyLoader(superclassLoader) :
+                getDelegatingLoader(superclassLoader);
+        
+        final ProxyClass proxyClass = proxyClasses.compute(
+                new ProxyKey(superclass, interfaces, loader, useJDKProxy));
 
         return AccessController.doPrivileged(new PrivilegedAction<T>() {
 
             @SuppressWarnings("unchecked")
             @Override
             public T run() {
-                synchronized (proxyCreationLock) {
-                    ProxyFactory.ClassLoaderProvider originalProvider = ProxyFactory.classLoaderProvider;
-                    ProxyFactory.classLoaderProvider = new ProxyFactory.ClassLoaderProvider() {
-                        
-                        @Override
-                        public ClassLoader get(ProxyFactory arg0) {
-                            return delegatingLoader;
-                        }
-                    };
+                try {
+                    if (proxyClass.jdkConstructor != null) {
+                        return (T) proxyClass.jdkConstructor.newInstance(
+                                new MethodInterceptorInvocationHandler(callback));
+                    }
                     
-                    try {
-                        ProxyFactory proxyFactory = new ProxyFactory();
-                        proxyFactory.setInterfaces(interfaces);
-                        proxyFactory.setSuperclass(superclass);
-
-                        Class<?> proxyClass = proxyFactory.createClass();
+                    T proxy = (T) proxyClass.proxyClass.newInstance();
 
-                        try {
-                            T proxy = (T) proxyClass.newInstance();
+                    ((ProxyObject) proxy).setHandler(callback);
 
-                            ((ProxyObject) proxy).setHandler(callback);
-
-                            return proxy;
-                        } catch (Exception e1) {
-                            throw new RuntimeException(e1);
-                        }
-                    }
-                    finally {
-                        ProxyFactory.classLoaderProvider = originalProvider;
-                    }
+                    return proxy;
+                } catch (Exception e1) {
+                    throw new RuntimeException(e1);
                 }
             }
 
@@ -241,8 +304,89 @@ public class ProxyUtilities {
     }
     
     public void releaseCache() {
-        synchronized (superClassToDelegator) {
-            superClassToDelegator.clear();
+        superClassToDelegator.clear();
+        superClassToJDKProxyLoader.clear();
+        proxyClasses.clear();
+    }
+    
+    /**
+     * The superclass, interfaces and loader a proxy class was generated for
+     */
+    private final static class ProxyKey {
+        private final Class<?> superclass;
+        private final Class<?>[] interfaces;
+        private final ClassLoader loader;
+        private final boolean useJDKProxy;
+        private final int hashCode;
+        
+        private ProxyKey(Class<?> superclass, Class<?>[] interfaces,
+                ClassLoader loader, boolean useJDKProxy) {
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.loader = loader;
+            this.useJDKProxy = useJDKProxy;
+            
+            // The interfaces are a set, so their order does not change the hash
+            int interfacesHash = 0;
+            for (Class<?> iFace : interfaces) {
+                interfacesHash += iFace.hashCode();
+            }
+            
+            int hash = superclass.hashCode();
+            hash = 31 * hash + interfacesHash;
+            hash = 31 * hash + System.identityHashCode(loader);
+            hash = 31 * hash + (useJDKProxy ? 1 : 0);
+            this.hashCode = hash;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (!(o instanceof ProxyKey)) return false;
+            
+            ProxyKey other = (ProxyKey) o;
+            if (hashCode != other.hashCode) return false;
+            
+            return superclass.equals(other.superclass) &&
+                    sameInterfaces(interfaces, other.interfaces) &&
+                    loader == other.loader &&
+                    useJDKProxy == other.useJDKProxy;
+        }
+    }
+    
+    private static boolean sameInterfaces(Class<?>[] a, Class<?>[] b) {
+        if (a.length != b.length) return false;
+        
+        for (Class<?> aIFace : a) {
+            boolean found = false;
+            for (Class<?> bIFace : b) {
+                if (aIFace.equals(bIFace)) {
+                    found = true;
+                    break;
+                }
+            }
+            
+            if (!found) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * A generated proxy class.  The constructor is only set for JDK proxies
+     */
+    private final static class ProxyClass {
+        private final Class<?> proxyClass;
+        private final Constructor<?> jdkConstructor;
+        
+        private ProxyClass(Class<?> proxyClass, Constructor<?> jdkConstructor) {
+            this.proxyClass = proxyClass;
+            this.jdkConstructor = jdkConstructor;
         }
     }
 }
@@ -0,0 +1,230 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.lang.annotation.Annotation;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct qualifier annotation seen by a locator hierarchy a
+ * small integer id, so that the qualifiers of a descriptor can be kept as
+ * a bitset and a lookup can match qualifiers with bit tests rather than
+ * with the (possibly reflective) equals and hashCode of the annotations.
+ * <p>
+ * Only the qualifiers of descriptors are interned.  Lookups only query the
+ * registry, so that looking up many distinct names does not grow it.  Each
+ * id is counted once for every descriptor bitset it is in, and is released
+ * (and later given out again) when the last of those descriptors releases
+ * its bitset
+ * 
+ * @author jwells
+ *
+ */
+class QualifierRegistry {
+    private final ConcurrentHashMap<Annotation, QualifierId> ids = new ConcurrentHashMap<Annotation, QualifierId>();
+    private final LinkedList<Integer> freeIds = new LinkedList<Integer>();
+    private int nextId;
+
+    /**
+     * Interns all of the given qualifiers and returns the bitset of their ids.
+     * Every call must be balanced by a call to {@link #release(Set)} with the
+     * same qualifiers once the bitset is no longer in use
+     * 
+     * @param qualifiers The qualifiers of a descriptor, may not be null
+     * @return The bitset with the ids of all of the given qualifiers set
+     */
+    /* package */ long[] getBits(final Set<Annotation> qualifiers) {
+        return AccessController.doPrivileged(new PrivilegedAction<long[]>() {
+
+            @Override
+            public long[] run() {
+                long retVal[] = new long[1];
+                synchronized (QualifierRegistry.this) {
+                    for (Annotation qualifier : qualifiers) {
+                        QualifierId qid = ids.get(qualifier);
+                        if (qid == null) {
+                            int newId = freeIds.isEmpty() ? nextId++ : freeIds.removeFirst();
+
+                            qid = new QualifierId(newId);
+                            ids.put(qualifier, qid);
+                        }
+
+                        qid.references++;
+
+                        int id = qid.id;
+                        int word = id >>> 6;
+                        if (word >= retVal.length) {
+                            long grown[] = new long[word + 1];
+                            System.arraycopy(retVal, 0, grown, 0, retVal.length);
+                            retVal = grown;
+                        }
+
+                        retVal[word] |= (1L << id);
+                    }
+                }
+
+                return retVal;
+            }
+
+        });
+    }
+
+    /**
+     * Releases the ids of the given qualifiers, which must be the same
+     * qualifiers that were given to {@link #getBits(Set)}.  Ids that are no
+     * longer in any descriptor bitset are removed and may be given out again
+     * 
+     * @param qualifiers The qualifiers of a descriptor, may not be null
+     */
+    /* package */ void release(final Set<Annotation> qualifiers) {
+        AccessController.doPrivileged(new PrivilegedAction<Void>() {
+
+            @Override
+            public Void run() {
+                synchronized (QualifierRegistry.this) {
+                    for (Annotation qualifier : qualifiers) {
+                        QualifierId qid = ids.get(qualifier);
+                        if (qid == null) continue;
+
+                        if (--qid.references > 0) continue;
+
+                        ids.remove(qualifier);
+
+                        // Must be marked before the id can be given out again
+                        qid.released = true;
+                        freeIds.addLast(qid.id);
+                    }
+                }
+
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Returns the ids of the given qualifiers without interning them
+     * 
+     * @param qualifiers The qualifiers of a lookup, may not be null
+     * @return The ids of the given qualifiers, with null for those
+     * that are not currently interned
+     */
+    /* package */ QualifierId[] getIds(final Set<Annotation> qualifiers) {
+        return AccessController.doPrivileged(new PrivilegedAction<QualifierId[]>() {
+
+            @Override
+            public QualifierId[] run() {
+                QualifierId retVal[] = new QualifierId[qualifiers.size()];
+                int lcv = 0;
+                for (Annotation qualifier : qualifiers) {
+                    retVal[lcv++] = ids.get(qualifier);
+                }
+
+                return retVal;
+            }
+
+        });
+    }
+
+    /**
+     * Returns true if every one of the required ids is set in the given bitset.
+     * Required ids that were unknown or have been released since they were
+     * resolved are resolved again (and updated in place) since the qualifiers
+     * of the candidate may have been interned after the lookup resolved its ids
+     * 
+     * @param bits The bitset of a candidate, as returned from {@link #getBits(Set)}
+     * @param requiredIds The ids returned from {@link #getIds(Set)}, may be updated
+     * @param requiredQualifiers The qualifiers the ids were resolved from, in iteration order
+     * @return true if the candidate has all of the required qualifiers
+     */
+    /* package */ boolean containsAll(long bits[], QualifierId requiredIds[], Set<Annotation> requiredQualifiers) {
+        for (int lcv = 0; lcv < requiredIds.length; lcv++) {
+            QualifierId qid = requiredIds[lcv];
+            if (qid == null || qid.released) {
+                QualifierId resolved[] = getIds(requiredQualifiers);
+                System.arraycopy(resolved, 0, requiredIds, 0, resolved.length);
+
+                qid = requiredIds[lcv];
+                if (qid == null) return false;
+            }
+
+            int id = qid.id;
+            int word = id >>> 6;
+            if (word >= bits.length) return false;
+            if ((bits[word] & (1L << id)) == 0L) return false;
+
+            // The id may have been released and given to another
+            // qualifier while the bit was being tested
+            if (qid.released) {
+                lcv--;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The number of distinct qualifiers currently interned
+     */
+    /* package */ int size() {
+        return ids.size();
+    }
+
+    /**
+     * An interned id.  Once released it is never used again, even
+     * if its id number is given to another qualifier
+     * 
+     * @author jwells
+     *
+     */
+    /* package */ static class QualifierId {
+        private final int id;
+        private int references;
+        private volatile boolean released;
+
+        private QualifierId(int id) {
+            this.id = id;
+        }
+    }
+}
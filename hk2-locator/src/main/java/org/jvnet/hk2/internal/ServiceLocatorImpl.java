@@ -62,20 +62,25 @@ import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.CacheableValidator;
 import org.glassfish.hk2.api.ClassAnalyzer;
 import org.glassfish.hk2.api.Context;
 import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DescriptorType;
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.DuplicateServiceException;
 import org.glassfish.hk2.api.DynamicConfigurationListener;
@@ -83,6 +88,7 @@ import org.glassfish.hk2.api.ErrorService;
 import org.glassfish.hk2.api.ErrorType;
 import org.glassfish.hk2.api.Filter;
 import org.glassfish.hk2.api.HK2Loader;
+import org.glassfish.hk2.api.ImplementationFilter;
 import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.Injectee;
 import org.glassfish.hk2.api.InstanceLifecycleListener;
@@ -108,7 +114,6 @@ import org.glassfish.hk2.api.Validator;
 import org.glassfish.hk2.api.messaging.Topic;
 import org.glassfish.hk2.utilities.BuilderHelper;
 import org.glassfish.hk2.utilities.InjecteeImpl;
-import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
 import org.glassfish.hk2.utilities.cache.CacheUtilities;
 import org.glassfish.hk2.utilities.cache.ComputationErrorException;
 import org.glassfish.hk2.utilities.cache.WeakCARCache;
@@ -117,6 +122,10 @@ import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.ParameterizedTypeImpl;
 import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.internal.ClassReflectionHelperImpl;
+import org.jvnet.hk2.external.runtime.ContractMetrics;
+import org.jvnet.hk2.external.runtime.LookupMetricsListener;
+import org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean;
+import org.jvnet.hk2.internal.DescriptorIndexSnapshot.ContractAndName;
 
 /**
  * @author jwells
@@ -142,6 +151,16 @@ public class ServiceLocatorImpl implements ServiceLocator {
             
     });
 
+    private final static String LOOKUP_METRICS_PROPERTY = "org.jvnet.hk2.properties.lookupMetrics";
+    private final static boolean LOOKUP_METRICS_ENABLED = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+        @Override
+        public Boolean run() {
+            return Boolean.parseBoolean(
+                System.getProperty(LOOKUP_METRICS_PROPERTY, "false"));
+        }
+            
+    });
+
     private final static int CACHE_SIZE = 20000;
     private final static Object sLock = new Object();
     private static long currentLocatorId = 0L;
@@ -159,21 +178,62 @@ public class ServiceLocatorImpl implements ServiceLocator {
     private volatile boolean neutralContextClassLoader = true;
     private final ClassReflectionHelper classReflectionHelper = new ClassReflectionHelperImpl();
     private final PerLocatorUtilities perLocatorUtilities = new PerLocatorUtilities(this);
+    private final PersistentAnalysisCache analysisCache = PersistentAnalysisCache.getCache();
+    /** Shared by the whole locator hierarchy so that parent descriptors match child lookups */
+    private final QualifierRegistry qualifierRegistry;
 
     private final IndexedListData allDescriptors = new IndexedListData();
     private final HashMap<String, IndexedListData> descriptorsByAdvertisedContract =
             new HashMap<String, IndexedListData>();
     private final HashMap<String, IndexedListData> descriptorsByName =
             new HashMap<String, IndexedListData>();
+    private final HashMap<ContractAndName, IndexedListData> descriptorsByContractAndName =
+            new HashMap<ContractAndName, IndexedListData>();
+    private final HashMap<String, IndexedListData> descriptorsByImplementation =
+            new HashMap<String, IndexedListData>();
+    /** Read without lock by getDescriptors, replaced under the write lock */
+    private volatile DescriptorIndexSnapshot indexSnapshot = DescriptorIndexSnapshot.EMPTY;
+    /** This locator's descriptors merged with those of its ancestors */
+    private final MergedDescriptorIndex mergedIndex;
+    
+    /**
+     * The generation of every contract that has been affected by a commit.  Values
+     * in the igdCache and igashCache are only good while the generation of their
+     * contract is the same as it was when they were computed
+     */
+    private final ConcurrentHashMap<String, AtomicLong> contractGenerations = new ConcurrentHashMap<String, AtomicLong>();
+    /**
+     * Singletons already looked up by class, keyed by the name of the class.  Valid
+     * while their contract generation does not change, and removed when it does
+     */
+    private final ConcurrentHashMap<String, SingletonFastPathEntry> singletonFastPath =
+            new ConcurrentHashMap<String, SingletonFastPathEntry>();
     private final Context<Singleton> singletonContext = new SingletonContext(this);
+    /**
+     * Once frozen, what the unqualified lookups by the contract classes of the
+     * reified descriptors return, computed by {@link #freeze()}.  These never go
+     * stale since the descriptors can no longer change.  The map is unmodifiable,
+     * and its wrapper's final field makes it safe to read from any thread with a
+     * plain load of this field.  A thread that does not see it yet simply takes
+     * the normal lookup path.  Null if not frozen
+     */
+    private Map<Type, ActiveDescriptor<?>> frozenResolutions;
     private final Context<PerLookup> perLookupContext = new PerLookupContext();
-    private final LinkedHashSet<ValidationService> allValidators =
-            new LinkedHashSet<ValidationService>();
-    private final LinkedList<ErrorService> errorHandlers =
-            new LinkedList<ErrorService>();
+    private volatile ConcurrentHashMap<ValidationKey, Boolean> validationCache =
+            new ConcurrentHashMap<ValidationKey, Boolean>();
+    private final CopyOnWriteArraySet<ValidationService> allValidators =
+            new CopyOnWriteArraySet<ValidationService>();
+    private final CopyOnWriteArrayList<ErrorService> errorHandlers =
+            new CopyOnWriteArrayList<ErrorService>();
     private final LinkedList<ServiceHandle<?>> configListeners =
             new LinkedList<ServiceHandle<?>>();
     
+    private final CopyOnWriteArrayList<LookupMetricsListener> lookupMetricsListeners =
+            new CopyOnWriteArrayList<LookupMetricsListener>();
+    /** Null unless lookup metrics are enabled */
+    private volatile LookupMetrics lookupMetrics = LOOKUP_METRICS_ENABLED ?
+            new LookupMetrics(lookupMetricsListeners) : null;
+    
     private volatile boolean hasInterceptionServices = false;
     private final LinkedList<InterceptionService> interceptionServices =
             new LinkedList<InterceptionService>();
@@ -206,7 +266,8 @@ public class ServiceLocatorImpl implements ServiceLocator {
         
     });
 
-    private ServiceLocatorState state = ServiceLocatorState.RUNNING;
+    private volatile ServiceLocatorState state = ServiceLocatorState.RUNNING;
+    private boolean frozen = false;
 
     private static long getAndIncrementLocatorId() {
         synchronized (sLock) {
@@ -223,6 +284,8 @@ public class ServiceLocatorImpl implements ServiceLocator {
     public ServiceLocatorImpl(String name, ServiceLocatorImpl parent) {
         locatorName = name;
         this.parent = parent;
+        qualifierRegistry = (parent == null) ? new QualifierRegistry() : parent.qualifierRegistry;
+        mergedIndex = new MergedDescriptorIndex(this, parent);
         if (parent != null) {
             parent.addChild(this);
         }
@@ -237,7 +300,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
     }
     
     /**
-     * Must have read lock held
+     * May be called without any lock held
      * 
      * @param vi The non-null validation
      * @return
@@ -247,55 +310,120 @@ public class ServiceLocatorImpl implements ServiceLocator {
             return vs.getValidator().validate(vi);
         }
         catch (Throwable th) {
-            List<ErrorService> localErrorServices = new LinkedList<ErrorService>(errorHandlers);
-            
-            MultiException useException;
-            if (th instanceof MultiException) {
-                useException = (MultiException) th;
-            }
-            else {
-                useException = new MultiException(th);
-            }
-            
-            ErrorInformationImpl ei = new ErrorInformationImpl(
-                    ErrorType.VALIDATE_FAILURE,
-                    vi.getCandidate(),
-                    vi.getInjectee(),
-                    useException);
-            
-            for (ErrorService errorService : localErrorServices) {
-                try {
-                    errorService.onFailure(ei);
-                }
-                catch (Throwable th2) {
-                    Logger.getLogger().debug("ServiceLocatorImpl", "callValidate", th2);
-                }
-            }
-            
+            reportValidateFailure(vi, th);
         }
         
         return false;
     }
+    
+    /**
+     * May be called without any lock held
+     * 
+     * @param vi The validation that failed
+     * @param th The exception thrown by the validator
+     */
+    private void reportValidateFailure(ValidationInformation vi, Throwable th) {
+        List<ErrorService> localErrorServices = new LinkedList<ErrorService>(errorHandlers);
+        
+        MultiException useException;
+        if (th instanceof MultiException) {
+            useException = (MultiException) th;
+        }
+        else {
+            useException = new MultiException(th);
+        }
+        
+        ErrorInformationImpl ei = new ErrorInformationImpl(
+                ErrorType.VALIDATE_FAILURE,
+                vi.getCandidate(),
+                vi.getInjectee(),
+                useException);
+        
+        for (ErrorService errorService : localErrorServices) {
+            try {
+                errorService.onFailure(ei);
+            }
+            catch (Throwable th2) {
+                Logger.getLogger().debug("ServiceLocatorImpl", "callValidate", th2);
+            }
+        }
+    }
 
     /**
-     * Must be called under lock
+     * May be called without any lock held
      *
      * @param descriptor The descriptor to validate
      * @param onBehalfOf The fella who is being validated (or null)
      * @return true if every validator returned true
      */
     private boolean validate(SystemDescriptor<?> descriptor, Injectee onBehalfOf, Filter filter) {
+        ConcurrentHashMap<ValidationKey, Boolean> cache = validationCache;
+        
         for (ValidationService vs : getAllValidators()) {
             if (!descriptor.isValidating(vs)) continue;
-
-            if (!callValidate(vs, new ValidationInformationImpl(
-                    Operation.LOOKUP, descriptor, onBehalfOf, filter))) {
-                return false;
+            
+            // Only the injectees of descriptors live as long as the cache.  Other
+            // injectees are usually made for one lookup and would never be found again
+            Validator validator = vs.getValidator();
+            if (!(validator instanceof CacheableValidator) ||
+                    (onBehalfOf != null && !(onBehalfOf instanceof SystemInjecteeImpl))) {
+                if (!callValidate(vs, new ValidationInformationImpl(
+                        Operation.LOOKUP, descriptor, onBehalfOf, filter))) {
+                    return false;
+                }
+                
+                continue;
+            }
+            
+            ValidationKey key = new ValidationKey(vs, descriptor, onBehalfOf);
+            Boolean result = cache.get(key);
+            if (result == null) {
+                result = cacheableValidate((CacheableValidator) validator, new ValidationInformationImpl(
+                        Operation.LOOKUP, descriptor, onBehalfOf, filter), key, cache);
             }
+            
+            if (!result) return false;
         }
 
         return true;
     }
+    
+    /**
+     * May be called without any lock held.  Remembers the result in the given
+     * cache if the validator allows it and the validator did not fail
+     */
+    private boolean cacheableValidate(CacheableValidator validator,
+            ValidationInformation vi,
+            ValidationKey key,
+            ConcurrentHashMap<ValidationKey, Boolean> cache) {
+        boolean retVal;
+        try {
+            retVal = validator.validate(vi);
+        }
+        catch (Throwable th) {
+            reportValidateFailure(vi, th);
+            return false;
+        }
+        
+        try {
+            if (validator.isCacheable(vi)) {
+                cache.put(key, retVal);
+            }
+        }
+        catch (Throwable th) {
+            Logger.getLogger().debug("ServiceLocatorImpl", "cacheableValidate", th);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Forgets all remembered validation results.  Results being computed
+     * while this is called are put into the map being dropped
+     */
+    private void clearValidationCache() {
+        validationCache = new ConcurrentHashMap<ValidationKey, Boolean>();
+    }
 
     private List<SystemDescriptor<?>> getDescriptors(Filter filter,
             Injectee onBehalfOf,
@@ -304,85 +432,84 @@ public class ServiceLocatorImpl implements ServiceLocator {
             boolean getLocals) {
         if (filter == null) throw new IllegalArgumentException("filter is null");
 
-        LinkedList<SystemDescriptor<?>> retVal;
-        rLock.lock();
-        try {
-            Collection<SystemDescriptor<?>> sortMeOut;
-            if (filter instanceof IndexedFilter) {
-                IndexedFilter df = (IndexedFilter) filter;
-
-                if (df.getName() != null) {
-                    Collection<SystemDescriptor<?>> scopedByName;
-
-                    String name = df.getName();
-
-                    IndexedListData ild = descriptorsByName.get(name);
-                    scopedByName = (ild == null) ? null : ild.getSortedList();
-                    if (scopedByName == null) {
-                        scopedByName = Collections.emptyList();
-                    }
+        // With parents, the merged index already has the descriptors of the whole
+        // hierarchy in ranked order, without the local descriptors of the parents
+        boolean merged = getParents && parent != null;
 
-                    if (df.getAdvertisedContract() != null) {
-                        sortMeOut = new LinkedList<SystemDescriptor<?>>();
+        // The snapshot is immutable, so no lock is needed to walk it
+        DescriptorIndexSnapshot snapshot = indexSnapshot;
 
-                        for (SystemDescriptor<?> candidate : scopedByName) {
-                            if (candidate.getAdvertisedContracts().contains(df.getAdvertisedContract())) {
-                                sortMeOut.add(candidate);
-                            }
-                        }
-                    }
-                    else {
-                        sortMeOut = scopedByName;
-                    }
-                }
-                else if (df.getAdvertisedContract() != null) {
-                    String advertisedContract = df.getAdvertisedContract();
+        Collection<SystemDescriptor<?>> sortMeOut;
+        String implementation = (filter instanceof ImplementationFilter) ?
+                ((ImplementationFilter) filter).getImplementation() : null;
+        DescriptorType implementationType = null;
+        if (implementation != null) {
+            implementationType = ((ImplementationFilter) filter).getDescriptorType();
 
-                    IndexedListData ild = descriptorsByAdvertisedContract.get(advertisedContract);
-                    sortMeOut = (ild == null) ? null : ild.getSortedList();
-                    if (sortMeOut == null) {
-                        sortMeOut = Collections.emptyList();
+            sortMeOut = merged ? mergedIndex.getByImplementation(implementation) :
+                snapshot.getByImplementation(implementation);
+        }
+        else if (filter instanceof IndexedFilter) {
+            IndexedFilter df = (IndexedFilter) filter;
 
-                    }
+            if (df.getName() != null) {
+                if (df.getAdvertisedContract() != null) {
+                    sortMeOut = merged ?
+                            mergedIndex.getByContractAndName(df.getAdvertisedContract(), df.getName()) :
+                            snapshot.getByContractAndName(df.getAdvertisedContract(), df.getName());
                 }
                 else {
-                    sortMeOut = allDescriptors.getSortedList();
+                    sortMeOut = merged ? mergedIndex.getByName(df.getName()) : snapshot.getByName(df.getName());
                 }
             }
+            else if (df.getAdvertisedContract() != null) {
+                sortMeOut = merged ? mergedIndex.getByAdvertisedContract(df.getAdvertisedContract()) :
+                    snapshot.getByAdvertisedContract(df.getAdvertisedContract());
+            }
             else {
-                sortMeOut = allDescriptors.getSortedList();
+                sortMeOut = merged ? mergedIndex.getAllDescriptors() : snapshot.getAllDescriptors();
             }
+        }
+        else {
+            sortMeOut = merged ? mergedIndex.getAllDescriptors() : snapshot.getAllDescriptors();
+        }
 
-            retVal = new LinkedList<SystemDescriptor<?>>();
+        LinkedList<SystemDescriptor<?>> retVal = new LinkedList<SystemDescriptor<?>>();
 
-            for (SystemDescriptor<?> candidate : sortMeOut) {
-                if (!getLocals && DescriptorVisibility.LOCAL.equals(candidate.getDescriptorVisibility())) {
-                    continue;
-                }
+        for (SystemDescriptor<?> candidate : sortMeOut) {
+            if (!getLocals && DescriptorVisibility.LOCAL.equals(candidate.getDescriptorVisibility())) {
+                continue;
+            }
 
-                if (doValidation && !validate(candidate, onBehalfOf, filter)) continue;
+            if (implementation != null && !matchesIndexes(filter, implementationType, candidate)) {
+                continue;
+            }
 
-                if (filter.matches(candidate)) {
-                    retVal.add(candidate);
-                }
+            // Descriptors from the parents are validated by the validators of their own locator
+            if (doValidation && !candidate.getServiceLocator().validate(candidate, onBehalfOf, filter)) continue;
+
+            if (filter.matches(candidate)) {
+                retVal.add(candidate);
             }
-        } finally {
-            rLock.unlock();
         }
 
-        // Must be done outside of lock, or there can be a deadlock between child and parent
-        if (getParents && parent != null) {
-            TreeSet<SystemDescriptor<?>> sorter = new TreeSet<SystemDescriptor<?>>(DESCRIPTOR_COMPARATOR);
-
-            sorter.addAll(retVal);
-            sorter.addAll(parent.getDescriptors(filter, onBehalfOf, getParents, doValidation, false));
+        return retVal;
+    }
 
-            retVal.clear();
+    /**
+     * Applies the parts of the filter that were not used to pick the candidates
+     * when the candidates came from the implementation index
+     */
+    private static boolean matchesIndexes(Filter filter, DescriptorType type, SystemDescriptor<?> candidate) {
+        if (type != null && !type.equals(candidate.getDescriptorType())) return false;
+        if (!(filter instanceof IndexedFilter)) return true;
 
-            retVal.addAll(sorter);
-        }
+        IndexedFilter df = (IndexedFilter) filter;
+        if (df.getName() != null && !df.getName().equals(candidate.getName())) return false;
+        if (df.getAdvertisedContract() != null &&
+                !getAllContracts(candidate).contains(df.getAdvertisedContract())) return false;
 
-        return retVal;
+        return true;
     }
 
     private List<ActiveDescriptor<?>> protectedGetDescriptors(final Filter filter) {
@@ -512,6 +639,14 @@ public class ServiceLocatorImpl implements ServiceLocator {
                     collector.addThrowable(th);
                     aJITFailed = true;
                 }
+                
+                LookupMetrics metrics = lookupMetrics;
+                if (metrics != null) {
+                    Class<?> rawType = ReflectionHelper.getRawClass(injectee.getRequiredType());
+                    if (rawType != null) {
+                        metrics.justInTime(rawType.getName(), jitModified);
+                    }
+                }
 
                 modified = jitModified || modified;
             }
@@ -702,9 +837,82 @@ public class ServiceLocatorImpl implements ServiceLocator {
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.ServiceLocator#getService(java.lang.reflect.Type)
      */
+    @SuppressWarnings("unchecked")
     @Override
     public <T> T getService(Class<T> contractOrImpl, Annotation... qualifiers) throws MultiException {
-        return internalGetService(contractOrImpl, null, null, qualifiers);
+        if (contractOrImpl == null ||
+                qualifiers == null ||
+                qualifiers.length > 0 ||
+                contractOrImpl.isPrimitive() ||
+                Provider.class.equals(contractOrImpl) ||
+                IterableProvider.class.equals(contractOrImpl)) {
+            return internalGetService(contractOrImpl, null, null, qualifiers);
+        }
+        
+        checkState();
+        
+        // Fast path for Singletons that have already been created, which must not allocate
+        String contractName = contractOrImpl.getName();
+        SingletonFastPathEntry entry = singletonFastPath.get(contractName);
+        if (entry != null && entry.contract == contractOrImpl) {
+            if (isCurrent(entry, contractName)) {
+                LookupMetrics metrics = lookupMetrics;
+                if (metrics != null) {
+                    metrics.lookup(contractName, true);
+                }
+                
+                return (T) entry.service;
+            }
+            
+            singletonFastPath.remove(contractName, entry);
+        }
+        
+        // Must be read before the lookup so that a commit during the lookup makes the new entry stale
+        long generation = getContractGeneration(contractName);
+        
+        ActiveDescriptor<T> ad = internalGetDescriptor(null, contractOrImpl, null, null, false, false, qualifiers);
+        if (ad == null) return null;
+
+        T retVal = Utilities.createService(ad, null, this, null, contractOrImpl);
+        
+        if (retVal != null &&
+                ad instanceof SystemDescriptor &&
+                Singleton.class.getName().equals(ad.getScope()) &&
+                retVal == ad.getCache() &&
+                defaultUnqualified == null &&
+                !hasValidators()) {
+            SingletonFastPathEntry added = new SingletonFastPathEntry(contractOrImpl,
+                    (SystemDescriptor<?>) ad, retVal, generation);
+            singletonFastPath.put(contractName, added);
+            
+            // A commit during the lookup may already have evicted this contract
+            if (generation != getContractGeneration(contractName)) {
+                singletonFastPath.remove(contractName, added);
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Tells if a fast path entry still returns what a full lookup would.  It does
+     * if its Singleton has not been destroyed and no commit has changed the services
+     * with its contract since it was created.  Validators and the default Unqualified
+     * are checked on every use since they change which service a lookup returns
+     * without changing the generation of the contract
+     */
+    private boolean isCurrent(SingletonFastPathEntry entry, String contractName) {
+        return entry.generation == getContractGeneration(contractName) &&
+                entry.descriptor.getCache() == entry.service &&
+                defaultUnqualified == null &&
+                !hasValidators();
+    }
+    
+    private boolean hasValidators() {
+        if (!allValidators.isEmpty()) return true;
+        if (parent == null) return false;
+        
+        return parent.hasValidators();
     }
 
     /* (non-Javadoc)
@@ -878,6 +1086,78 @@ public class ServiceLocatorImpl implements ServiceLocator {
         }
     }
 
+    /**
+     * Freezes this locator, see {@link ServiceLocatorRuntimeBean#freeze()}.
+     * The state of a frozen locator stays RUNNING
+     */
+    /* package */ void freeze() {
+        List<SystemDescriptor<?>> reified = new LinkedList<SystemDescriptor<?>>();
+        Unqualified frozenUnqualified;
+        
+        wLock.lock();
+        try {
+            checkState();
+            if (frozen) return;
+            
+            if (parent != null && !parent.isFrozen()) {
+                throw new IllegalStateException("The parent of " + this + " must be frozen before it can be frozen");
+            }
+            
+            frozen = true;
+            
+            // What validators allow depends on who is looking
+            if (hasValidators()) return;
+            
+            frozenUnqualified = defaultUnqualified;
+            for (SystemDescriptor<?> candidate : (parent == null) ?
+                    indexSnapshot.getAllDescriptors() : mergedIndex.getAllDescriptors()) {
+                if (candidate.isReified()) reified.add(candidate);
+            }
+        }
+        finally {
+            wLock.unlock();
+        }
+        
+        // Resolve the contracts whose classes are already loaded.  The contracts of
+        // descriptors that were never reified are not resolved, since that would load
+        // every class in the locator, and are looked up the normal way
+        HashMap<Type, ActiveDescriptor<?>> resolutions = new HashMap<Type, ActiveDescriptor<?>>();
+        for (SystemDescriptor<?> candidate : reified) {
+            for (Type contract : candidate.getContractTypes()) {
+                if (!(contract instanceof Class) || resolutions.containsKey(contract)) continue;
+                
+                try {
+                    ActiveDescriptor<?> resolved = internalGetDescriptor(null, contract, null, null, false);
+                    if (resolved != null) resolutions.put(contract, resolved);
+                }
+                catch (Throwable th) {
+                    // Will fail again when it is looked up
+                    Logger.getLogger().debug("ServiceLocatorImpl", "freeze", th);
+                }
+            }
+        }
+        
+        wLock.lock();
+        try {
+            // The default Unqualified changes what the lookups return
+            if (ServiceLocatorState.SHUTDOWN.equals(state) || frozenUnqualified != defaultUnqualified) return;
+            
+            frozenResolutions = Collections.unmodifiableMap(resolutions);
+        }
+        finally {
+            wLock.unlock();
+        }
+    }
+
+    /* package */ boolean isFrozen() {
+        rLock.lock();
+        try {
+            return frozen;
+        } finally {
+            rLock.unlock();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.ServiceLocator#shutdown()
      */
@@ -930,15 +1210,27 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
             state = ServiceLocatorState.SHUTDOWN;
 
+            // The registry is shared with the rest of the hierarchy
+            for (SystemDescriptor<?> descriptor : allDescriptors.getSortedList()) {
+                descriptor.releaseQualifierBits();
+            }
+
             allDescriptors.clear();
             descriptorsByAdvertisedContract.clear();
             descriptorsByName.clear();
+            descriptorsByContractAndName.clear();
+            descriptorsByImplementation.clear();
+            indexSnapshot = DescriptorIndexSnapshot.EMPTY;
+            mergedIndex.clear();
             allResolvers.clear();
             injecteeToResolverCache.clear();
             allValidators.clear();
+            clearValidationCache();
             errorHandlers.clear();
             igdCache.clear();
             igashCache.clear();
+            singletonFastPath.clear();
+            frozenResolutions = null;
             classReflectionHelper.dispose();
             contextCache.clear();
             perLocatorUtilities.shutdown();
@@ -953,6 +1245,10 @@ public class ServiceLocatorImpl implements ServiceLocator {
         }
 
         ServiceLocatorFactory.getInstance().destroy(this);
+        
+        if (analysisCache != null) {
+            analysisCache.save();
+        }
 
         Logger.getLogger().debug("ServiceLocator " + this + " has been shutdown");
     }
@@ -1088,6 +1384,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
     private final static class IgdCacheKey {
         private final CacheKey cacheKey;
+        private final String contractName;
         private final String name;
         private final Injectee onBehalfOf;
         private final Type contractOrImpl;
@@ -1104,6 +1401,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 Annotation[] qualifiers,
                 Filter filter) {
             this.cacheKey = key;
+            this.contractName = rawClass.getName();
             this.name = name;
             this.onBehalfOf = onBehalfOf;
             this.contractOrImpl = contractOrImpl;
@@ -1143,12 +1441,107 @@ public class ServiceLocatorImpl implements ServiceLocator {
     private class IgdValue {
         final NarrowResults results;
         final ImmediateResults immediate;
+        final long generation;
         final AtomicInteger freshnessKeeper = new AtomicInteger(1);
 
-        public IgdValue(NarrowResults results, ImmediateResults immediate) {
+        public IgdValue(NarrowResults results, ImmediateResults immediate, long generation) {
             this.results = results;
             this.immediate = immediate;
+            this.generation = generation;
+        }
+    }
+    
+    /**
+     * A Singleton found by {@link ServiceLocator#getService(Class, Annotation...)}
+     * with no qualifiers, along with the generation of its contract at the time
+     */
+    private final static class SingletonFastPathEntry {
+        private final Class<?> contract;
+        private final SystemDescriptor<?> descriptor;
+        private final Object service;
+        private final long generation;
+        
+        private SingletonFastPathEntry(Class<?> contract, SystemDescriptor<?> descriptor, Object service, long generation) {
+            this.contract = contract;
+            this.descriptor = descriptor;
+            this.service = service;
+            this.generation = generation;
+        }
+    }
+    
+    /**
+     * The key of a remembered validation result.  All parts are compared by
+     * identity.  The injectee is either an injectee of a descriptor or null
+     * for lookups done with the API, which keeps the number of keys bounded
+     * by the descriptors in the locator.  The filter of the lookup is not part
+     * of the key, see {@link CacheableValidator}
+     */
+    private final static class ValidationKey {
+        private final ValidationService validationService;
+        private final SystemDescriptor<?> candidate;
+        private final Injectee injectee;
+        private final int hashCode;
+        
+        private ValidationKey(ValidationService validationService, SystemDescriptor<?> candidate, Injectee injectee) {
+            this.validationService = validationService;
+            this.candidate = candidate;
+            this.injectee = injectee;
+            
+            int hash = System.identityHashCode(validationService);
+            hash = (31 * hash) + System.identityHashCode(candidate);
+            hash = (31 * hash) + System.identityHashCode(injectee);
+            this.hashCode = hash;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ValidationKey)) return false;
+            
+            ValidationKey other = (ValidationKey) o;
+            return (validationService == other.validationService) &&
+                    (candidate == other.candidate) &&
+                    (injectee == other.injectee);
+        }
+    }
+    
+    private long getContractGeneration(String contract) {
+        AtomicLong generation = contractGenerations.get(contract);
+        if (generation == null) return 0L;
+        
+        return generation.get();
+    }
+    
+    /**
+     * Gets the value from the given cache, recomputing it if it was computed
+     * before the last commit that affected its contract.  The recomputed value
+     * replaces the stale one under the same key, unless another thread has
+     * already done so.
+     * <p>
+     * No lock is needed.  A value is computed from the index snapshot read
+     * after its generation, and a commit publishes its snapshot before it
+     * bumps the generations, so a value computed while a commit is in
+     * progress carries the old generation and is simply recomputed later
+     */
+    private IgdValue getCurrentValue(WeakCARCache<IgdCacheKey, IgdValue> cache, IgdCacheKey key) {
+        IgdValue value = cache.compute(key);
+        if (value.generation == getContractGeneration(key.contractName)) return value;
+        
+        IgdValue current;
+        try {
+            current = cache.getComputable().compute(key);
         }
+        catch (ComputationErrorException cee) {
+            // Not kept, just as when the cache itself computes it
+            return (IgdValue) cee.getComputation();
+        }
+        
+        cache.replace(key, value, current);
+        return current;
     }
 
     private final WeakCARCache<IgdCacheKey, IgdValue> igdCache = CacheUtilities.createWeakCARCache(
@@ -1160,6 +1553,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
             }, CACHE_SIZE, false);
     
     private IgdValue igdCacheCompute(final IgdCacheKey key) {
+        final long generation = getContractGeneration(key.contractName);
         final List<SystemDescriptor<?>> candidates = getDescriptors(key.filter, key.onBehalfOf, true, false, true);
         final ImmediateResults immediate = narrow(ServiceLocatorImpl.this, // locator
                 candidates, // candidates
@@ -1175,10 +1569,10 @@ public class ServiceLocatorImpl implements ServiceLocator {
         final NarrowResults results = immediate.getTimelessResults();
         if (!results.getErrors().isEmpty()) {
             Utilities.handleErrors(results, new LinkedList<ErrorService>(errorHandlers));
-            throw new ComputationErrorException(new IgdValue(results, immediate));
+            throw new ComputationErrorException(new IgdValue(results, immediate, generation));
         }
         
-        return new IgdValue(results, immediate);
+        return new IgdValue(results, immediate, generation);
     }
     
     private Unqualified getEffectiveUnqualified(Unqualified givenUnqualified, boolean isIterable, Annotation qualifiers[]) {
@@ -1207,6 +1601,21 @@ public class ServiceLocatorImpl implements ServiceLocator {
             Annotation... qualifiers) throws MultiException {
         if (contractOrImpl == null) throw new IllegalArgumentException();
 
+        // A frozen locator knows what unqualified lookups by type return
+        Map<Type, ActiveDescriptor<?>> frozen = frozenResolutions;
+        if (frozen != null && name == null && unqualified == null && !isIterable && qualifiers.length == 0 &&
+                !calledFromSecondChanceResolveMethod) {
+            ActiveDescriptor<T> resolved = (ActiveDescriptor<T>) frozen.get(contractOrImpl);
+            if (resolved != null) {
+                LookupMetrics metrics = lookupMetrics;
+                if (metrics != null) {
+                    metrics.lookup(ReflectionHelper.getRawClass(contractOrImpl).getName(), true);
+                }
+
+                return resolved;
+            }
+        }
+
         Class<?> rawClass = ReflectionHelper.getRawClass(contractOrImpl);
         if (rawClass == null) return null;  // Can't be a TypeVariable or Wildcard
 
@@ -1233,39 +1642,40 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 qualifiers,
                 filter);
 
-        rLock.lock();
-        try {
-            final IgdValue value = igdCache.compute(igdCacheKey);
-            final boolean freshOne = value.freshnessKeeper.compareAndSet(1, 2);
-            if (!freshOne) {
-                immediate = narrow(this,  // locator
-                            null, // candidates
-                            contractOrImpl, // requiredType
-                            name,  // name
-                            onBehalfOf,  // onBehalfOf
-                            true, // onlyOne
-                            true, // doValidation
-                            value.results, // cachedResults
-                            filter, // filter
-                            qualifiers); // qualifiers
-                results = immediate.getTimelessResults();
-            } else {
-                results = value.results;
-                immediate = value.immediate;
-            }
+        // The cache and the index snapshot are read without any lock
+        final IgdValue value = getCurrentValue(igdCache, igdCacheKey);
+        final boolean freshOne = value.freshnessKeeper.compareAndSet(1, 2);
+        final boolean cacheHit = !freshOne;
+        if (!freshOne) {
+            immediate = narrow(this,  // locator
+                        null, // candidates
+                        contractOrImpl, // requiredType
+                        name,  // name
+                        onBehalfOf,  // onBehalfOf
+                        true, // onlyOne
+                        true, // doValidation
+                        value.results, // cachedResults
+                        filter, // filter
+                        qualifiers); // qualifiers
+            results = immediate.getTimelessResults();
+        } else {
+            results = value.results;
+            immediate = value.immediate;
+        }
 
-            if (!results.getErrors().isEmpty()) {
-                currentErrorHandlers = new LinkedList<ErrorService>(errorHandlers);
-            }
-        } finally {
-            rLock.unlock();
+        if (!results.getErrors().isEmpty()) {
+            currentErrorHandlers = new LinkedList<ErrorService>(errorHandlers);
         }
 
         if (currentErrorHandlers != null) {
-            // Do this next call OUTSIDE of the lock
             Utilities.handleErrors(results, currentErrorHandlers);
         }
 
+        LookupMetrics metrics = lookupMetrics;
+        if (metrics != null) {
+            metrics.lookup(igdCacheKey.contractName, cacheHit);
+        }
+
         // Must do validation here in order to allow for caching
         ActiveDescriptor<T> postValidateResult = immediate.getImmediateResults().isEmpty() ? null
                     : (ActiveDescriptor<T>) immediate.getImmediateResults().get(0);
@@ -1368,6 +1778,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
             CacheUtilities.createWeakCARCache(new Computable<IgdCacheKey, IgdValue>() {
         @Override
         public IgdValue compute(final IgdCacheKey key) {
+            final long generation = getContractGeneration(key.contractName);
 
             List<SystemDescriptor<?>> candidates = getDescriptors(key.filter, null, true, false, true);
             ImmediateResults immediate = narrow(ServiceLocatorImpl.this,
@@ -1383,10 +1794,10 @@ public class ServiceLocatorImpl implements ServiceLocator {
             NarrowResults results = immediate.getTimelessResults();
             if (!results.getErrors().isEmpty()) {
                 Utilities.handleErrors(results, new LinkedList<ErrorService>(errorHandlers));
-                throw new ComputationErrorException(new IgdValue(results, immediate)) ;
+                throw new ComputationErrorException(new IgdValue(results, immediate, generation)) ;
             }
             
-            return new IgdValue(results, immediate);
+            return new IgdValue(results, immediate, generation);
         }
     }, CACHE_SIZE, false);
 
@@ -1425,41 +1836,41 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 qualifiers,
                 filter);
 
-        rLock.lock();
-        try {
-            final IgdValue value = igashCache.compute(igdCacheKey);
-            final boolean freshOne = value.freshnessKeeper.compareAndSet(1, 2);
-            if (!freshOne) {
-                immediate = narrow(this,
-                        null,
-                        contractOrImpl,
-                        null,
-                        null,
-                        false,
-                        true,
-                        value.results,
-                        filter,
-                        qualifiers);
-                results = immediate.getTimelessResults();
-            }
-            else {
-                results = value.results;
-                immediate = value.immediate;
-            }
-
-            if (!results.getErrors().isEmpty()) {
-                currentErrorHandlers = new LinkedList<ErrorService>(errorHandlers);
-            }
+        // The cache and the index snapshot are read without any lock
+        final IgdValue value = getCurrentValue(igashCache, igdCacheKey);
+        final boolean freshOne = value.freshnessKeeper.compareAndSet(1, 2);
+        final boolean cacheHit = !freshOne;
+        if (!freshOne) {
+            immediate = narrow(this,
+                    null,
+                    contractOrImpl,
+                    null,
+                    null,
+                    false,
+                    true,
+                    value.results,
+                    filter,
+                    qualifiers);
+            results = immediate.getTimelessResults();
         }
-        finally {
-            rLock.unlock();
+        else {
+            results = value.results;
+            immediate = value.immediate;
+        }
+
+        if (!results.getErrors().isEmpty()) {
+            currentErrorHandlers = new LinkedList<ErrorService>(errorHandlers);
         }
 
         if (currentErrorHandlers != null) {
-            // Do this next call OUTSIDE of the lock
             Utilities.handleErrors(results, currentErrorHandlers);
         }
 
+        LookupMetrics metrics = lookupMetrics;
+        if (metrics != null) {
+            metrics.lookup(igdCacheKey.contractName, cacheHit);
+        }
+
         LinkedList<Object> retVal = new LinkedList<Object>();
         for (ActiveDescriptor<?> candidate : immediate.getImmediateResults()) {
             if (getHandles) {
@@ -1782,6 +2193,11 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
     @SuppressWarnings("unchecked")
     private void removeConfigurationInternal(List<SystemDescriptor<?>> unbinds) {
+        HashSet<String> changedContracts = new HashSet<String>();
+        HashSet<String> changedNames = new HashSet<String>();
+        HashSet<ContractAndName> changedContractsAndNames = new HashSet<ContractAndName>();
+        HashSet<String> changedImplementations = new HashSet<String>();
+
         for (SystemDescriptor<?> unbind : unbinds) {
             if ((BIND_TRACING_PATTERN != null) && doTrace(unbind)) {
                 Logger.getLogger().debug("HK2 Bind Tracing: Removing Descriptor " + unbind);
@@ -1796,6 +2212,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 IndexedListData ild = descriptorsByAdvertisedContract.get(advertisedContract);
                 if (ild == null) continue;
 
+                changedContracts.add(advertisedContract);
                 ild.removeDescriptor(unbind);
                 if (ild.isEmpty()) descriptorsByAdvertisedContract.remove(advertisedContract);
             }
@@ -1804,17 +2221,41 @@ public class ServiceLocatorImpl implements ServiceLocator {
             if (unbindName != null) {
                 IndexedListData ild = descriptorsByName.get(unbindName);
                 if (ild != null) {
+                    changedNames.add(unbindName);
                     ild.removeDescriptor(unbind);
                     if (ild.isEmpty()) {
                         descriptorsByName.remove(unbindName);
                     }
                 }
+
+                for (String advertisedContract : unbind.getAdvertisedContracts()) {
+                    ContractAndName key = new ContractAndName(advertisedContract, unbindName);
+                    ild = descriptorsByContractAndName.get(key);
+                    if (ild == null) continue;
+
+                    changedContractsAndNames.add(key);
+                    ild.removeDescriptor(unbind);
+                    if (ild.isEmpty()) descriptorsByContractAndName.remove(key);
+                }
+            }
+
+            String unbindImplementation = unbind.getImplementation();
+            if (unbindImplementation != null) {
+                IndexedListData ild = descriptorsByImplementation.get(unbindImplementation);
+                if (ild != null) {
+                    changedImplementations.add(unbindImplementation);
+                    ild.removeDescriptor(unbind);
+                    if (ild.isEmpty()) {
+                        descriptorsByImplementation.remove(unbindImplementation);
+                    }
+                }
             }
 
             if (unbind.getAdvertisedContracts().contains(ValidationService.class.getName())) {
                 ServiceHandle<ValidationService> handle = (ServiceHandle<ValidationService>) getServiceHandle(unbind);
                 ValidationService vs = handle.getService();
                 allValidators.remove(vs);
+                clearValidationCache();
             }
             
             if (unbind.isReified()) {
@@ -1828,6 +2269,9 @@ public class ServiceLocatorImpl implements ServiceLocator {
             }
         }
         
+        publishIndexSnapshot(Collections.<SystemDescriptor<?>>emptyList(), unbinds,
+                changedContracts, changedNames, changedContractsAndNames, changedImplementations);
+        
         boolean hasOneUnbind = false;
         for (SystemDescriptor<?> unbind : unbinds) {
             hasOneUnbind = true;
@@ -1867,6 +2311,10 @@ public class ServiceLocatorImpl implements ServiceLocator {
     @SuppressWarnings("unchecked")
     private List<SystemDescriptor<?>> addConfigurationInternal(DynamicConfigurationImpl dci) {
         List<SystemDescriptor<?>> thingsAdded = new LinkedList<SystemDescriptor<?>>();
+        HashSet<String> changedContracts = new HashSet<String>();
+        HashSet<String> changedNames = new HashSet<String>();
+        HashSet<ContractAndName> changedContractsAndNames = new HashSet<ContractAndName>();
+        HashSet<String> changedImplementations = new HashSet<String>();
 
         for (SystemDescriptor<?> sd : dci.getAllDescriptors()) {
             if ((BIND_TRACING_PATTERN != null) && doTrace(sd)) {
@@ -1888,6 +2336,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
                     descriptorsByAdvertisedContract.put(advertisedContract, ild);
                 }
 
+                changedContracts.add(advertisedContract);
                 ild.addDescriptor(sd);
             }
 
@@ -1899,19 +2348,75 @@ public class ServiceLocatorImpl implements ServiceLocator {
                     descriptorsByName.put(name, ild);
                 }
 
+                changedNames.add(name);
+                ild.addDescriptor(sd);
+
+                for (String advertisedContract : sd.getAdvertisedContracts()) {
+                    ContractAndName key = new ContractAndName(advertisedContract, name);
+                    ild = descriptorsByContractAndName.get(key);
+                    if (ild == null) {
+                        ild = new IndexedListData();
+                        descriptorsByContractAndName.put(key, ild);
+                    }
+
+                    changedContractsAndNames.add(key);
+                    ild.addDescriptor(sd);
+                }
+            }
+
+            if (sd.getImplementation() != null) {
+                String implementation = sd.getImplementation();
+                IndexedListData ild = descriptorsByImplementation.get(implementation);
+                if (ild == null) {
+                    ild = new IndexedListData();
+                    descriptorsByImplementation.put(implementation, ild);
+                }
+
+                changedImplementations.add(implementation);
                 ild.addDescriptor(sd);
             }
+        }
 
+        // Validation services are created only after the new descriptors
+        // are visible to lookups, since they may inject any of them
+        publishIndexSnapshot(thingsAdded, Collections.<SystemDescriptor<?>>emptyList(),
+                changedContracts, changedNames, changedContractsAndNames, changedImplementations);
+
+        for (SystemDescriptor<?> sd : thingsAdded) {
             if (sd.getAdvertisedContracts().contains(ValidationService.class.getName())) {
                 ServiceHandle<ValidationService> handle = getServiceHandle((ActiveDescriptor<ValidationService>) sd);
                 ValidationService vs = handle.getService();
                 allValidators.add(vs);
+                clearValidationCache();
             }
         }
 
         return thingsAdded;
     }
 
+    /**
+     * Must be called with the write lock held.  Publishes a new snapshot of
+     * the indexes for lock-free lookups, copying only the lists of the given
+     * contracts and names
+     *
+     * @param addedToAll The descriptors added to the index of all descriptors
+     * @param removedFromAll The descriptors removed from the index of all descriptors
+     * @param changedContracts The contracts whose lists may have changed
+     * @param changedNames The names whose lists may have changed
+     * @param changedContractsAndNames The contract and name pairs whose lists may have changed
+     * @param changedImplementations The implementations whose lists may have changed
+     */
+    private void publishIndexSnapshot(List<SystemDescriptor<?>> addedToAll,
+            List<SystemDescriptor<?>> removedFromAll,
+            Set<String> changedContracts, Set<String> changedNames,
+            Set<ContractAndName> changedContractsAndNames, Set<String> changedImplementations) {
+        indexSnapshot = indexSnapshot.next(addedToAll, removedFromAll,
+                descriptorsByAdvertisedContract, changedContracts,
+                descriptorsByName, changedNames,
+                descriptorsByContractAndName, changedContractsAndNames,
+                descriptorsByImplementation, changedImplementations);
+    }
+
     private void reupInjectionResolvers() {
         HashMap<Class<? extends Annotation>, InjectionResolver<?>> newResolvers =
                 new HashMap<Class<? extends Annotation>, InjectionResolver<?>>();
@@ -1994,17 +2499,24 @@ public class ServiceLocatorImpl implements ServiceLocator {
         // This lock must be acquired as reupCache is called on children
         wLock.lock();
         try {
+            // The validators or the descriptors they look at may have changed
+            clearValidationCache();
+            
+            // Cached values of these contracts are now stale, and will be
+            // recomputed the next time they are looked up
             for (String affectedContract : affectedContracts) {
-                final String fAffectedContract = affectedContract;
-                final CacheKeyFilter<IgdCacheKey> cacheKeyFilter = new CacheKeyFilter<IgdCacheKey>() {
-                    @Override
-                    public boolean matches(IgdCacheKey key) {
-                        return key.cacheKey.matchesRemovalName(fAffectedContract);
-                    }
-                };
-
-                igdCache.releaseMatching(cacheKeyFilter);
-                igashCache.releaseMatching(cacheKeyFilter);
+                AtomicLong generation = contractGenerations.get(affectedContract);
+                if (generation == null) {
+                    generation = new AtomicLong();
+                    
+                    AtomicLong existing = contractGenerations.putIfAbsent(affectedContract, generation);
+                    if (existing != null) generation = existing;
+                }
+                
+                generation.incrementAndGet();
+                
+                // Do not keep a Singleton that may have been removed reachable
+                singletonFastPath.remove(affectedContract);
             }
         } finally {
             wLock.unlock();
@@ -2093,6 +2605,8 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
         wLock.lock();
         try {
+            checkNotFrozen();
+            
             checkData = checkConfiguration(dci);  // Does as much preliminary checking as possible
 
             removeConfigurationInternal(checkData.getUnbinds());
@@ -2178,6 +2692,25 @@ public class ServiceLocatorImpl implements ServiceLocator {
         return allResolvers.get(annoType);
     }
 
+    /* package */ QualifierRegistry getQualifierRegistry() {
+        return qualifierRegistry;
+    }
+
+    /**
+     * @return The persistent cache of class analysis, or null if it is not enabled
+     */
+    /* package */ PersistentAnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+    
+    /**
+     * @return true if {@link Inject} is the only annotation with an
+     * injection resolver in this locator
+     */
+    /* package */ boolean hasOnlyInjectResolver() {
+        return (allResolvers.size() == 1) && allResolvers.containsKey(Inject.class);
+    }
+
     private Context<?> _resolveContext(final Class<? extends Annotation> scope) throws IllegalStateException {
         Context<?> retVal = null;
         Type actuals[] = new Type[1];
@@ -2250,6 +2783,33 @@ public class ServiceLocatorImpl implements ServiceLocator {
             NarrowResults cachedResults,
             Filter filter,
             Annotation... qualifiers) {
+        LookupMetrics metrics = lookupMetrics;
+        Class<?> rawType = (metrics == null || requiredType == null) ? null : ReflectionHelper.getRawClass(requiredType);
+        if (rawType == null) {
+            return narrowCandidates(locator, candidates, requiredType, name, injectee, onlyOne,
+                    doValidation, cachedResults, filter, qualifiers);
+        }
+        
+        long start = System.nanoTime();
+        try {
+            return narrowCandidates(locator, candidates, requiredType, name, injectee, onlyOne,
+                    doValidation, cachedResults, filter, qualifiers);
+        }
+        finally {
+            metrics.narrowed(rawType.getName(), System.nanoTime() - start);
+        }
+    }
+
+    private ImmediateResults narrowCandidates(ServiceLocator locator,
+            List<SystemDescriptor<?>> candidates,
+            Type requiredType,
+            String name,
+            Injectee injectee,
+            boolean onlyOne,
+            boolean doValidation,
+            NarrowResults cachedResults,
+            Filter filter,
+            Annotation... qualifiers) {
         ImmediateResults retVal = new ImmediateResults(cachedResults);
         cachedResults = retVal.getTimelessResults();
 
@@ -2259,6 +2819,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
         }
 
         Set<Annotation> requiredAnnotations = Utilities.fixAndCheckQualifiers(qualifiers, name);
+        QualifierRegistry.QualifierId requiredIds[] = null;
 
         for (ActiveDescriptor<?> previousResult : cachedResults.getResults()) {
             if (doValidation && !validate((SystemDescriptor<?>) previousResult, injectee, filter)) continue;
@@ -2318,11 +2879,26 @@ public class ServiceLocatorImpl implements ServiceLocator {
             // Checking requiredAnnotations isEmpty is a performance optimization which avoids
             // a potentially expensive doPriv call in the second part of the AND statement
             if (!requiredAnnotations.isEmpty()) {
-                Set<Annotation> candidateAnnotations = candidate.getQualifierAnnotations();
+                long candidateBits[] = (candidate instanceof SystemDescriptor) ?
+                        ((SystemDescriptor<?>) candidate).getQualifierBits(qualifierRegistry) : null;
 
-                if (!ReflectionHelper.annotationContainsAll(candidateAnnotations, requiredAnnotations)) {
-                    // The qualifiers do not match
-                    continue;
+                if (candidateBits != null) {
+                    if (requiredIds == null) {
+                        requiredIds = qualifierRegistry.getIds(requiredAnnotations);
+                    }
+
+                    if (!qualifierRegistry.containsAll(candidateBits, requiredIds, requiredAnnotations)) {
+                        // The qualifiers do not match
+                        continue;
+                    }
+                }
+                else {
+                    Set<Annotation> candidateAnnotations = candidate.getQualifierAnnotations();
+
+                    if (!ReflectionHelper.annotationContainsAll(candidateAnnotations, requiredAnnotations)) {
+                        // The qualifiers do not match
+                        continue;
+                    }
                 }
             }
 
@@ -2371,7 +2947,14 @@ public class ServiceLocatorImpl implements ServiceLocator {
         if (ServiceLocatorState.SHUTDOWN.equals(state)) throw new IllegalStateException(this + " has been shut down");
     }
 
-    private LinkedHashSet<ValidationService> getAllValidators() {
+    /**
+     * Must be called with the wLock held
+     */
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException(this + " is frozen and cannot be changed");
+    }
+
+    private Set<ValidationService> getAllValidators() {
         if (parent == null) {
             return allValidators;
         }
@@ -2419,6 +3002,9 @@ public class ServiceLocatorImpl implements ServiceLocator {
         wLock.lock();
         try {
             defaultUnqualified = unqualified;
+            
+            // These were resolved with the old default
+            frozenResolutions = null;
         }
         finally {
             wLock.unlock();
@@ -2616,14 +3202,16 @@ public class ServiceLocatorImpl implements ServiceLocator {
         return perLocatorUtilities;
     }
 
+    /* package */ DescriptorIndexSnapshot getIndexSnapshot() {
+        return indexSnapshot;
+    }
+    
+    /* package */ MergedDescriptorIndex getMergedIndex() {
+        return mergedIndex;
+    }
+
     /* package */ int getNumberOfDescriptors() {
-        rLock.lock();
-        try {
-            return allDescriptors.size();
-        }
-        finally {
-            rLock.unlock();
-        }
+        return indexSnapshot.getAllDescriptors().size();
     }
 
     /* package */ int getNumberOfChildren() {
@@ -2643,6 +3231,48 @@ public class ServiceLocatorImpl implements ServiceLocator {
         
     }
 
+    /* package */ boolean isLookupMetricsEnabled() {
+        return lookupMetrics != null;
+    }
+
+    /* package */ void setLookupMetricsEnabled(boolean enabled) {
+        if (enabled == (lookupMetrics != null)) return;
+        
+        lookupMetrics = enabled ? new LookupMetrics(lookupMetricsListeners) : null;
+    }
+
+    /* package */ Map<String, ContractMetrics> getContractMetrics() {
+        LookupMetrics metrics = lookupMetrics;
+        if (metrics == null) return Collections.emptyMap();
+        
+        return metrics.getContractMetrics();
+    }
+
+    /* package */ void clearContractMetrics() {
+        if (lookupMetrics == null) return;
+        
+        lookupMetrics = new LookupMetrics(lookupMetricsListeners);
+    }
+
+    /* package */ void addLookupMetricsListener(LookupMetricsListener listener) {
+        if (listener == null) throw new IllegalArgumentException();
+        
+        lookupMetricsListeners.add(listener);
+    }
+
+    /* package */ boolean removeLookupMetricsListener(LookupMetricsListener listener) {
+        return lookupMetricsListeners.remove(listener);
+    }
+    
+    /**
+     * Returns the lookup metrics of this locator
+     * 
+     * @return The lookup metrics, or null if lookup metrics are not enabled
+     */
+    /* package */ LookupMetrics getLookupMetrics() {
+        return lookupMetrics;
+    }
+
     /* package */ int getReflectionCacheSize() {
         return classReflectionHelper.size();
     }
@@ -2660,10 +3290,44 @@ public class ServiceLocatorImpl implements ServiceLocator {
     /* package */ int unsortIndexes(int newRank, SystemDescriptor<?> desc, Set<IndexedListData> myLists) {
         wLock.lock();
         try {
+            if (!myLists.isEmpty()) checkNotFrozen();
+            
+            // The lists are ordered by rank, so take the descriptor out while its rank changes
+            List<IndexedListData> reRanked = new LinkedList<IndexedListData>(myLists);
+            for (IndexedListData myList : reRanked) {
+                myList.removeDescriptor(desc);
+            }
+            
             int retVal = desc.setRankWithLock(newRank);
             
-            for (IndexedListData myList : myLists) {
-                myList.unSort();
+            for (IndexedListData myList : reRanked) {
+                myList.addDescriptor(desc);
+            }
+            
+            if (!myLists.isEmpty()) {
+                HashSet<String> changedNames = new HashSet<String>();
+                HashSet<ContractAndName> changedContractsAndNames = new HashSet<ContractAndName>();
+                if (desc.getName() != null) {
+                    changedNames.add(desc.getName());
+                    
+                    for (String advertisedContract : desc.getAdvertisedContracts()) {
+                        changedContractsAndNames.add(new ContractAndName(advertisedContract, desc.getName()));
+                    }
+                }
+                
+                HashSet<String> changedImplementations = new HashSet<String>();
+                if (desc.getImplementation() != null) {
+                    changedImplementations.add(desc.getImplementation());
+                }
+                
+                // The rank decides where the descriptor is in the list of all descriptors
+                List<SystemDescriptor<?>> reRankedInAll = reRanked.contains(allDescriptors) ?
+                        Collections.<SystemDescriptor<?>>singletonList(desc) :
+                        Collections.<SystemDescriptor<?>>emptyList();
+                
+                publishIndexSnapshot(reRankedInAll, reRankedInAll,
+                        new HashSet<String>(getAllContracts(desc)), changedNames,
+                        changedContractsAndNames, changedImplementations);
             }
             
             return retVal;
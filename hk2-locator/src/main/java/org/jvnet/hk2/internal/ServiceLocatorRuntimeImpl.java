@@ -39,12 +39,16 @@
  */
 package org.jvnet.hk2.internal;
 
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.Visibility;
+import org.jvnet.hk2.external.runtime.ContractMetrics;
+import org.jvnet.hk2.external.runtime.LookupMetricsListener;
 import org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean;
 
 /**
@@ -119,4 +123,71 @@ public class ServiceLocatorRuntimeImpl implements ServiceLocatorRuntimeBean {
 
     }
 
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#isLookupMetricsEnabled()
+     */
+    @Override
+    public boolean isLookupMetricsEnabled() {
+        return locator.isLookupMetricsEnabled();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#setLookupMetricsEnabled(boolean)
+     */
+    @Override
+    public void setLookupMetricsEnabled(boolean enabled) {
+        locator.setLookupMetricsEnabled(enabled);
+
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#getContractMetrics()
+     */
+    @Override
+    public Map<String, ContractMetrics> getContractMetrics() {
+        return locator.getContractMetrics();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#clearContractMetrics()
+     */
+    @Override
+    public void clearContractMetrics() {
+        locator.clearContractMetrics();
+
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#addLookupMetricsListener(org.jvnet.hk2.external.runtime.LookupMetricsListener)
+     */
+    @Override
+    public void addLookupMetricsListener(LookupMetricsListener listener) {
+        locator.addLookupMetricsListener(listener);
+
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#removeLookupMetricsListener(org.jvnet.hk2.external.runtime.LookupMetricsListener)
+     */
+    @Override
+    public boolean removeLookupMetricsListener(LookupMetricsListener listener) {
+        return locator.removeLookupMetricsListener(listener);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#freeze()
+     */
+    @Override
+    public void freeze() {
+        locator.freeze();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean#isFrozen()
+     */
+    @Override
+    public boolean isFrozen() {
+        return locator.isFrozen();
+    }
+
 }
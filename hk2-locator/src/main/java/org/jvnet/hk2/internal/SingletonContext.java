@@ -42,9 +42,13 @@ package org.jvnet.hk2.internal;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Singleton;
 
@@ -64,7 +68,10 @@ import org.glassfish.hk2.utilities.reflection.Logger;
  */
 @Singleton
 public class SingletonContext implements Context<Singleton> {
-    private int generationNumber = Integer.MIN_VALUE;
+    private final static String SHUTDOWN_THREADS_PROPERTY = "org.jvnet.hk2.properties.singleton.shutdown.threads";
+    private final static String SHUTDOWN_TIMEOUT_PROPERTY = "org.jvnet.hk2.properties.singleton.shutdown.timeout";
+    
+    private final AtomicInteger generationNumber = new AtomicInteger(Integer.MIN_VALUE);
     private final ServiceLocatorImpl locator;
 
     private final Cache<ContextualInput<Object>, Object> valueCache =
@@ -83,7 +90,7 @@ public class SingletonContext implements Context<Singleton> {
             final Object createdVal = activeDescriptor.create(a.getRoot());
             activeDescriptor.setCache(createdVal);
             if (activeDescriptor instanceof SystemDescriptor) {
-                ((SystemDescriptor<?>) activeDescriptor).setSingletonGeneration(generationNumber++);
+                ((SystemDescriptor<?>) activeDescriptor).setSingletonGeneration(generationNumber.getAndIncrement());
             }
 
             return createdVal;
@@ -179,11 +186,42 @@ public class SingletonContext implements Context<Singleton> {
             singlesOnly.add(oneAsObject);
         }
 
+        int threads = getLongProperty(SHUTDOWN_THREADS_PROPERTY).intValue();
+        if (threads > 1 && singlesOnly.size() > 1) {
+            new ParallelSingletonDestroyer(this,
+                    new ArrayList<SystemDescriptor<Object>>(singlesOnly),
+                    threads,
+                    getLongProperty(SHUTDOWN_TIMEOUT_PROPERTY)).destroy();
+            return;
+        }
+
         for (SystemDescriptor<Object> one : singlesOnly) {
             destroyOne(one);
         }
     }
 
+    /**
+     * Read at every shutdown rather than once, since shutting down is rare
+     *
+     * @param property The system property to read
+     * @return The value of the property, or zero if it is not set or not a number
+     */
+    private static Long getLongProperty(final String property) {
+        return AccessController.doPrivileged(new PrivilegedAction<Long>() {
+            @Override
+            public Long run() {
+                try {
+                    return Long.parseLong(System.getProperty(property, "0"));
+                }
+                catch (NumberFormatException nfe) {
+                    Logger.getLogger().debug("Invalid value for " + property, nfe);
+                    return 0L;
+                }
+            }
+
+        });
+    }
+
     /**
      * Release one system descriptor
      *
@@ -0,0 +1,114 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is cheap to increment from many threads at once.
+ * The count is spread over several cells, each on its own cache line,
+ * and a thread only ever updates the cell picked by its thread id,
+ * so threads rarely contend on the same cell.  Reading the count
+ * sums the cells
+ * 
+ * @author jwells
+ *
+ */
+final class StripedCounter {
+    /** The number of longs between two cells, so that each cell has its own cache line */
+    private final static int PADDING = 8;
+    private final static int MAX_STRIPES = 16;
+    private final static int STRIPES = getNumberOfStripes();
+    
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    
+    private static int getNumberOfStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        
+        int retVal = 1;
+        while (retVal < processors && retVal < MAX_STRIPES) {
+            retVal <<= 1;
+        }
+        
+        return retVal;
+    }
+    
+    private static int getCell() {
+        long threadId = Thread.currentThread().getId();
+        
+        // Thread ids are sequential, spread them so neighbors use different cells
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+    
+    /**
+     * Adds to this counter
+     * 
+     * @param amount The amount to add
+     */
+    void add(long amount) {
+        cells.addAndGet(getCell(), amount);
+    }
+    
+    /**
+     * Adds one to this counter
+     */
+    void increment() {
+        cells.incrementAndGet(getCell());
+    }
+    
+    /**
+     * Returns the sum of the cells of this counter.  Increments
+     * that happen while the cells are being summed may or may not
+     * be included
+     * 
+     * @return The current value of this counter
+     */
+    long get() {
+        long retVal = 0L;
+        for (int lcv = 0; lcv < STRIPES; lcv++) {
+            retVal += cells.get(lcv * PADDING);
+        }
+        
+        return retVal;
+    }
+
+}
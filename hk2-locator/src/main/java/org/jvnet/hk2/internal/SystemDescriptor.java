@@ -45,12 +45,12 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
@@ -97,7 +97,8 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
 
     private final Object cacheLock = new Object();
     private boolean cacheSet = false;
-    private T cachedValue;
+    /** Volatile since it is read without the cacheLock by the locator */
+    private volatile T cachedValue;
 
     // These are used when we are doing the reifying ourselves
     private Class<?> implClass;
@@ -110,8 +111,9 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
     private Long factoryServiceId;
     private Type implType;
 
-    private final HashMap<ValidationService, Boolean> validationServiceCache =
-            new HashMap<ValidationService, Boolean>();
+    // Read by lookups that do not hold the locator lock
+    private final ConcurrentHashMap<ValidationService, Boolean> validationServiceCache =
+            new ConcurrentHashMap<ValidationService, Boolean>();
 
     private final List<InstanceLifecycleListener> instanceListeners =
             new LinkedList<InstanceLifecycleListener>();
@@ -120,6 +122,10 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
 
     private int singletonGeneration = Integer.MAX_VALUE;
 
+    /** The interned ids of the qualifiers, computed on first use after reification */
+    private volatile long[] qualifierBits;
+    private boolean qualifierBitsReleased;
+
     /* package */ @SuppressWarnings("unchecked")
     SystemDescriptor(Descriptor baseDescriptor, boolean requiresDeepCopy, ServiceLocatorImpl locator, Long serviceId) {
         if (requiresDeepCopy) {
@@ -420,6 +426,52 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
         return qualifiers;
     }
 
+    /**
+     * Returns the qualifiers of this descriptor as a bitset of the ids
+     * given out by the registry of this descriptor's locator.  Returns null
+     * if the bitset cannot be used, either because the registry is not the
+     * one of this descriptor's locator or because the qualifiers are owned
+     * by a user supplied ActiveDescriptor, which may change them at any time
+     * 
+     * @param registry The registry of the locator doing the lookup
+     * @return The qualifier bitset, or null if the caller must match
+     * the qualifier annotations directly
+     */
+    /* package */ long[] getQualifierBits(QualifierRegistry registry) {
+        if (!reified || activeDescriptor != null || qualifiers == null) return null;
+        if (registry != sdLocator.getQualifierRegistry()) return null;
+
+        long retVal[] = qualifierBits;
+        if (retVal != null) return retVal;
+
+        synchronized (this) {
+            if (closed || qualifierBitsReleased) return null;
+
+            retVal = qualifierBits;
+            if (retVal == null) {
+                retVal = registry.getBits(qualifiers);
+                qualifierBits = retVal;
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Gives the ids of this descriptor's qualifiers back to the registry.
+     * Called when this descriptor is removed from its locator or when its
+     * locator is shut down, after which the qualifier bitset is no longer used
+     */
+    /* package */ synchronized void releaseQualifierBits() {
+        if (qualifierBitsReleased) return;
+        qualifierBitsReleased = true;
+
+        if (qualifierBits == null) return;
+
+        qualifierBits = null;
+        sdLocator.getQualifierRegistry().release(qualifiers);
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.ActiveDescriptor#getInjectees()
      */
@@ -467,6 +519,9 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
     @Override
     public T create(ServiceHandle<?> root) {
         checkState();
+        
+        LookupMetrics metrics = sdLocator.getLookupMetrics();
+        long start = (metrics == null) ? 0L : System.nanoTime();
 
         try {
             T retVal;
@@ -486,6 +541,10 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
             else {
                 retVal = creator.create(root, this);
             }
+            
+            if (metrics != null) {
+                metrics.created(this, System.nanoTime() - start);
+            }
 
             return retVal;
         }
@@ -834,6 +893,10 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
         return sdLocator.getLocatorId();
     }
     
+    /* package */ ServiceLocatorImpl getServiceLocator() {
+        return sdLocator;
+    }
+    
     /* (non-Javadoc)
      * @see org.jvnet.hk2.internal.Closeable#close()
      */
@@ -845,6 +908,7 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
             if (closed) return true;
             
             closed = true;
+            releaseQualifierBits();
             return false;
         }
     }
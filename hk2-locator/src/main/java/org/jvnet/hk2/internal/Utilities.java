@@ -67,6 +67,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -111,6 +112,7 @@ import org.glassfish.hk2.utilities.NamedImpl;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.Constants;
+import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.MethodWrapper;
 import org.glassfish.hk2.utilities.reflection.Pretty;
 import org.glassfish.hk2.utilities.reflection.ParameterizedTypeImpl;
@@ -384,6 +386,31 @@ public class Utilities {
         collector.throwIfErrors();
     }
 
+    /**
+     * Shuts down an executor created by hk2 itself.  Shutting down an executor
+     * needs the modifyThread permission, which the caller of hk2 may not have.
+     * If hk2 does not have it either the executor is left running, and so
+     * executors given to this method should let idle threads time out
+     *
+     * @param executor The executor to shut down, may not be null
+     */
+    public static void shutdownExecutor(final ExecutorService executor) {
+        try {
+            AccessController.doPrivileged(new PrivilegedAction<Object>() {
+
+                @Override
+                public Object run() {
+                    executor.shutdown();
+                    return null;
+                }
+
+            });
+        }
+        catch (SecurityException se) {
+            Logger.getLogger().debug("Utilities", "shutdownExecutor", se);
+        }
+    }
+
     /**
      * Loads the class using the loader from the given descriptor or the
      * classloader of the utilities class otherwise
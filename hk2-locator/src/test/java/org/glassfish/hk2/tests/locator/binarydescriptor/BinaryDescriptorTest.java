@@ -0,0 +1,330 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.binarydescriptor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.DescriptorFileBufferFinder;
+import org.glassfish.hk2.api.DescriptorFileFinder;
+import org.glassfish.hk2.api.DescriptorType;
+import org.glassfish.hk2.api.DescriptorVisibility;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BinaryClasspathDescriptorFileFinder;
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ClasspathDescriptorFileFinder;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the binary descriptor file format
+ * 
+ * @author jwells
+ *
+ */
+public class BinaryDescriptorTest {
+    private final static String TEST_NAME = "BinaryDescriptorTest";
+    private final static ServiceLocator locator = LocatorHelper.create(TEST_NAME, null);
+    
+    private final static String DUMMY_IMPL = "com.acme.dummy.BinaryDummy";
+    private final static String DUMMY_IMPL_2 = "com.acme.dummy.BinaryDummy2";
+    private final static String DUMMY_IMPL_3 = "com.acme.dummy.BinaryDummy3";
+    private final static String DUMMY_CONTRACT = "com.acme.dummy.BinaryContract";
+    private final static String DUMMY_QUALIFIER = "com.acme.dummy.BinaryQualifier";
+    private final static String NAME = "Alice";
+    private final static String KEY = "key";
+    private final static String VALUE = "value";
+    private final static String VALUE2 = "value2";
+    
+    /**
+     * The text form of this file names TEXT_ONLY_IMPL while the binary
+     * form next to it names BINARY_IMPL, as it would had the binary
+     * form not been regenerated along with the text form
+     */
+    private final static String FIXTURE_NAME = "binarydescriptortest";
+    private final static String TEXT_ONLY_IMPL = "com.acme.dummy.BinaryTextOnly";
+    private final static String BINARY_IMPL = "com.acme.dummy.BinaryStale";
+    
+    private static DescriptorImpl createFullDescriptor() {
+        DescriptorImpl di = new DescriptorImpl();
+        di.setImplementation(DUMMY_IMPL);
+        di.addAdvertisedContract(DUMMY_IMPL);
+        di.addAdvertisedContract(DUMMY_CONTRACT);
+        di.setName(NAME);
+        di.setScope(Singleton.class.getName());
+        di.addQualifier(DUMMY_QUALIFIER);
+        di.setRanking(10);
+        di.setDescriptorType(DescriptorType.PROVIDE_METHOD);
+        di.setDescriptorVisibility(DescriptorVisibility.LOCAL);
+        di.setProxiable(Boolean.TRUE);
+        di.setProxyForSameScope(Boolean.FALSE);
+        di.setClassAnalysisName("CustomAnalyzer");
+        di.addMetadata(KEY, VALUE);
+        di.addMetadata(KEY, VALUE2);
+        
+        return di;
+    }
+    
+    private static DescriptorImpl createMinimalDescriptor(String impl) {
+        DescriptorImpl di = new DescriptorImpl();
+        di.setImplementation(impl);
+        di.addAdvertisedContract(impl);
+        
+        return di;
+    }
+    
+    private static ByteBuffer toBinary(List<DescriptorImpl> descriptors) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryDescriptorFile.write(descriptors, baos);
+        
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+    
+    private static List<DescriptorImpl> textRoundTrip(List<DescriptorImpl> descriptors) throws IOException {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        for (DescriptorImpl di : descriptors) {
+            di.writeObject(pw);
+        }
+        pw.close();
+        
+        BufferedReader br = new BufferedReader(new StringReader(sw.toString()));
+        
+        List<DescriptorImpl> retVal = new LinkedList<DescriptorImpl>();
+        while (true) {
+            DescriptorImpl di = new DescriptorImpl();
+            if (!di.readObject(br)) break;
+            
+            retVal.add(di);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Tests that the binary format reads back exactly what the
+     * text format reads back
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testBinaryMatchesTextFormat() throws IOException {
+        List<DescriptorImpl> original = new LinkedList<DescriptorImpl>();
+        original.add(createFullDescriptor());
+        original.add(createMinimalDescriptor(DUMMY_IMPL_2));
+        
+        ByteBuffer buffer = toBinary(original);
+        Assert.assertTrue(BinaryDescriptorFile.isBinary(buffer));
+        
+        List<DescriptorImpl> fromBinary = BinaryDescriptorFile.read(buffer);
+        List<DescriptorImpl> fromText = textRoundTrip(original);
+        
+        Assert.assertEquals(fromText, fromBinary);
+        
+        DescriptorImpl full = fromBinary.get(0);
+        Assert.assertEquals(DUMMY_IMPL, full.getImplementation());
+        Assert.assertEquals(NAME, full.getName());
+        Assert.assertEquals(10, full.getRanking());
+        Assert.assertEquals(DescriptorVisibility.LOCAL, full.getDescriptorVisibility());
+        Assert.assertEquals(Boolean.TRUE, full.isProxiable());
+        Assert.assertEquals(Boolean.FALSE, full.isProxyForSameScope());
+        Assert.assertEquals(2, full.getMetadata().get(KEY).size());
+    }
+    
+    /**
+     * Tests that a text buffer is not mistaken for a binary one
+     */
+    @Test // @org.junit.Ignore
+    public void testTextIsNotBinary() {
+        Assert.assertFalse(BinaryDescriptorFile.isBinary(ByteBuffer.wrap(new byte[0])));
+        Assert.assertFalse(BinaryDescriptorFile.isBinary(ByteBuffer.wrap(
+                ("[" + DUMMY_IMPL + "]\n").getBytes())));
+    }
+    
+    /**
+     * Tests that a locator can be populated from binary buffers
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testPopulateFromBinaryBuffer() throws IOException {
+        List<DescriptorImpl> original = new LinkedList<DescriptorImpl>();
+        original.add(createMinimalDescriptor(DUMMY_IMPL_3));
+        
+        List<ActiveDescriptor<?>> added = locator.getService(DynamicConfigurationService.class).getPopulator().
+                populate(new BufferFinder(toBinary(original)));
+        Assert.assertEquals(1, added.size());
+        
+        ActiveDescriptor<?> ad = locator.getBestDescriptor(BuilderHelper.createContractFilter(DUMMY_IMPL_3));
+        Assert.assertNotNull(ad);
+        
+        Assert.assertEquals(DUMMY_IMPL_3, ad.getImplementation());
+    }
+    
+    /**
+     * Tests that a truncated binary buffer is reported as an error
+     * and nothing from it gets added
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testTruncatedBinaryBufferFails() throws IOException {
+        List<DescriptorImpl> original = new LinkedList<DescriptorImpl>();
+        original.add(createFullDescriptor());
+        
+        ByteBuffer full = toBinary(original);
+        ByteBuffer truncated = ByteBuffer.wrap(full.array(), 0, full.remaining() - 5).slice();
+        
+        try {
+            locator.getService(DynamicConfigurationService.class).getPopulator().
+                populate(new BufferFinder(truncated));
+            Assert.fail("Should have failed reading a truncated buffer");
+        }
+        catch (MultiException me) {
+            Assert.assertTrue(me.getErrors().get(0) instanceof IOException);
+        }
+        
+        Assert.assertNull(locator.getBestDescriptor(BuilderHelper.createContractFilter(DUMMY_CONTRACT)));
+    }
+    
+    /**
+     * Tests that the classpath finder only reads the text form of a
+     * descriptor file, even when there is a binary form next to it
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testClasspathFinderIgnoresBinaryFile() throws IOException {
+        ClasspathDescriptorFileFinder finder = new ClasspathDescriptorFileFinder(
+                getClass().getClassLoader(), FIXTURE_NAME);
+        Assert.assertFalse(finder instanceof DescriptorFileBufferFinder);
+        
+        ServiceLocator textLocator = LocatorHelper.create();
+        try {
+            textLocator.getService(DynamicConfigurationService.class).getPopulator().populate(finder);
+            
+            Assert.assertNotNull(textLocator.getBestDescriptor(BuilderHelper.createContractFilter(TEXT_ONLY_IMPL)));
+            Assert.assertNull(textLocator.getBestDescriptor(BuilderHelper.createContractFilter(BINARY_IMPL)));
+        }
+        finally {
+            textLocator.shutdown();
+        }
+        
+        List<String> identifiers = finder.getDescriptorFileInformation();
+        Assert.assertEquals(1, identifiers.size());
+        Assert.assertTrue(identifiers.get(0), identifiers.get(0).endsWith(FIXTURE_NAME));
+    }
+    
+    /**
+     * Tests that the binary classpath finder prefers the binary form of
+     * a descriptor file found next to the text form
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testBinaryFinderPrefersBinaryFile() throws IOException {
+        BinaryClasspathDescriptorFileFinder finder = new BinaryClasspathDescriptorFileFinder(
+                getClass().getClassLoader(), FIXTURE_NAME);
+        
+        ServiceLocator binaryLocator = LocatorHelper.create();
+        try {
+            binaryLocator.getService(DynamicConfigurationService.class).getPopulator().populate(finder);
+            
+            Assert.assertNotNull(binaryLocator.getBestDescriptor(BuilderHelper.createContractFilter(BINARY_IMPL)));
+            Assert.assertNull(binaryLocator.getBestDescriptor(BuilderHelper.createContractFilter(TEXT_ONLY_IMPL)));
+        }
+        finally {
+            binaryLocator.shutdown();
+        }
+        
+        List<String> identifiers = finder.getDescriptorFileInformation();
+        Assert.assertEquals(1, identifiers.size());
+        Assert.assertTrue(identifiers.get(0), identifiers.get(0).endsWith(
+                FIXTURE_NAME + BinaryDescriptorFile.BINARY_SUFFIX));
+        
+        // The text form is still what the plain DescriptorFileFinder methods find
+        List<InputStream> streams = finder.findDescriptorFiles();
+        Assert.assertEquals(1, streams.size());
+        streams.get(0).close();
+        
+        identifiers = finder.getDescriptorFileInformation();
+        Assert.assertEquals(1, identifiers.size());
+        Assert.assertTrue(identifiers.get(0), identifiers.get(0).endsWith(FIXTURE_NAME));
+    }
+    
+    private static class BufferFinder implements DescriptorFileFinder, DescriptorFileBufferFinder {
+        private final ByteBuffer buffer;
+        
+        private BufferFinder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public List<InputStream> findDescriptorFiles() throws IOException {
+            throw new AssertionError("findDescriptorFileBuffers should have been used");
+        }
+
+        @Override
+        public List<ByteBuffer> findDescriptorFileBuffers() throws IOException {
+            LinkedList<ByteBuffer> retVal = new LinkedList<ByteBuffer>();
+            retVal.add(buffer);
+            
+            return retVal;
+        }
+        
+    }
+
+}
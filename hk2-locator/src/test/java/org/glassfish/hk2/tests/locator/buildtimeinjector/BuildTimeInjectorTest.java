@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.buildtimeinjector;
+
+import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the injector generated at build time for a service
+ * is used in place of analyzing the class, and only when it can be
+ * 
+ * @author jwells
+ *
+ */
+public class BuildTimeInjectorTest {
+    @Before
+    public void before() {
+        InjectedService__Hk2Injector.DIRECT_CALLS.set(0);
+    }
+    
+    private static void addInjectedService(ServiceLocator locator, String injectorName) {
+        ServiceLocatorUtilities.addOneDescriptor(locator, BuilderHelper.link(InjectedService.class.getName()).
+                has(GeneratedServiceInjector.METADATA_KEY, injectorName).build());
+    }
+    
+    private static InjectedService checkInjected(ServiceLocator locator, ServiceHandle<InjectedService> handle) {
+        SimpleService simple = locator.getService(SimpleService.class);
+        
+        InjectedService service = handle.getService();
+        Assert.assertEquals(simple, service.getConstructorService());
+        Assert.assertEquals(simple, service.packageField);
+        Assert.assertEquals(simple, service.getPrivateField());
+        Assert.assertEquals(simple, service.getMethodService());
+        Assert.assertEquals(simple, service.getPrivateMethodService());
+        Assert.assertTrue(service.isPostConstructCalled());
+        Assert.assertFalse(service.isPreDestroyCalled());
+        
+        handle.destroy();
+        
+        Assert.assertTrue(service.isPreDestroyCalled());
+        
+        return service;
+    }
+    
+    /**
+     * Ensures the build time injector calls the members it can
+     * and the others are still injected reflectively
+     */
+    @Test // @org.junit.Ignore
+    public void testBuildTimeInjectorIsUsed() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class);
+        addInjectedService(locator, InjectedService__Hk2Injector.class.getName());
+        
+        checkInjected(locator, locator.getServiceHandle(InjectedService.class));
+        
+        // constructor, packageField, setMethodService and preDestroy
+        Assert.assertEquals(4, InjectedService__Hk2Injector.DIRECT_CALLS.get());
+    }
+    
+    /**
+     * Ensures a service whose build time injector cannot be
+     * loaded is analyzed at runtime as usual
+     */
+    @Test // @org.junit.Ignore
+    public void testMissingInjectorFallsBack() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class);
+        addInjectedService(locator, InjectedService.class.getName() + "__NoSuchInjector");
+        
+        checkInjected(locator, locator.getServiceHandle(InjectedService.class));
+        
+        Assert.assertEquals(0, InjectedService__Hk2Injector.DIRECT_CALLS.get());
+    }
+    
+    /**
+     * Ensures the build time injector is not used when the locator
+     * has injection annotations other than Inject, since the build
+     * time analysis only knows about Inject
+     */
+    @Test // @org.junit.Ignore
+    public void testNotUsedWithOtherInjectionResolvers() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class, CustomInjectResolver.class);
+        addInjectedService(locator, InjectedService__Hk2Injector.class.getName());
+        
+        checkInjected(locator, locator.getServiceHandle(InjectedService.class));
+        
+        Assert.assertEquals(0, InjectedService__Hk2Injector.DIRECT_CALLS.get());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.cachedvalidation;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.InjecteeImpl;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the results of cacheable validators are remembered
+ * and forgotten when the locator changes
+ * 
+ * @author jwells
+ *
+ */
+public class CachedValidationTest {
+    private final static int NUM_LOOKUPS = 10;
+    
+    /**
+     * Ensures a cacheable validator is only called once for
+     * the same candidate and injectee
+     */
+    @Test // @org.junit.Ignore
+    public void testResultsAreRemembered() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(CountingValidationService.class,
+                GuardedService.class, InjectedWithGuarded.class);
+        CountingValidationService validator = locator.getService(CountingValidationService.class);
+        
+        for (int lcv = 0; lcv < NUM_LOOKUPS; lcv++) {
+            Assert.assertNotNull(locator.getService(GuardedService.class));
+        }
+        
+        Assert.assertEquals(1, validator.getLookups());
+        
+        // The injectee is part of the key
+        for (int lcv = 0; lcv < NUM_LOOKUPS; lcv++) {
+            Assert.assertNotNull(locator.getService(InjectedWithGuarded.class).getGuarded());
+        }
+        
+        Assert.assertEquals(2, validator.getLookups());
+    }
+    
+    /**
+     * Ensures remembered results are forgotten when descriptors are added
+     */
+    @Test // @org.junit.Ignore
+    public void testResultsAreForgottenOnChange() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(CountingValidationService.class,
+                GuardedService.class);
+        CountingValidationService validator = locator.getService(CountingValidationService.class);
+        
+        Assert.assertNotNull(locator.getService(GuardedService.class));
+        Assert.assertNotNull(locator.getService(GuardedService.class));
+        Assert.assertEquals(1, validator.getLookups());
+        
+        ServiceLocatorUtilities.addClasses(locator, OtherService.class);
+        
+        Assert.assertNotNull(locator.getService(GuardedService.class));
+        Assert.assertNotNull(locator.getService(GuardedService.class));
+        Assert.assertEquals(2, validator.getLookups());
+    }
+    
+    /**
+     * Ensures that results the validator says are not
+     * cacheable are validated every time
+     */
+    @Test // @org.junit.Ignore
+    public void testNotCacheableIsValidatedEveryTime() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(CountingValidationService.class,
+                GuardedService.class);
+        CountingValidationService validator = locator.getService(CountingValidationService.class);
+        validator.setCacheable(false);
+        
+        for (int lcv = 0; lcv < NUM_LOOKUPS; lcv++) {
+            Assert.assertNotNull(locator.getService(GuardedService.class));
+        }
+        
+        Assert.assertEquals(NUM_LOOKUPS, validator.getLookups());
+    }
+    
+    /**
+     * Ensures that lookups on behalf of injectees that do not belong
+     * to a descriptor, which are usually made for a single lookup,
+     * are not remembered
+     */
+    @Test // @org.junit.Ignore
+    public void testNonDescriptorInjecteesAreNotRemembered() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(CountingValidationService.class,
+                GuardedService.class);
+        CountingValidationService validator = locator.getService(CountingValidationService.class);
+        
+        InjecteeImpl injectee = new InjecteeImpl(GuardedService.class);
+        for (int lcv = 0; lcv < NUM_LOOKUPS; lcv++) {
+            Assert.assertNotNull(locator.getInjecteeDescriptor(injectee));
+        }
+        
+        Assert.assertEquals(NUM_LOOKUPS, validator.getLookups());
+    }
+}
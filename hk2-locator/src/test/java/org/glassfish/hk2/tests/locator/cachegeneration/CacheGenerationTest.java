@@ -0,0 +1,115 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.tests.locator.cachegeneration;
+
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that cached lookups are recomputed after a commit
+ * changes the services of their contract
+ * 
+ * @author jwells
+ *
+ */
+public class CacheGenerationTest {
+    /**
+     * Ensures that adding and removing a better service is seen
+     * by lookups that have already been cached
+     */
+    @Test // @org.junit.Ignore
+    public void testCachedLookupsSeeCommits() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        Assert.assertEquals(LowGreeter.GREETING, locator.getService(Greeter.class).greet());
+        Assert.assertEquals(1, locator.getAllServices(Greeter.class).size());
+        
+        List<ActiveDescriptor<?>> added = ServiceLocatorUtilities.addClasses(locator, HighGreeter.class);
+        
+        Assert.assertEquals(HighGreeter.GREETING, locator.getService(Greeter.class).greet());
+        Assert.assertEquals(2, locator.getAllServices(Greeter.class).size());
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, added.get(0));
+        
+        Assert.assertEquals(LowGreeter.GREETING, locator.getService(Greeter.class).greet());
+        Assert.assertEquals(1, locator.getAllServices(Greeter.class).size());
+    }
+    
+    /**
+     * Ensures that a commit to a parent is seen by lookups
+     * that have already been cached in a child
+     */
+    @Test // @org.junit.Ignore
+    public void testChildCachedLookupsSeeParentCommits() {
+        ServiceLocator parent = LocatorHelper.getServiceLocator(LowGreeter.class);
+        ServiceLocator child = LocatorHelper.create(parent);
+        
+        Assert.assertEquals(LowGreeter.GREETING, child.getService(Greeter.class).greet());
+        Assert.assertEquals(1, child.getAllServices(Greeter.class).size());
+        
+        ServiceLocatorUtilities.addClasses(parent, HighGreeter.class);
+        
+        Assert.assertEquals(HighGreeter.GREETING, child.getService(Greeter.class).greet());
+        Assert.assertEquals(2, child.getAllServices(Greeter.class).size());
+    }
+    
+    /**
+     * Ensures that lookups of a contract that was not affected by a
+     * commit are still answered correctly
+     */
+    @Test // @org.junit.Ignore
+    public void testUnaffectedContractsStayCached() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        LowGreeter low = locator.getService(LowGreeter.class);
+        Assert.assertNotNull(low);
+        
+        ServiceLocatorUtilities.addClasses(locator, HighGreeter.class);
+        
+        Assert.assertSame(low, locator.getService(LowGreeter.class));
+    }
+}
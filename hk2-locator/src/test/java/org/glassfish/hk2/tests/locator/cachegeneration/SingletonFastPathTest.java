@@ -0,0 +1,198 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.cachegeneration;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.utilities.UnqualifiedImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean;
+
+/**
+ * Tests that Singletons returned quickly from a lookup by class
+ * are the ones a full lookup would return
+ * 
+ * @author jwells
+ *
+ */
+public class SingletonFastPathTest {
+    /**
+     * Ensures that the same Singleton is returned, and that a commit
+     * that changes the services of the contract is seen
+     */
+    @Test // @org.junit.Ignore
+    public void testCommitsAreSeen() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        Greeter low = locator.getService(Greeter.class);
+        Assert.assertEquals(LowGreeter.GREETING, low.greet());
+        Assert.assertSame(low, locator.getService(Greeter.class));
+        
+        List<ActiveDescriptor<?>> added = ServiceLocatorUtilities.addClasses(locator, HighGreeter.class);
+        
+        Greeter high = locator.getService(Greeter.class);
+        Assert.assertEquals(HighGreeter.GREETING, high.greet());
+        Assert.assertSame(high, locator.getService(Greeter.class));
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, added.get(0));
+        
+        Assert.assertSame(low, locator.getService(Greeter.class));
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator,
+                locator.getServiceHandle(Greeter.class).getActiveDescriptor());
+        
+        Assert.assertNull(locator.getService(Greeter.class));
+    }
+    
+    /**
+     * Ensures that a Singleton that has been destroyed is not returned
+     */
+    @Test // @org.junit.Ignore
+    public void testDestroyedSingletonIsNotReturned() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        ServiceHandle<Greeter> handle = locator.getServiceHandle(Greeter.class);
+        Greeter first = locator.getService(Greeter.class);
+        Assert.assertSame(first, locator.getService(Greeter.class));
+        
+        handle.destroy();
+        
+        Greeter second = locator.getService(Greeter.class);
+        Assert.assertNotNull(second);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(second, locator.getService(Greeter.class));
+    }
+    
+    /**
+     * Ensures that validators added after the Singleton was
+     * first looked up are still consulted
+     */
+    @Test // @org.junit.Ignore
+    public void testValidatorsAreSeen() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        Assert.assertNotNull(locator.getService(Greeter.class));
+        Assert.assertNotNull(locator.getService(Greeter.class));
+        
+        ServiceLocatorUtilities.addClasses(locator, HideGreetersValidationService.class);
+        
+        Assert.assertNull(locator.getService(Greeter.class));
+    }
+    
+    /**
+     * Ensures that setting the default Unqualified is seen
+     */
+    @Test // @org.junit.Ignore
+    public void testDefaultUnqualifiedIsSeen() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        Assert.assertNotNull(locator.getService(LowGreeter.class));
+        Assert.assertNotNull(locator.getService(LowGreeter.class));
+        
+        // LowGreeter has no qualifiers, so it is still found
+        locator.setDefaultUnqualified(new UnqualifiedImpl());
+        Assert.assertNotNull(locator.getService(LowGreeter.class));
+        
+        locator.setDefaultUnqualified(null);
+        Assert.assertNotNull(locator.getService(LowGreeter.class));
+    }
+    
+    /**
+     * Ensures that lookups answered quickly are still counted
+     * by the lookup metrics
+     */
+    @Test // @org.junit.Ignore
+    public void testMetricsCountFastLookups() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        ServiceLocatorRuntimeBean bean = locator.getService(ServiceLocatorRuntimeBean.class);
+        bean.setLookupMetricsEnabled(true);
+        
+        for (int lcv = 0; lcv < 5; lcv++) {
+            Assert.assertNotNull(locator.getService(Greeter.class));
+        }
+        
+        Assert.assertEquals(5L, bean.getContractMetrics().get(Greeter.class.getName()).getLookupCount());
+        Assert.assertEquals(4L, bean.getContractMetrics().get(Greeter.class.getName()).getCacheHitCount());
+    }
+    
+    private static WeakReference<Greeter> lookUpTwice(ServiceLocator locator) {
+        Greeter greeter = locator.getService(Greeter.class);
+        Assert.assertSame(greeter, locator.getService(Greeter.class));
+        
+        return new WeakReference<Greeter>(greeter);
+    }
+    
+    /**
+     * Ensures that a Singleton whose descriptor has been removed and
+     * which has been destroyed is not kept reachable by the lookups
+     * that returned it
+     */
+    @Test // @org.junit.Ignore
+    public void testRemovedSingletonIsNotKept() throws InterruptedException {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(LowGreeter.class);
+        
+        WeakReference<Greeter> greeter = lookUpTwice(locator);
+        
+        ActiveDescriptor<?> descriptor = locator.getBestDescriptor(
+                BuilderHelper.createContractFilter(Greeter.class.getName()));
+        ServiceHandle<?> handle = locator.getServiceHandle(descriptor);
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, descriptor);
+        
+        // Removing a descriptor does not destroy its Singleton
+        handle.destroy();
+        
+        for (int lcv = 0; lcv < 20 && greeter.get() != null; lcv++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        
+        Assert.assertNull(greeter.get());
+    }
+}
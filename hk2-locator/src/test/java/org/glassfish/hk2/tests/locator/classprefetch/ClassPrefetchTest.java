@@ -0,0 +1,267 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.classprefetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import javax.inject.Singleton;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DescriptorFileFinder;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.Populator;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.external.runtime.Hk2LocatorUtilities;
+
+/**
+ * Tests for loading the classes of populated descriptors ahead of time
+ * 
+ * @author jwells
+ *
+ */
+public class ClassPrefetchTest {
+    private final static String PREFETCH_KEY = "prefetch";
+    
+    private final static Executor SAME_THREAD = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+        
+    };
+    
+    private static List<ActiveDescriptor<?>> populate(ServiceLocator locator,
+            final RecordingLoader loader,
+            DescriptorImpl... descriptors) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintWriter pw = new PrintWriter(baos);
+        
+        for (DescriptorImpl descriptor : descriptors) {
+            descriptor.writeObject(pw);
+        }
+        
+        pw.close();
+        
+        final InputStream is = new ByteArrayInputStream(baos.toByteArray());
+        
+        Populator populator = locator.getService(DynamicConfigurationService.class).getPopulator();
+        
+        return populator.populate(new DescriptorFileFinder() {
+
+            @Override
+            public List<InputStream> findDescriptorFiles() throws IOException {
+                return Collections.singletonList(is);
+            }
+            
+        }, new PopulatorPostProcessor() {
+
+            @Override
+            public DescriptorImpl process(ServiceLocator serviceLocator, DescriptorImpl descriptorImpl) {
+                descriptorImpl.setLoader(loader);
+                return descriptorImpl;
+            }
+            
+        });
+    }
+    
+    private static DescriptorImpl createDescriptor(Class<?> implementation, int rank, Class<?>... contracts) {
+        DescriptorImpl retVal = new DescriptorImpl();
+        retVal.setImplementation(implementation.getName());
+        retVal.addAdvertisedContract(implementation.getName());
+        for (Class<?> contract : contracts) {
+            retVal.addAdvertisedContract(contract.getName());
+        }
+        retVal.setScope(Singleton.class.getName());
+        retVal.setRanking(rank);
+        
+        return retVal;
+    }
+    
+    /**
+     * Ensures the implementation and contract classes are loaded with
+     * the loader of the descriptor, higher ranks first, and that the
+     * descriptors are not reified by it
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testPrefetchLoadsClassesInRankOrder() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        RecordingLoader loader = new RecordingLoader();
+        
+        List<ActiveDescriptor<?>> added = populate(locator, loader,
+                createDescriptor(LowRankService.class, 0, PrefetchContract.class),
+                createDescriptor(HighRankService.class, 10, PrefetchContract.class));
+        Assert.assertEquals(2, added.size());
+        
+        Future<Integer> done = Hk2LocatorUtilities.prefetchClasses(added, null, false, SAME_THREAD);
+        
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(4, done.get().intValue());
+        
+        List<String> loaded = loader.getLoaded();
+        Assert.assertEquals(HighRankService.class.getName(), loaded.get(0));
+        Assert.assertTrue(loaded.contains(PrefetchContract.class.getName()));
+        Assert.assertTrue(loaded.indexOf(HighRankService.class.getName()) <
+                loaded.indexOf(LowRankService.class.getName()));
+        
+        for (ActiveDescriptor<?> descriptor : added) {
+            Assert.assertFalse(descriptor.isReified());
+        }
+        
+        // Nothing to do for ones that are already reified
+        locator.reifyDescriptor(added.get(0));
+        Assert.assertEquals(2, Hk2LocatorUtilities.prefetchClasses(added, null, false, SAME_THREAD).get().intValue());
+        
+        Assert.assertNotNull(locator.getService(PrefetchContract.class));
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Ensures only the descriptors chosen by the selector are done, and
+     * that their classes are initialized when asked, using the default threads
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testSelectedClassesAreInitialized() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        RecordingLoader loader = new RecordingLoader();
+        
+        DescriptorImpl initialized = createDescriptor(InitializedService.class, 0);
+        initialized.addMetadata(PREFETCH_KEY, "true");
+        
+        List<ActiveDescriptor<?>> added = populate(locator, loader,
+                initialized,
+                createDescriptor(LowRankService.class, 0, PrefetchContract.class));
+        
+        Future<Integer> done = Hk2LocatorUtilities.prefetchClasses(added, new Filter() {
+
+            @Override
+            public boolean matches(Descriptor d) {
+                return d.getMetadata().containsKey(PREFETCH_KEY);
+            }
+            
+        }, true, null);
+        
+        Assert.assertEquals(1, done.get().intValue());
+        Assert.assertTrue(RecordingLoader.isInitialized(InitializedService.class.getName()));
+        
+        List<String> loaded = loader.getLoaded();
+        Assert.assertTrue(loaded.contains(InitializedService.class.getName()));
+        Assert.assertFalse(loaded.contains(LowRankService.class.getName()));
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Ensures a profile of the contracts looked up earlier
+     * can be used to choose the descriptors
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testPrefetchFromLookupProfile() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        RecordingLoader loader = new RecordingLoader();
+        
+        List<ActiveDescriptor<?>> added = populate(locator, loader,
+                createDescriptor(InitializedService.class, 0),
+                createDescriptor(HighRankService.class, 0, PrefetchContract.class),
+                createDescriptor(LowRankService.class, 0, PrefetchContract.class));
+        
+        List<String> profile = new LinkedList<String>();
+        profile.add(PrefetchContract.class.getName());
+        
+        Future<Integer> done = Hk2LocatorUtilities.prefetchClasses(added,
+                Hk2LocatorUtilities.getLookupProfileFilter(profile), false, null);
+        
+        Assert.assertEquals(4, done.get().intValue());
+        
+        List<String> loaded = loader.getLoaded();
+        Assert.assertTrue(loaded.contains(HighRankService.class.getName()));
+        Assert.assertTrue(loaded.contains(LowRankService.class.getName()));
+        Assert.assertFalse(loaded.contains(InitializedService.class.getName()));
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Ensures classes that cannot be loaded are skipped
+     * 
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testMissingClassesAreSkipped() throws InterruptedException, ExecutionException, IOException {
+        ServiceLocator locator = LocatorHelper.create();
+        RecordingLoader loader = new RecordingLoader();
+        
+        DescriptorImpl missing = new DescriptorImpl();
+        missing.setImplementation("com.acme.missing.Missing");
+        missing.addAdvertisedContract(PrefetchContract.class.getName());
+        
+        List<ActiveDescriptor<?>> added = populate(locator, loader, missing);
+        
+        Assert.assertEquals(1, Hk2LocatorUtilities.prefetchClasses(added, null, false, null).get().intValue());
+        
+        locator.shutdown();
+    }
+}
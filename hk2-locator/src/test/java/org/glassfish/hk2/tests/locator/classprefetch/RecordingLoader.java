@@ -0,0 +1,106 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.classprefetch;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.glassfish.hk2.api.HK2Loader;
+import org.glassfish.hk2.api.MultiException;
+
+/**
+ * A loader that records the names of the classes asked of it.
+ * It is not a ClassLoader, since the tests are not allowed to
+ * create class loaders
+ * 
+ * @author jwells
+ *
+ */
+public class RecordingLoader implements HK2Loader {
+    private final static Set<String> INITIALIZED = new HashSet<String>();
+    
+    private final List<String> loaded = new LinkedList<String>();
+    
+    @Override
+    public Class<?> loadClass(String className) throws MultiException {
+        synchronized (loaded) {
+            loaded.add(className);
+        }
+        
+        try {
+            return RecordingLoader.class.getClassLoader().loadClass(className);
+        }
+        catch (ClassNotFoundException e) {
+            throw new MultiException(e);
+        }
+    }
+    
+    /**
+     * Gets the classes asked of this loader
+     * 
+     * @return The names of the classes asked of this loader, in order
+     */
+    public List<String> getLoaded() {
+        synchronized (loaded) {
+            return new LinkedList<String>(loaded);
+        }
+    }
+    
+    /**
+     * Records that a class has been initialized
+     * 
+     * @param name The name of the class that was initialized
+     */
+    public static synchronized void initialized(String name) {
+        INITIALIZED.add(name);
+    }
+    
+    /**
+     * Tells if a class has been initialized
+     * 
+     * @param name The name of the class
+     * @return true if the class has been initialized
+     */
+    public static synchronized boolean isInitialized(String name) {
+        return INITIALIZED.contains(name);
+    }
+}
@@ -42,16 +42,24 @@ package org.glassfish.hk2.tests.locator.dynamicpopulate;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.DescriptorFileFinder;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ParallelPopulator;
 import org.glassfish.hk2.api.Populator;
 import org.glassfish.hk2.api.PopulatorPostProcessor;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -528,6 +536,243 @@ public class DynamicPopulateTest {
         Assert.assertEquals(1, lucky11list.size());
     }
     
+    private static List<InputStream> createFiles(String prefix, int numFiles, int perFile) throws IOException {
+        List<InputStream> retVal = new ArrayList<InputStream>(numFiles);
+        
+        for (int file = 0; file < numFiles; file++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrintWriter pw = new PrintWriter(baos);
+            
+            for (int lcv = 0; lcv < perFile; lcv++) {
+                // Every file starts with an implementation from the file before it, for the duplicate processor
+                int implNumber = (lcv == 0 && file > 0) ? (((file - 1) * perFile) + 1) : ((file * perFile) + lcv);
+                
+                DescriptorImpl di = new DescriptorImpl();
+                di.setImplementation(prefix + implNumber);
+                di.addAdvertisedContract(prefix);
+                di.addMetadata(KEY, Integer.toString(file));
+                
+                di.writeObject(pw);
+            }
+            
+            pw.close();
+            
+            retVal.add(new ByteArrayInputStream(baos.toByteArray()));
+        }
+        
+        return retVal;
+    }
+    
+    private static ParallelPopulator getParallelPopulator() {
+        Populator populator = locator.getService(DynamicConfigurationService.class).getPopulator();
+        Assert.assertTrue(populator instanceof ParallelPopulator);
+        
+        return (ParallelPopulator) populator;
+    }
+    
+    /**
+     * The tests are not allowed to shut down an executor, so
+     * instead its threads go away once they have been idle for a while
+     */
+    private static Executor createExecutor(int numThreads) {
+        ThreadPoolExecutor retVal = new ThreadPoolExecutor(numThreads, numThreads,
+                1L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        retVal.allowCoreThreadTimeOut(true);
+        
+        return retVal;
+    }
+    
+    private static List<String> getImplementationsAndFiles(List<ActiveDescriptor<?>> descriptors) {
+        List<String> retVal = new ArrayList<String>(descriptors.size());
+        for (ActiveDescriptor<?> descriptor : descriptors) {
+            retVal.add(descriptor.getImplementation() + "/" + descriptor.getMetadata().get(KEY));
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Tests that reading the files in parallel adds the same descriptors in
+     * the same order as reading them one after the other, even with
+     * a post processor that depends on the order
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testParallelPopulationMatchesSequential() throws IOException {
+        String sequentialContract = "com.acme.sequential.Service";
+        String parallelContract = "com.acme.parallel.Service";
+        
+        List<ActiveDescriptor<?>> sequential = locator.getService(DynamicConfigurationService.class).getPopulator().populate(
+                new StreamsFinder(createFiles(sequentialContract, 20, 10)),
+                new DuplicatePostProcessor(DuplicatePostProcessorMode.IMPLEMENTATION_ONLY));
+        
+        List<ActiveDescriptor<?>> parallel = getParallelPopulator().populate(
+                new StreamsFinder(createFiles(parallelContract, 20, 10)),
+                createExecutor(4),
+                new DuplicatePostProcessor(DuplicatePostProcessorMode.IMPLEMENTATION_ONLY));
+        
+        // The first descriptor of every file after the first is a duplicate
+        Assert.assertEquals(20 * 10 - 19, sequential.size());
+        
+        List<String> expected = new ArrayList<String>();
+        for (String implAndFile : getImplementationsAndFiles(sequential)) {
+            expected.add(implAndFile.replace(sequentialContract, parallelContract));
+        }
+        
+        Assert.assertEquals(expected, getImplementationsAndFiles(parallel));
+        Assert.assertEquals(parallel.size(), locator.getAllServiceHandles(
+                BuilderHelper.createContractFilter(parallelContract)).size());
+    }
+    
+    /**
+     * Tests that files rejected by the executor are read on
+     * the calling thread
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testParallelPopulationWithRejectingExecutor() throws IOException {
+        String contract = "com.acme.rejected.Service";
+        
+        Executor rejecting = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException(EXPECTED);
+            }
+            
+        };
+        
+        List<ActiveDescriptor<?>> added = getParallelPopulator().populate(
+                new StreamsFinder(createFiles(contract, 3, 2)),
+                rejecting);
+        
+        Assert.assertEquals(6, added.size());
+    }
+    
+    /**
+     * Tests that an error reading one of the files
+     * read in parallel is reported and nothing is added
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testParallelPopulationIOException() throws IOException {
+        String contract = "com.acme.failing.Service";
+        
+        List<InputStream> files = createFiles(contract, 3, 2);
+        files.add(1, new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException(EXPECTED);
+            }
+            
+        });
+        
+        try {
+            getParallelPopulator().populate(
+                    new StreamsFinder(files),
+                    createExecutor(2));
+            Assert.fail("Should have failed reading the second file");
+        }
+        catch (MultiException me) {
+            Assert.assertTrue(me.getMessage(), me.getMessage().contains(EXPECTED));
+        }
+        
+        Assert.assertTrue(locator.getAllServiceHandles(BuilderHelper.createContractFilter(contract)).isEmpty());
+    }
+    
+    /**
+     * Tests that the files that were never read because reading an
+     * earlier file failed are still closed
+     * 
+     * @throws IOException
+     */
+    @Test // @org.junit.Ignore
+    public void testParallelPopulationClosesUnreadFiles() throws IOException {
+        String contract = "com.acme.unread.Service";
+        
+        List<InputStream> files = new ArrayList<InputStream>();
+        files.add(new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                throw new IllegalStateException(EXPECTED);
+            }
+            
+        });
+        
+        List<CloseTrackingInputStream> unread = new ArrayList<CloseTrackingInputStream>();
+        for (InputStream file : createFiles(contract, 3, 2)) {
+            CloseTrackingInputStream tracking = new CloseTrackingInputStream(file);
+            
+            unread.add(tracking);
+            files.add(tracking);
+        }
+        
+        // Only the first (failing) file is ever read
+        final List<Runnable> deferred = new ArrayList<Runnable>();
+        Executor firstOnly = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                if (deferred.isEmpty()) {
+                    deferred.add(command);
+                    command.run();
+                }
+                else {
+                    deferred.add(command);
+                }
+            }
+            
+        };
+        
+        try {
+            getParallelPopulator().populate(new StreamsFinder(files), firstOnly);
+            Assert.fail("Should have failed reading the first file");
+        }
+        catch (MultiException me) {
+            Assert.assertTrue(me.getMessage(), me.getMessage().contains(EXPECTED));
+        }
+        
+        for (CloseTrackingInputStream file : unread) {
+            Assert.assertTrue(file.closed);
+        }
+        
+        Assert.assertTrue(locator.getAllServiceHandles(BuilderHelper.createContractFilter(contract)).isEmpty());
+    }
+    
+    private static class CloseTrackingInputStream extends FilterInputStream {
+        private boolean closed;
+        
+        private CloseTrackingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+    
+    private static class StreamsFinder implements DescriptorFileFinder {
+        private final List<InputStream> streams;
+        
+        private StreamsFinder(List<InputStream> streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        public List<InputStream> findDescriptorFiles() throws IOException {
+            return streams;
+        }
+        
+    }
+    
     private static class MyDescriptorFinder implements DescriptorFileFinder {
         private final ByteArrayInputStream bais;
         
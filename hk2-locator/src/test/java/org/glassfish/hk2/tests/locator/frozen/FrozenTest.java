@@ -0,0 +1,201 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.frozen;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorState;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.utilities.UnqualifiedImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean;
+
+/**
+ * Tests for frozen service locators
+ * 
+ * @author jwells
+ *
+ */
+public class FrozenTest {
+    private static void freeze(ServiceLocator locator) {
+        locator.getService(ServiceLocatorRuntimeBean.class).freeze();
+    }
+    
+    private static boolean isFrozen(ServiceLocator locator) {
+        return locator.getService(ServiceLocatorRuntimeBean.class).isFrozen();
+    }
+    
+    /**
+     * Ensures a frozen locator still services lookups but
+     * cannot be changed
+     */
+    @Test // @org.junit.Ignore
+    public void testFrozenLocatorCannotBeChanged() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SingletonService.class);
+        ActiveDescriptor<?> descriptor = locator.getBestDescriptor(
+                BuilderHelper.createContractFilter(FrozenContract.class.getName()));
+        
+        Assert.assertFalse(isFrozen(locator));
+        freeze(locator);
+        Assert.assertTrue(isFrozen(locator));
+        
+        // Callers checking for RUNNING must still see a usable locator
+        Assert.assertEquals(ServiceLocatorState.RUNNING, locator.getState());
+        
+        // Freezing again does nothing
+        freeze(locator);
+        
+        Assert.assertTrue(locator.getService(FrozenContract.class) instanceof SingletonService);
+        
+        try {
+            ServiceLocatorUtilities.addClasses(locator, PerLookupService.class);
+            Assert.fail("Should not be able to add to a frozen locator");
+        }
+        catch (IllegalStateException ise) {
+            // Expected
+        }
+        
+        try {
+            descriptor.setRanking(10);
+            Assert.fail("Should not be able to re-rank in a frozen locator");
+        }
+        catch (IllegalStateException ise) {
+            // Expected
+        }
+        
+        Assert.assertEquals(0, descriptor.getRanking());
+        Assert.assertNull(locator.getService(PerLookupService.class));
+        
+        ServiceLocatorRuntimeBean runtime = locator.getService(ServiceLocatorRuntimeBean.class);
+        
+        locator.shutdown();
+        Assert.assertEquals(ServiceLocatorState.SHUTDOWN, locator.getState());
+        
+        try {
+            runtime.freeze();
+            Assert.fail("Should not be able to freeze a shut down locator");
+        }
+        catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+    
+    /**
+     * Ensures lookups in a frozen locator keep returning the right
+     * services, including services whose classes were not loaded
+     * when the locator was frozen
+     */
+    @Test // @org.junit.Ignore
+    public void testLookupsInFrozenLocator() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SingletonService.class,
+                PerLookupService.class);
+        FrozenContract singleton = locator.getService(FrozenContract.class);
+        
+        freeze(locator);
+        
+        for (int lcv = 0; lcv < 10; lcv++) {
+            Assert.assertSame(singleton, locator.getService(FrozenContract.class));
+            Assert.assertSame(singleton, locator.getService(SingletonService.class));
+            Assert.assertSame(singleton, locator.getServiceHandle(FrozenContract.class).getService());
+        }
+        
+        PerLookupService first = locator.getService(PerLookupService.class);
+        PerLookupService second = locator.getService(PerLookupService.class);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(singleton, first.getContract());
+        Assert.assertSame(singleton, second.getContract());
+        
+        Assert.assertNull(locator.getService(FrozenContract.class, "NoSuchName"));
+        Assert.assertEquals(1, locator.getAllServices(FrozenContract.class).size());
+    }
+    
+    /**
+     * Ensures a child can only be frozen after its parent, and that
+     * a child of a frozen parent can still be changed
+     */
+    @Test // @org.junit.Ignore
+    public void testChildOfFrozenParent() {
+        ServiceLocator parent = LocatorHelper.getServiceLocator(SingletonService.class);
+        ServiceLocator child = LocatorHelper.create(parent);
+        
+        try {
+            freeze(child);
+            Assert.fail("Should not be able to freeze a child of an unfrozen parent");
+        }
+        catch (IllegalStateException ise) {
+            // Expected
+        }
+        
+        Assert.assertFalse(isFrozen(child));
+        
+        freeze(parent);
+        
+        ServiceLocatorUtilities.addClasses(child, PerLookupService.class);
+        Assert.assertNotNull(child.getService(PerLookupService.class));
+        
+        freeze(child);
+        Assert.assertTrue(isFrozen(child));
+        Assert.assertEquals(ServiceLocatorState.RUNNING, child.getState());
+        
+        Assert.assertSame(parent.getService(FrozenContract.class),
+                child.getService(PerLookupService.class).getContract());
+    }
+    
+    /**
+     * Ensures that lookups resolved when the locator was frozen
+     * follow a later change of the default Unqualified
+     */
+    @Test // @org.junit.Ignore
+    public void testDefaultUnqualifiedChangedAfterFreeze() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SingletonService.class,
+                QualifiedService.class);
+        Assert.assertTrue(locator.getService(FrozenContract.class) instanceof QualifiedService);
+        Assert.assertNotNull(locator.getService(SingletonService.class));
+        
+        freeze(locator);
+        Assert.assertTrue(locator.getService(FrozenContract.class) instanceof QualifiedService);
+        
+        locator.setDefaultUnqualified(new UnqualifiedImpl());
+        Assert.assertTrue(locator.getService(FrozenContract.class) instanceof SingletonService);
+    }
+}
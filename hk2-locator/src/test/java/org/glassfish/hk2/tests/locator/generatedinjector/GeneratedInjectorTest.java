@@ -0,0 +1,185 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.tests.locator.generatedinjector;
+
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that services that are created often enough to have an
+ * injector generated for them are still created properly
+ * 
+ * @author jwells
+ *
+ */
+public class GeneratedInjectorTest {
+    /** More than the default number of creations before generation */
+    private final static int NUM_CREATIONS = 50;
+    
+    /**
+     * Ensures public and private injection points are all filled in
+     * on every creation of a public class
+     */
+    @Test // @org.junit.Ignore
+    public void testPublicServiceIsInjectedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class, PublicService.class);
+        
+        SimpleService simple = locator.getService(SimpleService.class);
+        Assert.assertNotNull(simple);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            ServiceHandle<PublicService> handle = locator.getServiceHandle(PublicService.class);
+            PublicService service = handle.getService();
+            
+            Assert.assertEquals(simple, service.getConstructorService());
+            Assert.assertEquals(simple, service.publicField);
+            Assert.assertEquals(simple, service.getPrivateField());
+            Assert.assertEquals(simple, service.getPublicMethodService());
+            Assert.assertEquals(simple, service.getPrivateMethodService());
+            Assert.assertTrue(service.isPostConstructCalled());
+            Assert.assertFalse(service.isPreDestroyCalled());
+            
+            handle.destroy();
+            
+            Assert.assertTrue(service.isPreDestroyCalled());
+        }
+    }
+    
+    /**
+     * Ensures a non-public class, whose members cannot be generated,
+     * is still injected on every creation
+     */
+    @Test // @org.junit.Ignore
+    public void testNonPublicServiceIsInjectedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class, PackageService.class);
+        
+        SimpleService simple = locator.getService(SimpleService.class);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            PackageService service = locator.getService(PackageService.class);
+            
+            Assert.assertEquals(simple, service.publicField);
+            Assert.assertEquals(simple, service.getMethodService());
+        }
+    }
+    
+    /**
+     * Ensures a non-public class whose injected members are public
+     * members of a public superclass is injected on every creation
+     */
+    @Test // @org.junit.Ignore
+    public void testNonPublicSubclassOfPublicClassIsInjectedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class, PackageSubclassService.class);
+        
+        SimpleService simple = locator.getService(SimpleService.class);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            PackageSubclassService service = locator.getService(PackageSubclassService.class);
+            
+            Assert.assertEquals(simple, service.baseField);
+            Assert.assertEquals(simple, service.getBaseMethodService());
+        }
+    }
+    
+    /**
+     * Ensures an injected field of a superclass is the one set on every
+     * creation, even when the class declares a field with the same name
+     */
+    @Test // @org.junit.Ignore
+    public void testHiddenSuperclassFieldIsInjectedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(SimpleService.class, ShadowingService.class);
+        
+        SimpleService simple = locator.getService(SimpleService.class);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            ShadowingService service = locator.getService(ShadowingService.class);
+            
+            Assert.assertEquals(simple, ((PublicBase) service).baseField);
+            Assert.assertNull(service.baseField);
+            Assert.assertEquals(simple, service.getBaseMethodService());
+        }
+    }
+    
+    /**
+     * Ensures public members of a public class that take
+     * non-public types are injected on every creation
+     */
+    @Test // @org.junit.Ignore
+    public void testNonPublicParameterTypesAreInjectedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(PackageDependency.class, PackageDependencyService.class);
+        
+        Object dependency = locator.getService(PackageDependency.class);
+        Assert.assertNotNull(dependency);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            PackageDependencyService service = locator.getService(PackageDependencyService.class);
+            
+            Assert.assertSame(dependency, service.getConstructorDependency());
+            Assert.assertSame(dependency, service.getMethodDependency());
+        }
+    }
+    
+    /**
+     * Ensures that exceptions thrown from the service are still
+     * reported unwrapped inside the MultiException
+     */
+    @Test // @org.junit.Ignore
+    public void testExceptionsAreUnwrappedOnEveryCreation() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(ThrowingService.class);
+        
+        for (int lcv = 0; lcv < NUM_CREATIONS; lcv++) {
+            try {
+                locator.getService(ThrowingService.class);
+                Assert.fail("Should have failed in postConstruct");
+            }
+            catch (MultiException me) {
+                Throwable first = me.getErrors().get(0);
+                
+                Assert.assertTrue(first instanceof IllegalStateException);
+                Assert.assertEquals(ThrowingService.MESSAGE, first.getMessage());
+            }
+        }
+    }
+}
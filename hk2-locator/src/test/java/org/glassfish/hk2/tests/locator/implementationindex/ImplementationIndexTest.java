@@ -0,0 +1,212 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.implementationindex;
+
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DescriptorType;
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ImplementationFilter;
+import org.glassfish.hk2.api.IndexedFilter;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.DuplicatePostProcessor;
+import org.glassfish.hk2.utilities.DuplicatePostProcessorMode;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for looking up descriptors by implementation
+ * 
+ * @author jwells
+ *
+ */
+public class ImplementationIndexTest {
+    private final static String WIDGET = WidgetService.class.getName();
+    private final static String FACTORY = WidgetFactory.class.getName();
+    
+    /**
+     * Ensures the implementation filter finds descriptors of the
+     * given implementation and type, and stops finding them once
+     * they are removed
+     */
+    @Test // @org.junit.Ignore
+    public void testFindByImplementationAndType() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(locator, WidgetService.class);
+        ServiceLocatorUtilities.addFactoryDescriptors(locator, BuilderHelper.link(FACTORY).
+                to(WIDGET).
+                named("Factory").
+                buildFactory());
+        
+        Assert.assertEquals(1, locator.getDescriptors(
+                BuilderHelper.createImplementationFilter(WIDGET, DescriptorType.CLASS)).size());
+        Assert.assertEquals(0, locator.getDescriptors(
+                BuilderHelper.createImplementationFilter(WIDGET, DescriptorType.PROVIDE_METHOD)).size());
+        Assert.assertEquals(1, locator.getDescriptors(
+                BuilderHelper.createImplementationFilter(FACTORY, DescriptorType.PROVIDE_METHOD)).size());
+        
+        // Both the factory service and its provide method
+        Assert.assertEquals(2, locator.getDescriptors(
+                BuilderHelper.createImplementationFilter(FACTORY, null)).size());
+        
+        ServiceLocatorUtilities.removeFilter(locator, BuilderHelper.createImplementationFilter(WIDGET, null));
+        
+        Assert.assertNull(locator.getBestDescriptor(
+                BuilderHelper.createImplementationFilter(WIDGET, DescriptorType.CLASS)));
+        Assert.assertNotNull(locator.getBestDescriptor(
+                BuilderHelper.createImplementationFilter(FACTORY, DescriptorType.CLASS)));
+    }
+    
+    /**
+     * Ensures a child locator finds the descriptors of its parent
+     * by implementation, in ranked order
+     */
+    @Test // @org.junit.Ignore
+    public void testChildFindsParentImplementations() {
+        ServiceLocator parent = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(parent, WidgetService.class);
+        
+        ServiceLocator child = LocatorHelper.create(parent);
+        ActiveDescriptor<?> childWidget = ServiceLocatorUtilities.addOneDescriptor(child,
+                BuilderHelper.link(WIDGET).named("Child").ofRank(1).build());
+        
+        List<ActiveDescriptor<?>> widgets = child.getDescriptors(
+                BuilderHelper.createImplementationFilter(WIDGET, DescriptorType.CLASS));
+        Assert.assertEquals(2, widgets.size());
+        Assert.assertEquals(childWidget, widgets.get(0));
+        Assert.assertEquals(parent.getLocatorId(), widgets.get(1).getLocatorId().longValue());
+        
+        Assert.assertEquals(1, parent.getDescriptors(
+                BuilderHelper.createImplementationFilter(WIDGET, DescriptorType.CLASS)).size());
+    }
+    
+    /**
+     * Ensures a filter that is both an implementation filter and an
+     * indexed filter only gets descriptors matching both
+     */
+    @Test // @org.junit.Ignore
+    public void testImplementationAndIndexedFilter() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(locator, WidgetService.class);
+        ServiceLocatorUtilities.addOneDescriptor(locator,
+                BuilderHelper.link(WIDGET).named("Other").build());
+        
+        List<ActiveDescriptor<?>> widgets = locator.getDescriptors(new BothFilter("Other"));
+        Assert.assertEquals(1, widgets.size());
+        Assert.assertEquals("Other", widgets.get(0).getName());
+        
+        Assert.assertEquals(2, locator.getDescriptors(new BothFilter(null)).size());
+    }
+    
+    /**
+     * Ensures the duplicate post processor in implementation only mode
+     * removes duplicates of descriptors already in the locator, but does
+     * not confuse a factory with the service it produces
+     */
+    @Test // @org.junit.Ignore
+    public void testDuplicatePostProcessorUsesIndex() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(locator, WidgetService.class);
+        
+        DuplicatePostProcessor processor = new DuplicatePostProcessor(DuplicatePostProcessorMode.IMPLEMENTATION_ONLY);
+        
+        DescriptorImpl duplicate = new DescriptorImpl();
+        duplicate.setImplementation(WIDGET);
+        duplicate.setName("Duplicate");
+        Assert.assertNull(processor.process(locator, duplicate));
+        
+        DescriptorImpl provider = new DescriptorImpl();
+        provider.setImplementation(WIDGET);
+        provider.setDescriptorType(DescriptorType.PROVIDE_METHOD);
+        Assert.assertSame(provider, processor.process(locator, provider));
+        
+        DescriptorImpl other = new DescriptorImpl();
+        other.setImplementation(FACTORY);
+        Assert.assertSame(other, processor.process(locator, other));
+        
+        DynamicConfiguration config = locator.getService(DynamicConfigurationService.class).createDynamicConfiguration();
+        config.bind(other);
+        config.commit();
+        
+        Assert.assertNull(new DuplicatePostProcessor(DuplicatePostProcessorMode.IMPLEMENTATION_ONLY).process(
+                locator, new DescriptorImpl(other)));
+    }
+    
+    private static class BothFilter implements ImplementationFilter, IndexedFilter {
+        private final String name;
+        
+        private BothFilter(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean matches(Descriptor d) {
+            return true;
+        }
+
+        @Override
+        public String getAdvertisedContract() {
+            return WIDGET;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getImplementation() {
+            return WIDGET;
+        }
+
+        @Override
+        public DescriptorType getDescriptorType() {
+            return DescriptorType.CLASS;
+        }
+        
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.indexsnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that lookups see a consistent view of the descriptor
+ * indexes as they are changed
+ * 
+ * @author jwells
+ *
+ */
+public class IndexSnapshotTest {
+    private final static String DEFAULT_NAME = "default";
+    private final static String MANY_CONTRACT = "com.acme.snapshot.Contract";
+    private final static String MANY_IMPL = "com.acme.snapshot.Impl";
+    
+    /**
+     * Ensures that changing the rank of a descriptor is seen
+     * by subsequent descriptor queries by contract and by name
+     */
+    @Test // @org.junit.Ignore
+    public void testRankChangeIsVisibleToLookups() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(ServiceOne.class, ServiceTwo.class);
+        
+        ActiveDescriptor<?> twoDescriptor = locator.getBestDescriptor(
+                BuilderHelper.createContractFilter(ServiceTwo.class.getName()));
+        
+        List<ActiveDescriptor<?>> all = locator.getDescriptors(
+                BuilderHelper.createContractFilter(SimpleContract.class.getName()));
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(ServiceOne.class.getName(), all.get(0).getImplementation());
+        
+        twoDescriptor.setRanking(10);
+        
+        all = locator.getDescriptors(
+                BuilderHelper.createContractFilter(SimpleContract.class.getName()));
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(twoDescriptor, all.get(0));
+        
+        all = locator.getDescriptors(
+                BuilderHelper.createNameFilter("ServiceTwo"));
+        Assert.assertEquals(1, all.size());
+        Assert.assertEquals(10, all.get(0).getRanking());
+    }
+    
+    /**
+     * Ensures that removed descriptors are no longer seen
+     * by lookups by contract and by name
+     */
+    @Test // @org.junit.Ignore
+    public void testRemovedDescriptorIsNotVisible() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(ServiceOne.class, ServiceTwo.class);
+        
+        ServiceLocatorUtilities.removeFilter(locator, BuilderHelper.createContractFilter(ServiceOne.class.getName()));
+        
+        List<SimpleContract> all = locator.getAllServices(SimpleContract.class);
+        Assert.assertEquals(1, all.size());
+        Assert.assertTrue(all.get(0) instanceof ServiceTwo);
+        
+        Assert.assertNull(locator.getService(SimpleContract.class, "ServiceOne"));
+        Assert.assertNotNull(locator.getService(SimpleContract.class, "ServiceTwo"));
+    }
+    
+    /**
+     * A validation service must be able to inject services
+     * that are added in the same commit as itself
+     */
+    @Test // @org.junit.Ignore
+    public void testValidationServiceCanInjectServiceFromSameCommit() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(ValidationServiceWithInjection.class,
+                InjectedIntoValidationService.class);
+        
+        ValidationServiceWithInjection vs = locator.getService(ValidationServiceWithInjection.class);
+        Assert.assertNotNull(vs.getInjected());
+    }
+    
+    /**
+     * Ensures that a grandchild sees the descriptors of the whole hierarchy
+     * in ranked order, and sees rank changes and removals made in its ancestors
+     */
+    @Test // @org.junit.Ignore
+    public void testGrandchildSeesChangesToAncestors() {
+        ServiceLocator grandparent = LocatorHelper.getServiceLocator(ServiceOne.class);
+        ServiceLocator parent = LocatorHelper.create(grandparent);
+        ServiceLocator child = LocatorHelper.create(parent);
+        
+        ServiceLocatorUtilities.addClasses(parent, ServiceTwo.class);
+        
+        List<ActiveDescriptor<?>> all = child.getDescriptors(
+                BuilderHelper.createContractFilter(SimpleContract.class.getName()));
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(ServiceTwo.class.getName(), all.get(0).getImplementation());
+        Assert.assertEquals(ServiceOne.class.getName(), all.get(1).getImplementation());
+        
+        ActiveDescriptor<?> oneDescriptor = grandparent.getBestDescriptor(
+                BuilderHelper.createContractFilter(ServiceOne.class.getName()));
+        oneDescriptor.setRanking(10);
+        
+        all = child.getDescriptors(
+                BuilderHelper.createContractFilter(SimpleContract.class.getName()));
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(oneDescriptor, all.get(0));
+        
+        ServiceLocatorUtilities.removeFilter(parent, BuilderHelper.createContractFilter(ServiceTwo.class.getName()));
+        
+        all = child.getDescriptors(
+                BuilderHelper.createContractFilter(SimpleContract.class.getName()));
+        Assert.assertEquals(1, all.size());
+        Assert.assertEquals(oneDescriptor, all.get(0));
+    }
+    
+    /**
+     * Ensures that local descriptors of a parent are not seen
+     * by its children but are seen by the parent itself
+     */
+    @Test // @org.junit.Ignore
+    public void testLocalDescriptorsOfParentAreNotMerged() {
+        ServiceLocator parent = LocatorHelper.getServiceLocator(ServiceOne.class, LocalService.class);
+        ServiceLocator child = LocatorHelper.create(parent);
+        
+        Assert.assertEquals(2, parent.getAllServices(SimpleContract.class).size());
+        
+        List<SimpleContract> fromChild = child.getAllServices(SimpleContract.class);
+        Assert.assertEquals(1, fromChild.size());
+        Assert.assertTrue(fromChild.get(0) instanceof ServiceOne);
+        
+        Assert.assertNull(child.getService(SimpleContract.class, "LocalService"));
+        
+        ServiceLocatorUtilities.addClasses(child, LocalService.class);
+        
+        Assert.assertNotNull(child.getService(SimpleContract.class, "LocalService"));
+        Assert.assertEquals(2, child.getAllServices(SimpleContract.class).size());
+    }
+    
+    /**
+     * Ensures lookups by contract and name only find descriptors that have
+     * both, as descriptors with that name are added, re-ranked and removed
+     */
+    @Test // @org.junit.Ignore
+    public void testLookupByContractAndName() {
+        ServiceLocator parent = LocatorHelper.create();
+        ServiceLocator child = LocatorHelper.create(parent);
+        
+        ActiveDescriptor<?> parentDefault = ServiceLocatorUtilities.addOneDescriptor(parent,
+                BuilderHelper.link(ServiceOne.class.getName()).
+                to(SimpleContract.class.getName()).
+                named(DEFAULT_NAME).build());
+        
+        // Many other contracts with the same name
+        for (int lcv = 0; lcv < 10; lcv++) {
+            ServiceLocatorUtilities.addOneDescriptor(child,
+                    BuilderHelper.link(ServiceTwo.class.getName()).
+                    to(ServiceTwo.class.getName()).
+                    named(DEFAULT_NAME).build());
+        }
+        
+        List<ActiveDescriptor<?>> found = child.getDescriptors(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME));
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(parentDefault, found.get(0));
+        
+        ActiveDescriptor<?> childDefault = ServiceLocatorUtilities.addOneDescriptor(child,
+                BuilderHelper.link(ServiceTwo.class.getName()).
+                to(SimpleContract.class.getName()).
+                named(DEFAULT_NAME).build());
+        
+        Assert.assertEquals(childDefault, child.getBestDescriptor(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME)));
+        Assert.assertEquals(parentDefault, parent.getBestDescriptor(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME)));
+        
+        parentDefault.setRanking(10);
+        
+        found = child.getDescriptors(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME));
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(parentDefault, found.get(0));
+        Assert.assertEquals(childDefault, found.get(1));
+        
+        ServiceLocatorUtilities.removeOneDescriptor(parent, parentDefault);
+        
+        Assert.assertEquals(childDefault, child.getBestDescriptor(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME)));
+        Assert.assertNull(parent.getBestDescriptor(BuilderHelper.createNameAndContractFilter(
+                SimpleContract.class.getName(), DEFAULT_NAME)));
+        // The implementation is also an advertised contract of childDefault
+        Assert.assertEquals(11, child.getDescriptors(BuilderHelper.createNameAndContractFilter(
+                ServiceTwo.class.getName(), DEFAULT_NAME)).size());
+    }
+
+    
+    /**
+     * Ensures that a search that must go through all descriptors sees
+     * exactly the live descriptors in ranked order after many additions,
+     * removals and rank changes, whether or not it looked in between
+     */
+    @Test // @org.junit.Ignore
+    public void testAllDescriptorsFollowManyChanges() {
+        ServiceLocator locator = LocatorHelper.create();
+        
+        Filter unindexed = new Filter() {
+
+            @Override
+            public boolean matches(Descriptor d) {
+                return d.getAdvertisedContracts().contains(MANY_CONTRACT);
+            }
+            
+        };
+        
+        List<ActiveDescriptor<?>> live = new ArrayList<ActiveDescriptor<?>>();
+        for (int lcv = 0; lcv < 200; lcv++) {
+            live.add(ServiceLocatorUtilities.addOneDescriptor(locator, BuilderHelper.link(MANY_IMPL + lcv).
+                    to(MANY_CONTRACT).
+                    ofRank(lcv % 7).build()));
+            
+            if (lcv % 3 == 0) {
+                live.get((lcv * 7) % live.size()).setRanking(lcv % 5);
+            }
+            
+            if (lcv % 5 == 0) {
+                ServiceLocatorUtilities.removeOneDescriptor(locator, live.remove((lcv * 3) % live.size()));
+            }
+            
+            if (lcv % 4 != 0) continue;
+            
+            List<ActiveDescriptor<?>> expected = new ArrayList<ActiveDescriptor<?>>(live);
+            Collections.sort(expected, new Comparator<ActiveDescriptor<?>>() {
+
+                @Override
+                public int compare(ActiveDescriptor<?> o1, ActiveDescriptor<?> o2) {
+                    if (o1.getRanking() != o2.getRanking()) return (o1.getRanking() > o2.getRanking()) ? -1 : 1;
+                    
+                    return o1.getServiceId().compareTo(o2.getServiceId());
+                }
+                
+            });
+            
+            Assert.assertEquals(expected, locator.getDescriptors(unindexed));
+        }
+    }
+}
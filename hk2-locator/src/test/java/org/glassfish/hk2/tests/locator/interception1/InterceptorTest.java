@@ -303,4 +303,53 @@ public class InterceptorTest {
         Assert.assertEquals("callMe", inMethods.get(0));
         Assert.assertEquals("callMe", inMethods.get(1));
     }
+    
+    /**
+     * Tests that an interceptor may proceed more than once, and
+     * that every time it does the rest of the chain is run
+     */
+    @Test
+    public void testInterceptorProceedsTwice() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(
+                CountingService.class,
+                ProceedTwiceInterceptorService.class);
+        
+        CountingService counter = locator.getService(CountingService.class);
+        
+        counter.callMe();
+        Assert.assertEquals(2, counter.gotCalled());
+        
+        counter.callMe();
+        Assert.assertEquals(4, counter.gotCalled());
+    }
+    
+    /**
+     * Tests that an interceptor may keep its invocation and proceed after it
+     * has returned, and that user data is not passed back up the chain
+     * 
+     * @throws Throwable
+     */
+    @Test
+    public void testInterceptorProceedsAfterReturning() throws Throwable {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(
+                CountingService.class,
+                DeferredProceedInterceptorService.class);
+        
+        CountingService counter = locator.getService(CountingService.class);
+        DeferredProceedInterceptorService interceptors = locator.getService(DeferredProceedInterceptorService.class);
+        
+        counter.callMe();
+        Assert.assertEquals(0, counter.gotCalled());
+        Assert.assertFalse(interceptors.isUpstreamSawUserData());
+        
+        MethodInvocation deferred = interceptors.getDeferred();
+        Assert.assertNotNull(deferred);
+        
+        deferred.proceed();
+        Assert.assertEquals(1, counter.gotCalled());
+        Assert.assertSame(deferred, interceptors.getDeferred());
+        
+        deferred.proceed();
+        Assert.assertEquals(2, counter.gotCalled());
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.parallelimmediate;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+/**
+ * Records the order in which the Immediate services start
+ * and finish their postConstruct methods
+ * 
+ * @author jwells
+ *
+ */
+@Singleton
+public class ActivationRecorder {
+    /** How many independent services must be in postConstruct at the same time */
+    public final static int NUM_INDEPENDENT = 3;
+    
+    private final CountDownLatch allIndependentStarted = new CountDownLatch(NUM_INDEPENDENT);
+    private final List<String> events = new LinkedList<String>();
+    private boolean independentRanTogether = true;
+    
+    /**
+     * Called by the independent services, which wait for
+     * each other
+     */
+    public void awaitOtherIndependents() {
+        allIndependentStarted.countDown();
+        
+        boolean together;
+        try {
+            together = allIndependentStarted.await(20, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ie) {
+            together = false;
+        }
+        
+        if (!together) {
+            synchronized (this) {
+                independentRanTogether = false;
+            }
+        }
+    }
+    
+    /**
+     * @return true if all of the independent services were
+     * in their postConstruct at the same time
+     */
+    public synchronized boolean didIndependentRunTogether() {
+        return independentRanTogether;
+    }
+    
+    /**
+     * Records that the named service has started its postConstruct
+     * 
+     * @param name The name of the service
+     */
+    public synchronized void started(String name) {
+        events.add("start " + name);
+    }
+    
+    /**
+     * Records that the named service has finished its postConstruct
+     * 
+     * @param name The name of the service
+     */
+    public synchronized void finished(String name) {
+        events.add("finish " + name);
+        notifyAll();
+    }
+    
+    /**
+     * Waits for the given number of services to finish
+     * 
+     * @param count The number of services to wait for
+     * @param waitTime The maximum time to wait in milliseconds
+     * @return A copy of the events
+     * @throws InterruptedException
+     */
+    public synchronized List<String> waitForFinished(int count, long waitTime) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + waitTime;
+        
+        while (getNumFinished() < count) {
+            long remaining = endTime - System.currentTimeMillis();
+            if (remaining <= 0L) break;
+            
+            wait(remaining);
+        }
+        
+        return new LinkedList<String>(events);
+    }
+    
+    private int getNumFinished() {
+        int retVal = 0;
+        for (String event : events) {
+            if (event.startsWith("finish ")) retVal++;
+        }
+        
+        return retVal;
+    }
+
+}
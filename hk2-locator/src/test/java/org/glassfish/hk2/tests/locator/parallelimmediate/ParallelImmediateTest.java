@@ -0,0 +1,206 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.parallelimmediate;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.glassfish.hk2.api.ImmediateController;
+import org.glassfish.hk2.api.ImmediateController.ImmediateServiceState;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the parallel activation of Immediate services
+ * 
+ * @author jwells
+ *
+ */
+public class ParallelImmediateTest {
+    private final static long WAIT_TIME = 20 * 1000;
+    
+    private static ImmediateController enableParallel(ServiceLocator locator) {
+        ImmediateController controller = ServiceLocatorUtilities.enableImmediateScopeSuspended(locator);
+        
+        Assert.assertFalse(controller.isParallelActivation());
+        controller.setParallelActivation(true);
+        Assert.assertTrue(controller.isParallelActivation());
+        
+        return controller;
+    }
+    
+    private static void assertFinishedBefore(List<String> events, String first, String second) {
+        int firstFinished = events.indexOf("finish " + first);
+        int secondStarted = events.indexOf("start " + second);
+        
+        Assert.assertTrue(events.toString(), firstFinished >= 0);
+        Assert.assertTrue(events.toString(), secondStarted >= 0);
+        Assert.assertTrue(events.toString(), firstFinished < secondStarted);
+    }
+    
+    /**
+     * Tests that independent Immediate services are created at the same
+     * time, and that the dependent ones are created after what they
+     * depend on, including through a service that is not Immediate
+     * 
+     * @throws InterruptedException
+     */
+    @Test // @org.junit.Ignore
+    public void testIndependentServicesCreatedInParallel() throws InterruptedException {
+        ServiceLocator locator = LocatorHelper.create();
+        ImmediateController controller = enableParallel(locator);
+        
+        ServiceLocatorUtilities.addClasses(locator,
+                ActivationRecorder.class,
+                Middle.class,
+                DependsOnOne.class,
+                DependsOnTwoThroughMiddle.class,
+                IndependentOne.class,
+                IndependentTwo.class,
+                IndependentThree.class);
+        
+        controller.setImmediateState(ImmediateServiceState.RUNNING);
+        
+        ActivationRecorder recorder = locator.getService(ActivationRecorder.class);
+        List<String> events = recorder.waitForFinished(5, WAIT_TIME);
+        
+        Assert.assertEquals(events.toString(), 10, events.size());
+        Assert.assertTrue(recorder.didIndependentRunTogether());
+        
+        assertFinishedBefore(events, IndependentOne.class.getSimpleName(), DependsOnOne.class.getSimpleName());
+        assertFinishedBefore(events, IndependentTwo.class.getSimpleName(), DependsOnTwoThroughMiddle.class.getSimpleName());
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Tests that all services are created even if the executor never
+     * runs any of the work given to it while the Immediate thread
+     * is running
+     * 
+     * @throws InterruptedException
+     */
+    @Test // @org.junit.Ignore
+    public void testExecutorThatOnlyRunsOneThread() throws InterruptedException {
+        ServiceLocator locator = LocatorHelper.create();
+        ImmediateController controller = enableParallel(locator);
+        
+        controller.setExecutor(new Executor() {
+            private boolean busy;
+
+            @Override
+            public synchronized void execute(final Runnable command) {
+                if (busy) {
+                    // Drops anything given to it while a thread is running
+                    return;
+                }
+                busy = true;
+                
+                Thread thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        }
+                        finally {
+                            done();
+                        }
+                    }
+                    
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+            
+            private synchronized void done() {
+                busy = false;
+            }
+            
+        });
+        
+        ServiceLocatorUtilities.addClasses(locator,
+                ActivationRecorder.class,
+                DependsOnLeaves.class,
+                LeafOne.class,
+                LeafTwo.class);
+        
+        controller.setImmediateState(ImmediateServiceState.RUNNING);
+        
+        ActivationRecorder recorder = locator.getService(ActivationRecorder.class);
+        List<String> events = recorder.waitForFinished(3, WAIT_TIME);
+        
+        Assert.assertEquals(events.toString(), 6, events.size());
+        
+        assertFinishedBefore(events, LeafOne.class.getSimpleName(), DependsOnLeaves.class.getSimpleName());
+        assertFinishedBefore(events, LeafTwo.class.getSimpleName(), DependsOnLeaves.class.getSimpleName());
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Tests that a cycle of Immediate services is reported as
+     * an error, just like it is when they are created one after
+     * the other
+     * 
+     * @throws InterruptedException
+     */
+    @Test // @org.junit.Ignore
+    public void testCycleIsReported() throws InterruptedException {
+        ServiceLocator locator = LocatorHelper.create();
+        ImmediateController controller = enableParallel(locator);
+        
+        ServiceLocatorUtilities.addClasses(locator,
+                RecordingErrorHandler.class,
+                CycleA.class,
+                CycleB.class);
+        
+        controller.setImmediateState(ImmediateServiceState.RUNNING);
+        
+        RecordingErrorHandler handler = locator.getService(RecordingErrorHandler.class);
+        Assert.assertFalse(handler.waitForErrors(WAIT_TIME).isEmpty());
+        
+        locator.shutdown();
+    }
+
+}
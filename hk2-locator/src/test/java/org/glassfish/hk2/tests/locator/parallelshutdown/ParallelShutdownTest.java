@@ -0,0 +1,175 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.parallelshutdown;
+
+import java.util.List;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for destroying Singleton services on more than one thread
+ * 
+ * @author jwells
+ *
+ */
+public class ParallelShutdownTest {
+    private final static String THREADS_PROPERTY = "org.jvnet.hk2.properties.singleton.shutdown.threads";
+    private final static String TIMEOUT_PROPERTY = "org.jvnet.hk2.properties.singleton.shutdown.timeout";
+    
+    /**
+     * Puts the properties back
+     */
+    @After
+    public void after() {
+        System.clearProperty(THREADS_PROPERTY);
+        System.clearProperty(TIMEOUT_PROPERTY);
+        ShutdownRecorder.release();
+    }
+    
+    /**
+     * Ensures a service is not destroyed until the services
+     * it is injected into have been destroyed
+     */
+    @Test // @org.junit.Ignore
+    public void testDependentsDestroyedFirst() {
+        ShutdownRecorder.reset(1);
+        System.setProperty(THREADS_PROPERTY, "4");
+        
+        ServiceLocator locator = LocatorHelper.getServiceLocator(DependencyService.class,
+                DependentService.class);
+        
+        DependentService dependent = locator.getService(DependentService.class);
+        Assert.assertNotNull(dependent.getDependency());
+        
+        locator.shutdown();
+        
+        List<String> destroyed = ShutdownRecorder.getDestroyed();
+        Assert.assertEquals(2, destroyed.size());
+        Assert.assertEquals(DependentService.class.getSimpleName(), destroyed.get(0));
+        Assert.assertEquals(DependencyService.class.getSimpleName(), destroyed.get(1));
+    }
+    
+    /**
+     * Ensures services that do not depend on each other are
+     * destroyed at the same time
+     */
+    @Test // @org.junit.Ignore
+    public void testIndependentServicesDestroyedTogether() {
+        ShutdownRecorder.reset(2);
+        System.setProperty(THREADS_PROPERTY, "2");
+        
+        ServiceLocator locator = LocatorHelper.getServiceLocator(BarrierAService.class,
+                BarrierBService.class);
+        
+        locator.getService(BarrierAService.class);
+        locator.getService(BarrierBService.class);
+        
+        locator.shutdown();
+        
+        Assert.assertTrue(ShutdownRecorder.isBarrierReached());
+        Assert.assertEquals(2, ShutdownRecorder.getDestroyed().size());
+    }
+    
+    /**
+     * Ensures shutdown continues when one service takes
+     * too long to be destroyed
+     */
+    @Test // @org.junit.Ignore
+    public void testSlowServiceTimesOut() throws InterruptedException {
+        ShutdownRecorder.reset(1);
+        System.setProperty(THREADS_PROPERTY, "2");
+        System.setProperty(TIMEOUT_PROPERTY, "1000");
+        
+        ServiceLocator locator = LocatorHelper.getServiceLocator(HangingService.class,
+                DependencyService.class,
+                DependentService.class);
+        
+        locator.getService(HangingService.class);
+        locator.getService(DependentService.class);
+        
+        long start = System.currentTimeMillis();
+        locator.shutdown();
+        long elapsed = System.currentTimeMillis() - start;
+        
+        Assert.assertTrue("Shutdown took " + elapsed + " milliseconds", elapsed < 5000);
+        
+        List<String> destroyed = ShutdownRecorder.getDestroyed();
+        Assert.assertFalse(destroyed.contains(HangingService.class.getSimpleName()));
+        Assert.assertEquals(2, destroyed.size());
+        Assert.assertEquals(DependentService.class.getSimpleName(), destroyed.get(0));
+        Assert.assertEquals(DependencyService.class.getSimpleName(), destroyed.get(1));
+        
+        // The slow service is still allowed to finish
+        ShutdownRecorder.release();
+        for (int lcv = 0; lcv < 100; lcv++) {
+            if (ShutdownRecorder.getDestroyed().contains(HangingService.class.getSimpleName())) return;
+            
+            Thread.sleep(50);
+        }
+        
+        Assert.fail("The slow service never finished being destroyed");
+    }
+    
+    /**
+     * Ensures the services are still destroyed one after the
+     * other in reverse creation order when no threads are configured
+     */
+    @Test // @org.junit.Ignore
+    public void testSerialShutdownByDefault() {
+        ShutdownRecorder.reset(1);
+        
+        ServiceLocator locator = LocatorHelper.getServiceLocator(BarrierAService.class,
+                DependencyService.class);
+        
+        locator.getService(DependencyService.class);
+        locator.getService(BarrierAService.class);
+        
+        locator.shutdown();
+        
+        List<String> destroyed = ShutdownRecorder.getDestroyed();
+        Assert.assertEquals(2, destroyed.size());
+        Assert.assertEquals(BarrierAService.class.getSimpleName(), destroyed.get(0));
+        Assert.assertEquals(DependencyService.class.getSimpleName(), destroyed.get(1));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.parallelshutdown;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the order services were destroyed in
+ * 
+ * @author jwells
+ *
+ */
+public class ShutdownRecorder {
+    private final static List<String> DESTROYED = new LinkedList<String>();
+    
+    private static CyclicBarrier barrier;
+    private static boolean barrierReached;
+    private static CountDownLatch hangLatch;
+    
+    /**
+     * Clears all recorded state
+     * 
+     * @param barrierParties The number of services that must meet at the barrier
+     */
+    public static synchronized void reset(int barrierParties) {
+        DESTROYED.clear();
+        barrier = new CyclicBarrier(barrierParties);
+        barrierReached = false;
+        hangLatch = new CountDownLatch(1);
+    }
+    
+    /**
+     * Records that the given service was destroyed
+     * 
+     * @param name The name of the service destroyed
+     */
+    public static synchronized void destroyed(String name) {
+        DESTROYED.add(name);
+    }
+    
+    /**
+     * Gets the services destroyed so far
+     * 
+     * @return The names of the services destroyed, in order
+     */
+    public static synchronized List<String> getDestroyed() {
+        return new LinkedList<String>(DESTROYED);
+    }
+    
+    /**
+     * Waits for all of the parties of the barrier to arrive
+     */
+    public static void awaitBarrier() {
+        CyclicBarrier myBarrier;
+        synchronized (ShutdownRecorder.class) {
+            myBarrier = barrier;
+        }
+        
+        try {
+            myBarrier.await(5, TimeUnit.SECONDS);
+            
+            synchronized (ShutdownRecorder.class) {
+                barrierReached = true;
+            }
+        }
+        catch (Exception e) {
+            // barrierReached stays false
+        }
+    }
+    
+    /**
+     * Tells if all of the parties reached the barrier
+     * 
+     * @return true if the barrier was reached
+     */
+    public static synchronized boolean isBarrierReached() {
+        return barrierReached;
+    }
+    
+    /**
+     * Waits until {@link #release()} is called
+     */
+    public static void hang() {
+        CountDownLatch myLatch;
+        synchronized (ShutdownRecorder.class) {
+            myLatch = hangLatch;
+        }
+        
+        try {
+            myLatch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            // Just return
+        }
+    }
+    
+    /**
+     * Lets any service hanging in {@link #hang()} continue
+     */
+    public static synchronized void release() {
+        hangLatch.countDown();
+    }
+}
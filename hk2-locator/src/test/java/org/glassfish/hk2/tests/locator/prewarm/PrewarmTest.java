@@ -0,0 +1,198 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.prewarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for pre-warming Singleton services
+ * 
+ * @author jwells
+ *
+ */
+public class PrewarmTest {
+    private static List<String> getImplementations(Map<ActiveDescriptor<?>, Long> timings) {
+        List<String> retVal = new ArrayList<String>();
+        
+        for (Map.Entry<ActiveDescriptor<?>, Long> entry : timings.entrySet()) {
+            Assert.assertTrue(entry.getValue() >= 0L);
+            
+            retVal.add(entry.getKey().getImplementation());
+        }
+        
+        return retVal;
+    }
+    
+    private static void checkGraph(Map<ActiveDescriptor<?>, Long> timings) {
+        List<String> created = getImplementations(timings);
+        
+        Assert.assertEquals(created.toString(), 4, created.size());
+        Assert.assertFalse(created.contains(Middle.class.getName()));
+        
+        // Bottom up
+        int top = created.indexOf(Top.class.getName());
+        Assert.assertEquals(created.toString(), 3, top);
+        Assert.assertEquals(created.toString(), 0, created.indexOf(Rendezvous.class.getName()));
+        Assert.assertTrue(created.toString(), created.contains(LeafA.class.getName()));
+        Assert.assertTrue(created.toString(), created.contains(LeafB.class.getName()));
+        
+        for (ActiveDescriptor<?> descriptor : timings.keySet()) {
+            Assert.assertNotNull(descriptor.getCache());
+        }
+    }
+    
+    /**
+     * The tests are not allowed to shut down an executor, so
+     * instead its threads go away once they have been idle for a while
+     */
+    private static Executor createExecutor(int numThreads) {
+        ThreadPoolExecutor retVal = new ThreadPoolExecutor(numThreads, numThreads,
+                1L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        retVal.allowCoreThreadTimeOut(true);
+        
+        return retVal;
+    }
+    
+    /**
+     * Tests that the Singletons are created bottom-up, through a
+     * PerLookup service, with the independent ones created at the
+     * same time
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testPrewarmByContract() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(locator, Top.class, Middle.class,
+                LeafA.class, LeafB.class, Rendezvous.class);
+        
+        try {
+            Future<Map<ActiveDescriptor<?>, Long>> future =
+                    ServiceLocatorUtilities.prewarmSingletons(locator, createExecutor(4), Top.class);
+            
+            checkGraph(future.get());
+            
+            Assert.assertTrue(locator.getService(Rendezvous.class).didMeet());
+        }
+        finally {
+            locator.shutdown();
+        }
+    }
+    
+    /**
+     * Tests pre-warming given the descriptor, with an executor that
+     * rejects all work, which means the work is done on the calling thread
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testPrewarmByDescriptorWithRejectingExecutor() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        List<ActiveDescriptor<?>> added = ServiceLocatorUtilities.addClasses(locator, Top.class, Middle.class,
+                LeafA.class, LeafB.class);
+        ServiceLocatorUtilities.addOneConstant(locator, new Rendezvous(0));
+        
+        Future<Map<ActiveDescriptor<?>, Long>> future =
+                ServiceLocatorUtilities.prewarmSingletons(locator, new Executor() {
+
+                    @Override
+                    public void execute(Runnable command) {
+                        throw new RejectedExecutionException();
+                    }
+                    
+                }, added.get(0));
+        
+        Assert.assertTrue(future.isDone());
+        checkGraph(future.get());
+        
+        // Created one after the other
+        Assert.assertFalse(locator.getService(Rendezvous.class).didMeet());
+        
+        locator.shutdown();
+    }
+    
+    /**
+     * Tests that a cycle of Singletons is still reported
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testCycleIsReported() throws Exception {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(locator, CycleA.class, CycleB.class);
+        
+        try {
+            Future<Map<ActiveDescriptor<?>, Long>> future =
+                    ServiceLocatorUtilities.prewarmSingletons(locator, createExecutor(4), CycleA.class);
+            
+            try {
+                future.get();
+                Assert.fail("Should have failed due to the cycle");
+            }
+            catch (ExecutionException ee) {
+                Assert.assertTrue(ee.getCause() instanceof MultiException);
+                Assert.assertTrue(ee.getCause().getMessage(),
+                        ee.getCause().getMessage().contains("circular dependency"));
+            }
+        }
+        finally {
+            locator.shutdown();
+        }
+    }
+
+}
@@ -40,8 +40,12 @@
 
 package org.glassfish.hk2.tests.locator.proxiableinterface;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.Assert;
 
+import org.glassfish.hk2.api.ProxyCtl;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
 import org.junit.Test;
@@ -54,6 +58,12 @@ public class ProxiableInterfaceTest {
     private final static String TEST_NAME = "ProxiableInterfaceTest";
     private final static ServiceLocator locator = LocatorHelper.create(TEST_NAME, new ProxiableInterfaceModule());
     
+    private final static int NUM_THREADS = 4;
+    private final static int LOOKUPS_PER_THREAD = 5;
+    
+    /** Well past the number of calls after which the JDK generates a reflection accessor */
+    private final static int MANY_PROXIES = 100;
+    
     /**
      * This tests that we can proxy an interface (produced by a factory)
      */
@@ -64,5 +74,78 @@ public class ProxiableInterfaceTest {
         
         Assert.assertEquals(Earth.NAME, planet.getName());
     }
+    
+    /**
+     * Tests that every lookup gets its own proxy, all of the same
+     * generated class, even when looked up from many threads at once
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testProxyClassIsShared() throws Exception {
+        Planet first = locator.getService(Planet.class);
+        Planet second = locator.getService(Planet.class);
+        
+        Assert.assertTrue(first instanceof ProxyCtl);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(first.getClass(), second.getClass());
+        
+        // Plain threads, since the tests are not allowed to shut down an executor
+        final List<Planet> found = new ArrayList<Planet>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        
+        Thread threads[] = new Thread[NUM_THREADS];
+        for (int lcv = 0; lcv < NUM_THREADS; lcv++) {
+            threads[lcv] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int lcv = 0; lcv < LOOKUPS_PER_THREAD; lcv++) {
+                        try {
+                            Planet planet = locator.getService(Planet.class);
+                            
+                            synchronized (found) {
+                                found.add(planet);
+                            }
+                        }
+                        catch (Throwable th) {
+                            synchronized (found) {
+                                errors.add(th);
+                            }
+                        }
+                    }
+                }
+                
+            });
+            
+            threads[lcv].start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(NUM_THREADS * LOOKUPS_PER_THREAD, found.size());
+        
+        for (Planet planet : found) {
+            Assert.assertSame(first.getClass(), planet.getClass());
+            Assert.assertEquals(Earth.NAME, planet.getName());
+        }
+    }
+    
+    /**
+     * Tests that proxies can still be created after the constructor of the
+     * shared proxy class has been called often enough for the JDK to stop
+     * calling it natively, which must work under a SecurityManager
+     */
+    @Test
+    public void testManyProxiesOfSharedClass() {
+        for (int lcv = 0; lcv < MANY_PROXIES; lcv++) {
+            Planet planet = locator.getService(Planet.class);
+            
+            Assert.assertEquals(Earth.NAME, planet.getName());
+        }
+    }
 
 }
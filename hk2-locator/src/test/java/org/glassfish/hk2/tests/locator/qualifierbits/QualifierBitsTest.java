@@ -0,0 +1,233 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.qualifierbits;
+
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.AbstractActiveDescriptor;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.NamedImpl;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for matching the qualifiers of lookups against the
+ * qualifiers of descriptors
+ * 
+ * @author jwells
+ *
+ */
+public class QualifierBitsTest {
+    private final static String LATE_NAME = "Late";
+    
+    /**
+     * Ensures lookups with one or more qualifiers find exactly
+     * the descriptors that have all of them
+     */
+    @Test // @org.junit.Ignore
+    public void testMultipleQualifiers() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(BlueColor.class,
+                RedColor.class, PurpleColor.class, ColorInjectee.class);
+        
+        List<Color> blues = locator.getAllServices(Color.class, new BlueImpl());
+        Assert.assertEquals(2, blues.size());
+        
+        List<Color> reds = locator.getAllServices(Color.class, new RedImpl());
+        Assert.assertEquals(2, reds.size());
+        
+        List<Color> purples = locator.getAllServices(Color.class, new RedImpl(), new BlueImpl());
+        Assert.assertEquals(1, purples.size());
+        Assert.assertTrue(purples.get(0) instanceof PurpleColor);
+        
+        Assert.assertTrue(locator.getService(Color.class, PurpleColor.NAME) instanceof PurpleColor);
+        Assert.assertTrue(locator.getService(Color.class, PurpleColor.NAME, new BlueImpl()) instanceof PurpleColor);
+        Assert.assertNull(locator.getService(Color.class, "Blue", new BlueImpl()));
+        
+        ColorInjectee injectee = locator.getService(ColorInjectee.class);
+        Assert.assertTrue(injectee.getPurple() instanceof PurpleColor);
+        
+        int numReds = 0;
+        for (Color red : injectee.getReds()) {
+            Assert.assertTrue(red instanceof RedColor || red instanceof PurpleColor);
+            numReds++;
+        }
+        Assert.assertEquals(2, numReds);
+    }
+    
+    /**
+     * Ensures descriptors of the parent match qualified lookups in the child
+     */
+    @Test // @org.junit.Ignore
+    public void testParentDescriptorsMatchInChild() {
+        ServiceLocator parent = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(parent, BlueColor.class, PurpleColor.class);
+        
+        ServiceLocator child = LocatorHelper.create(parent);
+        ServiceLocatorUtilities.addClasses(child, RedColor.class);
+        
+        Assert.assertEquals(2, child.getAllServices(Color.class, new BlueImpl()).size());
+        Assert.assertEquals(2, child.getAllServices(Color.class, new RedImpl()).size());
+        Assert.assertEquals(1, parent.getAllServices(Color.class, new RedImpl()).size());
+        Assert.assertTrue(child.getService(Color.class, new BlueImpl(), new RedImpl()) instanceof PurpleColor);
+    }
+    
+    /**
+     * Ensures a qualifier that is looked up before any descriptor
+     * has it is found once a descriptor with it is added
+     */
+    @Test // @org.junit.Ignore
+    public void testQualifierFirstSeenAfterLookup() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(BlueColor.class);
+        
+        Assert.assertNull(locator.getService(Color.class, LATE_NAME));
+        Assert.assertNull(locator.getService(Color.class, new RedImpl()));
+        
+        ServiceLocatorUtilities.addOneDescriptor(locator, BuilderHelper.link(RedColor.class).
+                to(Color.class).
+                qualifiedBy(new RedImpl()).
+                named(LATE_NAME).build());
+        
+        Assert.assertTrue(locator.getService(Color.class, LATE_NAME) instanceof RedColor);
+        Assert.assertTrue(locator.getService(Color.class, new RedImpl()) instanceof RedColor);
+        Assert.assertTrue(locator.getService(Color.class, LATE_NAME, new RedImpl()) instanceof RedColor);
+    }
+    
+    /**
+     * Ensures that changes to the qualifiers of a user supplied
+     * active descriptor are seen by lookups
+     */
+    @Test // @org.junit.Ignore
+    public void testQualifiersOfActiveDescriptorCanChange() {
+        ServiceLocator locator = LocatorHelper.create();
+        
+        AbstractActiveDescriptor<Color> constant = BuilderHelper.createConstantDescriptor(
+                (Color) new BlueColor(), null, Color.class);
+        ActiveDescriptor<Color> added = ServiceLocatorUtilities.addOneDescriptor(locator, constant);
+        
+        Assert.assertNotNull(locator.getService(Color.class, new BlueImpl()));
+        Assert.assertNull(locator.getService(Color.class, new RedImpl()));
+        
+        constant.addQualifierAnnotation(new RedImpl());
+        
+        // Forces the lookup caches to be cleared
+        ServiceLocatorUtilities.removeOneDescriptor(locator, added);
+        ServiceLocatorUtilities.addOneDescriptor(locator, constant);
+        
+        Assert.assertNotNull(locator.getService(Color.class, new RedImpl()));
+        Assert.assertNotNull(locator.getService(Color.class, new RedImpl(), new BlueImpl()));
+    }
+    
+    /**
+     * Ensures that the qualifiers of removed descriptors no longer
+     * match, even once their ids are given to other qualifiers
+     */
+    @Test // @org.junit.Ignore
+    public void testQualifiersOfRemovedDescriptorsDoNotMatch() {
+        ServiceLocator locator = LocatorHelper.create();
+        
+        ActiveDescriptor<?> red = ServiceLocatorUtilities.addOneDescriptor(locator,
+                BuilderHelper.link(RedColor.class).to(Color.class).qualifiedBy(new RedImpl()).build());
+        Assert.assertTrue(locator.getService(Color.class, new RedImpl()) instanceof RedColor);
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, red);
+        Assert.assertNull(locator.getService(Color.class, new RedImpl()));
+        
+        ServiceLocatorUtilities.addOneDescriptor(locator,
+                BuilderHelper.link(BlueColor.class).to(Color.class).qualifiedBy(new BlueImpl()).build());
+        
+        Assert.assertTrue(locator.getService(Color.class, new BlueImpl()) instanceof BlueColor);
+        Assert.assertNull(locator.getService(Color.class, new RedImpl()));
+        
+        ServiceLocatorUtilities.addOneDescriptor(locator,
+                BuilderHelper.link(RedColor.class).to(Color.class).qualifiedBy(new RedImpl()).build());
+        
+        Assert.assertTrue(locator.getService(Color.class, new RedImpl()) instanceof RedColor);
+        Assert.assertTrue(locator.getService(Color.class, new BlueImpl()) instanceof BlueColor);
+        Assert.assertNull(locator.getService(Color.class, new RedImpl(), new BlueImpl()));
+    }
+    
+    /**
+     * Ensures that the qualifiers of the descriptors of a child
+     * that has been shut down no longer match in its siblings
+     */
+    @Test // @org.junit.Ignore
+    public void testQualifiersOfShutdownChildDoNotMatch() {
+        ServiceLocator parent = LocatorHelper.create();
+        ServiceLocatorUtilities.addClasses(parent, RedColor.class);
+        
+        ServiceLocator child = LocatorHelper.create(parent);
+        ServiceLocatorUtilities.addClasses(child, BlueColor.class);
+        Assert.assertTrue(child.getService(Color.class, new BlueImpl()) instanceof BlueColor);
+        
+        child.shutdown();
+        
+        ServiceLocator sibling = LocatorHelper.create(parent);
+        ServiceLocatorUtilities.addOneDescriptor(sibling,
+                BuilderHelper.link(RedColor.class).to(Color.class).qualifiedBy(new RedImpl()).build());
+        
+        Assert.assertNull(sibling.getService(Color.class, new BlueImpl()));
+        Assert.assertEquals(2, sibling.getAllServices(Color.class, new RedImpl()).size());
+    }
+    
+    /**
+     * Ensures that NamedImpl is equal to, and hashes the same as,
+     * an &#64;Named annotation with the same value
+     */
+    @Test // @org.junit.Ignore
+    public void testNamedImplIsEqualToNamed() {
+        Named fromClass = PurpleColor.class.getAnnotation(Named.class);
+        NamedImpl same = new NamedImpl(PurpleColor.NAME);
+        NamedImpl different = new NamedImpl(LATE_NAME);
+        
+        Assert.assertEquals(fromClass, same);
+        Assert.assertEquals(same, fromClass);
+        Assert.assertEquals(fromClass.hashCode(), same.hashCode());
+        
+        Assert.assertFalse(same.equals(different));
+        Assert.assertFalse(fromClass.equals(different));
+        Assert.assertFalse(same.equals(new BlueImpl()));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.rankedlist;
+
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the descriptor lists of the locator stay in ranked
+ * order as descriptors are added, removed and re-ranked
+ * 
+ * @author jwells
+ *
+ */
+public class RankedListTest {
+    private final static int NUM_DESCRIPTORS = 2000;
+    private final static int NUM_RANKS = 7;
+    private final static String NAME_PREFIX = "Ranked";
+    
+    private static void addRankedDescriptors(ServiceLocator locator) {
+        DynamicConfiguration config = locator.getService(DynamicConfigurationService.class).createDynamicConfiguration();
+        
+        for (int lcv = 0; lcv < NUM_DESCRIPTORS; lcv++) {
+            config.bind(BuilderHelper.link(RankedService.class.getName()).
+                    to(RankedContract.class.getName()).
+                    named(NAME_PREFIX + lcv).
+                    ofRank(lcv % NUM_RANKS).build());
+        }
+        
+        config.commit();
+    }
+    
+    private static void checkOrder(List<ActiveDescriptor<?>> descriptors) {
+        for (int lcv = 1; lcv < descriptors.size(); lcv++) {
+            ActiveDescriptor<?> previous = descriptors.get(lcv - 1);
+            ActiveDescriptor<?> current = descriptors.get(lcv);
+            
+            Assert.assertTrue(previous.getRanking() >= current.getRanking());
+            if (previous.getRanking() == current.getRanking()) {
+                Assert.assertTrue(previous.getServiceId() < current.getServiceId());
+            }
+        }
+    }
+    
+    /**
+     * Ensures that removing many descriptors in one commit leaves
+     * the remaining ones in ranked order
+     */
+    @Test // @org.junit.Ignore
+    public void testOrderIsKeptWhenManyAreRemoved() {
+        ServiceLocator locator = LocatorHelper.create();
+        addRankedDescriptors(locator);
+        
+        Filter contractFilter = BuilderHelper.createContractFilter(RankedContract.class.getName());
+        
+        List<ActiveDescriptor<?>> all = locator.getDescriptors(contractFilter);
+        Assert.assertEquals(NUM_DESCRIPTORS, all.size());
+        checkOrder(all);
+        Assert.assertEquals(NUM_RANKS - 1, all.get(0).getRanking());
+        
+        ServiceLocatorUtilities.removeFilter(locator, new Filter() {
+
+            @Override
+            public boolean matches(Descriptor d) {
+                if (d.getName() == null || !d.getName().startsWith(NAME_PREFIX)) return false;
+                
+                return (d.getServiceId() % 2) == 0;
+            }
+            
+        });
+        
+        all = locator.getDescriptors(contractFilter);
+        Assert.assertEquals(NUM_DESCRIPTORS / 2, all.size());
+        checkOrder(all);
+        for (ActiveDescriptor<?> descriptor : all) {
+            Assert.assertEquals(1L, descriptor.getServiceId() % 2);
+        }
+        
+        Assert.assertEquals(NUM_DESCRIPTORS / 2, locator.getAllServiceHandles(RankedContract.class).size());
+    }
+    
+    /**
+     * Ensures that changing the ranking of a descriptor moves it
+     * to the right place in every list it is in
+     */
+    @Test // @org.junit.Ignore
+    public void testReRankedDescriptorMoves() {
+        ServiceLocator locator = LocatorHelper.create();
+        addRankedDescriptors(locator);
+        
+        Filter contractFilter = BuilderHelper.createContractFilter(RankedContract.class.getName());
+        
+        ActiveDescriptor<?> last = locator.getDescriptors(contractFilter).get(NUM_DESCRIPTORS - 1);
+        Assert.assertEquals(0, last.getRanking());
+        
+        last.setRanking(NUM_RANKS);
+        
+        List<ActiveDescriptor<?>> all = locator.getDescriptors(contractFilter);
+        Assert.assertEquals(NUM_DESCRIPTORS, all.size());
+        checkOrder(all);
+        Assert.assertEquals(last, all.get(0));
+        Assert.assertEquals(last, locator.getBestDescriptor(contractFilter));
+        
+        last.setRanking(-1);
+        
+        all = locator.getDescriptors(contractFilter);
+        Assert.assertEquals(NUM_DESCRIPTORS, all.size());
+        checkOrder(all);
+        Assert.assertEquals(last, all.get(NUM_DESCRIPTORS - 1));
+        
+        // It must still be possible to remove it after being moved
+        ServiceLocatorUtilities.removeOneDescriptor(locator, last);
+        Assert.assertEquals(NUM_DESCRIPTORS - 1, locator.getDescriptors(contractFilter).size());
+        Assert.assertNull(locator.getService(RankedContract.class, last.getName()));
+    }
+}
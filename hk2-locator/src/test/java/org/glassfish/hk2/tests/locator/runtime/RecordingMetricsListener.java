@@ -0,0 +1,89 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.runtime;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jvnet.hk2.external.runtime.LookupMetricsListener;
+
+/**
+ * Remembers the events it is told about
+ * 
+ * @author jwells
+ *
+ */
+public class RecordingMetricsListener implements LookupMetricsListener {
+    private final List<String> lookups = new LinkedList<String>();
+    private final List<String> creations = new LinkedList<String>();
+
+    @Override
+    public synchronized void onLookup(String contract, boolean cacheHit) {
+        lookups.add(contract);
+    }
+
+    @Override
+    public void onNarrow(String contract, long nanos) {
+    }
+
+    @Override
+    public synchronized void onCreation(String contract, String scope, long nanos) {
+        creations.add(contract);
+    }
+
+    @Override
+    public void onJustInTimeResolution(String contract, boolean modified) {
+    }
+    
+    /**
+     * @return The contracts that were looked up, in order
+     */
+    public synchronized List<String> getLookups() {
+        return new LinkedList<String>(lookups);
+    }
+    
+    /**
+     * @return The contracts of the services that were created, in order
+     */
+    public synchronized List<String> getCreations() {
+        return new LinkedList<String>(creations);
+    }
+
+}
@@ -40,13 +40,16 @@
 package org.glassfish.hk2.tests.locator.runtime;
 
 import java.util.List;
+import java.util.Map;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import org.junit.Assert;
 import org.junit.Test;
+import org.jvnet.hk2.external.runtime.ContractMetrics;
 import org.jvnet.hk2.external.runtime.ServiceLocatorRuntimeBean;
 
 /**
@@ -182,5 +185,120 @@ public class RuntimeBeanTest {
         
         Assert.assertTrue(bean.getReflectionCacheSize() > 0);
     }
+    
+    /**
+     * Tests that lookup metrics are off by default
+     */
+    @Test // @org.junit.Ignore
+    public void testLookupMetricsOffByDefault() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorRuntimeBean bean = locator.getService(ServiceLocatorRuntimeBean.class);
+        
+        Assert.assertFalse(bean.isLookupMetricsEnabled());
+        
+        ServiceLocatorUtilities.addClasses(locator, SimpleService.class);
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        
+        Assert.assertTrue(bean.getContractMetrics().isEmpty());
+    }
+    
+    /**
+     * Tests that lookups, cache hits and misses, narrowing
+     * and creations are counted per contract
+     */
+    @Test // @org.junit.Ignore
+    public void testLookupMetrics() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorRuntimeBean bean = locator.getService(ServiceLocatorRuntimeBean.class);
+        
+        ServiceLocatorUtilities.addClasses(locator, SimpleService.class);
+        
+        bean.setLookupMetricsEnabled(true);
+        Assert.assertTrue(bean.isLookupMetricsEnabled());
+        
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        
+        ContractMetrics metrics = bean.getContractMetrics().get(SimpleService.class.getName());
+        Assert.assertNotNull(metrics);
+        
+        Assert.assertEquals(SimpleService.class.getName(), metrics.getContract());
+        Assert.assertEquals(3L, metrics.getLookupCount());
+        Assert.assertEquals(1L, metrics.getCacheMissCount());
+        Assert.assertEquals(2L, metrics.getCacheHitCount());
+        Assert.assertEquals(2.0 / 3.0, metrics.getCacheHitRatio(), 0.0001);
+        
+        // Once when computing the cache entry, and again on every hit
+        Assert.assertEquals(3L, metrics.getNarrowCount());
+        long histogramTotal = 0L;
+        for (long bucket : metrics.getNarrowTimeHistogram()) {
+            histogramTotal += bucket;
+        }
+        Assert.assertEquals(3L, histogramTotal);
+        
+        Assert.assertEquals(new Long(3L), metrics.getCreationCounts().get(PerLookup.class.getName()));
+        Assert.assertNotNull(metrics.getCreationTimeNanos().get(PerLookup.class.getName()));
+        
+        bean.clearContractMetrics();
+        Assert.assertTrue(bean.getContractMetrics().isEmpty());
+        
+        bean.setLookupMetricsEnabled(false);
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        Assert.assertTrue(bean.getContractMetrics().isEmpty());
+    }
+    
+    /**
+     * Tests that just in time resolver invocations are
+     * counted under the contract of the injection point
+     */
+    @Test // @org.junit.Ignore
+    public void testJustInTimeMetrics() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorRuntimeBean bean = locator.getService(ServiceLocatorRuntimeBean.class);
+        
+        ServiceLocatorUtilities.addClasses(locator, NoopJustInTimeResolver.class, MissingServiceUser.class);
+        
+        bean.setLookupMetricsEnabled(true);
+        
+        MissingServiceUser user = locator.getService(MissingServiceUser.class);
+        Assert.assertNull(user.getMissing());
+        
+        Map<String, ContractMetrics> allMetrics = bean.getContractMetrics();
+        
+        ContractMetrics metrics = allMetrics.get(MissingService.class.getName());
+        Assert.assertNotNull(metrics);
+        
+        Assert.assertEquals(1L, metrics.getJustInTimeResolutionCount());
+        Assert.assertEquals(0L, metrics.getJustInTimeModifiedCount());
+    }
+    
+    /**
+     * Tests that a listener hears about lookups and
+     * creations only while metrics are enabled
+     */
+    @Test // @org.junit.Ignore
+    public void testLookupMetricsListener() {
+        ServiceLocator locator = LocatorHelper.create();
+        ServiceLocatorRuntimeBean bean = locator.getService(ServiceLocatorRuntimeBean.class);
+        
+        ServiceLocatorUtilities.addClasses(locator, SimpleService.class);
+        
+        RecordingMetricsListener listener = new RecordingMetricsListener();
+        bean.addLookupMetricsListener(listener);
+        
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        Assert.assertTrue(listener.getLookups().isEmpty());
+        
+        bean.setLookupMetricsEnabled(true);
+        
+        Assert.assertNotNull(locator.getService(SimpleService.class));
+        
+        Assert.assertTrue(listener.getLookups().contains(SimpleService.class.getName()));
+        Assert.assertTrue(listener.getCreations().contains(SimpleService.class.getName()));
+        
+        Assert.assertTrue(bean.removeLookupMetricsListener(listener));
+        Assert.assertFalse(bean.removeLookupMetricsListener(listener));
+    }
 
 }
@@ -0,0 +1,521 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.metadata.generator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.JavaFileObject;
+
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
+
+/**
+ * Writes the source of the {@link GeneratedServiceInjector} of a service.
+ * The injector describes the same members the default ClassAnalyzer of
+ * hk2-locator would find with &#64;Inject, and calls the ones accessible from
+ * the package of the service directly.  Whenever the analysis of the class
+ * could differ from the one done at runtime (for example because the class
+ * has definitional errors or more than one postConstruct candidate) no
+ * injector is written and the class is analyzed at runtime as usual
+ * 
+ * @author jwells
+ *
+ */
+public class InjectorWriter {
+    private final static String INJECT = "javax.inject.Inject";
+    private final static String POST_CONSTRUCT = "javax.annotation.PostConstruct";
+    private final static String PRE_DESTROY = "javax.annotation.PreDestroy";
+    private final static String GENERATED = "javax.annotation.Generated";
+    private final static String INJECTION_POINT_INDICATOR = "org.glassfish.hk2.api.InjectionPointIndicator";
+    private final static String CONVENTION_POST_CONSTRUCT = "postConstruct";
+    private final static String CONVENTION_PRE_DESTROY = "preDestroy";
+    
+    private final ProcessingEnvironment processingEnv;
+    private final Elements elements;
+    private final Types types;
+    private final TypeElement clazz;
+    private final PackageElement clazzPackage;
+    
+    private ExecutableElement constructor;
+    private final List<VariableElement> fields = new ArrayList<VariableElement>();
+    private final List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+    private ExecutableElement postConstruct;
+    private ExecutableElement preDestroy;
+    
+    private InjectorWriter(TypeElement clazz, ProcessingEnvironment processingEnv) {
+        this.processingEnv = processingEnv;
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+        this.clazz = clazz;
+        this.clazzPackage = elements.getPackageOf(clazz);
+    }
+    
+    /**
+     * Writes the generated injector of the given service class
+     * 
+     * @param clazz The non-null &#64;Service class
+     * @param processingEnv The environment of the processor
+     * @return The binary name of the generated injector, or null if no
+     * injector could be generated for this class
+     * @throws IOException If the source file could not be written
+     */
+    public static String write(TypeElement clazz, ProcessingEnvironment processingEnv) throws IOException {
+        InjectorWriter writer = new InjectorWriter(clazz, processingEnv);
+        if (!writer.analyze()) return null;
+        
+        return writer.writeSource();
+    }
+    
+    private boolean analyze() {
+        if (!ElementKind.CLASS.equals(clazz.getKind())) return false;
+        if (clazz.getModifiers().contains(Modifier.ABSTRACT)) return false;
+        if (!isAccessible(clazz)) return false;
+        if (NestingKind.MEMBER.equals(clazz.getNestingKind()) &&
+                !clazz.getModifiers().contains(Modifier.STATIC)) return false;
+        
+        if (!analyzeConstructor()) return false;
+        
+        Map<String, ExecutableElement> seenMethods = new HashMap<String, ExecutableElement>();
+        List<ExecutableElement> postConstructs = new ArrayList<ExecutableElement>();
+        List<ExecutableElement> preDestroys = new ArrayList<ExecutableElement>();
+        
+        // Subclass first, the same order in which the locator walks the class
+        TypeElement current = clazz;
+        while (current != null && !Object.class.getName().equals(ServiceUtilities.nameToString(current.getQualifiedName()))) {
+            if (!isAccessible(current)) return false;
+            
+            for (Element member : current.getEnclosedElements()) {
+                if (ElementKind.FIELD.equals(member.getKind())) {
+                    if (hasIndicator(member)) return false;
+                    if (!hasAnnotation(member, INJECT)) continue;
+                    
+                    Set<Modifier> modifiers = member.getModifiers();
+                    if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) return false;
+                    if (!isProperType(member.asType())) return false;
+                    
+                    fields.add((VariableElement) member);
+                }
+                else if (ElementKind.METHOD.equals(member.getKind())) {
+                    ExecutableElement method = (ExecutableElement) member;
+                    
+                    // As in the locator, a method hides the methods of its superclasses with
+                    // the same name, parameters and return type unless either one is private.
+                    // When that is not a Java override, such as for a package-private method of
+                    // another package, the method called could differ, so no injector is written
+                    if (!isPrivate(method)) {
+                        String signature = getSignature(method);
+                        
+                        ExecutableElement hider = seenMethods.get(signature);
+                        if (hider != null) {
+                            if (!elements.overrides(hider, method, (TypeElement) hider.getEnclosingElement())) return false;
+                            
+                            continue;
+                        }
+                        
+                        seenMethods.put(signature, method);
+                    }
+                    
+                    if (hasIndicator(method)) return false;
+                    
+                    if (hasAnnotation(method, INJECT)) {
+                        Set<Modifier> modifiers = method.getModifiers();
+                        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.ABSTRACT)) return false;
+                        if (!isProperMethod(method)) return false;
+                        
+                        methods.add(method);
+                    }
+                    
+                    if (isLifecycleMethod(method, POST_CONSTRUCT, CONVENTION_POST_CONSTRUCT)) {
+                        postConstructs.add(method);
+                    }
+                    
+                    if (isLifecycleMethod(method, PRE_DESTROY, CONVENTION_PRE_DESTROY)) {
+                        preDestroys.add(method);
+                    }
+                }
+            }
+            
+            current = getSuperclass(current);
+        }
+        
+        // With more than one candidate which one is found at runtime depends on reflection order
+        if (postConstructs.size() > 1 || preDestroys.size() > 1) return false;
+        
+        for (ExecutableElement lifecycle : postConstructs) {
+            if (!lifecycle.getParameters().isEmpty() || lifecycle.getModifiers().contains(Modifier.STATIC)) return false;
+            postConstruct = lifecycle;
+        }
+        
+        for (ExecutableElement lifecycle : preDestroys) {
+            if (!lifecycle.getParameters().isEmpty() || lifecycle.getModifiers().contains(Modifier.STATIC)) return false;
+            preDestroy = lifecycle;
+        }
+        
+        return true;
+    }
+    
+    private boolean analyzeConstructor() {
+        ExecutableElement zeroArg = null;
+        ExecutableElement injectConstructor = null;
+        
+        for (Element member : clazz.getEnclosedElements()) {
+            if (!ElementKind.CONSTRUCTOR.equals(member.getKind())) continue;
+            
+            ExecutableElement candidate = (ExecutableElement) member;
+            if (hasIndicator(candidate)) return false;
+            
+            // The locator reports any constructor with an annotation parameter as an error
+            for (VariableElement parameter : candidate.getParameters()) {
+                if (isAnnotation(parameter.asType())) return false;
+            }
+            
+            if (candidate.getParameters().isEmpty()) {
+                zeroArg = candidate;
+            }
+            
+            if (hasAnnotation(candidate, INJECT)) {
+                if (injectConstructor != null) return false;
+                
+                injectConstructor = candidate;
+            }
+        }
+        
+        constructor = (injectConstructor != null) ? injectConstructor : zeroArg;
+        
+        return (constructor != null) && isProperMethod(constructor);
+    }
+    
+    private String writeSource() throws IOException {
+        String packageName = clazzPackage.isUnnamed() ? null :
+            ServiceUtilities.nameToString(clazzPackage.getQualifiedName());
+        String binaryName = ServiceUtilities.nameToString(elements.getBinaryName(clazz));
+        
+        String injectorSimpleName = ((packageName == null) ? binaryName :
+            binaryName.substring(packageName.length() + 1)).replace('$', '_') +
+            GeneratedServiceInjector.CLASS_SUFFIX;
+        String injectorName = (packageName == null) ? injectorSimpleName :
+            packageName + "." + injectorSimpleName;
+        String clazzName = ServiceUtilities.nameToString(clazz.getQualifiedName());
+        
+        JavaFileObject jfo = processingEnv.getFiler().createSourceFile(injectorName, clazz);
+        
+        Writer writer = jfo.openWriter();
+        try {
+            if (packageName != null) {
+                writer.append("package " + packageName + ";\n\n");
+            }
+            
+            // Generated is not in the JDK after Java 8
+            if (elements.getTypeElement(GENERATED) != null) {
+                writer.append("@" + GENERATED + "(\"org.glassfish.hk2.metadata.generator.ServiceProcessor\")\n");
+            }
+            writer.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+            writer.append("public class " + injectorSimpleName + " extends " +
+                    GeneratedServiceInjector.class.getName() + " {\n");
+            
+            // The analysis
+            writer.append("    public " + injectorSimpleName + "() {\n");
+            writer.append("        super(" + clazzName + ".class, " + !isPrivate(constructor) +
+                    getClassLiterals(constructor) + ");\n");
+            for (VariableElement field : fields) {
+                writer.append("        addField(" + getDeclaringClassLiteral(field) + ", \"" +
+                    field.getSimpleName() + "\", " + isDirect(field) + ");\n");
+            }
+            for (ExecutableElement method : methods) {
+                writer.append("        addInitializerMethod(" + getDeclaringClassLiteral(method) + ", \"" +
+                    method.getSimpleName() + "\", " + isDirect(method) + getClassLiterals(method) + ");\n");
+            }
+            if (postConstruct != null) {
+                writer.append("        setPostConstructMethod(" + getDeclaringClassLiteral(postConstruct) + ", \"" +
+                    postConstruct.getSimpleName() + "\", " + isDirect(postConstruct) + ");\n");
+            }
+            if (preDestroy != null) {
+                writer.append("        setPreDestroyMethod(" + getDeclaringClassLiteral(preDestroy) + ", \"" +
+                    preDestroy.getSimpleName() + "\", " + isDirect(preDestroy) + ");\n");
+            }
+            writer.append("    }\n\n");
+            
+            // The injector
+            if (!isPrivate(constructor)) {
+                writer.append("    @Override\n");
+                writer.append("    public Object construct(Object args[]) throws Throwable {\n");
+                writer.append("        return new " + clazzName + "(" + getArguments(constructor) + ");\n");
+                writer.append("    }\n\n");
+            }
+            
+            writer.append("    @Override\n");
+            writer.append("    public void setField(int index, Object target, Object value) throws Throwable {\n");
+            writer.append("        switch (index) {\n");
+            for (int lcv = 0; lcv < fields.size(); lcv++) {
+                VariableElement field = fields.get(lcv);
+                if (!isDirect(field)) continue;
+                
+                writer.append("        case " + lcv + ": ((" + getDeclaringClassName(field) + ") target)." +
+                    field.getSimpleName() + " = (" + getCastName(field.asType()) + ") value; return;\n");
+            }
+            writer.append("        default: throw new IllegalArgumentException(\"No direct field \" + index);\n");
+            writer.append("        }\n");
+            writer.append("    }\n\n");
+            
+            List<ExecutableElement> allMethods = new ArrayList<ExecutableElement>(methods);
+            if (postConstruct != null) allMethods.add(postConstruct);
+            if (preDestroy != null) allMethods.add(preDestroy);
+            
+            writer.append("    @Override\n");
+            writer.append("    public void invoke(int index, Object target, Object args[]) throws Throwable {\n");
+            writer.append("        switch (index) {\n");
+            for (int lcv = 0; lcv < allMethods.size(); lcv++) {
+                ExecutableElement method = allMethods.get(lcv);
+                if (!isDirect(method)) continue;
+                
+                writer.append("        case " + lcv + ": ((" + getDeclaringClassName(method) + ") target)." +
+                    method.getSimpleName() + "(" + getArguments(method) + "); return;\n");
+            }
+            writer.append("        default: throw new IllegalArgumentException(\"No direct method \" + index);\n");
+            writer.append("        }\n");
+            writer.append("    }\n");
+            
+            writer.append("}\n");
+        }
+        finally {
+            writer.close();
+        }
+        
+        return injectorName;
+    }
+    
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationName.equals(ServiceUtilities.nameToString(annotationType.getQualifiedName()))) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Annotations marked with InjectionPointIndicator make their element an injection
+     * point at runtime, which the generated analysis cannot know about
+     */
+    private static boolean hasIndicator(Element element) {
+        List<Element> annotated = new ArrayList<Element>();
+        annotated.add(element);
+        if (element instanceof ExecutableElement) {
+            annotated.addAll(((ExecutableElement) element).getParameters());
+        }
+        
+        for (Element check : annotated) {
+            for (AnnotationMirror mirror : check.getAnnotationMirrors()) {
+                if (hasAnnotation(mirror.getAnnotationType().asElement(), INJECTION_POINT_INDICATOR)) return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static boolean isLifecycleMethod(ExecutableElement method, String annotationName, String conventionName) {
+        if (hasAnnotation(method, annotationName)) return true;
+        
+        return method.getParameters().isEmpty() && conventionName.equals(ServiceUtilities.nameToString(method.getSimpleName()));
+    }
+    
+    private boolean isAnnotation(TypeMirror type) {
+        type = types.erasure(type);
+        if (!TypeKind.DECLARED.equals(type.getKind())) return false;
+        
+        return ElementKind.ANNOTATION_TYPE.equals(((DeclaredType) type).asElement().getKind());
+    }
+    
+    /**
+     * The locator reports parameters that are annotations as errors
+     */
+    private boolean isProperMethod(ExecutableElement method) {
+        for (VariableElement parameter : method.getParameters()) {
+            if (!isProperType(parameter.asType())) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * A type is proper if it is not an annotation and it can be named from the package of the service
+     */
+    private boolean isProperType(TypeMirror type) {
+        type = types.erasure(type);
+        
+        if (type.getKind().isPrimitive()) return true;
+        if (TypeKind.ARRAY.equals(type.getKind())) {
+            return isProperType(((ArrayType) type).getComponentType());
+        }
+        if (!TypeKind.DECLARED.equals(type.getKind())) return false;
+        
+        if (isAnnotation(type)) return false;
+        
+        return isAccessible((TypeElement) ((DeclaredType) type).asElement());
+    }
+    
+    private boolean isAccessible(TypeElement element) {
+        while (element != null) {
+            Set<Modifier> modifiers = element.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) return false;
+            if (!modifiers.contains(Modifier.PUBLIC) && !clazzPackage.equals(elements.getPackageOf(element))) return false;
+            
+            NestingKind nesting = element.getNestingKind();
+            if (NestingKind.TOP_LEVEL.equals(nesting)) return true;
+            if (!NestingKind.MEMBER.equals(nesting)) return false;
+            
+            element = (TypeElement) element.getEnclosingElement();
+        }
+        
+        return false;
+    }
+    
+    private static boolean isPrivate(Element member) {
+        return member.getModifiers().contains(Modifier.PRIVATE);
+    }
+    
+    /**
+     * A member is direct if the generated injector, which is in the package of
+     * the service, may access it
+     */
+    private boolean isDirect(Element member) {
+        if (isPrivate(member)) return false;
+        if (member.getModifiers().contains(Modifier.PUBLIC)) return true;
+        
+        return clazzPackage.equals(elements.getPackageOf(member));
+    }
+    
+    private static TypeElement getSuperclass(TypeElement element) {
+        TypeMirror superclass = element.getSuperclass();
+        if (!TypeKind.DECLARED.equals(superclass.getKind())) return null;
+        
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+    
+    private String getSignature(ExecutableElement method) {
+        StringBuffer sb = new StringBuffer(ServiceUtilities.nameToString(method.getSimpleName()));
+        sb.append('(');
+        for (VariableElement parameter : method.getParameters()) {
+            sb.append(types.erasure(parameter.asType()).toString());
+            sb.append(',');
+        }
+        sb.append(')');
+        sb.append(types.erasure(method.getReturnType()).toString());
+        
+        return sb.toString();
+    }
+    
+    private String getTypeName(TypeMirror type) {
+        type = types.erasure(type);
+        
+        if (TypeKind.ARRAY.equals(type.getKind())) {
+            return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (TypeKind.DECLARED.equals(type.getKind())) {
+            return ServiceUtilities.nameToString(((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName());
+        }
+        
+        return type.toString();
+    }
+    
+    private String getCastName(TypeMirror type) {
+        type = types.erasure(type);
+        
+        if (type.getKind().isPrimitive()) {
+            return ServiceUtilities.nameToString(types.boxedClass((PrimitiveType) type).getQualifiedName());
+        }
+        
+        return getTypeName(type);
+    }
+    
+    private static String getDeclaringClassName(Element member) {
+        return ServiceUtilities.nameToString(((TypeElement) member.getEnclosingElement()).getQualifiedName());
+    }
+    
+    private static String getDeclaringClassLiteral(Element member) {
+        return getDeclaringClassName(member) + ".class";
+    }
+    
+    /**
+     * @return The class literals of the parameters of the method, each preceded by a comma
+     */
+    private String getClassLiterals(ExecutableElement method) {
+        StringBuffer sb = new StringBuffer();
+        for (VariableElement parameter : method.getParameters()) {
+            sb.append(", " + getTypeName(parameter.asType()) + ".class");
+        }
+        
+        return sb.toString();
+    }
+    
+    private String getArguments(ExecutableElement method) {
+        StringBuffer sb = new StringBuffer();
+        int lcv = 0;
+        for (VariableElement parameter : method.getParameters()) {
+            if (lcv > 0) sb.append(", ");
+            
+            sb.append("(" + getCastName(parameter.asType()) + ") args[" + lcv++ + "]");
+        }
+        
+        return sb.toString();
+    }
+}
@@ -40,6 +40,7 @@
 package org.glassfish.hk2.metadata.generator;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -60,8 +61,11 @@ import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
 
+import org.glassfish.hk2.api.DescriptorType;
 import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.utilities.BinaryDescriptorFile;
 import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
 
 /**
  * The entry point for service &#64;Service annotations
@@ -70,11 +74,26 @@ import org.glassfish.hk2.utilities.DescriptorImpl;
  *
  */
 @SupportedAnnotationTypes("org.jvnet.hk2.annotations.Service")
-@SupportedOptions("org.glassfish.hk2.metadata.location")
+@SupportedOptions({ "org.glassfish.hk2.metadata.location", "org.glassfish.hk2.metadata.injectors",
+    "org.glassfish.hk2.metadata.binary" })
 public class ServiceProcessor extends AbstractProcessor {
     private static final String LOCATION_OPTION = "org.glassfish.hk2.metadata.location";
     private static final String LOCATION_DEFAULT = "META-INF/hk2-locator/default";
     
+    /**
+     * When set to true a {@link GeneratedServiceInjector} is also generated
+     * for every service, which the locator uses instead of analyzing the
+     * service class at runtime
+     */
+    private static final String INJECTORS_OPTION = "org.glassfish.hk2.metadata.injectors";
+    
+    /**
+     * When set to true the binary form of the descriptors is also written
+     * next to the text form, for use with the
+     * {@link org.glassfish.hk2.utilities.BinaryClasspathDescriptorFileFinder}
+     */
+    private static final String BINARY_OPTION = "org.glassfish.hk2.metadata.binary";
+    
     private final TreeSet<DescriptorImpl> allDescriptors = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
     private final ArrayList<Element> originators = new ArrayList<Element>();
 
@@ -108,6 +127,15 @@ public class ServiceProcessor extends AbstractProcessor {
                     continue;
                 }
                 
+                if (generateInjectors() && !descriptors.isEmpty()) {
+                    try {
+                        addGeneratedInjector(clazz, descriptors);
+                    }
+                    catch (IOException e) {
+                        processingEnv.getMessager().printMessage(Kind.ERROR, e.getMessage(), clazz);
+                    }
+                }
+                
                 allDescriptors.addAll(descriptors);
                 if (!descriptors.isEmpty()) {
                     originators.add(clazzElement);
@@ -142,6 +170,34 @@ public class ServiceProcessor extends AbstractProcessor {
         return SourceVersion.latest();
     }
     
+    private boolean generateInjectors() {
+        return Boolean.parseBoolean(processingEnv.getOptions().get(INJECTORS_OPTION));
+    }
+    
+    /**
+     * Generates the injector of the class and names it in the metadata of
+     * the descriptor of the class itself (not of any provide method)
+     */
+    private void addGeneratedInjector(TypeElement clazz, List<DescriptorImpl> descriptors) throws IOException {
+        List<DescriptorImpl> injected = new ArrayList<DescriptorImpl>();
+        for (DescriptorImpl descriptor : descriptors) {
+            if (!DescriptorType.CLASS.equals(descriptor.getDescriptorType())) continue;
+            
+            // A service with its own analyzer is analyzed by it at runtime
+            if (descriptor.getClassAnalysisName() != null) continue;
+            
+            injected.add(descriptor);
+        }
+        if (injected.isEmpty()) return;
+        
+        String injectorName = InjectorWriter.write(clazz, processingEnv);
+        if (injectorName == null) return;
+        
+        for (DescriptorImpl descriptor : injected) {
+            descriptor.addMetadata(GeneratedServiceInjector.METADATA_KEY, injectorName);
+        }
+    }
+    
     private void createFile() throws IOException {
         String location = processingEnv.getOptions().get(LOCATION_OPTION);
         if (location == null) location = LOCATION_DEFAULT;
@@ -180,6 +236,27 @@ public class ServiceProcessor extends AbstractProcessor {
             fileWriter.close();
         }
         
+        if (Boolean.parseBoolean(processingEnv.getOptions().get(BINARY_OPTION))) {
+            createBinaryFile(filer, location);
+        }
+    }
+    
+    /**
+     * Writes the binary form of the descriptors next to the text form, which
+     * is what a BinaryClasspathDescriptorFileFinder reads when it is available
+     */
+    private void createBinaryFile(Filer filer, String location) throws IOException {
+        FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT,
+                "", location + BinaryDescriptorFile.BINARY_SUFFIX, 
+                originators.toArray(new Element[originators.size()]));
+        
+        OutputStream outputStream = fileObject.openOutputStream();
+        try {
+            BinaryDescriptorFile.write(new ArrayList<DescriptorImpl>(allDescriptors), outputStream);
+        }
+        finally {
+            outputStream.close();
+        }
     }
     
     /**
@@ -0,0 +1,287 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.metadata.tests;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.glassfish.hk2.metadata.generator.ServiceProcessor;
+import org.glassfish.hk2.utilities.ClasspathDescriptorFileFinder;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector;
+import org.glassfish.hk2.utilities.GeneratedServiceInjector.InjectedMember;
+import org.glassfish.hk2.utilities.HK2LoaderImpl;
+import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
+import org.glassfish.hk2.utilities.reflection.MethodWrapper;
+import org.glassfish.hk2.utilities.reflection.internal.ClassReflectionHelperImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compiles services with the injectors option of the processor turned on
+ * and compares the generated injectors with the analysis done at runtime
+ * 
+ * @author jwells
+ *
+ */
+public class InjectorWriterTest {
+    private final static String INJECTORS_OPTION = "-Aorg.glassfish.hk2.metadata.injectors=true";
+    private final static String SOURCES = "injector-sources";
+    private final static String PACKAGE = "org.jvnet.hk2.metadata.tests.injectors.";
+    
+    private final static String SIMPLE_DEPENDENCY = PACKAGE + "SimpleDependency";
+    private final static String PRIVATE_HIDING_SERVICE = PACKAGE + "PrivateHidingService";
+    private final static String CROSS_PACKAGE_SERVICE = PACKAGE + "CrossPackageService";
+    private final static String PRIVATE_CONSTRUCTOR_SERVICE = PACKAGE + "PrivateConstructorService";
+    
+    private static URLClassLoader loader;
+    private static ServiceLocator locator;
+    
+    /**
+     * Compiles the sources in the test resources with the processor into their
+     * own directory, and populates a locator from the descriptors written there
+     * which loads the services from that directory
+     */
+    @BeforeClass
+    public static void compile() throws Exception {
+        File buildDir = new File(System.getProperty("build.dir"));
+        File sourceDir = new File(buildDir, "test-classes" + File.separator + SOURCES);
+        File outputDir = new File(buildDir, "injector-classes");
+        Assert.assertTrue(outputDir.isDirectory() || outputDir.mkdirs());
+        
+        List<File> sources = new ArrayList<File>();
+        findSources(sourceDir, sources);
+        Assert.assertFalse(sources.isEmpty());
+        
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("These tests must be run with a JDK", compiler);
+        
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            List<String> options = Arrays.asList(
+                    "-d", outputDir.getAbsolutePath(),
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-processor", ServiceProcessor.class.getName(),
+                    INJECTORS_OPTION);
+            
+            Assert.assertTrue(compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(sources)).call());
+        }
+        finally {
+            fileManager.close();
+        }
+        
+        loader = new URLClassLoader(new URL[] { outputDir.toURI().toURL() },
+                InjectorWriterTest.class.getClassLoader());
+        
+        locator = ServiceLocatorFactory.getInstance().create(null);
+        locator.getService(DynamicConfigurationService.class).getPopulator().populate(
+                new ClasspathDescriptorFileFinder(loader), new PopulatorPostProcessor() {
+
+                    @Override
+                    public DescriptorImpl process(ServiceLocator serviceLocator, DescriptorImpl descriptorImpl) {
+                        descriptorImpl.setLoader(new HK2LoaderImpl(loader));
+                        return descriptorImpl;
+                    }
+                    
+                });
+    }
+    
+    @AfterClass
+    public static void after() throws Exception {
+        if (locator != null) locator.shutdown();
+    }
+    
+    private static void findSources(File dir, List<File> sources) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                findSources(file, sources);
+            }
+            else if (file.getName().endsWith(".java")) {
+                sources.add(file);
+            }
+        }
+    }
+    
+    private static GeneratedServiceInjector getInjector(Class<?> clazz) throws Exception {
+        Class<?> injectorClass = loader.loadClass(clazz.getName() + GeneratedServiceInjector.CLASS_SUFFIX);
+        
+        return (GeneratedServiceInjector) injectorClass.newInstance();
+    }
+    
+    private static String describe(Class<?> declaringClass, String name, Class<?> parameters[]) {
+        return declaringClass.getName() + "." + name + Arrays.toString(parameters);
+    }
+    
+    private static Set<String> describe(List<InjectedMember> members) {
+        Set<String> retVal = new HashSet<String>();
+        for (InjectedMember member : members) {
+            retVal.add(describe(member.getDeclaringClass(), member.getName(), member.getParameters()));
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * @return The initializer methods the default ClassAnalyzer of the locator finds
+     */
+    private static Set<String> getRuntimeInitializerMethods(Class<?> clazz) {
+        ClassReflectionHelper helper = new ClassReflectionHelperImpl();
+        
+        Set<String> retVal = new HashSet<String>();
+        for (MethodWrapper wrapper : helper.getAllMethods(clazz)) {
+            Method method = wrapper.getMethod();
+            if (!method.isAnnotationPresent(Inject.class)) continue;
+            
+            retVal.add(describe(method.getDeclaringClass(), method.getName(), method.getParameterTypes()));
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * @return The initializer fields the default ClassAnalyzer of the locator finds
+     */
+    private static Set<String> getRuntimeInitializerFields(Class<?> clazz) {
+        ClassReflectionHelper helper = new ClassReflectionHelperImpl();
+        
+        Set<String> retVal = new HashSet<String>();
+        for (Field field : helper.getAllFields(clazz)) {
+            if (!field.isAnnotationPresent(Inject.class)) continue;
+            
+            retVal.add(describe(field.getDeclaringClass(), field.getName(), new Class<?>[0]));
+        }
+        
+        return retVal;
+    }
+    
+    private static Object get(Object target, String getter) throws Exception {
+        return target.getClass().getMethod(getter).invoke(target);
+    }
+    
+    /**
+     * Ensures private methods neither hide nor are hidden by methods with the
+     * same signature, while an overridden public method is only called once
+     */
+    @Test
+    public void testPrivateMethodsAreNotHidden() throws Exception {
+        Class<?> clazz = loader.loadClass(PRIVATE_HIDING_SERVICE);
+        GeneratedServiceInjector injector = getInjector(clazz);
+        
+        Set<String> runtimeMethods = getRuntimeInitializerMethods(clazz);
+        Assert.assertEquals(3, runtimeMethods.size());
+        Assert.assertEquals(runtimeMethods, describe(injector.getInitializerMethods()));
+        Assert.assertEquals(getRuntimeInitializerFields(clazz), describe(injector.getFields()));
+        
+        Object dependency = locator.getService(loader.loadClass(SIMPLE_DEPENDENCY));
+        Object service = locator.getService(clazz);
+        
+        Assert.assertSame(dependency, get(service, "getDependency"));
+        Assert.assertSame(dependency, get(service, "getBaseDependency"));
+        Assert.assertSame(dependency, get(service, "getPublicDependency"));
+        Assert.assertNull(get(service, "getBasePublicDependency"));
+    }
+    
+    /**
+     * Ensures no injector is written when the locator would hide a method
+     * that Java does not override, and that the class is analyzed at runtime
+     */
+    @Test
+    public void testCrossPackageMethodHasNoInjector() throws Exception {
+        Class<?> clazz = loader.loadClass(CROSS_PACKAGE_SERVICE);
+        
+        try {
+            getInjector(clazz);
+            Assert.fail("Should not have written an injector for " + clazz.getName());
+        }
+        catch (ClassNotFoundException cnfe) {
+            // Expected
+        }
+        
+        Object dependency = locator.getService(loader.loadClass(SIMPLE_DEPENDENCY));
+        Object service = locator.getService(clazz);
+        
+        Assert.assertSame(dependency, get(service, "getDependency"));
+    }
+    
+    /**
+     * Ensures the injector of a class with a private constructor does not
+     * construct it and the class is still created reflectively
+     */
+    @Test
+    public void testPrivateConstructorIsNotDirect() throws Exception {
+        Class<?> clazz = loader.loadClass(PRIVATE_CONSTRUCTOR_SERVICE);
+        GeneratedServiceInjector injector = getInjector(clazz);
+        
+        Assert.assertFalse(injector.isConstructorDirect());
+        
+        try {
+            injector.getClass().getDeclaredMethod("construct", Object[].class);
+            Assert.fail("Should not have generated construct for " + clazz.getName());
+        }
+        catch (NoSuchMethodException nsme) {
+            // Expected
+        }
+        
+        Object dependency = locator.getService(loader.loadClass(SIMPLE_DEPENDENCY));
+        Object service = locator.getService(clazz);
+        
+        Assert.assertSame(dependency, get(service, "getDependency"));
+    }
+}
@@ -62,7 +62,10 @@ package org.glassfish.hk2.utilities.cache;
  */
 public interface WeakCARCache<K,V> {
     /**
-     * The method used to get or add values to this cache
+     * The method used to get or add values to this cache.  The
+     * computable is not called with any lock held, and threads
+     * that miss on a key that is currently being computed wait
+     * for that computation rather than computing it again
      * 
      * @param key The key to add to the cache.  If the value
      * is not found, then the computable will be called to
@@ -72,6 +75,21 @@ public interface WeakCARCache<K,V> {
      */
     public V compute(K key);
     
+    /**
+     * Replaces the value kept for the given key, but only if the cache
+     * currently keeps exactly the expected value (compared by identity)
+     * for it.  The computable is not called.  This can be used to replace
+     * a value that has been found to be stale without removing the key
+     * from the cache
+     * 
+     * @param key The key whose value should be replaced.  May not be null
+     * @param expectedValue The value the cache must currently keep for the key
+     * @param newValue The value to keep for the key instead.  May not be null
+     * @return true if the value was replaced, false if the cache did not
+     * keep the expected value for the key
+     */
+    public boolean replace(K key, V expectedValue, V newValue);
+    
     /**
      * Returns the current number of keys in the cache.  Note
      * that the number of keys can be up to 2x the maximum size
@@ -39,7 +39,10 @@
  */
 package org.glassfish.hk2.utilities.cache.internal;
 
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
 import org.glassfish.hk2.utilities.cache.Computable;
@@ -53,6 +56,14 @@ import org.glassfish.hk2.utilities.general.WeakHashLRU;
  * Implements the CAR algorithm as found here:
  * 
  * http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.105.6057
+ * <p>
+ * Cache hits do not take any lock.  On a miss the value is computed
+ * outside of the lock that protects the CAR data structures, and
+ * concurrent misses for the same key wait on the computation already
+ * in flight rather than computing the value again.  Misses for different
+ * keys never wait on each other's computation, and a miss computes the
+ * value itself rather than wait on a computation that is (directly or
+ * through other threads) waiting on it
  * 
  * @author jwells
  *
@@ -69,6 +80,16 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
     // The target size of t1, adaptive
     private int p = 0;
     
+    // Computations currently in progress, keyed by the key being computed
+    private final ConcurrentHashMap<K, InFlightComputation<V>> inFlight =
+            new ConcurrentHashMap<K, InFlightComputation<V>>();
+    
+    // The computation each thread is currently waiting on.  This is shared
+    // by all caches, since the computation of a value in one cache may
+    // need a value from another cache
+    private final static ConcurrentHashMap<Thread, InFlightComputation<?>> WAITING =
+            new ConcurrentHashMap<Thread, InFlightComputation<?>>();
+    
     public WeakCARCacheImpl(Computable<K,V> computable, int maxSize, boolean isWeak) {
         this.computable = computable;
         this.maxSize = maxSize;
@@ -100,82 +121,202 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
     /* (non-Javadoc)
      * @see org.glassfish.hk2.utilities.cache.WeakCARCache#compute(java.lang.Object)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public V compute(K key) {
         V value = getValueFromT(key);
         if (value != null) return value;
         
-        synchronized (this) {
-            value = getValueFromT(key);
-            if (value != null) return value;
+        InFlightComputation<V> myComputation = new InFlightComputation<V>();
+        InFlightComputation<V> existing = inFlight.putIfAbsent(key, myComputation);
+        while (existing != null && existing.released) {
+            // The key was released after that computation started, so its value
+            // may be stale and must not be handed out.  Take over the key instead
+            if (inFlight.replace(key, existing, myComputation)) {
+                existing = null;
+            }
+            else {
+                existing = inFlight.putIfAbsent(key, myComputation);
+            }
+        }
+        
+        if (existing != null) {
+            if (!startWaiting(existing)) {
+                // Either the computation of this key needs the value of this key
+                // (which was allowed when misses were computed under a re-entrant
+                // lock) or the thread computing it is waiting on this thread.
+                // Compute it again rather than waiting forever
+                return computeValue(key, myComputation);
+            }
             
-            // Cache Miss.  First, get the value.  Any failures
-            // will bubble up prior to us messing with any data structures
             try {
-                value = computable.compute(key);
+                return existing.get();
             }
-            catch (ComputationErrorException cee) {
-                // In this case the value should not be kept in the cache
-                return (V) cee.getComputation();
+            finally {
+                WAITING.remove(Thread.currentThread());
+            }
+        }
+        
+        try {
+            // It may have been added since the first look
+            value = getValueFromT(key);
+            if (value != null) {
+                myComputation.setValue(value);
+                return value;
             }
             
-            int cacheSize = getValueSize();
-            if (cacheSize >= maxSize) {
-                replace();
+            // Cache Miss.  First, get the value.  Any failures
+            // will bubble up prior to us messing with any data structures
+            value = computeValue(key, myComputation);
+            if (!myComputation.cacheable) return value;
             
-                boolean inB1 = b1.contains(key);
-                boolean inB2 = b2.contains(key);
-                if (!inB1 && !inB2) {
-                    if ((t1.size() + b1.size()) >= maxSize) {
-                        b1.remove();
-                    }
-                    else if ((t1.size() + t2.size() + b1.size() + b2.size()) >= (2 * maxSize)) {
-                        b2.remove();
-                    }
+            synchronized (this) {
+                if (myComputation.released) {
+                    // The key was released while we were computing, so the
+                    // value we have may be stale.  Give it back but do not keep it
+                    return value;
                 }
+                
+                V current = getValueFromT(key);
+                if (current != null) return current;
+                
+                add(key, value);
             }
+            
+            return value;
+        }
+        finally {
+            inFlight.remove(key, myComputation);
+            myComputation.done();
+        }
+    }
+    
+    /**
+     * Records that the current thread is about to wait on the given
+     * computation, unless that would mean waiting on itself
+     * 
+     * @param computation The computation to wait on
+     * @return true if the current thread may wait on the computation, in
+     * which case it must remove itself from WAITING once it is done waiting.
+     * false if the computation is owned by the current thread or by a thread
+     * that is waiting (possibly through other threads) on the current thread
+     */
+    private static boolean startWaiting(InFlightComputation<?> computation) {
+        Thread current = Thread.currentThread();
         
-            boolean inB1 = b1.contains(key);
-            boolean inB2 = b2.contains(key);
+        // Recorded before looking for a cycle, so that of two threads about
+        // to wait on each other at least one of them sees the cycle
+        WAITING.put(current, computation);
         
-            if (!inB1 && !inB2) {
-                t1.put(key, new CarValue<V>(value));
-            }
-            else if (inB1) {
-                int b1size = b1.size();
-                if (b1size == 0) b1size = 1;  // Can happen in a weak situation, we fake the one
-            
-                int b2size = b2.size();
-            
-                int ratio = b2size / b1size;  // integer division
-                if (ratio <= 0) ratio = 1;
-            
-                p = p + ratio;
-                if (p > maxSize) p = maxSize;
-            
-                b1.remove(key);
-                t2.put(key, new CarValue<V>(value));
+        HashSet<Thread> visited = new HashSet<Thread>();
+        InFlightComputation<?> link = computation;
+        while (link != null && !link.isDone()) {
+            Thread owner = link.owner;
+            if (owner == current) {
+                WAITING.remove(current);
+                return false;
             }
-            else {
-                // Must be in B2
-                int b2size = b2.size();
-                if (b2size == 0) b2size = 1;  // Can happen in a weak situation, we fake the one
             
-                int b1size = b1.size();
+            if (!visited.add(owner)) break;
             
-                int ratio = b1size / b2size;
-                if (ratio <= 0) ratio = 1;
+            link = WAITING.get(owner);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Calls the computable, recording the outcome in the given computation
+     * so that other threads waiting on it get the same outcome
+     * 
+     * @param key The key to compute
+     * @param computation The computation to record the outcome in
+     * @return The computed value
+     */
+    @SuppressWarnings("unchecked")
+    private V computeValue(K key, InFlightComputation<V> computation) {
+        try {
+            V value = computable.compute(key);
+            computation.setValue(value);
             
-                p = p - ratio;
-                if (p < 0) p = 0;
+            return value;
+        }
+        catch (ComputationErrorException cee) {
+            // In this case the value should not be kept in the cache
+            V value = (V) cee.getComputation();
+            computation.setUncacheableValue(value);
             
-                b2.remove(key);
-                t2.put(key, new CarValue<V>(value));
+            return value;
+        }
+        catch (RuntimeException re) {
+            computation.setError(re);
+            throw re;
+        }
+        catch (Error er) {
+            computation.setError(er);
+            throw er;
+        }
+    }
+    
+    /**
+     * Must be called with this lock held
+     * 
+     * @param key The key of the new value
+     * @param value The newly computed value
+     */
+    private void add(K key, V value) {
+        int cacheSize = getValueSize();
+        if (cacheSize >= maxSize) {
+            replace();
+        
+            boolean inB1 = b1.contains(key);
+            boolean inB2 = b2.contains(key);
+            if (!inB1 && !inB2) {
+                if ((t1.size() + b1.size()) >= maxSize) {
+                    b1.remove();
+                }
+                else if ((t1.size() + t2.size() + b1.size() + b2.size()) >= (2 * maxSize)) {
+                    b2.remove();
+                }
             }
         }
+    
+        boolean inB1 = b1.contains(key);
+        boolean inB2 = b2.contains(key);
+    
+        if (!inB1 && !inB2) {
+            t1.put(key, new CarValue<V>(value));
+        }
+        else if (inB1) {
+            int b1size = b1.size();
+            if (b1size == 0) b1size = 1;  // Can happen in a weak situation, we fake the one
+        
+            int b2size = b2.size();
+        
+            int ratio = b2size / b1size;  // integer division
+            if (ratio <= 0) ratio = 1;
+        
+            p = p + ratio;
+            if (p > maxSize) p = maxSize;
+        
+            b1.remove(key);
+            t2.put(key, new CarValue<V>(value));
+        }
+        else {
+            // Must be in B2
+            int b2size = b2.size();
+            if (b2size == 0) b2size = 1;  // Can happen in a weak situation, we fake the one
+        
+            int b1size = b1.size();
         
-        return value;
+            int ratio = b1size / b2size;
+            if (ratio <= 0) ratio = 1;
+        
+            p = p - ratio;
+            if (p < 0) p = 0;
+        
+            b2.remove(key);
+            t2.put(key, new CarValue<V>(value));
+        }
     }
     
     private void replace() {
@@ -239,6 +380,10 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
      */
     @Override
     public synchronized void clear() {
+        for (InFlightComputation<V> computation : inFlight.values()) {
+            computation.released = true;
+        }
+        
         t1.clear();
         t2.clear();
         b1.clear();
@@ -268,6 +413,11 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
      */
     @Override
     public synchronized boolean remove(K key) {
+        InFlightComputation<V> computation = inFlight.get(key);
+        if (computation != null) {
+            computation.released = true;
+        }
+        
         if (t1.remove(key) == null) {
             if (t2.remove(key) == null) {
                 if (!b1.remove(key)) {
@@ -283,6 +433,24 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
         return true;
     }
     
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.utilities.cache.WeakCARCache#replace(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public synchronized boolean replace(K key, V expectedValue, V newValue) {
+        CarValue<V> cValue = t1.get(key);
+        if (cValue == null) {
+            cValue = t2.get(key);
+            if (cValue == null) return false;
+        }
+        
+        if (cValue.value != expectedValue) return false;
+        
+        // Replaced in place so that the key keeps its position in the clock
+        cValue.value = newValue;
+        return true;
+    }
+    
     /* (non-Javadoc)
      * @see org.glassfish.hk2.utilities.cache.WeakCARCache#releaseMatching(org.glassfish.hk2.utilities.cache.CacheKeyFilter)
      */
@@ -290,6 +458,12 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
     public synchronized void releaseMatching(CacheKeyFilter<K> filter) {
         if (filter == null) return;
         
+        for (Map.Entry<K, InFlightComputation<V>> entry : inFlight.entrySet()) {
+            if (filter.matches(entry.getKey())) {
+                entry.getValue().released = true;
+            }
+        }
+        
         b2.releaseMatching(filter);
         b1.releaseMatching(filter);
         t1.releaseMatching(filter);
@@ -307,8 +481,75 @@ public class WeakCARCacheImpl<K,V> implements WeakCARCache<K, V> {
         b2.clearStaleReferences();
     }
     
+    /**
+     * The outcome of a computation of a single key, which threads
+     * that miss on the same key while it is being computed wait for.
+     * The computation stays in the inFlight map until its owner is
+     * done with it, even when its key is released in the meantime
+     */
+    private static class InFlightComputation<V> {
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private V value;
+        private boolean cacheable = true;
+        private Throwable error;
+        
+        // Set with the cache lock held when the key is released
+        private volatile boolean released = false;
+        
+        private void setValue(V value) {
+            this.value = value;
+        }
+        
+        private void setUncacheableValue(V value) {
+            this.value = value;
+            cacheable = false;
+        }
+        
+        private void setError(Throwable error) {
+            this.error = error;
+        }
+        
+        private void done() {
+            latch.countDown();
+        }
+        
+        private boolean isDone() {
+            return latch.getCount() == 0;
+        }
+        
+        private V get() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        latch.await();
+                        break;
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            
+            return value;
+        }
+    }
+    
     private static class CarValue<V> {
-        private final V value;
+        private volatile V value;
         private volatile boolean referenceBit = false;
         
         private CarValue(V value) {
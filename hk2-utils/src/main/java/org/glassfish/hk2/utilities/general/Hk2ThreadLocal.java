@@ -39,26 +39,29 @@
  */
 package org.glassfish.hk2.utilities.general;
 
-import java.util.HashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a poor mans version of a {@link java.lang.ThreadLocal} with
  * the one major upside of a {@link #removeAll()} method that
  * can be used to remove ALL instances of all thread locals on
  * ALL threads from any other thread.
+ * <p>
+ * The values are kept in a concurrent map keyed by thread id, so
+ * getting the value of a thread that already has one takes no lock.
+ * The values of threads that have terminated are removed whenever the
+ * number of threads with a value has doubled since the last cleaning
  *
  * @author jwells
  *
  */
 public class Hk2ThreadLocal<T> {
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final WriteLock wLock = readWriteLock.writeLock();
-    private final ReadLock rLock = readWriteLock.readLock();
+    private final static int MINIMUM_CLEANING_SIZE = 32;
     
-    private final HashMap<Long, T> locals = new HashMap<Long, T>();
+    private final ConcurrentHashMap<Long, Local<T>> locals = new ConcurrentHashMap<Long, Local<T>>();
+    private volatile int nextCleaningSize = MINIMUM_CLEANING_SIZE;
     
     /**
      * Returns the current thread's "initial value" for this
@@ -91,35 +94,18 @@ public class Hk2ThreadLocal<T> {
      * @return the current thread's value of this thread-local
      */
     public T get() {
-        long id = Thread.currentThread().getId();
+        Thread current = Thread.currentThread();
         
-        rLock.lock();
-        try {
-            if (locals.containsKey(id)) {
-                return locals.get(id);
-            }
-        }
-        finally {
-            rLock.unlock();
+        Local<T> local = locals.get(current.getId());
+        if (local != null && local.isOwnedBy(current)) {
+            return local.value;
         }
         
         // Did not previously get a value, so get it now
-        // under write lock
-        wLock.lock();
-        try {
-            if (locals.containsKey(id)) {
-                return locals.get(id);
-            }
-            
-            T initialValue = initialValue();
-            locals.put(id, initialValue);
-            
-            return initialValue;
-        }
-        finally {
-            wLock.unlock();
-        }
+        T initialValue = initialValue();
+        put(current, initialValue);
         
+        return initialValue;
     }
     
     /**
@@ -132,16 +118,7 @@ public class Hk2ThreadLocal<T> {
      *        this thread-local.
      */
     public void set(T value) {
-        long id = Thread.currentThread().getId();
-        
-        wLock.lock();
-        try {
-            locals.put(id, value);
-        }
-        finally {
-            wLock.unlock();
-        }
-        
+        put(Thread.currentThread(), value);
     }
     
     /**
@@ -153,36 +130,62 @@ public class Hk2ThreadLocal<T> {
      * in the interim.  This may result in multiple invocations of the
      * <tt>initialValue</tt> method in the current thread.
      */
-     public void remove() {
-         long id = Thread.currentThread().getId();
-         
-         wLock.lock();
-         try {
-             locals.remove(id);
-         }
-         finally {
-             wLock.unlock();
-         }
-         
-     }
-     
-     /**
-      * Removes all threads current thread's value for this thread-local
-      * variable.  If this thread-local variable is subsequently
-      * {@linkplain #get read} by the current thread, its value will be
-      * reinitialized by invoking its {@link #initialValue} method,
-      * unless its value is {@linkplain #set set} by the current thread
-      * in the interim.  This may result in multiple invocations of the
-      * <tt>initialValue</tt> method in the current thread.
-      */
-      public void removeAll() {
-          wLock.lock();
-          try {
-              locals.clear();
-          }
-          finally {
-              wLock.unlock();
-          }
-          
-      }
+    public void remove() {
+        locals.remove(Thread.currentThread().getId());
+    }
+    
+    /**
+     * Removes all threads current thread's value for this thread-local
+     * variable.  If this thread-local variable is subsequently
+     * {@linkplain #get read} by the current thread, its value will be
+     * reinitialized by invoking its {@link #initialValue} method,
+     * unless its value is {@linkplain #set set} by the current thread
+     * in the interim.  This may result in multiple invocations of the
+     * <tt>initialValue</tt> method in the current thread.
+     */
+    public void removeAll() {
+        locals.clear();
+    }
+    
+    private void put(Thread thread, T value) {
+        Local<T> previous = locals.put(thread.getId(), new Local<T>(thread, value));
+        if (previous != null) return;
+        
+        if (locals.size() >= nextCleaningSize) {
+            removeTerminatedThreads();
+        }
+    }
+    
+    private void removeTerminatedThreads() {
+        for (Map.Entry<Long, Local<T>> entry : locals.entrySet()) {
+            if (!entry.getValue().isAlive()) {
+                locals.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        nextCleaningSize = Math.max(MINIMUM_CLEANING_SIZE, 2 * locals.size());
+    }
+    
+    /**
+     * The value of one thread.  The thread is held weakly, and is
+     * compared on get since thread ids may be reused
+     */
+    private static class Local<T> {
+        private final WeakReference<Thread> thread;
+        private final T value;
+        
+        private Local(Thread thread, T value) {
+            this.thread = new WeakReference<Thread>(thread);
+            this.value = value;
+        }
+        
+        private boolean isOwnedBy(Thread candidate) {
+            return thread.get() == candidate;
+        }
+        
+        private boolean isAlive() {
+            Thread owner = thread.get();
+            return (owner != null) && owner.isAlive();
+        }
+    }
 }
@@ -41,6 +41,10 @@ package org.glassfish.hk2.utilities.cache.test;
 
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
 import org.glassfish.hk2.utilities.cache.CacheUtilities;
@@ -709,6 +713,245 @@ public class WeakCARCacheTest {
         testConcurrency(cache);
     }
     
+    /**
+     * Ensures that a slow computation of one key does not
+     * block the computation of another key
+     */
+    @Test // @org.junit.Ignore
+    public void testSlowComputationDoesNotBlockOtherKeys() throws InterruptedException {
+        BlockingComputable blocking = new BlockingComputable(ZERO);
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(blocking, SMALL_CACHE_SIZE, false);
+        
+        Thread slow = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ZERO);
+            }
+            
+        });
+        slow.start();
+        
+        Assert.assertTrue(blocking.waitForBlockedComputation(20 * 1000));
+        
+        // Would hang if misses were serialized
+        Assert.assertEquals(1, cache.compute(ONE).intValue());
+        
+        blocking.release();
+        slow.join(20 * 1000);
+        
+        Assert.assertEquals(0, cache.compute(ZERO).intValue());
+        Assert.assertEquals(2, cache.getValueSize());
+        Assert.assertEquals(1, blocking.getNumComputations(ZERO));
+    }
+    
+    /**
+     * Ensures that concurrent misses of the same key wait on the
+     * computation in flight rather than computing the value again
+     */
+    @Test // @org.junit.Ignore
+    public void testConcurrentMissesComputeOnce() throws InterruptedException {
+        BlockingComputable blocking = new BlockingComputable(ZERO);
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(blocking, SMALL_CACHE_SIZE, false);
+        
+        Thread threads[] = new Thread[5];
+        for (int lcv = 0; lcv < threads.length; lcv++) {
+            threads[lcv] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    cache.compute(ZERO);
+                }
+                
+            });
+            
+            threads[lcv].start();
+        }
+        
+        Assert.assertTrue(blocking.waitForBlockedComputation(20 * 1000));
+        blocking.release();
+        
+        for (int lcv = 0; lcv < threads.length; lcv++) {
+            threads[lcv].join(20 * 1000);
+        }
+        
+        Assert.assertEquals(1, blocking.getNumComputations(ZERO));
+        Assert.assertEquals(1, cache.getValueSize());
+    }
+    
+    /**
+     * Ensures that a value computed while the key was released
+     * from the cache is not kept by the cache
+     */
+    @Test // @org.junit.Ignore
+    public void testReleaseDuringComputationIsNotCached() throws InterruptedException {
+        BlockingComputable blocking = new BlockingComputable(ZERO);
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(blocking, SMALL_CACHE_SIZE, false);
+        
+        Thread slow = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ZERO);
+            }
+            
+        });
+        slow.start();
+        
+        Assert.assertTrue(blocking.waitForBlockedComputation(20 * 1000));
+        
+        cache.remove(ZERO);
+        
+        blocking.release();
+        slow.join(20 * 1000);
+        
+        Assert.assertEquals(0, cache.getValueSize());
+        
+        Assert.assertEquals(0, cache.compute(ZERO).intValue());
+        Assert.assertEquals(2, blocking.getNumComputations(ZERO));
+        Assert.assertEquals(1, cache.getValueSize());
+    }
+    
+    /**
+     * Ensures that removing one key while another is being computed
+     * does not keep the value of the other key out of the cache
+     */
+    @Test // @org.junit.Ignore
+    public void testRemoveOfOtherKeyDuringComputationIsCached() throws InterruptedException {
+        BlockingComputable blocking = new BlockingComputable(ZERO);
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(blocking, SMALL_CACHE_SIZE, false);
+        
+        Thread slow = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ZERO);
+            }
+            
+        });
+        slow.start();
+        
+        Assert.assertTrue(blocking.waitForBlockedComputation(20 * 1000));
+        
+        cache.remove(ONE);
+        
+        blocking.release();
+        slow.join(20 * 1000);
+        
+        Assert.assertEquals(1, cache.getValueSize());
+        
+        Assert.assertEquals(0, cache.compute(ZERO).intValue());
+        Assert.assertEquals(1, blocking.getNumComputations(ZERO));
+    }
+    
+    /**
+     * Ensures that a miss after a key was released does not wait
+     * for the computation that started before the release
+     */
+    @Test // @org.junit.Ignore
+    public void testMissAfterReleaseDoesNotWaitOnStaleComputation() throws InterruptedException {
+        BlockingComputable blocking = new BlockingComputable(ZERO);
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(blocking, SMALL_CACHE_SIZE, false);
+        
+        Runnable computeZero = new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ZERO);
+            }
+            
+        };
+        
+        Thread slow = new Thread(computeZero);
+        slow.start();
+        
+        Assert.assertTrue(blocking.waitForBlockedComputation(20 * 1000));
+        
+        cache.remove(ZERO);
+        
+        Thread fresh = new Thread(computeZero);
+        fresh.start();
+        
+        // Would never compute again if it waited on the first computation
+        long giveUp = System.currentTimeMillis() + (20 * 1000);
+        while (blocking.getNumComputations(ZERO) < 2 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, blocking.getNumComputations(ZERO));
+        
+        blocking.release();
+        slow.join(20 * 1000);
+        fresh.join(20 * 1000);
+        
+        Assert.assertEquals(0, cache.compute(ZERO).intValue());
+        Assert.assertEquals(2, blocking.getNumComputations(ZERO));
+        Assert.assertEquals(1, cache.getValueSize());
+    }
+    
+    /**
+     * Ensures that two threads whose computations each need the key
+     * the other thread is computing do not wait on each other forever
+     */
+    @Test // @org.junit.Ignore
+    public void testCrossThreadComputationsDoNotDeadlock() throws InterruptedException {
+        CrossComputable crossing = new CrossComputable();
+        final WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(crossing, SMALL_CACHE_SIZE, false);
+        crossing.cache = cache;
+        
+        Thread zero = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ZERO);
+            }
+            
+        });
+        Thread one = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                cache.compute(ONE);
+            }
+            
+        });
+        zero.start();
+        one.start();
+        
+        zero.join(20 * 1000);
+        one.join(20 * 1000);
+        
+        Assert.assertFalse(zero.isAlive());
+        Assert.assertFalse(one.isAlive());
+        
+        Assert.assertEquals(0, cache.compute(ZERO).intValue());
+        Assert.assertEquals(1, cache.compute(ONE).intValue());
+    }
+    
+    /**
+     * Ensures that replace only replaces the value the caller expects
+     * and keeps the key where it is in the cache
+     */
+    @Test // @org.junit.Ignore
+    public void testReplaceExpectedValue() {
+        WeakCARCache<String, Integer> cache = CacheUtilities.createWeakCARCache(TO_INTEGER, SMALL_CACHE_SIZE, false);
+        
+        Integer original = cache.compute(ONE);
+        Integer replacement = new Integer(1);
+        
+        Assert.assertFalse(cache.replace(ONE, new Integer(1), new Integer(1)));
+        Assert.assertFalse(cache.replace(TWO, original, replacement));
+        Assert.assertSame(original, cache.compute(ONE));
+        
+        Assert.assertTrue(cache.replace(ONE, original, replacement));
+        Assert.assertSame(replacement, cache.compute(ONE));
+        
+        // The stale value is no longer there to be replaced
+        Assert.assertFalse(cache.replace(ONE, original, new Integer(1)));
+        
+        Assert.assertEquals(1, cache.getValueSize());
+        Assert.assertEquals(1, cache.getT1Size());
+    }
+    
     private final static int CONCURRENT_ITERATIONS = 100000;
     
     private static class Runner implements Runnable {
@@ -883,6 +1126,91 @@ public class WeakCARCacheTest {
         
     }
     
+    /**
+     * Blocks the computation of a single key until released
+     */
+    private static class BlockingComputable implements Computable<String, Integer> {
+        private final String blockMe;
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final ConcurrentHashMap<String, AtomicInteger> computations =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        
+        private BlockingComputable(String blockMe) {
+            this.blockMe = blockMe;
+        }
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.utilities.cache.Computable#compute(java.lang.Object)
+         */
+        @Override
+        public Integer compute(String key) {
+            computations.putIfAbsent(key, new AtomicInteger());
+            computations.get(key).incrementAndGet();
+            
+            if (blockMe.equals(key) && (released.getCount() > 0)) {
+                blocked.countDown();
+                
+                try {
+                    released.await(20, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            
+            return Integer.parseInt(key);
+        }
+        
+        private boolean waitForBlockedComputation(long waitMillis) throws InterruptedException {
+            return blocked.await(waitMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        private void release() {
+            released.countDown();
+        }
+        
+        private int getNumComputations(String key) {
+            AtomicInteger retVal = computations.get(key);
+            if (retVal == null) return 0;
+            return retVal.get();
+        }
+    }
+    
+    /**
+     * The first computation of ZERO needs ONE and the first computation of
+     * ONE needs ZERO, and both first computations are in flight before
+     * either of them asks for the other key
+     */
+    private static class CrossComputable implements Computable<String, Integer> {
+        private final CountDownLatch bothStarted = new CountDownLatch(2);
+        private final ConcurrentHashMap<String, AtomicInteger> computations =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private volatile WeakCARCache<String, Integer> cache;
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.utilities.cache.Computable#compute(java.lang.Object)
+         */
+        @Override
+        public Integer compute(String key) {
+            computations.putIfAbsent(key, new AtomicInteger());
+            if (computations.get(key).incrementAndGet() == 1) {
+                bothStarted.countDown();
+                
+                try {
+                    bothStarted.await(20, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                
+                cache.compute(ZERO.equals(key) ? ONE : ZERO);
+            }
+            
+            return Integer.parseInt(key);
+        }
+    }
+    
     private static class ReflectiveComputable<I> implements Computable<I, I> {
 
         /* (non-Javadoc)
@@ -39,6 +39,10 @@
  */
 package org.glassfish.hk2.utilities.test;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.glassfish.hk2.utilities.general.GeneralUtilities;
 import org.glassfish.hk2.utilities.general.Hk2ThreadLocal;
 import org.junit.Assert;
@@ -271,6 +275,65 @@ public class GeneralUtilitiesTest {
         Assert.assertNull(threadLocal.get());
     }
     
+    /**
+     * Tests that the values of threads that have terminated
+     * do not accumulate as threads come and go
+     */
+    @Test
+    public void testValuesOfTerminatedThreadsAreRemoved() throws InterruptedException {
+        final List<WeakReference<Object>> values = new ArrayList<WeakReference<Object>>();
+        final Hk2ThreadLocal<Object> threadLocal = new Hk2ThreadLocal<Object>() {
+            @Override
+            protected Object initialValue() {
+                Object retVal = new Object();
+                synchronized (values) {
+                    values.add(new WeakReference<Object>(retVal));
+                }
+                
+                return retVal;
+            }
+        };
+        
+        for (int lcv = 0; lcv < 200; lcv++) {
+            Thread t = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    threadLocal.get();
+                }
+                
+            });
+            
+            t.start();
+            t.join();
+        }
+        
+        Assert.assertEquals(200, values.size());
+        
+        // Only the values of threads since the last cleaning may still be held
+        int held = getHeld(values);
+        int counter = 0;
+        while ((held >= 64) && (counter < 200)) {
+            System.gc();
+            
+            Thread.sleep(100);
+            
+            held = getHeld(values);
+            counter++;
+        }
+        
+        Assert.assertTrue("Held was " + held, held < 64);
+    }
+    
+    private static int getHeld(List<WeakReference<Object>> values) {
+        int retVal = 0;
+        for (WeakReference<Object> value : values) {
+            if (value.get() != null) retVal++;
+        }
+        
+        return retVal;
+    }
+    
     private static class ThreadGetter implements Runnable {
         private final ThreadService threadService;
         private Long tid;